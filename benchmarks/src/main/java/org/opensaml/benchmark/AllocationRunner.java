@@ -0,0 +1,55 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the selected benchmarks with the JMH GC profiler, which reports the number of bytes allocated per operation as
+ * <code>gc.alloc.rate.norm</code>. The results are written to <code>allocation.json</code> as described by
+ * {@link BenchmarkResults}.
+ * 
+ * Usage: <code>java -cp target/benchmarks.jar org.opensaml.benchmark.AllocationRunner [benchmark regexp]</code>
+ */
+public final class AllocationRunner {
+
+    /** Constructor. */
+    private AllocationRunner() {
+    }
+
+    /**
+     * Runs the benchmarks.
+     * 
+     * @param args optional regular expression selecting the benchmarks to run, defaults to the replay cache benchmarks
+     * 
+     * @throws RunnerException thrown if a benchmark can not be run
+     */
+    public static void main(String[] args) throws RunnerException {
+        String include = "org.opensaml.util.storage.ReplayCacheBenchmark";
+        if (args.length > 0) {
+            include = args[0];
+        }
+
+        Options options = BenchmarkResults.writeTo(new OptionsBuilder().include(include).addProfiler(
+                GCProfiler.class), "allocation").build();
+        new Runner(options).run();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,54 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.benchmark;
+
+import java.io.File;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+
+/**
+ * Directs benchmark results to JSON files so that they may be compared across releases, e.g. with the JMH
+ * visualizer. Results are written to the directory named by the <code>benchmark.results</code> system property,
+ * <code>target/benchmark-results</code> by default.
+ */
+public final class BenchmarkResults {
+
+    /** System property naming the directory results are written to. */
+    public static final String RESULTS_DIRECTORY_PROPERTY = "benchmark.results";
+
+    /** Default directory results are written to. */
+    public static final String DEFAULT_RESULTS_DIRECTORY = "target/benchmark-results";
+
+    /** Constructor. */
+    private BenchmarkResults() {
+    }
+
+    /**
+     * Configures a benchmark run to write its results as JSON.
+     * 
+     * @param options options of the run
+     * @param name name of the results file, without extension
+     * 
+     * @return the options
+     */
+    public static ChainedOptionsBuilder writeTo(ChainedOptionsBuilder options, String name) {
+        File directory = new File(System.getProperty(RESULTS_DIRECTORY_PROPERTY, DEFAULT_RESULTS_DIRECTORY));
+        directory.mkdirs();
+        return options.result(new File(directory, name + ".json").getPath()).resultFormat(ResultFormatType.JSON);
+    }
+}
\ No newline at end of file
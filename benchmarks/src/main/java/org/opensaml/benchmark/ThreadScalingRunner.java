@@ -0,0 +1,59 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.benchmark;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the selected benchmarks once for each of 1, 2, 4, 8, 16, 32 and 64 threads so that implementations may be
+ * compared as contention grows. The results of each thread count are written to
+ * <code>threads-<em>N</em>.json</code> as described by {@link BenchmarkResults}.
+ * 
+ * Usage: <code>java -cp target/benchmarks.jar org.opensaml.benchmark.ThreadScalingRunner [benchmark regexp]</code>
+ */
+public final class ThreadScalingRunner {
+
+    /** Thread counts each benchmark is run with. */
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+
+    /** Constructor. */
+    private ThreadScalingRunner() {
+    }
+
+    /**
+     * Runs the benchmarks.
+     * 
+     * @param args optional regular expression selecting the benchmarks to run, defaults to all storage benchmarks
+     * 
+     * @throws RunnerException thrown if a benchmark can not be run
+     */
+    public static void main(String[] args) throws RunnerException {
+        String include = "org.opensaml.util.storage.StorageServiceBenchmark";
+        if (args.length > 0) {
+            include = args[0];
+        }
+
+        for (int threads : THREAD_COUNTS) {
+            Options options = BenchmarkResults.writeTo(new OptionsBuilder().include(include).threads(threads),
+                    "threads-" + threads).build();
+            new Runner(options).run();
+        }
+    }
+}
\ No newline at end of file
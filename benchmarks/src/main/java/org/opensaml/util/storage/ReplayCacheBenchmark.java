@@ -0,0 +1,135 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensaml.util.storage.ReplayCache.ReplayCacheEntry;
+import org.opensaml.util.storage.StorageServiceBenchmark.KeyCursor;
+
+/**
+ * Measures the cost of {@link ReplayCache#isReplay(String, String)} over different storage services. Run with the
+ * JMH GC profiler, e.g. via {@link org.opensaml.benchmark.AllocationRunner}, to compare the number of bytes allocated
+ * per check: checks against storage implementing {@link HashedReplayStore} should allocate close to nothing. The
+ * {@code filter} parameter places a {@link ReplayFilter} in front of the storage, which mostly benefits checks of new
+ * messages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplayCacheBenchmark {
+
+    /** Issuer of the checked messages. */
+    private static final String ISSUER = "https://idp.example.org/idp/shibboleth";
+
+    /** Storage service implementation backing the replay cache. */
+    @Param({"map", "concurrent", "offheap"})
+    public String implementation;
+
+    /** Whether a {@link ReplayFilter} is placed in front of the storage service, "none" or "bloom". */
+    @Param({"none", "bloom"})
+    public String filter;
+
+    /** Number of distinct message IDs checked, half of which have been seen before the benchmark starts. */
+    @Param({"100000"})
+    public int messageCount;
+
+    /** Replay cache under test. */
+    private ReplayCache replayCache;
+
+    /** Message IDs checked by the benchmark. */
+    private String[] messageIds;
+
+    /** Source of message IDs that have never been checked. */
+    private final AtomicLong freshIds = new AtomicLong();
+
+    /** Creates the replay cache and records half of the message IDs. */
+    @Setup
+    public void setUp() {
+        StorageService<String, ReplayCacheEntry> storageService;
+        if ("offheap".equals(implementation)) {
+            storageService = new OffHeapReplayStorageService(messageCount);
+        } else {
+            storageService = StorageServiceBenchmark.newStorageService(implementation);
+        }
+
+        // entries outlive the benchmark so that each ID keeps the same outcome throughout
+        long duration = TimeUnit.SECONDS.toMillis(3600);
+        ReplayFilter replayFilter = null;
+        if ("bloom".equals(filter)) {
+            replayFilter = new ReplayFilter(messageCount * 100L, 0.01, duration);
+        }
+        replayCache = new ReplayCache(storageService, null, duration, replayFilter);
+        messageIds = new String[messageCount];
+        for (int i = 0; i < messageCount; i++) {
+            messageIds[i] = "_" + Long.toHexString(i * 0x9E3779B97F4A7C15L);
+            if (i % 2 == 0) {
+                replayCache.isReplay(ISSUER, messageIds[i]);
+            }
+        }
+    }
+
+    /**
+     * Benchmarks a replay check of a message that has been seen before.
+     * 
+     * @param cursor per-thread message cursor
+     * 
+     * @return true
+     */
+    @Benchmark
+    public boolean replay(KeyCursor cursor) {
+        return replayCache.isReplay(ISSUER, messageIds[cursor.next(messageCount) & ~1]);
+    }
+
+    /**
+     * Benchmarks a replay check of a message drawn from all of the message IDs, each of which is new only the first
+     * time it is checked.
+     * 
+     * @param cursor per-thread message cursor
+     * 
+     * @return whether the message was a replay
+     */
+    @Benchmark
+    public boolean mixed(KeyCursor cursor) {
+        return replayCache.isReplay(ISSUER, messageIds[cursor.next(messageCount)]);
+    }
+
+    /**
+     * Benchmarks a replay check of a message that has never been seen before.
+     * 
+     * @return false
+     */
+    @Benchmark
+    public boolean fresh() {
+        return replayCache.isReplay(ISSUER, "_fresh" + freshIds.incrementAndGet());
+    }
+}
\ No newline at end of file
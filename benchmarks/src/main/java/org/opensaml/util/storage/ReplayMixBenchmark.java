@@ -0,0 +1,137 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensaml.util.storage.ReplayCache.ReplayCacheEntry;
+import org.opensaml.util.storage.StorageServiceBenchmark.KeyCursor;
+
+/**
+ * Measures the throughput of {@link ReplayCache#isReplay(String, String)} under a steady stream of messages, a given
+ * percentage of which are replays of recently seen messages and the rest new. Entries expire after a few seconds and
+ * are swept in the background, as in a long running deployment, so the size of the store stays stable. Run with
+ * varying thread counts, e.g. via {@link org.opensaml.benchmark.ThreadScalingRunner}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplayMixBenchmark {
+
+    /** Issuer of the checked messages. */
+    private static final String ISSUER = "https://idp.example.org/idp/shibboleth";
+
+    /** Time, in milliseconds, that entries are retained. */
+    private static final long ENTRY_DURATION = 5000;
+
+    /** Number of recent message IDs replays are drawn from. */
+    private static final int RECENT_MESSAGES = 65536;
+
+    /** Storage service implementation backing the replay cache. */
+    @Param({"concurrent", "indexed", "offheap"})
+    public String implementation;
+
+    /** Percentage of checks that are replays. */
+    @Param({"0", "10", "50", "90"})
+    public int replayPercent;
+
+    /** Replay cache under test. */
+    private ReplayCache replayCache;
+
+    /** Executor sweeping expired entries, or null if the store needs no sweeping. */
+    private ScheduledExecutorService sweepExecutor;
+
+    /** Recently checked message IDs, overwritten as new messages are checked. */
+    private String[] recentIds;
+
+    /** Source of new message IDs. */
+    private final AtomicLong nextId = new AtomicLong();
+
+    /** Creates the replay cache and records an initial set of recent messages. */
+    @Setup
+    public void setUp() {
+        StorageService<String, ReplayCacheEntry> storageService;
+        if ("offheap".equals(implementation)) {
+            storageService = new OffHeapReplayStorageService(4 * 1024 * 1024);
+        } else {
+            storageService = StorageServiceBenchmark.newStorageService(implementation);
+            sweepExecutor = Executors.newSingleThreadScheduledExecutor();
+            new ExpiringObjectStorageServiceSweeper(sweepExecutor, 100, storageService);
+        }
+
+        replayCache = new ReplayCache(storageService, ENTRY_DURATION);
+        recentIds = new String[RECENT_MESSAGES];
+        for (int i = 0; i < RECENT_MESSAGES; i++) {
+            recentIds[i] = newId();
+            replayCache.isReplay(ISSUER, recentIds[i]);
+        }
+    }
+
+    /** Stops sweeping. */
+    @TearDown
+    public void tearDown() {
+        if (sweepExecutor != null) {
+            sweepExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Benchmarks a replay check of either a recently seen or a new message.
+     * 
+     * @param cursor per-thread message cursor
+     * 
+     * @return whether the message was a replay
+     */
+    @Benchmark
+    public boolean check(KeyCursor cursor) {
+        int slot = cursor.next(RECENT_MESSAGES);
+        if (cursor.next(100) < replayPercent) {
+            return replayCache.isReplay(ISSUER, recentIds[slot]);
+        }
+
+        String messageId = newId();
+        recentIds[slot] = messageId;
+        return replayCache.isReplay(ISSUER, messageId);
+    }
+
+    /**
+     * Generates a message ID not used before.
+     * 
+     * @return the message ID
+     */
+    private String newId() {
+        return "_" + Long.toHexString(nextId.incrementAndGet() * 0x9E3779B97F4A7C15L);
+    }
+}
\ No newline at end of file
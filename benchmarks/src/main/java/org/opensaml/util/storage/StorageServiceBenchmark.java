@@ -0,0 +1,195 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the throughput of the basic {@link StorageService} operations across implementations. Run with varying
+ * thread counts, e.g. via {@link org.opensaml.benchmark.ThreadScalingRunner}, to compare how each implementation scales.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageServiceBenchmark {
+
+    /** Partition used by the benchmark. */
+    private static final String PARTITION = "benchmark";
+
+    /** Storage service implementation under test. */
+    @Param({"map", "concurrent", "indexed"})
+    public String implementation;
+
+    /** Number of distinct keys used by the benchmark, half of which are present in the store. */
+    @Param({"100000"})
+    public int keyCount;
+
+    /** Storage service under test. */
+    private StorageService<String, String> storageService;
+
+    /** Keys used by the benchmark. */
+    private String[] keys;
+
+    /**
+     * Creates a storage service by its short implementation name.
+     * 
+     * @param <ValueType> object type of the values
+     * @param implementation short name of the implementation
+     * 
+     * @return the storage service
+     */
+    public static <ValueType> StorageService<String, ValueType> newStorageService(String implementation) {
+        if ("map".equals(implementation)) {
+            return new MapBasedStorageService<String, ValueType>();
+        } else if ("concurrent".equals(implementation)) {
+            return new ConcurrentMapBasedStorageService<String, ValueType>();
+        } else if ("indexed".equals(implementation)) {
+            return new ExpiryIndexedStorageService<String, ValueType>();
+        }
+
+        throw new IllegalArgumentException("Unknown storage service implementation: " + implementation);
+    }
+
+    /** Creates and half-populates the storage service. */
+    @Setup
+    public void setUp() {
+        storageService = newStorageService(implementation);
+        keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "_" + Integer.toHexString(i * 0x9E3779B9);
+            if (i % 2 == 0) {
+                storageService.put(PARTITION, keys[i], keys[i]);
+            }
+        }
+    }
+
+    /**
+     * Benchmarks a lookup of a key that is present half the time.
+     * 
+     * @param cursor per-thread key cursor
+     * 
+     * @return the looked up value
+     */
+    @Benchmark
+    public String get(KeyCursor cursor) {
+        return storageService.get(PARTITION, keys[cursor.next(keyCount)]);
+    }
+
+    /**
+     * Benchmarks an unconditional write.
+     * 
+     * @param cursor per-thread key cursor
+     * 
+     * @return the previous value
+     */
+    @Benchmark
+    public String put(KeyCursor cursor) {
+        String key = keys[cursor.next(keyCount)];
+        return storageService.put(PARTITION, key, key);
+    }
+
+    /**
+     * Benchmarks a conditional write.
+     * 
+     * @param cursor per-thread key cursor
+     * 
+     * @return the existing value
+     */
+    @Benchmark
+    public String putIfAbsent(KeyCursor cursor) {
+        String key = keys[cursor.next(keyCount)];
+        return storageService.putIfAbsent(PARTITION, key, key);
+    }
+
+    /**
+     * Benchmarks a removal, restoring the entry so the size of the store stays stable.
+     * 
+     * @param cursor per-thread key cursor
+     * 
+     * @return the removed value
+     */
+    @Benchmark
+    public String removeAndRestore(KeyCursor cursor) {
+        String key = keys[cursor.next(keyCount)];
+        String value = storageService.remove(PARTITION, key);
+        if (value != null) {
+            storageService.put(PARTITION, key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Benchmarks a read-mostly mix of nine lookups to each write.
+     * 
+     * @param cursor per-thread key cursor
+     * 
+     * @return the looked up or previous value
+     */
+    @Benchmark
+    public String readMostly(KeyCursor cursor) {
+        int index = cursor.next(keyCount);
+        String key = keys[index];
+        if (index % 10 == 0) {
+            return storageService.put(PARTITION, key, key);
+        }
+        return storageService.get(PARTITION, key);
+    }
+
+    /** Per-thread pseudo-random key cursor. */
+    @State(Scope.Thread)
+    public static class KeyCursor {
+
+        /** Current xorshift state. */
+        private int state;
+
+        /** Seeds the cursor. */
+        @Setup
+        public void setUp() {
+            state = new Random().nextInt() | 1;
+        }
+
+        /**
+         * Gets the next key index.
+         * 
+         * @param bound exclusive upper bound of the index
+         * 
+         * @return the next key index
+         */
+        public int next(int bound) {
+            state ^= state << 13;
+            state ^= state >>> 17;
+            state ^= state << 5;
+            return (state & Integer.MAX_VALUE) % bound;
+        }
+    }
+}
\ No newline at end of file
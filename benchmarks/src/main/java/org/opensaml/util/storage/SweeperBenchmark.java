@@ -0,0 +1,110 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.util.Timer;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensaml.util.storage.ReplayCache.ReplayCacheEntry;
+
+/**
+ * Measures the time taken by one sweep of {@link ExpiringObjectStorageServiceSweeper} as the size of the store and the
+ * proportion of expired entries grow. Sweeps of an {@link ExpiryIndexedStorageService} should cost in proportion to
+ * the number of expired entries, sweeps of other stores in proportion to the size of the store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SweeperBenchmark {
+
+    /** Partition used by the benchmark. */
+    private static final String PARTITION = "benchmark";
+
+    /** Storage service implementation swept. */
+    @Param({"map", "concurrent", "indexed"})
+    public String implementation;
+
+    /** Number of entries in the store when it is swept. */
+    @Param({"10000", "100000", "1000000"})
+    public int entryCount;
+
+    /** Percentage of the entries that have expired when the store is swept. */
+    @Param({"1", "10"})
+    public int expiredPercent;
+
+    /** Timer the sweeper is registered with, never allowed to run it. */
+    private Timer timer;
+
+    /** Store swept. */
+    private StorageService<String, ReplayCacheEntry> storageService;
+
+    /** Sweeper under test. */
+    private ExpiringObjectStorageServiceSweeper sweeper;
+
+    /** Fills a new store with live and expired entries. */
+    @Setup(Level.Invocation)
+    public void setUp() {
+        storageService = StorageServiceBenchmark.newStorageService(implementation);
+        ReplayCacheEntry live = new ReplayCacheEntry(new DateTime().plusHours(1));
+        ReplayCacheEntry expired = new ReplayCacheEntry(new DateTime().minusSeconds(1));
+        for (int i = 0; i < entryCount; i++) {
+            String key = "_" + Integer.toHexString(i * 0x9E3779B9);
+            if (i % 100 < expiredPercent) {
+                storageService.put(PARTITION, key, expired);
+            } else {
+                storageService.put(PARTITION, key, live);
+            }
+        }
+
+        timer = new Timer(true);
+        sweeper = new ExpiringObjectStorageServiceSweeper(timer, TimeUnit.HOURS.toMillis(1), storageService);
+    }
+
+    /** Stops the timer. */
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        timer.cancel();
+    }
+
+    /**
+     * Benchmarks one sweep of the store.
+     * 
+     * @return number of entries removed
+     */
+    @Benchmark
+    public long sweep() {
+        sweeper.run();
+        return sweeper.getLastRemovedEntries();
+    }
+}
\ No newline at end of file
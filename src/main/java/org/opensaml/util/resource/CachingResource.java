@@ -0,0 +1,434 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.resource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A resource that caches the content of another resource in memory, so that it is read once however many consumers
+ * read it, and optionally caches objects parsed from that content, so that it is also parsed once per parser.
+ * 
+ * The content is read in full the first time it is requested, and kept on the Java heap, in a direct buffer outside
+ * of it, or, for a {@link FilesystemResource}, as a read only memory mapping of the file. A mapped file must be
+ * replaced, for example by renaming a new file over it, rather than rewritten in place. Objects parsed from the
+ * content, such as DOM documents, are cached per {@link ContentParser}; concurrent requests for the same parser share a
+ * single parse. The parser is the key of its cached object, so it must be a long-lived instance shared by all callers;
+ * a new parser per request is never served from the cache and caches another object until the next invalidation. A
+ * parsed object is shared by every caller, so it must be treated as read only, and an object that is not safe to read
+ * concurrently, such as a DOM document, must also be read under synchronization shared by all callers or be copied by
+ * each caller, for example with {@link org.w3c.dom.Node#cloneNode(boolean)}.
+ * 
+ * Cached content is kept until {@link #invalidate()} is called. The resource is a {@link ResourceChangeListener} that
+ * invalidates itself on every change, so the cache can be kept current by registering it with a
+ * {@link ResourceChangeWatcher} of the underlying resource. The watcher must watch the underlying resource rather than
+ * this one, as content read through this resource is the cached content. Existence, modification time and location
+ * are always those of the underlying resource.
+ */
+public class CachingResource implements Resource, ResourceChangeListener {
+
+    /** Where cached content is kept. */
+    public enum ContentStorage {
+        /** On the Java heap. */
+        HEAP,
+
+        /** In a direct buffer outside the Java heap. */
+        DIRECT,
+
+        /** In a read only memory mapping of the file of a {@link FilesystemResource}, on the heap for others. */
+        MAPPED
+    }
+
+    /**
+     * Parses the content of a resource into an object. A parser is the key of the object it parses, compared by
+     * {@link Object#equals(Object)}, so parsers should be shared instances, or implement equality so that parsers
+     * producing the same object are equal.
+     * 
+     * @param <T> type of the object parsed from the content
+     */
+    public interface ContentParser<T> {
+
+        /**
+         * Parses the content of a resource.
+         * 
+         * @param content the content of the resource, closed by the caller
+         * 
+         * @return the object parsed from the content
+         * 
+         * @throws ResourceException thrown if the content can not be parsed
+         */
+        public T parse(InputStream content) throws ResourceException;
+    }
+
+    /** Size of the buffer used to read the underlying resource. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(CachingResource.class);
+
+    /** The underlying resource. */
+    private final Resource resource;
+
+    /** Where cached content is kept. */
+    private final ContentStorage storage;
+
+    /** Cached content, or null if not loaded. */
+    private volatile CachedContent cachedContent;
+
+    /** Number of times the cache has been invalidated, used to discard content loaded while being invalidated. */
+    private final AtomicLong generation;
+
+    /**
+     * Constructor. Content is cached on the Java heap.
+     * 
+     * @param underlyingResource the resource whose content is cached
+     */
+    public CachingResource(Resource underlyingResource) {
+        this(underlyingResource, ContentStorage.HEAP);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param underlyingResource the resource whose content is cached
+     * @param contentStorage where cached content is kept
+     */
+    public CachingResource(Resource underlyingResource, ContentStorage contentStorage) {
+        if (underlyingResource == null) {
+            throw new IllegalArgumentException("Underlying resource may not be null");
+        }
+        if (contentStorage == null) {
+            throw new IllegalArgumentException("Content storage may not be null");
+        }
+
+        resource = underlyingResource;
+        storage = contentStorage;
+        generation = new AtomicLong();
+    }
+
+    /**
+     * Gets the resource whose content is cached.
+     * 
+     * @return the resource whose content is cached
+     */
+    public Resource getUnderlyingResource() {
+        return resource;
+    }
+
+    /**
+     * Gets where cached content is kept.
+     * 
+     * @return where cached content is kept
+     */
+    public ContentStorage getContentStorage() {
+        return storage;
+    }
+
+    /** {@inheritDoc} */
+    public boolean exists() throws ResourceException {
+        return resource.exists();
+    }
+
+    /** {@inheritDoc} */
+    public InputStream getInputStream() throws ResourceException {
+        return new ByteBufferInputStream(getCachedContent().content.duplicate());
+    }
+
+    /** {@inheritDoc} */
+    public DateTime getLastModifiedTime() throws ResourceException {
+        return resource.getLastModifiedTime();
+    }
+
+    /** {@inheritDoc} */
+    public String getLocation() {
+        return resource.getLocation();
+    }
+
+    /**
+     * Gets the object parsed from the content of the resource by the given parser, parsing the content if the object
+     * is not cached. The parsed object is shared by all callers, so it must not be modified. DOM implementations are
+     * not thread safe even for reads, so a parsed DOM document must only be read while synchronized on a lock shared by
+     * all callers, such as the document itself, or be cloned, for example with
+     * {@link org.w3c.dom.Node#cloneNode(boolean)}, and the clone used instead.
+     * 
+     * @param <T> type of the object parsed from the content
+     * @param parser the parser, used as the key of the cached object; a long-lived instance shared by all callers, as a
+     *            new instance per call would cache a new object on every call
+     * 
+     * @return the object parsed from the content
+     * 
+     * @throws ResourceException thrown if the content can not be read or parsed
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getParsedContent(final ContentParser<T> parser) throws ResourceException {
+        final CachedContent content = getCachedContent();
+
+        FutureTask<Object> task = content.parsed.get(parser);
+        if (task == null) {
+            FutureTask<Object> newTask = new FutureTask<Object>(new Callable<Object>() {
+                public Object call() throws ResourceException {
+                    log.debug("Parsing cached content of resource {}", resource.getLocation());
+                    return parser.parse(new ByteBufferInputStream(content.content.duplicate()));
+                }
+            });
+            task = content.parsed.putIfAbsent(parser, newTask);
+            if (task == null) {
+                task = newTask;
+                newTask.run();
+            }
+        }
+
+        try {
+            return (T) task.get();
+        } catch (ExecutionException e) {
+            content.parsed.remove(parser, task);
+            if (e.getCause() instanceof ResourceException) {
+                throw (ResourceException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new ResourceException("Unable to parse content of resource " + resource.getLocation(),
+                    (Exception) e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResourceException("Interrupted while waiting for content of resource " + resource.getLocation());
+        }
+    }
+
+    /** Discards the cached content and parsed objects, so that they are read and parsed again when next requested. */
+    public void invalidate() {
+        generation.incrementAndGet();
+        cachedContent = null;
+        log.debug("Invalidated cached content of resource {}", resource.getLocation());
+    }
+
+    /** {@inheritDoc} */
+    public void onResourceCreate(Resource changedResource) {
+        invalidate();
+    }
+
+    /** {@inheritDoc} */
+    public void onResourceUpdate(Resource changedResource) {
+        invalidate();
+    }
+
+    /** {@inheritDoc} */
+    public void onResourceDelete(Resource changedResource) {
+        invalidate();
+    }
+
+    /** {@inheritDoc} */
+    public String toString() {
+        return getLocation();
+    }
+
+    /** {@inheritDoc} */
+    public int hashCode() {
+        return resource.hashCode();
+    }
+
+    /** {@inheritDoc} */
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+
+        if (o instanceof CachingResource) {
+            return resource.equals(((CachingResource) o).resource);
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets the cached content, loading it if it is not cached.
+     * 
+     * @return the cached content
+     * 
+     * @throws ResourceException thrown if the content can not be read
+     */
+    private CachedContent getCachedContent() throws ResourceException {
+        CachedContent content = cachedContent;
+        if (content != null) {
+            return content;
+        }
+
+        synchronized (this) {
+            content = cachedContent;
+            if (content == null) {
+                long loadedGeneration = generation.get();
+                content = new CachedContent(loadContent());
+                if (loadedGeneration == generation.get()) {
+                    cachedContent = content;
+                }
+            }
+            return content;
+        }
+    }
+
+    /**
+     * Reads the content of the underlying resource into a buffer of the configured storage.
+     * 
+     * @return buffer holding the content
+     * 
+     * @throws ResourceException thrown if the content can not be read
+     */
+    private ByteBuffer loadContent() throws ResourceException {
+        log.debug("Caching content of resource {}", resource.getLocation());
+        try {
+            if (storage == ContentStorage.MAPPED && resource instanceof FilesystemResource) {
+                return mapFile();
+            }
+
+            byte[] bytes = readFully();
+            if (storage == ContentStorage.DIRECT) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+                buffer.put(bytes);
+                buffer.flip();
+                return buffer;
+            }
+            return ByteBuffer.wrap(bytes);
+        } catch (IOException e) {
+            throw new ResourceException("Unable to read content of resource " + resource.getLocation(), e);
+        }
+    }
+
+    /**
+     * Maps the file of the underlying filesystem resource into memory.
+     * 
+     * @return buffer mapping the file
+     * 
+     * @throws IOException thrown if the file can not be mapped
+     */
+    private ByteBuffer mapFile() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(resource.getLocation(), "r");
+        try {
+            FileChannel channel = file.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Reads the content of the underlying resource.
+     * 
+     * @return the content
+     * 
+     * @throws ResourceException thrown if the resource can not be opened
+     * @throws IOException thrown if the content can not be read
+     */
+    private byte[] readFully() throws ResourceException, IOException {
+        InputStream in = resource.getInputStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read = in.read(buffer);
+            while (read != -1) {
+                out.write(buffer, 0, read);
+                read = in.read(buffer);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Content cached at one time, with the objects parsed from it. */
+    private static class CachedContent {
+
+        /** The content. */
+        private final ByteBuffer content;
+
+        /** Objects parsed from the content, keyed by parser. */
+        private final ConcurrentMap<ContentParser<?>, FutureTask<Object>> parsed;
+
+        /**
+         * Constructor.
+         * 
+         * @param buffer the content
+         */
+        public CachedContent(ByteBuffer buffer) {
+            content = buffer;
+            parsed = new ConcurrentHashMap<ContentParser<?>, FutureTask<Object>>();
+        }
+    }
+
+    /** An input stream reading a byte buffer from its position to its limit. */
+    private static class ByteBufferInputStream extends InputStream {
+
+        /** The buffer. */
+        private final ByteBuffer buffer;
+
+        /**
+         * Constructor.
+         * 
+         * @param source the buffer, whose position is advanced as it is read
+         */
+        public ByteBufferInputStream(ByteBuffer source) {
+            buffer = source;
+        }
+
+        /** {@inheritDoc} */
+        public int read() {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            return buffer.get() & 0xff;
+        }
+
+        /** {@inheritDoc} */
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        /** {@inheritDoc} */
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        /** {@inheritDoc} */
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
\ No newline at end of file
@@ -16,32 +16,69 @@
 
 package org.opensaml.util.resource;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
+import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.joda.time.DateTime;
 import org.opensaml.xml.util.DatatypeHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A resource representing a file read from an HTTP(S) location.  Every time the file is successfully read 
  * from the URL location it is written to a backing file.  If the file can not be read from the URL it is 
  * read from this backing file, if available.
  * 
- * Note, large files should not be accessed in this manner as the entire file is read into memory before 
- * being written to disk and then returned.
+ * The content is streamed from the response straight into a temporary file beside the backing file, which then
+ * atomically replaces it, and is always read back from the backing file. The content is never held in memory, so
+ * memory use does not depend on the size of the resource, and an interrupted transfer never damages the backing file.
+ * 
+ * The backing file normally holds the decoded content. If compressed storage is enabled the content is instead held
+ * gzip compressed, as received from the server when the server sent it gzip encoded, in a file named after the backing
+ * file with a <code>.gz</code> suffix, and it is decompressed as it is read. Writing the content in one form deletes
+ * any file holding it in the other, and the name of the file records which form it is in, so content stored either way
+ * is read correctly whatever the setting, and content that is itself gzip data is never mistaken for compressed
+ * storage.
  */
 public class FileBackedHttpResource extends HttpResource {
 
+    /** Maximum number of bytes transferred from the response to the file at a time. */
+    private static final long TRANSFER_SIZE = 1024 * 1024;
+
+    /** Size of the buffer used to compress content. */
+    private static final int BUFFER_SIZE = 65536;
+
+    /** Suffix of the name of the file holding the content gzip compressed. */
+    private static final String COMPRESSED_SUFFIX = ".gz";
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(FileBackedHttpResource.class);
+
+    /** Whether the backing file holds the content gzip compressed. */
+    private boolean storeCompressed;
+
     /** Filesystem location to store the resource. */
     private String resourceFilePath;
 
     /** Backing resource file. */
     private File resourceFile;
 
+    /** Backing resource file holding the content gzip compressed. */
+    private File compressedResourceFile;
+
     /**
      * Constructor.
      * 
@@ -49,7 +86,18 @@ public class FileBackedHttpResource extends HttpResource {
      * @param backingFile filesystem location to store the resource
      */
     public FileBackedHttpResource(String resource, String backingFile) {
-        super(resource);
+        this(resource, HttpResourceClientFactory.getSharedHttpClient(), backingFile);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param resource HTTP(S) URL of the resource
+     * @param client client used to retrieve the resource, which should use a thread safe connection manager if shared
+     * @param backingFile filesystem location to store the resource
+     */
+    public FileBackedHttpResource(String resource, HttpClient client, String backingFile) {
+        super(resource, client);
 
         resourceFilePath = DatatypeHelper.safeTrimOrNullString(backingFile);
         if (resourceFilePath == null) {
@@ -57,12 +105,31 @@ public class FileBackedHttpResource extends HttpResource {
         }
 
         resourceFile = new File(resourceFilePath);
+        compressedResourceFile = new File(resourceFilePath + COMPRESSED_SUFFIX);
+    }
+
+    /**
+     * Gets whether the backing file holds the content gzip compressed.
+     * 
+     * @return whether the backing file holds the content gzip compressed
+     */
+    public boolean isStoreCompressed() {
+        return storeCompressed;
+    }
+
+    /**
+     * Sets whether the backing file holds the content gzip compressed. Disabled by default.
+     * 
+     * @param compressed whether the backing file holds the content gzip compressed
+     */
+    public void setStoreCompressed(boolean compressed) {
+        storeCompressed = compressed;
     }
 
     /** {@inheritDoc} */
     public boolean exists() throws ResourceException {
         if (!super.exists()) {
-            return resourceFile.exists();
+            return getStoredResourceFile() != null;
         }
 
         return true;
@@ -72,15 +139,27 @@ public class FileBackedHttpResource extends HttpResource {
     public InputStream getInputStream() throws ResourceException {
         try {
             GetMethod getMethod = super.getResource();
-            byte[] response = getMethod.getResponseBody();
-            saveToResourceFile(response);
-            return getMethod.getResponseBodyAsStream();
-        } catch (Exception e) {
             try {
-                return new FileInputStream(resourceFile);
-            } catch (IOException ioe) {
-                throw new ResourceException("Unable to read resource URL or backing file " + resourceFilePath, ioe);
+                String encoding = getContentEncoding(getMethod);
+                if (!storeCompressed) {
+                    saveToResourceFile(getDecodedResponseBody(getMethod));
+                } else if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+                    writeResourceFile(getMethod.getResponseBodyAsStream(), true, false);
+                } else {
+                    writeResourceFile(getDecodedResponseBody(getMethod), true, true);
+                }
+            } finally {
+                getMethod.releaseConnection();
             }
+        } catch (Exception e) {
+            log.warn("Unable to retrieve resource URL " + getLocation() + ", reading backing file "
+                    + resourceFilePath, e);
+        }
+
+        try {
+            return openResourceFile();
+        } catch (IOException ioe) {
+            throw new ResourceException("Unable to read resource URL or backing file " + resourceFilePath, ioe);
         }
     }
 
@@ -89,12 +168,12 @@ public class FileBackedHttpResource extends HttpResource {
         try {
             return super.getLastModifiedTime();
         } catch (ResourceException e) {
-            long lastModifiedTime = resourceFile.lastModified();
-            if (lastModifiedTime == 0) {
+            File storedFile = getStoredResourceFile();
+            if (storedFile == null || storedFile.lastModified() == 0) {
                 throw new ResourceException("URL resource is not reachable and backing file is not readable");
             }
 
-            return new DateTime(lastModifiedTime);
+            return new DateTime(storedFile.lastModified());
         }
     }
 
@@ -111,11 +190,147 @@ public class FileBackedHttpResource extends HttpResource {
      * @throws ResourceException thrown if the resource backing file can not be written to
      */
     protected void saveToResourceFile(byte[] resource) throws ResourceException {
+        saveToResourceFile(new ByteArrayInputStream(resource));
+    }
+
+    /**
+     * Saves a resource to the backing file. The resource is written to a temporary file that then replaces the backing
+     * file, so the backing file is either left as it was or holds the whole of the new resource.
+     * 
+     * @param resource stream of the resource's content, read to its end but not closed
+     * 
+     * @throws ResourceException thrown if the resource backing file can not be written to
+     */
+    protected void saveToResourceFile(InputStream resource) throws ResourceException {
+        writeResourceFile(resource, storeCompressed, storeCompressed);
+    }
+
+    /**
+     * Opens the backing file, decompressing its content as it is read if it was stored gzip compressed.
+     * 
+     * @return the content of the backing file
+     * 
+     * @throws IOException thrown if the backing file can not be read
+     */
+    protected InputStream openResourceFile() throws IOException {
+        File storedFile = getStoredResourceFile();
+        if (storedFile == null) {
+            throw new FileNotFoundException(resourceFilePath + " does not exist");
+        }
+
+        InputStream in = new FileInputStream(storedFile);
+        if (storedFile != compressedResourceFile) {
+            return in;
+        }
+
+        try {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the file holding the stored content. If, following a failure, the content is held in both forms the most
+     * recently written file is used.
+     * 
+     * @return the file holding the stored content, or null if the content has not been stored
+     */
+    private File getStoredResourceFile() {
+        if (!compressedResourceFile.exists()) {
+            return resourceFile.exists() ? resourceFile : null;
+        }
+        if (resourceFile.exists() && resourceFile.lastModified() > compressedResourceFile.lastModified()) {
+            return resourceFile;
+        }
+        return compressedResourceFile;
+    }
+
+    /**
+     * Writes content to a temporary file that then replaces the backing file, or the compressed backing file if the
+     * content is stored compressed, and deletes the backing file holding the content in the other form.
+     * 
+     * @param resource stream of the content, read to its end but not closed
+     * @param compressed whether the content is stored gzip compressed
+     * @param compress whether the content is gzip compressed as it is written, rather than already compressed
+     * 
+     * @throws ResourceException thrown if the resource backing file can not be written to
+     */
+    private void writeResourceFile(InputStream resource, boolean compressed, boolean compress)
+            throws ResourceException {
+        File targetFile = compressed ? compressedResourceFile : resourceFile;
+        File staleFile = compressed ? resourceFile : compressedResourceFile;
+        File directory = resourceFile.getAbsoluteFile().getParentFile();
+        File tempFile = null;
         try {
-            FileOutputStream out = new FileOutputStream(resourceFile);
-            out.write(resource);
+            // the prefix must be at least three characters long, which the backing file's name may not be
+            tempFile = File.createTempFile(resourceFile.getName() + ".download", ".tmp", directory);
+            FileOutputStream out = new FileOutputStream(tempFile);
+            try {
+                if (compress) {
+                    compress(resource, out);
+                } else {
+                    transfer(resource, out.getChannel());
+                }
+                out.getChannel().force(false);
+            } finally {
+                out.close();
+            }
+
+            // renaming over an existing file is not possible on all platforms
+            if (!tempFile.renameTo(targetFile) && !(targetFile.delete() && tempFile.renameTo(targetFile))) {
+                throw new IOException("Unable to rename " + tempFile.getAbsolutePath() + " to " + targetFile.getPath());
+            }
+            tempFile = null;
+            if (staleFile.exists() && !staleFile.delete()) {
+                log.warn("Unable to delete superseded backing file {}", staleFile.getPath());
+            }
         } catch (IOException e) {
             throw new ResourceException("Unable to write resource to backing file " + resourceFilePath, e);
+        } finally {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Transfers content to a file through its channel, in pieces of at most {@link #TRANSFER_SIZE} bytes. As the
+     * content comes from a stream it is still copied through a buffer on the Java heap, but never held in memory as a
+     * whole.
+     * 
+     * @param in the content
+     * @param channel channel of the file
+     * 
+     * @throws IOException thrown if the content can not be read or written
+     */
+    private void transfer(InputStream in, FileChannel channel) throws IOException {
+        ReadableByteChannel source = Channels.newChannel(in);
+        long position = 0;
+        long transferred = channel.transferFrom(source, position, TRANSFER_SIZE);
+        while (transferred > 0) {
+            position += transferred;
+            transferred = channel.transferFrom(source, position, TRANSFER_SIZE);
+        }
+    }
+
+    /**
+     * Writes content gzip compressed.
+     * 
+     * @param in the content
+     * @param out output to write to, not closed
+     * 
+     * @throws IOException thrown if the content can not be read or written
+     */
+    private void compress(InputStream in, OutputStream out) throws IOException {
+        GZIPOutputStream gzipOut = new GZIPOutputStream(out, BUFFER_SIZE);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read = in.read(buffer);
+        while (read != -1) {
+            gzipOut.write(buffer, 0, read);
+            read = in.read(buffer);
         }
+        gzipOut.finish();
     }
 }
\ No newline at end of file
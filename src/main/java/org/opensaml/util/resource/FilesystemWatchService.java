@@ -0,0 +1,576 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.resource;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A service that checks {@link ResourceChangeWatcher}s for changes as soon as the filesystem reports them.
+ * 
+ * Watchers of {@link FilesystemResource}s are checked when the operating system notifies the service that an entry of
+ * the resource's directory was created, modified or deleted, so that changes are signalled within milliseconds rather
+ * than at the next poll. All watched resources within one directory share a single registration, and all directories
+ * share a single daemon thread. Notification relies on the <code>java.nio.file.WatchService</code> of Java 7 and
+ * later, which is used reflectively so that this class still loads on earlier runtimes.
+ * 
+ * Watchers of other resources, all watchers when the runtime offers no watch service, and watchers whose directory
+ * does not exist or is deleted while being watched are instead polled at their polling frequency on a {@link Timer}.
+ * A timer supplied by the caller may be shared with other tasks: shutting the service down cancels only the watchers
+ * it scheduled on the timer, not the timer itself.
+ */
+public class FilesystemWatchService {
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(FilesystemWatchService.class);
+
+    /** Timer on which watchers that can not be notified of changes are polled. */
+    private final Timer pollingTimer;
+
+    /** Whether the polling timer was created by this service, and so is cancelled when it is shut down. */
+    private final boolean ownsPollingTimer;
+
+    /** Watchers scheduled on the polling timer by this service. */
+    private final Set<ResourceChangeWatcher> polledWatchers;
+
+    /** Watch service of the runtime, or null if there is none. */
+    private final Object watchService;
+
+    /** Watched directories, keyed by their watch key. */
+    private final Map<Object, WatchedDirectory> directories;
+
+    /** Thread waiting for notifications, or null if not yet started. */
+    private Thread watchThread;
+
+    /** Whether the service has been shut down. */
+    private volatile boolean shutdown;
+
+    /** Constructor. */
+    public FilesystemWatchService() {
+        this(new Timer("FilesystemWatchService polling", true), true);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param timer timer on which watchers that can not be notified of changes are polled, which is not cancelled when
+     *            the service is shut down
+     */
+    public FilesystemWatchService(Timer timer) {
+        this(timer, false);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param timer timer on which watchers that can not be notified of changes are polled
+     * @param ownsTimer whether the timer was created by this service
+     */
+    private FilesystemWatchService(Timer timer, boolean ownsTimer) {
+        if (timer == null) {
+            throw new IllegalArgumentException("Polling timer may not be null");
+        }
+
+        pollingTimer = timer;
+        ownsPollingTimer = ownsTimer;
+        polledWatchers = new HashSet<ResourceChangeWatcher>();
+        directories = new HashMap<Object, WatchedDirectory>();
+        watchService = NioWatch.isAvailable() ? newWatchService() : null;
+    }
+
+    /**
+     * Gets whether changes to filesystem resources are notified by the runtime, rather than found by polling.
+     * 
+     * @return whether changes to filesystem resources are notified by the runtime
+     */
+    public boolean isNotificationSupported() {
+        return watchService != null;
+    }
+
+    /**
+     * Starts watching a resource for changes. The watcher is checked once the resource's directory has been registered
+     * with the watch service, so that changes made before the registration are not missed.
+     * 
+     * @param watcher the watcher to check when its resource changes
+     * 
+     * @return true if the watcher is checked when notified of a change, false if it is polled
+     */
+    public boolean watch(ResourceChangeWatcher watcher) {
+        if (watcher == null) {
+            throw new IllegalArgumentException("Resource watcher may not be null");
+        }
+        if (shutdown) {
+            throw new IllegalStateException("Watch service has been shut down");
+        }
+
+        if (register(watcher)) {
+            watcher.run();
+            return true;
+        }
+
+        long frequency = watcher.getPollingFrequency();
+        synchronized (polledWatchers) {
+            if (shutdown) {
+                throw new IllegalStateException("Watch service has been shut down");
+            }
+            pollingTimer.schedule(watcher, frequency, frequency);
+            polledWatchers.add(watcher);
+        }
+        return false;
+    }
+
+    /**
+     * Stops watching a resource for changes.
+     * 
+     * @param watcher the watcher to stop checking
+     */
+    public void unwatch(ResourceChangeWatcher watcher) {
+        watcher.cancel();
+        synchronized (polledWatchers) {
+            polledWatchers.remove(watcher);
+        }
+
+        synchronized (directories) {
+            for (Map.Entry<Object, WatchedDirectory> entry : directories.entrySet()) {
+                WatchedDirectory directory = entry.getValue();
+                if (directory.watchers.remove(watcher)) {
+                    if (directory.watchers.isEmpty()) {
+                        NioWatch.cancel(entry.getKey());
+                        directories.remove(entry.getKey());
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops watching all resources and releases the watch service. The polling timer is cancelled only if it was
+     * created by this service; otherwise only the watchers this service scheduled on it are cancelled.
+     */
+    public void shutdown() {
+        synchronized (polledWatchers) {
+            shutdown = true;
+            if (ownsPollingTimer) {
+                pollingTimer.cancel();
+            } else {
+                for (ResourceChangeWatcher watcher : polledWatchers) {
+                    watcher.cancel();
+                }
+            }
+            polledWatchers.clear();
+        }
+
+        synchronized (directories) {
+            directories.clear();
+            if (watchService != null) {
+                NioWatch.close(watchService);
+            }
+        }
+    }
+
+    /**
+     * Registers a watcher with the watch service, if it watches a filesystem resource whose directory exists.
+     * 
+     * @param watcher the watcher to register
+     * 
+     * @return true if the watcher was registered, false if it must be polled
+     */
+    private boolean register(ResourceChangeWatcher watcher) {
+        if (watchService == null || !(watcher.getWatchedResource() instanceof FilesystemResource)) {
+            return false;
+        }
+
+        File file = new File(watcher.getWatchedResource().getLocation());
+        File parent = file.getParentFile();
+        if (parent == null || !parent.isDirectory()) {
+            log.debug("Directory of resource {} does not exist, polling it", file);
+            return false;
+        }
+
+        synchronized (directories) {
+            Object key;
+            try {
+                key = NioWatch.register(watchService, parent);
+            } catch (Exception e) {
+                log.warn("Unable to watch directory " + parent + ", polling resource " + file, e);
+                return false;
+            }
+
+            WatchedDirectory directory = directories.get(key);
+            if (directory == null) {
+                directory = new WatchedDirectory(parent);
+                directories.put(key, directory);
+            }
+            directory.watchers.add(watcher);
+
+            if (watchThread == null) {
+                watchThread = new Thread(new Runnable() {
+                    public void run() {
+                        processEvents();
+                    }
+                }, "FilesystemWatchService");
+                watchThread.setDaemon(true);
+                watchThread.start();
+            }
+        }
+
+        log.debug("Watching resource {} for filesystem notifications", file);
+        return true;
+    }
+
+    /** Waits for notifications and checks the watchers of the resources they concern until shut down. */
+    private void processEvents() {
+        while (!shutdown) {
+            Object key;
+            try {
+                key = NioWatch.take(watchService);
+            } catch (Exception e) {
+                if (!shutdown) {
+                    log.error("Filesystem watch service failed, resources will no longer be watched for changes", e);
+                }
+                return;
+            }
+
+            Set<String> changedNames = new HashSet<String>();
+            boolean overflow = NioWatch.pollEvents(key, changedNames);
+            boolean valid = NioWatch.reset(key);
+
+            List<ResourceChangeWatcher> notified = new ArrayList<ResourceChangeWatcher>();
+            synchronized (directories) {
+                WatchedDirectory directory = valid ? directories.get(key) : directories.remove(key);
+                if (directory == null) {
+                    continue;
+                }
+
+                for (ResourceChangeWatcher watcher : directory.watchers) {
+                    if (!watcher.isWatching()) {
+                        continue;
+                    }
+                    String name = new File(watcher.getWatchedResource().getLocation()).getName();
+                    if (!valid || overflow || changedNames.contains(name)) {
+                        notified.add(watcher);
+                    }
+                }
+
+                if (!valid) {
+                    log.debug("Watched directory {} is no longer accessible, polling its resources", directory.path);
+                    for (ResourceChangeWatcher watcher : notified) {
+                        schedulePolling(watcher);
+                    }
+                }
+            }
+
+            for (ResourceChangeWatcher watcher : notified) {
+                try {
+                    watcher.run();
+                } catch (RuntimeException e) {
+                    log.error("Unable to check resource " + watcher.getWatchedResource().getLocation()
+                            + " for changes", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedules a watcher of a resource that can no longer be notified of changes to be polled instead. A watcher
+     * that can not be scheduled, because it or the timer has been cancelled meanwhile, is no longer checked.
+     * 
+     * @param watcher the watcher to poll
+     */
+    private void schedulePolling(ResourceChangeWatcher watcher) {
+        long frequency = watcher.getPollingFrequency();
+        synchronized (polledWatchers) {
+            if (shutdown) {
+                return;
+            }
+            try {
+                pollingTimer.schedule(watcher, frequency, frequency);
+                polledWatchers.add(watcher);
+            } catch (IllegalStateException e) {
+                log.warn("Unable to poll resource " + watcher.getWatchedResource().getLocation()
+                        + ", it will no longer be checked for changes", e);
+            }
+        }
+    }
+
+    /**
+     * Creates a watch service of the default filesystem.
+     * 
+     * @return the watch service, or null if it can not be created
+     */
+    private Object newWatchService() {
+        try {
+            return NioWatch.newWatchService();
+        } catch (Exception e) {
+            log.warn("Unable to create filesystem watch service, resources will be polled for changes", e);
+            return null;
+        }
+    }
+
+    /** A directory registered with the watch service. */
+    private static class WatchedDirectory {
+
+        /** The directory. */
+        private final File path;
+
+        /** Watchers of resources within the directory. */
+        private final List<ResourceChangeWatcher> watchers;
+
+        /**
+         * Constructor.
+         * 
+         * @param directory the directory
+         */
+        public WatchedDirectory(File directory) {
+            path = directory;
+            watchers = new ArrayList<ResourceChangeWatcher>();
+        }
+    }
+
+    /** Reflective access to the <code>java.nio.file</code> watch service API. */
+    private static final class NioWatch {
+
+        /** Whether the API is available. */
+        private static final boolean AVAILABLE;
+
+        /** <code>FileSystems.getDefault()</code>. */
+        private static Method getDefaultFileSystem;
+
+        /** <code>FileSystem.newWatchService()</code>. */
+        private static Method newWatchService;
+
+        /** <code>File.toPath()</code>. */
+        private static Method toPath;
+
+        /** <code>Path.register(WatchService, WatchEvent.Kind...)</code>. */
+        private static Method register;
+
+        /** <code>WatchService.take()</code>. */
+        private static Method take;
+
+        /** <code>WatchService.close()</code>. */
+        private static Method close;
+
+        /** <code>WatchKey.pollEvents()</code>. */
+        private static Method pollEvents;
+
+        /** <code>WatchKey.reset()</code>. */
+        private static Method reset;
+
+        /** <code>WatchKey.cancel()</code>. */
+        private static Method cancel;
+
+        /** <code>WatchEvent.kind()</code>. */
+        private static Method kind;
+
+        /** <code>WatchEvent.context()</code>. */
+        private static Method context;
+
+        /** Event kinds registered for: creation, modification and deletion of directory entries. */
+        private static Object kinds;
+
+        /** <code>StandardWatchEventKinds.OVERFLOW</code>. */
+        private static Object overflow;
+
+        static {
+            boolean available;
+            try {
+                Class<?> fileSystems = Class.forName("java.nio.file.FileSystems");
+                Class<?> fileSystem = Class.forName("java.nio.file.FileSystem");
+                Class<?> path = Class.forName("java.nio.file.Path");
+                Class<?> service = Class.forName("java.nio.file.WatchService");
+                Class<?> key = Class.forName("java.nio.file.WatchKey");
+                Class<?> event = Class.forName("java.nio.file.WatchEvent");
+                Class<?> kindClass = Class.forName("java.nio.file.WatchEvent$Kind");
+                Class<?> standardKinds = Class.forName("java.nio.file.StandardWatchEventKinds");
+
+                getDefaultFileSystem = fileSystems.getMethod("getDefault");
+                newWatchService = fileSystem.getMethod("newWatchService");
+                toPath = File.class.getMethod("toPath");
+                kinds = Array.newInstance(kindClass, 3);
+                register = path.getMethod("register", service, kinds.getClass());
+                take = service.getMethod("take");
+                close = service.getMethod("close");
+                pollEvents = key.getMethod("pollEvents");
+                reset = key.getMethod("reset");
+                cancel = key.getMethod("cancel");
+                kind = event.getMethod("kind");
+                context = event.getMethod("context");
+
+                Array.set(kinds, 0, standardKinds.getField("ENTRY_CREATE").get(null));
+                Array.set(kinds, 1, standardKinds.getField("ENTRY_MODIFY").get(null));
+                Array.set(kinds, 2, standardKinds.getField("ENTRY_DELETE").get(null));
+                overflow = standardKinds.getField("OVERFLOW").get(null);
+                available = true;
+            } catch (Exception e) {
+                available = false;
+            }
+            AVAILABLE = available;
+        }
+
+        /** Constructor. */
+        private NioWatch() {
+        }
+
+        /**
+         * Gets whether the API is available.
+         * 
+         * @return whether the API is available
+         */
+        public static boolean isAvailable() {
+            return AVAILABLE;
+        }
+
+        /**
+         * Creates a watch service of the default filesystem.
+         * 
+         * @return the watch service
+         * 
+         * @throws Exception thrown if the watch service can not be created
+         */
+        public static Object newWatchService() throws Exception {
+            return invoke(newWatchService, invoke(getDefaultFileSystem, null));
+        }
+
+        /**
+         * Registers a directory with a watch service.
+         * 
+         * @param service the watch service
+         * @param directory the directory
+         * 
+         * @return the watch key of the directory
+         * 
+         * @throws Exception thrown if the directory can not be registered
+         */
+        public static Object register(Object service, File directory) throws Exception {
+            return invoke(register, invoke(toPath, directory), service, kinds);
+        }
+
+        /**
+         * Waits for the next signalled watch key.
+         * 
+         * @param service the watch service
+         * 
+         * @return the signalled watch key
+         * 
+         * @throws Exception thrown if the watch service is closed or the thread interrupted
+         */
+        public static Object take(Object service) throws Exception {
+            return invoke(take, service);
+        }
+
+        /**
+         * Retrieves the pending events of a watch key.
+         * 
+         * @param key the watch key
+         * @param names set to which the names of the changed directory entries are added
+         * 
+         * @return true if events were lost, in which case any entry may have changed
+         */
+        public static boolean pollEvents(Object key, Set<String> names) {
+            boolean lost = false;
+            try {
+                for (Object event : (List<?>) invoke(pollEvents, key)) {
+                    if (invoke(kind, event) == overflow) {
+                        lost = true;
+                    } else {
+                        names.add(invoke(context, event).toString());
+                    }
+                }
+            } catch (Exception e) {
+                lost = true;
+            }
+            return lost;
+        }
+
+        /**
+         * Resets a watch key so that it is signalled again.
+         * 
+         * @param key the watch key
+         * 
+         * @return true if the key is still valid, false if its directory is no longer watched
+         */
+        public static boolean reset(Object key) {
+            try {
+                return (Boolean) invoke(reset, key);
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        /**
+         * Cancels a watch key.
+         * 
+         * @param key the watch key
+         */
+        public static void cancel(Object key) {
+            try {
+                invoke(cancel, key);
+            } catch (Exception e) {
+                // the key is no longer valid either way
+            }
+        }
+
+        /**
+         * Closes a watch service.
+         * 
+         * @param service the watch service
+         */
+        public static void close(Object service) {
+            try {
+                invoke(close, service);
+            } catch (Exception e) {
+                // the service is no longer usable either way
+            }
+        }
+
+        /**
+         * Invokes a method, unwrapping the exception it throws.
+         * 
+         * @param method the method
+         * @param target object the method is invoked on, null for a static method
+         * @param args arguments of the method
+         * 
+         * @return the result of the method
+         * 
+         * @throws Exception thrown by the method
+         */
+        private static Object invoke(Method method, Object target, Object... args) throws Exception {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -16,15 +16,18 @@
 
 package org.opensaml.util.resource;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import org.apache.commons.httpclient.Header;
-import org.apache.commons.httpclient.HeaderElement;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.methods.GetMethod;
-import org.apache.commons.httpclient.methods.HeadMethod;
 import org.apache.commons.httpclient.util.DateParseException;
 import org.apache.commons.httpclient.util.DateUtil;
 import org.joda.time.DateTime;
@@ -32,80 +35,166 @@ import org.opensaml.xml.util.DatatypeHelper;
 
 /**
  * A resource representing a file retrieved from a URL using Apache Commons' HTTPClient.
+ * 
+ * The <code>ETag</code> and <code>Last-Modified</code> validators of the most recent response are remembered, and
+ * {@link #exists()} and {@link #getLastModifiedTime()} check the resource with a conditional GET, so that an unchanged
+ * resource costs a single <code>304 Not Modified</code> response and no transfer of its content. The outcome of a check
+ * is reused by further checks made within the validation interval, so that a watcher asking whether the resource exists
+ * and then when it was modified causes only one request. If the server sends no <code>Last-Modified</code> header the
+ * resource is considered modified at the time a response with a new entity tag, or without any validator, was received.
+ * 
+ * Unless disabled, requests advertise support for gzip and deflate content codings, and compressed content is
+ * decompressed as it is read.
+ * 
+ * Unless given a client of their own, all resources share the pooled client returned by
+ * {@link HttpResourceClientFactory#getSharedHttpClient()}, so that polling many resources reuses connections. The
+ * stream returned by {@link #getInputStream()} holds a pooled connection until it is read to its end or closed, so it
+ * must always be closed: a pool exhausted by abandoned streams makes further requests wait for, and then fail after,
+ * the connection manager timeout. A stream closed before its end closes its connection rather than read the rest of
+ * the content.
  */
 public class HttpResource implements Resource {
 
+    /** Default time, in milliseconds, for which the outcome of a check of the resource is reused, 1 second. */
+    public static final long DEFAULT_VALIDATION_INTERVAL = 1000;
+
+    /** Largest unwanted response content, in bytes, read so that its connection may be reused, 8KB. */
+    private static final int MAX_DRAINED_BODY_SIZE = 8192;
+
+    /** Content codings advertised when compression is enabled. */
+    private static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+
     /** HTTP URL of the resource. */
     private String resourceUrl;
 
     /** HTTP client. */
     private HttpClient httpClient;
 
+    /** Time, in milliseconds, for which the outcome of a check of the resource is reused. */
+    private long validationInterval;
+
+    /** Whether compressed content codings are advertised. */
+    private boolean compressionEnabled;
+
+    /** Time the resource was last checked or retrieved, in milliseconds since the epoch, 0 if it never has been. */
+    private long lastValidation;
+
+    /** HTTP status code of the last check or retrieval of the resource. */
+    private int lastStatusCode;
+
+    /** Entity tag of the last retrieved version of the resource, or null. */
+    private String entityTag;
+
+    /** Value of the Last-Modified header of the last retrieved version of the resource, or null. */
+    private String lastModifiedHeader;
+
+    /** Time the last retrieved version of the resource was modified. */
+    private DateTime lastModifiedTime;
+
     /**
      * Constructor.
      * 
      * @param resource HTTP(S) URL of the resource
      */
     public HttpResource(String resource) {
+        this(resource, HttpResourceClientFactory.getSharedHttpClient());
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param resource HTTP(S) URL of the resource
+     * @param client client used to retrieve the resource, which should use a thread safe connection manager if shared
+     */
+    public HttpResource(String resource, HttpClient client) {
         resourceUrl = DatatypeHelper.safeTrimOrNullString(resource);
         if (resourceUrl == null) {
             throw new IllegalArgumentException("Resource URL may not be null or empty");
         }
 
-        httpClient = new HttpClient();
+        if (client == null) {
+            throw new IllegalArgumentException("HTTP client may not be null");
+        }
+
+        httpClient = client;
+        validationInterval = DEFAULT_VALIDATION_INTERVAL;
+        compressionEnabled = true;
     }
 
-    /** {@inheritDoc} */
-    public boolean exists() throws ResourceException {
-        HeadMethod headMethod = new HeadMethod(resourceUrl);
+    /**
+     * Gets whether requests advertise support for compressed content codings.
+     * 
+     * @return whether requests advertise support for compressed content codings
+     */
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
 
-        try {
-            httpClient.executeMethod(headMethod);
-            if (headMethod.getStatusCode() != HttpStatus.SC_OK) {
-                return false;
-            }
+    /**
+     * Sets whether requests advertise support for compressed content codings. Enabled by default.
+     * 
+     * @param enabled whether requests advertise support for compressed content codings
+     */
+    public void setCompressionEnabled(boolean enabled) {
+        compressionEnabled = enabled;
+    }
 
-            return true;
-        } catch (IOException e) {
-            throw new ResourceException("Unable to contact resource URL: " + resourceUrl, e);
+    /**
+     * Gets the time, in milliseconds, for which the outcome of a check of the resource is reused.
+     * 
+     * @return time for which the outcome of a check of the resource is reused
+     */
+    public long getValidationInterval() {
+        return validationInterval;
+    }
+
+    /**
+     * Sets the time, in milliseconds, for which the outcome of a check of the resource is reused. If 0 every check
+     * contacts the server.
+     * 
+     * @param interval time for which the outcome of a check of the resource is reused
+     */
+    public void setValidationInterval(long interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("Validation interval may not be negative");
         }
+        validationInterval = interval;
+    }
+
+    /** {@inheritDoc} */
+    public synchronized boolean exists() throws ResourceException {
+        validate();
+        return lastStatusCode == HttpStatus.SC_OK;
     }
 
     /** {@inheritDoc} */
     public InputStream getInputStream() throws ResourceException {
         GetMethod getMethod = getResource();
         try{
-            return getMethod.getResponseBodyAsStream();
+            return new ConnectionReleasingInputStream(getDecodedResponseBody(getMethod), getMethod);
         }catch(IOException e){
+            getMethod.releaseConnection();
             throw new ResourceException("Unable to read response", e);
         }
     }
 
     /** {@inheritDoc} */
-    public DateTime getLastModifiedTime() throws ResourceException {
-        HeadMethod headMethod = new HeadMethod(resourceUrl);
-
-        try {
-            httpClient.executeMethod(headMethod);
-            if (headMethod.getStatusCode() != HttpStatus.SC_OK) {
-                throw new ResourceException("Unable to retrieve resource URL " + resourceUrl
-                        + ", received HTTP status code " + headMethod.getStatusCode());
-            }
-            Header lastModifiedHeader = headMethod.getResponseHeader("Last-Modified");
-            if (lastModifiedHeader != null) {
-                HeaderElement[] elements = lastModifiedHeader.getElements();
-                if (elements.length > 0) {
-                    long lastModifiedTime = DateUtil.parseDate(elements[0].getValue()).getTime();
-                    return new DateTime(lastModifiedTime);
-                }
-            }
-
-            return new DateTime();
-        } catch (IOException e) {
-            throw new ResourceException("Unable to contact resource URL: " + resourceUrl, e);
-        } catch (DateParseException e) {
-            throw new ResourceException("Unable to parse last modified date for resource:" + resourceUrl, e);
+    public synchronized DateTime getLastModifiedTime() throws ResourceException {
+        validate();
+        if (lastStatusCode != HttpStatus.SC_OK) {
+            throw new ResourceException("Unable to retrieve resource URL " + resourceUrl
+                    + ", received HTTP status code " + lastStatusCode);
         }
+        return lastModifiedTime;
+    }
+
+    /**
+     * Gets the entity tag of the last retrieved version of the resource, as of the last check or retrieval.
+     * 
+     * @return entity tag of the last retrieved version of the resource, or null if the server sent none
+     */
+    public synchronized String getEntityTag() {
+        return entityTag;
     }
 
     /** {@inheritDoc} */
@@ -144,17 +233,302 @@ public class HttpResource implements Resource {
      * @throws ResourceException thrown if the resource could not be fetched
      */
     protected GetMethod getResource() throws ResourceException{
-        GetMethod getMethod = new GetMethod(resourceUrl);
+        GetMethod getMethod = newGetMethod();
+        boolean retrieved = false;
 
         try {
             httpClient.executeMethod(getMethod);
+            synchronized (this) {
+                recordResponse(getMethod);
+            }
             if (getMethod.getStatusCode() != HttpStatus.SC_OK) {
                 throw new ResourceException("Unable to retrieve resource URL " + resourceUrl
                         + ", received HTTP status code " + getMethod.getStatusCode());
             }
+            retrieved = true;
             return getMethod;
         } catch (IOException e) {
             throw new ResourceException("Unable to contact resource URL: " + resourceUrl, e);
+        } finally {
+            if (!retrieved) {
+                getMethod.releaseConnection();
+            }
+        }
+    }
+
+    /**
+     * Creates a GET method for the resource, advertising support for compressed content codings if enabled.
+     * 
+     * @return the method
+     */
+    protected GetMethod newGetMethod() {
+        GetMethod getMethod = new GetMethod(resourceUrl);
+        if (compressionEnabled) {
+            getMethod.setRequestHeader("Accept-Encoding", ACCEPTED_ENCODINGS);
+        }
+        return getMethod;
+    }
+
+    /**
+     * Gets the content coding of a response.
+     * 
+     * @param getMethod the executed method
+     * 
+     * @return the lower case content coding, or null if the content is not encoded
+     */
+    protected String getContentEncoding(GetMethod getMethod) {
+        String encoding = getHeaderValue(getMethod, "Content-Encoding");
+        if (encoding == null || "identity".equalsIgnoreCase(encoding)) {
+            return null;
+        }
+        return encoding.toLowerCase();
+    }
+
+    /**
+     * Gets the content of a response, decompressing it as it is read if it has a gzip or deflate content coding.
+     * 
+     * @param getMethod the executed method
+     * 
+     * @return the decoded content
+     * 
+     * @throws IOException thrown if the content can not be read or has an unsupported content coding
+     */
+    protected InputStream getDecodedResponseBody(GetMethod getMethod) throws IOException {
+        InputStream body = getMethod.getResponseBodyAsStream();
+        String encoding = getContentEncoding(getMethod);
+        if (encoding == null) {
+            return body;
+        }
+
+        if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+            return new GZIPInputStream(body);
+        }
+
+        if ("deflate".equals(encoding)) {
+            // some servers send raw deflate data rather than the zlib format the coding calls for
+            PushbackInputStream in = new PushbackInputStream(body, 2);
+            int first = in.read();
+            int second = in.read();
+            if (second != -1) {
+                in.unread(second);
+            }
+            if (first != -1) {
+                in.unread(first);
+            }
+            boolean zlib = (first & 0x0F) == 8 && ((first << 8) | second) % 31 == 0;
+            return new InflaterInputStream(in, new Inflater(!zlib));
+        }
+
+        throw new IOException("Unsupported content encoding " + encoding + " for resource URL " + resourceUrl);
+    }
+
+    /**
+     * Checks the resource with a conditional GET, unless it was checked or retrieved within the validation interval.
+     * The content of the resource is not read. Must be called while synchronized on this resource.
+     * 
+     * @throws ResourceException thrown if the server can not be contacted
+     */
+    protected void validate() throws ResourceException {
+        if (lastValidation != 0 && System.currentTimeMillis() - lastValidation < validationInterval) {
+            return;
+        }
+
+        GetMethod getMethod = newGetMethod();
+        if (lastStatusCode == HttpStatus.SC_OK) {
+            if (entityTag != null) {
+                getMethod.setRequestHeader("If-None-Match", entityTag);
+            }
+            if (lastModifiedHeader != null) {
+                getMethod.setRequestHeader("If-Modified-Since", lastModifiedHeader);
+            }
+        }
+
+        boolean executed = false;
+        try {
+            httpClient.executeMethod(getMethod);
+            executed = true;
+            if (getMethod.getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+                lastValidation = System.currentTimeMillis();
+            } else {
+                recordResponse(getMethod);
+            }
+        } catch (IOException e) {
+            throw new ResourceException("Unable to contact resource URL: " + resourceUrl, e);
+        } finally {
+            if (executed) {
+                discardResponseBody(getMethod);
+            }
+            getMethod.releaseConnection();
+        }
+    }
+
+    /**
+     * Discards the unwanted content of a response. Content of up to {@link #MAX_DRAINED_BODY_SIZE} bytes is read so
+     * that the connection may be reused; the connection is closed rather than drained of larger content.
+     * 
+     * @param getMethod the executed method
+     */
+    private void discardResponseBody(GetMethod getMethod) {
+        if (getMethod.getResponseContentLength() > MAX_DRAINED_BODY_SIZE) {
+            getMethod.abort();
+            return;
+        }
+
+        try {
+            InputStream body = getMethod.getResponseBodyAsStream();
+            if (body == null) {
+                return;
+            }
+            byte[] buffer = new byte[MAX_DRAINED_BODY_SIZE + 1];
+            int drained = 0;
+            int read = 0;
+            while (read != -1 && drained < buffer.length) {
+                drained += read;
+                read = body.read(buffer, drained, buffer.length - drained);
+            }
+            if (read != -1) {
+                getMethod.abort();
+            }
+        } catch (IOException e) {
+            getMethod.abort();
+        }
+    }
+
+    /**
+     * Records the status and validators of a response to an unconditional, or unsatisfied conditional, GET. Must be
+     * called while synchronized on this resource.
+     * 
+     * @param getMethod the executed method
+     * 
+     * @throws ResourceException thrown if the Last-Modified header can not be parsed
+     */
+    private void recordResponse(GetMethod getMethod) throws ResourceException {
+        long now = System.currentTimeMillis();
+        lastValidation = now;
+        lastStatusCode = getMethod.getStatusCode();
+        if (lastStatusCode != HttpStatus.SC_OK) {
+            entityTag = null;
+            lastModifiedHeader = null;
+            lastModifiedTime = null;
+            return;
+        }
+
+        String newEntityTag = getHeaderValue(getMethod, "ETag");
+        String newLastModifiedHeader = getHeaderValue(getMethod, "Last-Modified");
+        if (newLastModifiedHeader != null) {
+            try {
+                lastModifiedTime = new DateTime(DateUtil.parseDate(newLastModifiedHeader).getTime());
+            } catch (DateParseException e) {
+                throw new ResourceException("Unable to parse last modified date for resource:" + resourceUrl, e);
+            }
+        } else if (newEntityTag == null || !newEntityTag.equals(entityTag) || lastModifiedTime == null) {
+            lastModifiedTime = new DateTime(now);
+        }
+        entityTag = newEntityTag;
+        lastModifiedHeader = newLastModifiedHeader;
+    }
+
+    /**
+     * Gets the value of a response header.
+     * 
+     * @param getMethod the executed method
+     * @param name name of the header
+     * 
+     * @return the value of the header, or null if the response has no such header
+     */
+    private String getHeaderValue(GetMethod getMethod, String name) {
+        Header header = getMethod.getResponseHeader(name);
+        if (header == null) {
+            return null;
+        }
+        return DatatypeHelper.safeTrimOrNullString(header.getValue());
+    }
+
+    /**
+     * A stream of response content that releases the response's connection once the content has been read to its end
+     * or the stream is closed.
+     */
+    private static class ConnectionReleasingInputStream extends FilterInputStream {
+
+        /** Method whose connection is released. */
+        private GetMethod getMethod;
+
+        /** Whether the content has been read to its end. */
+        private boolean ended;
+
+        /** Whether the connection has been released. */
+        private boolean released;
+
+        /** Whether the stream has been closed. */
+        private boolean closed;
+
+        /**
+         * Constructor.
+         * 
+         * @param content the response content
+         * @param method method whose connection is released
+         */
+        public ConnectionReleasingInputStream(InputStream content, GetMethod method) {
+            super(content);
+            getMethod = method;
+        }
+
+        /** {@inheritDoc} */
+        public int read() throws IOException {
+            return checkEnd(super.read());
+        }
+
+        /** {@inheritDoc} */
+        public int read(byte[] b, int off, int len) throws IOException {
+            return checkEnd(super.read(b, off, len));
+        }
+
+        /** {@inheritDoc} */
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            try {
+                if (ended) {
+                    super.close();
+                    return;
+                }
+
+                // the rest of the content may be large, so the connection is closed rather than drained of it
+                getMethod.abort();
+                try {
+                    super.close();
+                } catch (IOException e) {
+                    // the content can no longer be read from the closed connection
+                }
+            } finally {
+                release();
+            }
+        }
+
+        /**
+         * Releases the connection if the end of the content has been reached.
+         * 
+         * @param result result of a read
+         * 
+         * @return the result of the read
+         */
+        private int checkEnd(int result) {
+            if (result == -1) {
+                ended = true;
+                release();
+            }
+            return result;
+        }
+
+        /** Releases the connection, if not already released. */
+        private void release() {
+            if (!released) {
+                released = true;
+                getMethod.releaseConnection();
+            }
         }
     }
-}
\ No newline at end of file
+}
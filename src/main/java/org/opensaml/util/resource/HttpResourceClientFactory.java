@@ -0,0 +1,221 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.resource;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpClientParams;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+
+/**
+ * Factory of {@link HttpClient}s suited to polling many {@link HttpResource}s.
+ * 
+ * Clients created by the factory use a pooled connection manager, so that resources sharing a client reuse
+ * persistent connections to their servers, and the number of connections open to each host and in total is bounded.
+ * Connections are checked for staleness before reuse, so that connections closed by the server while idle in the pool
+ * are not used. A request waiting for a pooled connection gives up after the connection manager timeout.
+ * 
+ * {@link #getSharedHttpClient()} returns a client, created with the default settings, that is shared by every
+ * {@link HttpResource} not given a client of its own. Its connections are held by unclosed resource streams, which must
+ * therefore always be closed, and are closed by {@link #shutdownSharedHttpClient()} when the application stops.
+ */
+public class HttpResourceClientFactory {
+
+    /** Default maximum number of connections to any one host, 5. */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 5;
+
+    /** Default maximum number of connections, 50. */
+    public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 50;
+
+    /** Default connection timeout, in milliseconds, 60 seconds. */
+    public static final int DEFAULT_CONNECTION_TIMEOUT = 60000;
+
+    /** Default socket timeout, in milliseconds, 30 seconds. */
+    public static final int DEFAULT_SOCKET_TIMEOUT = 30000;
+
+    /** Default time, in milliseconds, to wait for a pooled connection, 30 seconds. */
+    public static final long DEFAULT_CONNECTION_MANAGER_TIMEOUT = 30000;
+
+    /** Client shared by resources not given a client of their own. */
+    private static HttpClient sharedHttpClient;
+
+    /** Maximum number of connections to any one host. */
+    private int maxConnectionsPerHost;
+
+    /** Maximum number of connections. */
+    private int maxTotalConnections;
+
+    /** Connection timeout, in milliseconds. */
+    private int connectionTimeout;
+
+    /** Socket timeout, in milliseconds. */
+    private int socketTimeout;
+
+    /** Time, in milliseconds, to wait for a pooled connection. */
+    private long connectionManagerTimeout;
+
+    /** Constructor. */
+    public HttpResourceClientFactory() {
+        maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+        maxTotalConnections = DEFAULT_MAX_TOTAL_CONNECTIONS;
+        connectionTimeout = DEFAULT_CONNECTION_TIMEOUT;
+        socketTimeout = DEFAULT_SOCKET_TIMEOUT;
+        connectionManagerTimeout = DEFAULT_CONNECTION_MANAGER_TIMEOUT;
+    }
+
+    /**
+     * Gets the client shared by resources not given a client of their own, creating it with the default settings on
+     * first use.
+     * 
+     * @return the shared client
+     */
+    public static synchronized HttpClient getSharedHttpClient() {
+        if (sharedHttpClient == null) {
+            sharedHttpClient = new HttpResourceClientFactory().createHttpClient();
+        }
+        return sharedHttpClient;
+    }
+
+    /**
+     * Shuts down the connection manager of the shared client, closing its connections. Resources using the shut down
+     * client can no longer be retrieved; resources created afterwards use a new shared client.
+     */
+    public static synchronized void shutdownSharedHttpClient() {
+        if (sharedHttpClient != null) {
+            ((MultiThreadedHttpConnectionManager) sharedHttpClient.getHttpConnectionManager()).shutdown();
+            sharedHttpClient = null;
+        }
+    }
+
+    /**
+     * Gets the maximum number of connections to any one host.
+     * 
+     * @return maximum number of connections to any one host
+     */
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * Sets the maximum number of connections to any one host.
+     * 
+     * @param max maximum number of connections to any one host
+     */
+    public void setMaxConnectionsPerHost(int max) {
+        if (max <= 0) {
+            throw new IllegalArgumentException("Maximum number of connections per host must be greater than zero");
+        }
+        maxConnectionsPerHost = max;
+    }
+
+    /**
+     * Gets the maximum number of connections.
+     * 
+     * @return maximum number of connections
+     */
+    public int getMaxTotalConnections() {
+        return maxTotalConnections;
+    }
+
+    /**
+     * Sets the maximum number of connections.
+     * 
+     * @param max maximum number of connections
+     */
+    public void setMaxTotalConnections(int max) {
+        if (max <= 0) {
+            throw new IllegalArgumentException("Maximum number of connections must be greater than zero");
+        }
+        maxTotalConnections = max;
+    }
+
+    /**
+     * Gets the connection timeout in milliseconds.
+     * 
+     * @return connection timeout in milliseconds
+     */
+    public int getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    /**
+     * Sets the connection timeout in milliseconds. If 0 there is no timeout.
+     * 
+     * @param timeout connection timeout in milliseconds
+     */
+    public void setConnectionTimeout(int timeout) {
+        connectionTimeout = timeout;
+    }
+
+    /**
+     * Gets the socket timeout in milliseconds.
+     * 
+     * @return socket timeout in milliseconds
+     */
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    /**
+     * Sets the socket timeout in milliseconds. If 0 there is no timeout.
+     * 
+     * @param timeout socket timeout in milliseconds
+     */
+    public void setSocketTimeout(int timeout) {
+        socketTimeout = timeout;
+    }
+
+    /**
+     * Gets the time, in milliseconds, to wait for a pooled connection.
+     * 
+     * @return time to wait for a pooled connection
+     */
+    public long getConnectionManagerTimeout() {
+        return connectionManagerTimeout;
+    }
+
+    /**
+     * Sets the time, in milliseconds, to wait for a pooled connection. If 0 there is no timeout.
+     * 
+     * @param timeout time to wait for a pooled connection
+     */
+    public void setConnectionManagerTimeout(long timeout) {
+        connectionManagerTimeout = timeout;
+    }
+
+    /**
+     * Creates a client with its own connection pool, configured with the current settings of this factory.
+     * 
+     * @return the client
+     */
+    public HttpClient createHttpClient() {
+        HttpConnectionManagerParams connectionParams = new HttpConnectionManagerParams();
+        connectionParams.setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+        connectionParams.setMaxTotalConnections(maxTotalConnections);
+        connectionParams.setConnectionTimeout(connectionTimeout);
+        connectionParams.setStaleCheckingEnabled(true);
+
+        MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+        connectionManager.setParams(connectionParams);
+
+        HttpClientParams clientParams = new HttpClientParams();
+        clientParams.setSoTimeout(socketTimeout);
+        clientParams.setConnectionManagerTimeout(connectionManagerTimeout);
+
+        return new HttpClient(clientParams, connectionManager);
+    }
+}
\ No newline at end of file
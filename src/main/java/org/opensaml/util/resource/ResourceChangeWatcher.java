@@ -16,9 +16,18 @@
 
 package org.opensaml.util.resource;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.TimerTask;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.joda.time.DateTime;
 import org.opensaml.util.resource.ResourceChangeListener.ResourceChange;
@@ -27,6 +36,20 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A watcher that invokes a callback when a resource update/deletion has been detected.
+ * 
+ * By default listeners are invoked on the thread that detected the change. If a listener executor is set, listeners
+ * are instead invoked on that executor, so that a slow listener does not delay the watching of resources. Each
+ * listener still receives the changes in the order they were detected, one at a time, and an update detected while a
+ * previous update is still waiting to be delivered to a listener is merged into it, so that a burst of updates causes
+ * a listener to reload the resource once rather than once per update.
+ * 
+ * Changes are detected from the last modification time of the resource. If a content digest algorithm is set, a newer
+ * modification time is only signalled as an update if the content of the resource changed as well, so that resources
+ * whose modification time changes without their content changing, such as HTTP resources served without validators,
+ * do not cause needless reloads. The content is compared by a digest computed as it is streamed. For an
+ * {@link HttpResource} whose server provides an entity tag, an entity tag unchanged since the last check is taken to
+ * mean unchanged content without reading it; a changed, new or removed entity tag falls back to comparing digests, as
+ * an entity tag is never compared with a digest.
  */
 public class ResourceChangeWatcher extends TimerTask {
 
@@ -36,6 +59,12 @@ public class ResourceChangeWatcher extends TimerTask {
     /** Default maximum retry attempts, 0. */
     public static final int DEFAULT_MAX_RETRY_ATTEMPTS = 0;
 
+    /** Suggested content digest algorithm, SHA-256. */
+    public static final String DEFAULT_CONTENT_DIGEST_ALGORITHM = "SHA-256";
+
+    /** Size of the buffer used to digest the content of the resource. */
+    private static final int DIGEST_BUFFER_SIZE = 8192;
+
     /** Class logger. */
     private final Logger log = LoggerFactory.getLogger(ResourceChangeWatcher.class);
 
@@ -51,15 +80,33 @@ public class ResourceChangeWatcher extends TimerTask {
     /** Number of times the resource has been polled but generated an error. */
     private int currentRetryAttempts;
 
+    /** Whether the resource is still watched, false once cancelled or found inaccessible. */
+    private volatile boolean watching;
+
     /** Whether the resource currently exists. */
     private boolean resourceExist;
 
     /** Last time the resource was modified. */
     private DateTime lastModification;
 
+    /** Algorithm of the digest used to detect changes of content, or null if content is not compared. */
+    private String contentDigestAlgorithm;
+
+    /** Digest of the content of the resource when last checked, or null if not yet computed. */
+    private byte[] contentDigest;
+
+    /** Entity tag of the resource when its content was last checked, or null if it had none. */
+    private String contentEntityTag;
+
     /** Registered listeners of resource change notifications. */
     private List<ResourceChangeListener> resourceListeners;
 
+    /** Executor on which listeners are invoked, or null if they are invoked on the watching thread. */
+    private Executor listenerExecutor;
+
+    /** Dispatchers of changes to listeners invoked on the listener executor, keyed by listener. */
+    private Map<ResourceChangeListener, ListenerDispatcher> listenerDispatchers;
+
     /**
      * Constructor.
      * 
@@ -109,6 +156,7 @@ public class ResourceChangeWatcher extends TimerTask {
         pollFrequency = pollingFrequency;
         maxRetryAttempts = retryAttempts;
         currentRetryAttempts = 0;
+        watching = true;
 
         if (watchedResource.exists()) {
             resourceExist = true;
@@ -118,10 +166,20 @@ public class ResourceChangeWatcher extends TimerTask {
         }
 
         resourceListeners = new ArrayList<ResourceChangeListener>();
+        listenerDispatchers = new HashMap<ResourceChangeListener, ListenerDispatcher>();
         log.debug("Watching resource: " + watchedResource.getLocation()
                 + ", polling frequency: {}ms, max retry attempts: {}", pollFrequency, maxRetryAttempts);
     }
 
+    /**
+     * Gets the resource being watched.
+     * 
+     * @return resource being watched
+     */
+    public Resource getWatchedResource() {
+        return watchedResource;
+    }
+
     /**
      * Gets the frequency, in milliseonds, the watched resource should be polled.
      * 
@@ -131,6 +189,34 @@ public class ResourceChangeWatcher extends TimerTask {
         return pollFrequency;
     }
 
+    /**
+     * Gets the maximum number of poll attempts before the resource is considered inaccessible.
+     * 
+     * @return maximum number of poll attempts before the resource is considered inaccessible
+     */
+    public int getMaxRetryAttempts() {
+        return maxRetryAttempts;
+    }
+
+    /**
+     * Gets the number of consecutive polls of the resource that generated an error.
+     * 
+     * @return number of consecutive polls of the resource that generated an error
+     */
+    public int getCurrentRetryAttempts() {
+        return currentRetryAttempts;
+    }
+
+    /**
+     * Gets whether the resource is still watched. A watcher stops watching when cancelled or when the resource was
+     * not accessible for the maximum number of retry attempts.
+     * 
+     * @return whether the resource is still watched
+     */
+    public boolean isWatching() {
+        return watching;
+    }
+
     /**
      * Gets the list of registered resource listeners. New listeners may be registered with the list or old ones
      * removed.
@@ -141,8 +227,68 @@ public class ResourceChangeWatcher extends TimerTask {
         return resourceListeners;
     }
 
+    /**
+     * Gets the executor on which listeners are invoked.
+     * 
+     * @return executor on which listeners are invoked, or null if they are invoked on the watching thread
+     */
+    public Executor getListenerExecutor() {
+        synchronized (resourceListeners) {
+            return listenerExecutor;
+        }
+    }
+
+    /**
+     * Sets the executor on which listeners are invoked. Changes already handed to the previous executor are still
+     * delivered by it.
+     * 
+     * @param executor executor on which listeners are invoked, or null to invoke them on the watching thread
+     */
+    public void setListenerExecutor(Executor executor) {
+        synchronized (resourceListeners) {
+            listenerExecutor = executor;
+            listenerDispatchers.clear();
+        }
+    }
+
+    /**
+     * Gets the algorithm of the digest used to detect changes of content.
+     * 
+     * @return algorithm of the digest used to detect changes of content, or null if content is not compared
+     */
+    public synchronized String getContentDigestAlgorithm() {
+        return contentDigestAlgorithm;
+    }
+
+    /**
+     * Sets the algorithm of the digest used to detect changes of content, for example
+     * {@link #DEFAULT_CONTENT_DIGEST_ALGORITHM}. The first check after the algorithm is set records the fingerprint
+     * that later checks are compared with.
+     * 
+     * @param algorithm algorithm of the digest used to detect changes of content, or null to signal an update whenever
+     *            the modification time of the resource changes
+     */
+    public synchronized void setContentDigestAlgorithm(String algorithm) {
+        if (algorithm != null) {
+            try {
+                MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException("Unsupported content digest algorithm " + algorithm);
+            }
+        }
+        contentDigestAlgorithm = algorithm;
+        contentDigest = null;
+        contentEntityTag = null;
+    }
+
+    /** {@inheritDoc} */
+    public boolean cancel() {
+        watching = false;
+        return super.cancel();
+    }
+
     /** {@inheritDoc} */
-    public void run() {
+    public synchronized void run() {
         try {
             log.trace("Checking resource for changes: {}", watchedResource.getLocation());
             if (watchedResource.exists()) {
@@ -150,15 +296,28 @@ public class ResourceChangeWatcher extends TimerTask {
                     resourceExist = true;
                     signalListeners(ResourceChange.CREATION);
                     lastModification = watchedResource.getLastModifiedTime();
+                    contentDigest = null;
+                    contentEntityTag = null;
                 } else {
-                    if (lastModification.isBefore(watchedResource.getLastModifiedTime())) {
-                        signalListeners(ResourceChange.UPDATE);
-                        lastModification = watchedResource.getLastModifiedTime();
+                    DateTime modification = watchedResource.getLastModifiedTime();
+                    if (lastModification.isBefore(modification)) {
+                        if (isContentChanged()) {
+                            signalListeners(ResourceChange.UPDATE);
+                        } else {
+                            log.debug("Resource {} was modified but its content is unchanged",
+                                    watchedResource.getLocation());
+                        }
+                        lastModification = modification;
+                    } else if (contentDigestAlgorithm != null && contentDigest == null) {
+                        contentDigest = computeContentDigest();
+                        contentEntityTag = getEntityTag();
                     }
                 }
             } else {
                 if (resourceExist) {
                     resourceExist = false;
+                    contentDigest = null;
+                    contentEntityTag = null;
                     signalListeners(ResourceChange.DELETE);
                 }
             }
@@ -174,34 +333,206 @@ public class ResourceChangeWatcher extends TimerTask {
         }
     }
 
+    /**
+     * Checks whether the content of the resource changed since it was last checked, and records its current digest and
+     * entity tag. Content is always considered changed if no digest algorithm is set or no digest had been computed.
+     * 
+     * @return true if the content of the resource changed
+     * 
+     * @throws ResourceException thrown if the content of the resource can not be read
+     */
+    private boolean isContentChanged() throws ResourceException {
+        if (contentDigestAlgorithm == null) {
+            return true;
+        }
+
+        if (contentDigest != null && contentEntityTag != null && contentEntityTag.equals(getEntityTag())) {
+            return false;
+        }
+
+        // the entity tag is recorded after the content is read, as reading it may update the entity tag
+        byte[] previousDigest = contentDigest;
+        contentDigest = computeContentDigest();
+        contentEntityTag = getEntityTag();
+        return previousDigest == null || !MessageDigest.isEqual(previousDigest, contentDigest);
+    }
+
+    /**
+     * Gets the current entity tag of the resource.
+     * 
+     * @return the entity tag of the resource if it is an {@link HttpResource} with one, otherwise null
+     */
+    private String getEntityTag() {
+        if (watchedResource instanceof HttpResource) {
+            return ((HttpResource) watchedResource).getEntityTag();
+        }
+        return null;
+    }
+
+    /**
+     * Computes a digest of the current content of the resource, read as a stream.
+     * 
+     * @return digest of the current content of the resource
+     * 
+     * @throws ResourceException thrown if the content of the resource can not be read
+     */
+    private byte[] computeContentDigest() throws ResourceException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(contentDigestAlgorithm);
+            InputStream content = watchedResource.getInputStream();
+            try {
+                byte[] buffer = new byte[DIGEST_BUFFER_SIZE];
+                int read = content.read(buffer);
+                while (read != -1) {
+                    digest.update(buffer, 0, read);
+                    read = content.read(buffer);
+                }
+            } finally {
+                content.close();
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new ResourceException("Unsupported content digest algorithm " + contentDigestAlgorithm, e);
+        } catch (IOException e) {
+            throw new ResourceException("Unable to read content of resource " + watchedResource.getLocation(), e);
+        }
+    }
+
     /**
      * Signals all registered listeners of a resource change.
      * 
      * @param changeType the resource change type
      */
     protected void signalListeners(ResourceChange changeType) {
+        log.debug("Publishing {} event for resource: {}", changeType, watchedResource.getLocation());
+
+        List<ResourceChangeListener> listeners;
+        List<ListenerDispatcher> dispatchers = null;
         synchronized (resourceListeners) {
-            switch (changeType) {
-                case CREATION:
-                    log.debug("Publishing creation event for resource: {}", watchedResource.getLocation());
-                    for (ResourceChangeListener listener : resourceListeners) {
-                        listener.onResourceCreate(watchedResource);
-                    }
-                    break;
-                case UPDATE:
-                    log.debug("Publishing update event for resource: {}", watchedResource.getLocation());
-                    for (ResourceChangeListener listener : resourceListeners) {
-                        listener.onResourceUpdate(watchedResource);
+            listeners = new ArrayList<ResourceChangeListener>(resourceListeners);
+            if (listenerExecutor != null) {
+                listenerDispatchers.keySet().retainAll(listeners);
+                dispatchers = new ArrayList<ListenerDispatcher>(listeners.size());
+                for (ResourceChangeListener listener : listeners) {
+                    ListenerDispatcher dispatcher = listenerDispatchers.get(listener);
+                    if (dispatcher == null) {
+                        dispatcher = new ListenerDispatcher(listener, listenerExecutor);
+                        listenerDispatchers.put(listener, dispatcher);
                     }
-                    break;
-                case DELETE:
-                    log.debug("Publishing delete event for resource: {}", watchedResource.getLocation());
-                    for (ResourceChangeListener listener : resourceListeners) {
-                        listener.onResourceDelete(watchedResource);
+                    dispatchers.add(dispatcher);
+                }
+            }
+        }
+
+        if (dispatchers != null) {
+            for (ListenerDispatcher dispatcher : dispatchers) {
+                dispatcher.dispatch(changeType);
+            }
+        } else {
+            for (ResourceChangeListener listener : listeners) {
+                notifyListener(listener, changeType);
+            }
+        }
+    }
+
+    /**
+     * Notifies a listener of a resource change.
+     * 
+     * @param listener the listener
+     * @param changeType the resource change type
+     */
+    private void notifyListener(ResourceChangeListener listener, ResourceChange changeType) {
+        switch (changeType) {
+            case CREATION:
+                listener.onResourceCreate(watchedResource);
+                break;
+            case UPDATE:
+                listener.onResourceUpdate(watchedResource);
+                break;
+            case DELETE:
+                listener.onResourceDelete(watchedResource);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** Delivers changes to one listener on the listener executor, in order and one at a time. */
+    private class ListenerDispatcher implements Runnable {
+
+        /** The listener. */
+        private final ResourceChangeListener listener;
+
+        /** Executor on which the listener is invoked. */
+        private final Executor executor;
+
+        /** Changes not yet delivered. */
+        private final LinkedList<ResourceChange> pending;
+
+        /** Whether a task delivering the pending changes has been handed to the executor. */
+        private boolean running;
+
+        /**
+         * Constructor.
+         * 
+         * @param changeListener the listener
+         * @param listenerExecutor executor on which the listener is invoked
+         */
+        public ListenerDispatcher(ResourceChangeListener changeListener, Executor listenerExecutor) {
+            listener = changeListener;
+            executor = listenerExecutor;
+            pending = new LinkedList<ResourceChange>();
+        }
+
+        /**
+         * Queues a change for delivery, merging it into the last pending change if both are updates.
+         * 
+         * @param changeType the resource change type
+         */
+        public void dispatch(ResourceChange changeType) {
+            synchronized (this) {
+                if (changeType == ResourceChange.UPDATE && !pending.isEmpty()
+                        && pending.getLast() == ResourceChange.UPDATE) {
+                    log.trace("Coalesced update event for resource: {}", watchedResource.getLocation());
+                    return;
+                }
+                pending.add(changeType);
+                if (running) {
+                    return;
+                }
+                running = true;
+            }
+
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                log.error("Listener executor rejected delivery of events for resource " + watchedResource.getLocation(),
+                        e);
+                synchronized (this) {
+                    pending.clear();
+                    running = false;
+                }
+            }
+        }
+
+        /** {@inheritDoc} */
+        public void run() {
+            while (true) {
+                ResourceChange changeType;
+                synchronized (this) {
+                    changeType = pending.poll();
+                    if (changeType == null) {
+                        running = false;
+                        return;
                     }
-                    break;
-                default:
-                    break;
+                }
+
+                try {
+                    notifyListener(listener, changeType);
+                } catch (RuntimeException e) {
+                    log.error("Resource change listener failed handling " + changeType + " event for resource "
+                            + watchedResource.getLocation(), e);
+                }
             }
         }
     }
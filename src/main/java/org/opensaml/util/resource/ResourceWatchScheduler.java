@@ -0,0 +1,298 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.resource;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A scheduler that polls many {@link ResourceChangeWatcher}s concurrently on a bounded pool of threads.
+ * 
+ * Unlike a {@link java.util.Timer}, on which every watcher is polled in turn by a single thread, the scheduler polls up
+ * to as many watchers at once as its executor has threads, so a resource that is slow to answer only delays itself.
+ * A watcher is never polled concurrently with itself: its next poll is scheduled once the previous one completes.
+ * 
+ * The first poll of each watcher happens after a random fraction of its polling frequency, and every later delay is
+ * varied by up to the jitter fraction of the frequency, so that watchers registered together do not stay in step.
+ * While polls of a resource fail, the delay before the next poll doubles with each failure, up to the maximum backoff.
+ * A watcher is dropped once it stops watching, either because it was cancelled or because its resource was
+ * inaccessible for its maximum number of retry attempts.
+ */
+public class ResourceWatchScheduler {
+
+    /** Default number of polling threads, 4. */
+    public static final int DEFAULT_POLLING_THREADS = 4;
+
+    /** Default fraction of the polling frequency by which each delay is varied, 0.1. */
+    public static final double DEFAULT_JITTER = 0.1;
+
+    /** Default maximum delay, in milliseconds, between polls of a failing resource, 1 hour. */
+    public static final long DEFAULT_MAX_BACKOFF = 1000 * 60 * 60;
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(ResourceWatchScheduler.class);
+
+    /** Executor on which watchers are polled. */
+    private final ScheduledExecutorService executor;
+
+    /** Scheduled watches, keyed by watcher. */
+    private final ConcurrentMap<ResourceChangeWatcher, ScheduledWatch> watches;
+
+    /** Source of jitter. */
+    private final Random random;
+
+    /** Fraction of the polling frequency by which each delay is varied. */
+    private volatile double jitter;
+
+    /** Maximum delay, in milliseconds, between polls of a failing resource. */
+    private volatile long maxBackoff;
+
+    /** Constructor. */
+    public ResourceWatchScheduler() {
+        this(DEFAULT_POLLING_THREADS);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param pollingThreads number of threads polling watchers
+     */
+    public ResourceWatchScheduler(int pollingThreads) {
+        this(Executors.newScheduledThreadPool(pollingThreads, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ResourceWatchScheduler-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param pollingExecutor executor on which watchers are polled
+     */
+    public ResourceWatchScheduler(ScheduledExecutorService pollingExecutor) {
+        if (pollingExecutor == null) {
+            throw new IllegalArgumentException("Polling executor may not be null");
+        }
+
+        executor = pollingExecutor;
+        watches = new ConcurrentHashMap<ResourceChangeWatcher, ScheduledWatch>();
+        random = new Random();
+        jitter = DEFAULT_JITTER;
+        maxBackoff = DEFAULT_MAX_BACKOFF;
+    }
+
+    /**
+     * Gets the fraction of the polling frequency by which each delay is varied.
+     * 
+     * @return fraction of the polling frequency by which each delay is varied
+     */
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Sets the fraction of the polling frequency by which each delay is varied. If 0 watchers are polled exactly at
+     * their polling frequency.
+     * 
+     * @param fraction fraction of the polling frequency by which each delay is varied, between 0 and 1
+     */
+    public void setJitter(double fraction) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("Jitter must be between 0 and 1");
+        }
+        jitter = fraction;
+    }
+
+    /**
+     * Gets the maximum delay, in milliseconds, between polls of a failing resource.
+     * 
+     * @return maximum delay between polls of a failing resource
+     */
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    /**
+     * Sets the maximum delay, in milliseconds, between polls of a failing resource. Delays are never shorter than the
+     * polling frequency of the watcher.
+     * 
+     * @param backoff maximum delay between polls of a failing resource
+     */
+    public void setMaxBackoff(long backoff) {
+        if (backoff <= 0) {
+            throw new IllegalArgumentException("Maximum backoff must be greater than zero");
+        }
+        maxBackoff = backoff;
+    }
+
+    /**
+     * Starts polling a watcher at its polling frequency. Scheduling a watcher that is already scheduled has no effect.
+     * 
+     * @param watcher the watcher to poll
+     */
+    public void schedule(ResourceChangeWatcher watcher) {
+        if (watcher == null) {
+            throw new IllegalArgumentException("Resource watcher may not be null");
+        }
+
+        ScheduledWatch watch = new ScheduledWatch(watcher);
+        if (watches.putIfAbsent(watcher, watch) == null) {
+            long frequency = watcher.getPollingFrequency();
+            watch.scheduleNext((long) (random.nextDouble() * frequency));
+            log.debug("Scheduled polling of resource {} every {}ms", watcher.getWatchedResource().getLocation(),
+                    frequency);
+        }
+    }
+
+    /**
+     * Stops polling a watcher. A poll already in progress is allowed to complete.
+     * 
+     * @param watcher the watcher to stop polling
+     */
+    public void cancel(ResourceChangeWatcher watcher) {
+        ScheduledWatch watch = watches.remove(watcher);
+        if (watch != null) {
+            watch.cancel();
+        }
+    }
+
+    /**
+     * Gets the number of watchers being polled.
+     * 
+     * @return number of watchers being polled
+     */
+    public int getScheduledCount() {
+        return watches.size();
+    }
+
+    /** Stops polling all watchers and shuts down the executor. */
+    public void shutdown() {
+        for (ScheduledWatch watch : watches.values()) {
+            watch.cancel();
+        }
+        watches.clear();
+        executor.shutdown();
+    }
+
+    /**
+     * Computes the delay before the next poll of a watcher.
+     * 
+     * @param watcher the watcher
+     * 
+     * @return delay, in milliseconds, before the next poll
+     */
+    protected long nextDelay(ResourceChangeWatcher watcher) {
+        long frequency = watcher.getPollingFrequency();
+        long delay = frequency;
+
+        int failures = watcher.getCurrentRetryAttempts();
+        if (failures > 0) {
+            long backoff = Math.max(frequency, maxBackoff);
+            for (int i = 0; i < failures && delay < backoff; i++) {
+                delay <<= 1;
+            }
+            delay = Math.min(delay, backoff);
+        }
+
+        double variation = jitter * frequency * (2 * random.nextDouble() - 1);
+        return Math.max(0, delay + (long) variation);
+    }
+
+    /** The polling schedule of one watcher. */
+    private class ScheduledWatch implements Runnable {
+
+        /** The watcher. */
+        private final ResourceChangeWatcher watcher;
+
+        /** Pending poll, or null. */
+        private volatile ScheduledFuture<?> future;
+
+        /** Whether polling has been cancelled. */
+        private volatile boolean cancelled;
+
+        /**
+         * Constructor.
+         * 
+         * @param scheduledWatcher the watcher
+         */
+        public ScheduledWatch(ResourceChangeWatcher scheduledWatcher) {
+            watcher = scheduledWatcher;
+        }
+
+        /** {@inheritDoc} */
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+
+            try {
+                watcher.run();
+            } catch (RuntimeException e) {
+                log.error("Error polling resource " + watcher.getWatchedResource().getLocation(), e);
+            }
+
+            if (!watcher.isWatching()) {
+                watches.remove(watcher, this);
+                return;
+            }
+            scheduleNext(nextDelay(watcher));
+        }
+
+        /**
+         * Schedules the next poll.
+         * 
+         * @param delay delay, in milliseconds, before the next poll
+         */
+        public void scheduleNext(long delay) {
+            if (cancelled) {
+                return;
+            }
+
+            try {
+                future = executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // the executor has been shut down
+                watches.remove(watcher, this);
+            }
+        }
+
+        /** Cancels polling. */
+        public void cancel() {
+            cancelled = true;
+            ScheduledFuture<?> pending = future;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,42 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+/**
+ * A {@link HashedReplayStore} that can check and record a batch of entries in one operation, amortizing the cost of
+ * locking or of round trips to a remote store over the whole batch.
+ */
+public interface BatchReplayStore extends HashedReplayStore {
+
+    /**
+     * Records each of a batch of entries unless a live entry for the same hash already exists. The outcome is the same
+     * as calling {@link #putIfAbsentOrExpired(String, long, long, long, long)} for each entry in turn, so an entry
+     * appearing twice in a batch is recorded by the first occurrence and found by the second, but the entries of a batch
+     * are not checked and recorded atomically as a whole.
+     * 
+     * @param partition partition the entries belong to
+     * @param keyHighs high 64 bits of the hashes of the partition and keys
+     * @param keyLows low 64 bits of the hashes of the partition and keys
+     * @param count number of entries in the batch
+     * @param expiration expiration time of the new entries, in milliseconds since the epoch
+     * @param now current time, in milliseconds since the epoch
+     * @param currentExpirations receives, for each entry, the expiration time of the existing live entry, or 0 if the
+     *            entry was recorded
+     */
+    public void putAllIfAbsentOrExpired(String partition, long[] keyHighs, long[] keyLows, int count,
+            long expiration, long now, long[] currentExpirations);
+}
\ No newline at end of file
@@ -0,0 +1,480 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link StorageService} that bounds the number of entries held by each partition. When a write would grow a full
+ * partition the partition's {@link EvictionPolicy} chooses an entry to evict.
+ * 
+ * Every partition is guarded by its own lock, so operations on different partitions never contend. The number of
+ * entries evicted from each partition is counted, allowing partitions to be sized against observed traffic.
+ * 
+ * Iterators returned by {@link #getKeys(String)} operate over a snapshot of the partition's keys taken when the
+ * iterator is created; removal through the iterator removes the entry from the store.
+ * 
+ * @param <KeyType> object type of the keys
+ * @param <ValueType> object type of the values
+ */
+public class BoundedStorageService<KeyType, ValueType> implements StorageService<KeyType, ValueType> {
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(BoundedStorageService.class);
+
+    /** Backing partitions. */
+    private ConcurrentMap<String, BoundedPartition> store;
+
+    /** Maximum number of entries for partitions without an explicit maximum. */
+    private int defaultMaxEntries;
+
+    /** Explicit per-partition maximum number of entries. */
+    private ConcurrentMap<String, Integer> partitionMaxEntries;
+
+    /** Factory used to create the eviction policy of each partition. */
+    private EvictionPolicyFactory policyFactory;
+
+    /** Total number of entries evicted from all partitions. */
+    private AtomicLong totalEvictions;
+
+    /**
+     * Constructor. Partitions use a least recently used eviction policy.
+     * 
+     * @param maxEntries maximum number of entries in each partition
+     */
+    public BoundedStorageService(int maxEntries) {
+        this(maxEntries, new LRUEvictionPolicy.Factory());
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param maxEntries maximum number of entries in each partition
+     * @param evictionPolicyFactory factory used to create the eviction policy of each partition
+     */
+    public BoundedStorageService(int maxEntries, EvictionPolicyFactory evictionPolicyFactory) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Maximum number of entries must be greater than zero");
+        }
+
+        if (evictionPolicyFactory == null) {
+            throw new IllegalArgumentException("Eviction policy factory may not be null");
+        }
+
+        defaultMaxEntries = maxEntries;
+        policyFactory = evictionPolicyFactory;
+        store = new ConcurrentHashMap<String, BoundedPartition>();
+        partitionMaxEntries = new ConcurrentHashMap<String, Integer>();
+        totalEvictions = new AtomicLong();
+    }
+
+    /**
+     * Sets the maximum number of entries for a particular partition. If the partition already holds more entries the
+     * excess is evicted by the next write.
+     * 
+     * @param partition the partition
+     * @param maxEntries maximum number of entries in the partition
+     */
+    public void setMaxEntries(String partition, int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Maximum number of entries must be greater than zero");
+        }
+
+        partitionMaxEntries.put(partition, maxEntries);
+        BoundedPartition boundedPartition = store.get(partition);
+        if (boundedPartition != null) {
+            synchronized (boundedPartition) {
+                boundedPartition.maxEntries = maxEntries;
+            }
+        }
+    }
+
+    /**
+     * Gets the maximum number of entries for the given partition.
+     * 
+     * @param partition the partition
+     * 
+     * @return maximum number of entries in the partition
+     */
+    public int getMaxEntries(String partition) {
+        Integer maxEntries = partitionMaxEntries.get(partition);
+        if (maxEntries != null) {
+            return maxEntries;
+        }
+        return defaultMaxEntries;
+    }
+
+    /**
+     * Gets the number of entries currently held by the given partition.
+     * 
+     * @param partition the partition
+     * 
+     * @return number of entries in the partition
+     */
+    public int getSize(String partition) {
+        BoundedPartition boundedPartition = store.get(partition);
+        if (boundedPartition == null) {
+            return 0;
+        }
+
+        synchronized (boundedPartition) {
+            return boundedPartition.entries.size();
+        }
+    }
+
+    /**
+     * Gets the number of entries evicted from the given partition.
+     * 
+     * @param partition the partition
+     * 
+     * @return number of entries evicted from the partition
+     */
+    public long getEvictionCount(String partition) {
+        BoundedPartition boundedPartition = store.get(partition);
+        if (boundedPartition == null) {
+            return 0;
+        }
+
+        return boundedPartition.evictions.get();
+    }
+
+    /**
+     * Gets the number of entries evicted from all partitions.
+     * 
+     * @return number of entries evicted from all partitions
+     */
+    public long getEvictionCount() {
+        return totalEvictions.get();
+    }
+
+    /** {@inheritDoc} */
+    public Iterator<String> getPartitions() {
+        return store.keySet().iterator();
+    }
+
+    /** {@inheritDoc} */
+    public Iterator<KeyType> getKeys(final String partition) {
+        BoundedPartition boundedPartition = store.get(partition);
+        if (boundedPartition == null) {
+            return null;
+        }
+
+        final List<KeyType> keys;
+        synchronized (boundedPartition) {
+            keys = new ArrayList<KeyType>(boundedPartition.entries.keySet());
+        }
+
+        return new Iterator<KeyType>() {
+            private Iterator<KeyType> snapshot = keys.iterator();
+
+            private KeyType current;
+
+            public boolean hasNext() {
+                return snapshot.hasNext();
+            }
+
+            public KeyType next() {
+                current = snapshot.next();
+                return current;
+            }
+
+            public void remove() {
+                if (current == null) {
+                    throw new IllegalStateException();
+                }
+                BoundedStorageService.this.remove(partition, current);
+                current = null;
+            }
+        };
+    }
+
+    /** {@inheritDoc} */
+    public boolean contains(String partition, KeyType key) {
+        if (key == null) {
+            return false;
+        }
+
+        BoundedPartition boundedPartition = store.get(partition);
+        if (boundedPartition == null) {
+            return false;
+        }
+
+        synchronized (boundedPartition) {
+            return boundedPartition.entries.containsKey(key);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public ValueType get(String partition, KeyType key) {
+        if (key == null) {
+            return null;
+        }
+
+        BoundedPartition boundedPartition = store.get(partition);
+        if (boundedPartition == null) {
+            return null;
+        }
+
+        synchronized (boundedPartition) {
+            ValueType value = boundedPartition.entries.get(key);
+            if (value != null) {
+                boundedPartition.policy.onRead(key);
+            }
+            return value;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public ValueType put(String partition, KeyType key, ValueType value) {
+        if (key == null) {
+            return null;
+        }
+
+        BoundedPartition boundedPartition = getPartition(partition);
+        synchronized (boundedPartition) {
+            return boundedPartition.write(key, value);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public ValueType putIfAbsent(String partition, KeyType key, ValueType value) {
+        if (key == null) {
+            return null;
+        }
+
+        BoundedPartition boundedPartition = getPartition(partition);
+        synchronized (boundedPartition) {
+            ValueType currentValue = boundedPartition.entries.get(key);
+            if (currentValue == null) {
+                boundedPartition.write(key, value);
+            } else {
+                boundedPartition.policy.onRead(key);
+            }
+            return currentValue;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public ValueType putIfAbsentOrExpired(String partition, KeyType key, ValueType value) {
+        if (key == null) {
+            return null;
+        }
+
+        BoundedPartition boundedPartition = getPartition(partition);
+        ValueType currentValue;
+        synchronized (boundedPartition) {
+            currentValue = boundedPartition.entries.get(key);
+            if (currentValue != null && !isExpired(currentValue)) {
+                boundedPartition.policy.onRead(key);
+                return currentValue;
+            }
+            boundedPartition.write(key, value);
+        }
+
+        if (currentValue != null) {
+            ((ExpiringObject) currentValue).onExpire();
+        }
+        return null;
+    }
+
+    /** {@inheritDoc} */
+    public boolean replace(String partition, KeyType key, ValueType oldValue, ValueType newValue) {
+        if (key == null) {
+            return false;
+        }
+
+        BoundedPartition boundedPartition = store.get(partition);
+        if (boundedPartition == null) {
+            return false;
+        }
+
+        synchronized (boundedPartition) {
+            ValueType currentValue = boundedPartition.entries.get(key);
+            if (currentValue != null && currentValue.equals(oldValue)) {
+                boundedPartition.write(key, newValue);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public ValueType remove(String partition, KeyType key) {
+        if (key == null) {
+            return null;
+        }
+
+        BoundedPartition boundedPartition = store.get(partition);
+        if (boundedPartition == null) {
+            return null;
+        }
+
+        synchronized (boundedPartition) {
+            ValueType value = boundedPartition.entries.remove(key);
+            if (value != null) {
+                boundedPartition.policy.onRemove(key);
+            }
+            return value;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean remove(String partition, KeyType key, ValueType value) {
+        if (key == null) {
+            return false;
+        }
+
+        BoundedPartition boundedPartition = store.get(partition);
+        if (boundedPartition == null) {
+            return false;
+        }
+
+        synchronized (boundedPartition) {
+            ValueType currentValue = boundedPartition.entries.get(key);
+            if (currentValue != null && currentValue.equals(value)) {
+                boundedPartition.entries.remove(key);
+                boundedPartition.policy.onRemove(key);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Gets the given partition, creating it if it does not yet exist.
+     * 
+     * @param partition the partition
+     * 
+     * @return the partition
+     */
+    private BoundedPartition getPartition(String partition) {
+        BoundedPartition boundedPartition = store.get(partition);
+        if (boundedPartition == null) {
+            EvictionPolicy<KeyType, ValueType> policy = policyFactory.createPolicy();
+            BoundedPartition newPartition = new BoundedPartition(partition,
+                    getMaxEntries(partition), policy);
+            boundedPartition = store.putIfAbsent(partition, newPartition);
+            if (boundedPartition == null) {
+                boundedPartition = newPartition;
+            }
+        }
+        return boundedPartition;
+    }
+
+    /**
+     * Checks whether the given value is an {@link ExpiringObject} that has expired.
+     * 
+     * @param value the value to check
+     * 
+     * @return true if the value has expired, false if not
+     */
+    protected boolean isExpired(ValueType value) {
+        return value instanceof ExpiringObject && ((ExpiringObject) value).isExpired();
+    }
+
+    /** A single bounded partition. All access must be synchronized on the partition instance. */
+    private class BoundedPartition {
+
+        /** Name of the partition. */
+        private final String name;
+
+        /** Entries of the partition. */
+        private final Map<KeyType, ValueType> entries;
+
+        /** Eviction policy tracking the entries of the partition. */
+        private final EvictionPolicy<KeyType, ValueType> policy;
+
+        /** Number of entries evicted from this partition. */
+        private final AtomicLong evictions;
+
+        /** Maximum number of entries in the partition. */
+        private int maxEntries;
+
+        /**
+         * Constructor.
+         * 
+         * @param partitionName name of the partition
+         * @param max maximum number of entries in the partition
+         * @param evictionPolicy eviction policy tracking the entries of the partition
+         */
+        public BoundedPartition(String partitionName, int max, EvictionPolicy<KeyType, ValueType> evictionPolicy) {
+            name = partitionName;
+            maxEntries = max;
+            policy = evictionPolicy;
+            entries = new HashMap<KeyType, ValueType>();
+            evictions = new AtomicLong();
+        }
+
+        /**
+         * Writes an entry, evicting other entries first if the partition is full.
+         * 
+         * @param key the entry key
+         * @param value the entry value
+         * 
+         * @return the value previously registered under the key, if any
+         */
+        public ValueType write(KeyType key, ValueType value) {
+            if (!entries.containsKey(key)) {
+                while (entries.size() >= maxEntries && evict()) {
+                    continue;
+                }
+            }
+
+            ValueType previousValue = entries.put(key, value);
+            policy.onWrite(key, value);
+            return previousValue;
+        }
+
+        /**
+         * Evicts the entry chosen by the eviction policy.
+         * 
+         * @return true if an entry was evicted, false if the policy did not choose one
+         */
+        private boolean evict() {
+            KeyType victim = policy.selectVictim();
+            if (victim == null) {
+                return false;
+            }
+
+            policy.onRemove(victim);
+            ValueType evicted = entries.remove(victim);
+            if (evicted == null) {
+                // the policy was tracking an entry that is already gone, it is now forgotten but was not evicted
+                return true;
+            }
+
+            evictions.incrementAndGet();
+            totalEvictions.incrementAndGet();
+            log.trace("Evicted entry {} from full partition {}", victim, name);
+
+            if (evicted instanceof ExpiringObject && ((ExpiringObject) evicted).isExpired()) {
+                ((ExpiringObject) evicted).onExpire();
+            }
+            return true;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,227 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link StorageService} implementation backed by {@link ConcurrentHashMap}s, intended for heavily concurrent use.
+ * 
+ * Reads never block, writes only contend with writes to the same segment of the same partition, and partitions are
+ * created lazily and atomically on first write. Iterators returned by {@link #getPartitions()} and
+ * {@link #getKeys(String)} are weakly consistent: they never throw
+ * {@link java.util.ConcurrentModificationException}, reflect the state of the store at some point at or since their
+ * creation, and support removal.
+ * 
+ * Neither keys nor values may be null.
+ * 
+ * @param <KeyType> object type of the keys
+ * @param <ValueType> object type of the values
+ */
+public class ConcurrentMapBasedStorageService<KeyType, ValueType> implements StorageService<KeyType, ValueType> {
+
+    /** Default estimated number of concurrently updating threads per partition, 16. */
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    /** Backing map. */
+    private ConcurrentMap<String, ConcurrentMap<KeyType, ValueType>> store;
+
+    /** Estimated number of concurrently updating threads, used to size each partition map. */
+    private int concurrencyLevel;
+
+    /** Constructor. */
+    public ConcurrentMapBasedStorageService() {
+        this(DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param concurrency estimated number of threads concurrently updating any one partition
+     */
+    public ConcurrentMapBasedStorageService(int concurrency) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency level must be greater than zero");
+        }
+
+        concurrencyLevel = concurrency;
+        store = new ConcurrentHashMap<String, ConcurrentMap<KeyType, ValueType>>();
+    }
+
+    /** {@inheritDoc} */
+    public Iterator<String> getPartitions() {
+        return store.keySet().iterator();
+    }
+
+    /** {@inheritDoc} */
+    public Iterator<KeyType> getKeys(String partition) {
+        ConcurrentMap<KeyType, ValueType> partitionMap = getPartitionMap(partition, false);
+        if (partitionMap == null) {
+            return null;
+        }
+
+        return partitionMap.keySet().iterator();
+    }
+
+    /** {@inheritDoc} */
+    public boolean contains(String partition, KeyType key) {
+        if (key == null) {
+            return false;
+        }
+
+        ConcurrentMap<KeyType, ValueType> partitionMap = getPartitionMap(partition, false);
+        if (partitionMap == null) {
+            return false;
+        }
+
+        return partitionMap.containsKey(key);
+    }
+
+    /** {@inheritDoc} */
+    public ValueType get(String partition, KeyType key) {
+        if (key == null) {
+            return null;
+        }
+
+        ConcurrentMap<KeyType, ValueType> partitionMap = getPartitionMap(partition, false);
+        if (partitionMap == null) {
+            return null;
+        }
+
+        return partitionMap.get(key);
+    }
+
+    /** {@inheritDoc} */
+    public ValueType put(String partition, KeyType key, ValueType value) {
+        if (key == null) {
+            return null;
+        }
+
+        return getPartitionMap(partition, true).put(key, value);
+    }
+
+    /** {@inheritDoc} */
+    public ValueType putIfAbsent(String partition, KeyType key, ValueType value) {
+        if (key == null) {
+            return null;
+        }
+
+        return getPartitionMap(partition, true).putIfAbsent(key, value);
+    }
+
+    /** {@inheritDoc} */
+    public ValueType putIfAbsentOrExpired(String partition, KeyType key, ValueType value) {
+        if (key == null) {
+            return null;
+        }
+
+        ConcurrentMap<KeyType, ValueType> partitionMap = getPartitionMap(partition, true);
+        ValueType currentValue;
+        while (true) {
+            currentValue = partitionMap.putIfAbsent(key, value);
+            if (currentValue == null) {
+                return null;
+            }
+
+            if (!isExpired(currentValue)) {
+                return currentValue;
+            }
+
+            if (partitionMap.replace(key, currentValue, value)) {
+                ((ExpiringObject) currentValue).onExpire();
+                return null;
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean replace(String partition, KeyType key, ValueType oldValue, ValueType newValue) {
+        if (key == null || oldValue == null) {
+            return false;
+        }
+
+        ConcurrentMap<KeyType, ValueType> partitionMap = getPartitionMap(partition, false);
+        if (partitionMap == null) {
+            return false;
+        }
+
+        return partitionMap.replace(key, oldValue, newValue);
+    }
+
+    /** {@inheritDoc} */
+    public ValueType remove(String partition, KeyType key) {
+        if (key == null) {
+            return null;
+        }
+
+        ConcurrentMap<KeyType, ValueType> partitionMap = getPartitionMap(partition, false);
+        if (partitionMap == null) {
+            return null;
+        }
+
+        return partitionMap.remove(key);
+    }
+
+    /** {@inheritDoc} */
+    public boolean remove(String partition, KeyType key, ValueType value) {
+        if (key == null || value == null) {
+            return false;
+        }
+
+        ConcurrentMap<KeyType, ValueType> partitionMap = getPartitionMap(partition, false);
+        if (partitionMap == null) {
+            return false;
+        }
+
+        return partitionMap.remove(key, value);
+    }
+
+    /**
+     * Gets the map backing the given partition.
+     * 
+     * @param partition the partition
+     * @param create whether the partition should be created if it does not yet exist
+     * 
+     * @return the map backing the partition, or null if the partition does not exist and was not created
+     */
+    protected ConcurrentMap<KeyType, ValueType> getPartitionMap(String partition, boolean create) {
+        ConcurrentMap<KeyType, ValueType> partitionMap = store.get(partition);
+        if (partitionMap == null && create) {
+            ConcurrentMap<KeyType, ValueType> newPartitionMap = new ConcurrentHashMap<KeyType, ValueType>(16, 0.75f,
+                    concurrencyLevel);
+            partitionMap = store.putIfAbsent(partition, newPartitionMap);
+            if (partitionMap == null) {
+                partitionMap = newPartitionMap;
+            }
+        }
+
+        return partitionMap;
+    }
+
+    /**
+     * Checks whether the given value is an {@link ExpiringObject} that has expired.
+     * 
+     * @param value the value to check
+     * 
+     * @return true if the value has expired, false if not
+     */
+    protected boolean isExpired(ValueType value) {
+        return value instanceof ExpiringObject && ((ExpiringObject) value).isExpired();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,60 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+/**
+ * Tracks the entries of a single storage partition in order to choose which entry to evict when the partition is
+ * full.
+ * 
+ * Policies are used by {@link BoundedStorageService}, which creates one instance per partition via an
+ * {@link EvictionPolicyFactory} and only invokes it while holding that partition's lock. Implementations therefore
+ * need not be thread-safe.
+ * 
+ * @param <KeyType> object type of the keys
+ * @param <ValueType> object type of the values
+ */
+public interface EvictionPolicy<KeyType, ValueType> {
+
+    /**
+     * Called when an entry is added to, or its value replaced within, the partition.
+     * 
+     * @param key the entry key
+     * @param value the entry value
+     */
+    public void onWrite(KeyType key, ValueType value);
+
+    /**
+     * Called when an entry of the partition is read.
+     * 
+     * @param key the entry key
+     */
+    public void onRead(KeyType key);
+
+    /**
+     * Called when an entry is removed from the partition, including when it is evicted.
+     * 
+     * @param key the entry key
+     */
+    public void onRemove(KeyType key);
+
+    /**
+     * Chooses the entry to be evicted next.
+     * 
+     * @return key of the entry to be evicted, or null if no entries are tracked
+     */
+    public KeyType selectVictim();
+}
\ No newline at end of file
@@ -0,0 +1,33 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+/**
+ * A factory for {@link EvictionPolicy} instances.
+ */
+public interface EvictionPolicyFactory {
+
+    /**
+     * Creates a new eviction policy instance, to track the entries of a single partition.
+     * 
+     * @param <KeyType> object type of the keys
+     * @param <ValueType> object type of the values
+     * 
+     * @return the newly created policy
+     */
+    public <KeyType, ValueType> EvictionPolicy<KeyType, ValueType> createPolicy();
+}
\ No newline at end of file
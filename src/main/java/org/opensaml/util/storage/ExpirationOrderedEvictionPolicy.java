@@ -0,0 +1,100 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An {@link EvictionPolicy} that evicts the entry with the earliest expiration time. Values that are not
+ * {@link ExpiringObject}s are treated as never expiring and are evicted last, in the order they were written.
+ * 
+ * This policy suits replay caches well: under a flood of unique message IDs the entries evicted are those closest to
+ * expiring, and so the least valuable for detecting replays.
+ * 
+ * @param <KeyType> object type of the keys
+ * @param <ValueType> object type of the values
+ */
+public class ExpirationOrderedEvictionPolicy<KeyType, ValueType> implements EvictionPolicy<KeyType, ValueType> {
+
+    /** Expiration time, in milliseconds since the epoch, of each tracked key. */
+    private Map<KeyType, Long> expirations;
+
+    /** Keys grouped by expiration time, each group in write order. */
+    private TreeMap<Long, LinkedHashSet<KeyType>> expirationOrder;
+
+    /** Constructor. */
+    public ExpirationOrderedEvictionPolicy() {
+        expirations = new HashMap<KeyType, Long>();
+        expirationOrder = new TreeMap<Long, LinkedHashSet<KeyType>>();
+    }
+
+    /** {@inheritDoc} */
+    public void onWrite(KeyType key, ValueType value) {
+        onRemove(key);
+
+        Long expiration = Long.MAX_VALUE;
+        if (value instanceof ExpiringObject) {
+            expiration = ((ExpiringObject) value).getExpirationTime().getMillis();
+        }
+
+        expirations.put(key, expiration);
+        LinkedHashSet<KeyType> group = expirationOrder.get(expiration);
+        if (group == null) {
+            group = new LinkedHashSet<KeyType>();
+            expirationOrder.put(expiration, group);
+        }
+        group.add(key);
+    }
+
+    /** {@inheritDoc} */
+    public void onRead(KeyType key) {
+
+    }
+
+    /** {@inheritDoc} */
+    public void onRemove(KeyType key) {
+        Long expiration = expirations.remove(key);
+        if (expiration != null) {
+            LinkedHashSet<KeyType> group = expirationOrder.get(expiration);
+            group.remove(key);
+            if (group.isEmpty()) {
+                expirationOrder.remove(expiration);
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    public KeyType selectVictim() {
+        if (expirationOrder.isEmpty()) {
+            return null;
+        }
+
+        return expirationOrder.get(expirationOrder.firstKey()).iterator().next();
+    }
+
+    /** Factory for {@link ExpirationOrderedEvictionPolicy} instances. */
+    public static class Factory implements EvictionPolicyFactory {
+
+        /** {@inheritDoc} */
+        public <KeyType, ValueType> EvictionPolicy<KeyType, ValueType> createPolicy() {
+            return new ExpirationOrderedEvictionPolicy<KeyType, ValueType>();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,292 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.util.Iterator;
+
+import org.joda.time.DateTime;
+
+/**
+ * An {@link ExpiringStorageService} backed by {@link java.util.concurrent.ConcurrentHashMap}s, intended for heavily
+ * concurrent use.
+ * 
+ * Each value is held alongside its expiration time, so values need not be {@link ExpiringObject}s, and every entry
+ * that expires is indexed by expiration time as in {@link ExpiryIndexedStorageService}.
+ * {@link #removeExpiredEntries(String)}, which {@link ExpiringObjectStorageServiceSweeper} calls when sweeping this
+ * store, therefore evicts expired entries without examining the values of the rest of the store. Until they are
+ * evicted expired entries are ignored by all operations other than {@link #getKeys(String)}. Entries that never
+ * expire are not indexed. If a value that is an {@link ExpiringObject} expires, its {@link ExpiringObject#onExpire()}
+ * callback is invoked when it is evicted or replaced.
+ * 
+ * Neither keys nor values may be null.
+ * 
+ * @param <KeyType> object type of the keys
+ * @param <ValueType> object type of the values
+ */
+public class ExpiringConcurrentMapStorageService<KeyType, ValueType> implements
+        ExpiringStorageService<KeyType, ValueType> {
+
+    /** Backing store, holding each value alongside its expiration time. */
+    private ExpiryIndexedStorageService<KeyType, TimedValue<ValueType>> store;
+
+    /** Constructor. */
+    public ExpiringConcurrentMapStorageService() {
+        this(ExpiryIndexedStorageService.DEFAULT_TICK_DURATION, ExpiryIndexedStorageService.DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param tick duration, in milliseconds, of each tick of the expiration index's timing wheel
+     * @param buckets number of buckets in the timing wheel, rounded up to the next power of two
+     */
+    public ExpiringConcurrentMapStorageService(long tick, int buckets) {
+        store = new ExpiryIndexedStorageService<KeyType, TimedValue<ValueType>>(tick, buckets) {
+            protected void index(String partition, KeyType key, TimedValue<ValueType> value) {
+                if (value.expiration != NEVER_EXPIRES) {
+                    super.index(partition, key, value);
+                }
+            }
+        };
+    }
+
+    /** {@inheritDoc} */
+    public Iterator<String> getPartitions() {
+        return store.getPartitions();
+    }
+
+    /** {@inheritDoc} */
+    public Iterator<KeyType> getKeys(String partition) {
+        return store.getKeys(partition);
+    }
+
+    /** {@inheritDoc} */
+    public boolean contains(String partition, KeyType key) {
+        return getLive(partition, key) != null;
+    }
+
+    /** {@inheritDoc} */
+    public ValueType get(String partition, KeyType key) {
+        return valueOf(getLive(partition, key));
+    }
+
+    /** {@inheritDoc} */
+    public long getExpirationTime(String partition, KeyType key) {
+        TimedValue<ValueType> current = getLive(partition, key);
+        if (current == null) {
+            return 0;
+        }
+        return current.expiration;
+    }
+
+    /** {@inheritDoc} */
+    public ValueType put(String partition, KeyType key, ValueType value) {
+        return put(partition, key, value, expirationOf(value));
+    }
+
+    /** {@inheritDoc} */
+    public ValueType put(String partition, KeyType key, ValueType value, long expiration) {
+        return valueOf(live(store.put(partition, key, new TimedValue<ValueType>(value, expiration))));
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Expired entries are treated as absent, so this is the same as
+     * {@link #putIfAbsentOrExpired(String, Object, Object)}.
+     */
+    public ValueType putIfAbsent(String partition, KeyType key, ValueType value) {
+        return putIfAbsent(partition, key, value, expirationOf(value));
+    }
+
+    /** {@inheritDoc} */
+    public ValueType putIfAbsent(String partition, KeyType key, ValueType value, long expiration) {
+        return valueOf(store.putIfAbsentOrExpired(partition, key, new TimedValue<ValueType>(value, expiration)));
+    }
+
+    /** {@inheritDoc} */
+    public ValueType putIfAbsentOrExpired(String partition, KeyType key, ValueType value) {
+        return putIfAbsent(partition, key, value, expirationOf(value));
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The entry keeps its expiration time unless the new value is an {@link ExpiringObject}, in which case it expires
+     * when the new value does.
+     */
+    public boolean replace(String partition, KeyType key, ValueType oldValue, ValueType newValue) {
+        TimedValue<ValueType> current = getLive(partition, key);
+        if (current == null || !current.value.equals(oldValue)) {
+            return false;
+        }
+
+        long expiration = current.expiration;
+        if (newValue instanceof ExpiringObject) {
+            expiration = expirationOf(newValue);
+        }
+        return store.replace(partition, key, current, new TimedValue<ValueType>(newValue, expiration));
+    }
+
+    /** {@inheritDoc} */
+    public ValueType remove(String partition, KeyType key) {
+        return valueOf(live(store.remove(partition, key)));
+    }
+
+    /** {@inheritDoc} */
+    public boolean remove(String partition, KeyType key, ValueType value) {
+        TimedValue<ValueType> current = getLive(partition, key);
+        if (current == null || !current.value.equals(value)) {
+            return false;
+        }
+
+        return store.remove(partition, key, current);
+    }
+
+    /**
+     * Removes all entries within the given partition whose expiration time has passed. Only entries indexed for the
+     * time elapsed since the previous sweep of the partition are examined.
+     * 
+     * @param partition partition to sweep
+     * 
+     * @return number of entries removed
+     */
+    public int removeExpiredEntries(String partition) {
+        return store.removeExpiredEntries(partition);
+    }
+
+    /**
+     * Removes all entries within the given partition whose expiration time has passed, as
+     * {@link #removeExpiredEntries(String)} does, pausing after each chunk of removals so that the sweep does not
+     * monopolize the partition.
+     * 
+     * @param partition partition to sweep
+     * @param chunkSize number of entries removed between pauses
+     * @param chunkPause pause, in milliseconds, between chunks of removals; 0 to merely yield
+     * 
+     * @return number of entries removed
+     * 
+     * @throws IllegalArgumentException thrown if the chunk size is not positive or the chunk pause is negative
+     */
+    public int removeExpiredEntries(String partition, int chunkSize, long chunkPause) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be greater than zero");
+        }
+        if (chunkPause < 0) {
+            throw new IllegalArgumentException("Chunk pause may not be negative");
+        }
+
+        return store.removeExpiredEntries(partition, chunkSize, chunkPause);
+    }
+
+    /**
+     * Gets the expiration time of an entry written without an explicit expiration time.
+     * 
+     * @param value the value of the entry
+     * 
+     * @return the expiration time of the value if it is an {@link ExpiringObject}, otherwise {@link #NEVER_EXPIRES}
+     */
+    protected long expirationOf(ValueType value) {
+        if (value instanceof ExpiringObject) {
+            return ((ExpiringObject) value).getExpirationTime().getMillis();
+        }
+        return NEVER_EXPIRES;
+    }
+
+    /**
+     * Gets the live entry registered under a key.
+     * 
+     * @param partition partition on which to operate
+     * @param key the key
+     * 
+     * @return the entry, or null if there is no live entry
+     */
+    private TimedValue<ValueType> getLive(String partition, KeyType key) {
+        return live(store.get(partition, key));
+    }
+
+    /**
+     * Filters out an expired entry.
+     * 
+     * @param entry the entry, or null
+     * 
+     * @return the entry, or null if it is null or has expired
+     */
+    private TimedValue<ValueType> live(TimedValue<ValueType> entry) {
+        if (entry == null || entry.isExpired()) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Gets the value of an entry.
+     * 
+     * @param entry the entry, or null
+     * 
+     * @return the value of the entry, or null if the entry is null
+     */
+    private ValueType valueOf(TimedValue<ValueType> entry) {
+        if (entry == null) {
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * A stored value and its expiration time. Instances are compared by identity, so that conditional operations on
+     * the backing store act only on the entry that was examined.
+     * 
+     * @param <ValueType> object type of the value
+     */
+    private static class TimedValue<ValueType> implements ExpiringObject {
+
+        /** The stored value. */
+        private final ValueType value;
+
+        /** Time the entry expires, in milliseconds since the epoch. */
+        private final long expiration;
+
+        /**
+         * Constructor.
+         * 
+         * @param storedValue the stored value
+         * @param expirationTime time the entry expires, in milliseconds since the epoch
+         */
+        public TimedValue(ValueType storedValue, long expirationTime) {
+            value = storedValue;
+            expiration = expirationTime;
+        }
+
+        /** {@inheritDoc} */
+        public DateTime getExpirationTime() {
+            return new DateTime(expiration);
+        }
+
+        /** {@inheritDoc} */
+        public boolean isExpired() {
+            return expiration < System.currentTimeMillis();
+        }
+
+        /** {@inheritDoc} */
+        public void onExpire() {
+            if (value instanceof ExpiringObject) {
+                ((ExpiringObject) value).onExpire();
+            }
+        }
+    }
+}
\ No newline at end of file
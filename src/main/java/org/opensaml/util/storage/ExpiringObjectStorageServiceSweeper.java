@@ -16,15 +16,52 @@
 
 package org.opensaml.util.storage;
 
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * A simple task that periodically sweeps over a {@link StorageService} and removes expired entries.
+ * A task that periodically sweeps over a {@link StorageService} and removes expired entries.
+ * 
+ * If the swept store is an {@link ExpiryIndexedStorageService} or an {@link ExpiringConcurrentMapStorageService} its
+ * expiration index is used to visit only those entries due to expire, otherwise every entry of every swept partition
+ * is examined; a store wrapped by an {@link InstrumentedStorageService} is swept through its delegate's index. Expired
+ * entries are removed only if they have not been replaced since they were examined, and
+ * {@link ExpiringObject#onExpire()} is invoked on each removed entry. Entries are examined and removed in chunks of a
+ * configurable size with a pause between chunks, so that a sweep does not monopolize the store's locks.
+ * 
+ * The sweeper may be scheduled on a {@link Timer}, in which case partitions are swept one after another, or on a
+ * {@link ScheduledExecutorService}, in which case partitions are swept in parallel by as many of the executor's
+ * threads as are free. Either way the store is swept repeatedly. On a timer the sweep interval is measured from the
+ * start of one sweep to the start of the next, so a sweep that overruns the interval is followed immediately by the
+ * next; on an executor it is measured from the end of one sweep to the start of the next. A sweep that fails is logged
+ * and does not prevent later sweeps. The duration of, and number of entries removed by, each sweep are logged and
+ * available from the sweeper, which may be registered with an MBean server to expose them.
  */
-public class ExpiringObjectStorageServiceSweeper extends TimerTask {
+public class ExpiringObjectStorageServiceSweeper extends TimerTask implements
+        ExpiringObjectStorageServiceSweeperMBean {
+
+    /** Default number of entries removed between pauses, 1000. */
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(ExpiringObjectStorageServiceSweeper.class);
 
     /** Storage service whose entries will be periodically checked. */
     private StorageService store;
@@ -32,6 +69,30 @@ public class ExpiringObjectStorageServiceSweeper extends TimerTask {
     /** Storage partitions to sweep. */
     private Set<String> partitions;
 
+    /** Executor sweeping the store, or null if the sweeper is scheduled on a timer. */
+    private ScheduledExecutorService executor;
+
+    /** Scheduled sweep, if the sweeper is scheduled on an executor. */
+    private ScheduledFuture<?> scheduledSweep;
+
+    /** Number of entries removed between pauses. */
+    private int chunkSize;
+
+    /** Pause, in milliseconds, between chunks of removals; 0 to merely yield. */
+    private long chunkPause;
+
+    /** Number of completed sweeps. */
+    private AtomicLong sweepCount;
+
+    /** Total number of entries removed. */
+    private AtomicLong totalRemovedEntries;
+
+    /** Number of entries removed by the last sweep. */
+    private volatile long lastRemovedEntries;
+
+    /** Duration, in milliseconds, of the last sweep. */
+    private volatile long lastSweepDuration;
+
     /**
      * Constructor. Registers this task with the given timer.
      * 
@@ -40,8 +101,7 @@ public class ExpiringObjectStorageServiceSweeper extends TimerTask {
      * @param sweptStore storage service that will be swept
      */
     public ExpiringObjectStorageServiceSweeper(Timer taskTimer, long sweepInterval, StorageService sweptStore) {
-        store = sweptStore;
-        taskTimer.schedule(this, sweepInterval);
+        this(taskTimer, sweepInterval, sweptStore, null);
     }
 
     /**
@@ -54,42 +114,263 @@ public class ExpiringObjectStorageServiceSweeper extends TimerTask {
      */
     public ExpiringObjectStorageServiceSweeper(Timer taskTimer, long sweepInterval, StorageService sweptStore,
             Set<String> sweptParitions) {
-        store = sweptStore;
-        if (sweptParitions != null || sweptParitions.isEmpty()) {
-            partitions = sweptParitions;
+        initialize(sweptStore, sweptParitions);
+        taskTimer.schedule(this, sweepInterval, sweepInterval);
+    }
+
+    /**
+     * Constructor. Registers this task with the given executor.
+     * 
+     * @param sweepExecutor executor that will sweep the given storage service
+     * @param sweepInterval interval, in milliseconds, that the storage service will be swept
+     * @param sweptStore storage service that will be swept
+     */
+    public ExpiringObjectStorageServiceSweeper(ScheduledExecutorService sweepExecutor, long sweepInterval,
+            StorageService sweptStore) {
+        this(sweepExecutor, sweepInterval, sweptStore, null);
+    }
+
+    /**
+     * Constructor. Registers this task with the given executor.
+     * 
+     * @param sweepExecutor executor that will sweep the given storage service
+     * @param sweepInterval interval, in milliseconds, that the storage service will be swept
+     * @param sweptStore storage service that will be swept
+     * @param sweptParitions the partitions to sweep, if null or empty all partitions are swept
+     */
+    public ExpiringObjectStorageServiceSweeper(ScheduledExecutorService sweepExecutor, long sweepInterval,
+            StorageService sweptStore, Set<String> sweptParitions) {
+        initialize(sweptStore, sweptParitions);
+        executor = sweepExecutor;
+        scheduledSweep = sweepExecutor.scheduleWithFixedDelay(this, sweepInterval, sweepInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /** {@inheritDoc} */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /** {@inheritDoc} */
+    public void setChunkSize(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Chunk size must be greater than zero");
+        }
+        chunkSize = size;
+    }
+
+    /** {@inheritDoc} */
+    public long getChunkPause() {
+        return chunkPause;
+    }
+
+    /** {@inheritDoc} */
+    public void setChunkPause(long pause) {
+        if (pause < 0) {
+            throw new IllegalArgumentException("Chunk pause may not be negative");
+        }
+        chunkPause = pause;
+    }
+
+    /** {@inheritDoc} */
+    public long getSweepCount() {
+        return sweepCount.get();
+    }
+
+    /** {@inheritDoc} */
+    public long getTotalRemovedEntries() {
+        return totalRemovedEntries.get();
+    }
+
+    /** {@inheritDoc} */
+    public long getLastRemovedEntries() {
+        return lastRemovedEntries;
+    }
+
+    /** {@inheritDoc} */
+    public long getLastSweepDuration() {
+        return lastSweepDuration;
+    }
+
+    /** {@inheritDoc} */
+    public boolean cancel() {
+        boolean cancelled = false;
+        if (scheduledSweep != null) {
+            cancelled = scheduledSweep.cancel(false);
         }
-        taskTimer.schedule(this, sweepInterval);
+        return super.cancel() || cancelled;
     }
 
     /** {@inheritDoc} */
     public void run() {
+        try {
+            sweepPartitions();
+        } catch (RuntimeException e) {
+            // an exception escaping a scheduled task would end all future sweeps
+            log.error("Unable to sweep storage service", e);
+        }
+    }
+
+    /** Sweeps each of the swept partitions, in parallel if the sweeper is scheduled on an executor. */
+    private void sweepPartitions() {
+        long start = System.currentTimeMillis();
+
+        final Queue<String> unswept = new ConcurrentLinkedQueue<String>();
         Iterator<String> sweepPartitions;
         if (partitions != null) {
             sweepPartitions = partitions.iterator();
         } else {
             sweepPartitions = store.getPartitions();
         }
-
-        String currentParition;
-        Iterator<?> partitionKeys;
-        Object partitionKey;
-        Object partitionValue;
         while (sweepPartitions.hasNext()) {
-            currentParition = sweepPartitions.next();
-            partitionKeys = store.getKeys(currentParition);
-            if (partitionKeys == null) {
-                continue;
+            unswept.add(sweepPartitions.next());
+        }
+
+        final int partitionCount = unswept.size();
+        final AtomicLong removed = new AtomicLong();
+        final CountDownLatch swept = new CountDownLatch(partitionCount);
+        Runnable sweeper = new Runnable() {
+            public void run() {
+                String partition = unswept.poll();
+                while (partition != null) {
+                    try {
+                        removed.addAndGet(sweep(partition));
+                    } catch (RuntimeException e) {
+                        log.error("Unable to sweep storage partition " + partition, e);
+                    } finally {
+                        swept.countDown();
+                    }
+                    partition = unswept.poll();
+                }
             }
+        };
+
+        // helpers share the partitions with this thread, so the sweep completes even if none of them get to run
+        int helpers = Math.min(partitionCount, getParallelism()) - 1;
+        try {
+            for (int i = 0; i < helpers; i++) {
+                executor.execute(sweeper);
+            }
+        } catch (RejectedExecutionException e) {
+            log.debug("Sweep executor rejected helper, sweeping remaining partitions on the current thread");
+        }
+        sweeper.run();
+        try {
+            swept.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        lastRemovedEntries = removed.get();
+        lastSweepDuration = System.currentTimeMillis() - start;
+        totalRemovedEntries.addAndGet(lastRemovedEntries);
+        sweepCount.incrementAndGet();
+        log.debug("Swept {} storage partitions, removing {} expired entries in {}ms", new Object[] {partitionCount,
+                lastRemovedEntries, lastSweepDuration});
+    }
+
+    /**
+     * Removes the expired entries of a partition.
+     * 
+     * @param partition the partition to sweep
+     * 
+     * @return number of entries removed
+     */
+    @SuppressWarnings("unchecked")
+    protected long sweep(String partition) {
+        StorageService sweptStore = store;
+        while (sweptStore instanceof InstrumentedStorageService) {
+            sweptStore = ((InstrumentedStorageService) sweptStore).getDelegate();
+        }
+
+        if (sweptStore instanceof ExpiryIndexedStorageService) {
+            return ((ExpiryIndexedStorageService) sweptStore).removeExpiredEntries(partition, chunkSize, chunkPause);
+        }
+
+        if (sweptStore instanceof ExpiringConcurrentMapStorageService) {
+            return ((ExpiringConcurrentMapStorageService) sweptStore).removeExpiredEntries(partition, chunkSize,
+                    chunkPause);
+        }
+
+        Iterator<?> partitionKeys = store.getKeys(partition);
+        if (partitionKeys == null) {
+            return 0;
+        }
 
+        // expired entries are gathered first as stores' key iterators may not tolerate removal of other entries
+        List<Object> expiredEntries = new ArrayList<Object>();
+        try {
+            long examined = 0;
             while (partitionKeys.hasNext()) {
-                partitionKey = partitionKeys.next();
-                partitionValue = store.get(currentParition, partitionKey);
-                if (partitionValue instanceof ExpiringObject) {
-                    if (((ExpiringObject) partitionValue).isExpired()) {
-                        partitionKeys.remove();
-                    }
+                Object key = partitionKeys.next();
+                Object value = store.get(partition, key);
+                if (value instanceof ExpiringObject && ((ExpiringObject) value).isExpired()) {
+                    expiredEntries.add(key);
+                    expiredEntries.add(value);
+                }
+                examined++;
+                if (examined % chunkSize == 0) {
+                    pause();
+                }
+            }
+        } catch (ConcurrentModificationException e) {
+            log.debug("Storage partition {} modified during sweep, remaining entries will be swept next time",
+                    partition);
+        }
+
+        long removed = 0;
+        for (int i = 0; i < expiredEntries.size(); i += 2) {
+            Object value = expiredEntries.get(i + 1);
+            if (store.remove(partition, expiredEntries.get(i), value)) {
+                ((ExpiringObject) value).onExpire();
+                removed++;
+                if (removed % chunkSize == 0) {
+                    pause();
                 }
             }
         }
+        return removed;
+    }
+
+    /**
+     * Sets the swept store and partitions and the default configuration.
+     * 
+     * @param sweptStore storage service that will be swept
+     * @param sweptParitions the partitions to sweep, if null or empty all partitions are swept
+     */
+    private void initialize(StorageService sweptStore, Set<String> sweptParitions) {
+        store = sweptStore;
+        if (sweptParitions != null && !sweptParitions.isEmpty()) {
+            partitions = sweptParitions;
+        }
+        chunkSize = DEFAULT_CHUNK_SIZE;
+        sweepCount = new AtomicLong();
+        totalRemovedEntries = new AtomicLong();
+    }
+
+    /**
+     * Gets the number of threads that may sweep partitions in parallel.
+     * 
+     * @return number of threads that may sweep partitions in parallel
+     */
+    private int getParallelism() {
+        if (executor instanceof ThreadPoolExecutor) {
+            return Math.max(1, ((ThreadPoolExecutor) executor).getCorePoolSize());
+        }
+        return 1;
+    }
+
+    /** Pauses between chunks of removals. */
+    private void pause() {
+        if (chunkPause == 0) {
+            Thread.yield();
+            return;
+        }
+
+        try {
+            Thread.sleep(chunkPause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
\ No newline at end of file
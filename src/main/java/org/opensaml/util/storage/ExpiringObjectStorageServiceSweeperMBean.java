@@ -0,0 +1,79 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+/**
+ * Management interface of an {@link ExpiringObjectStorageServiceSweeper}.
+ */
+public interface ExpiringObjectStorageServiceSweeperMBean {
+
+    /**
+     * Gets the number of entries removed between pauses.
+     * 
+     * @return number of entries removed between pauses
+     */
+    public int getChunkSize();
+
+    /**
+     * Sets the number of entries removed between pauses.
+     * 
+     * @param size number of entries removed between pauses
+     */
+    public void setChunkSize(int size);
+
+    /**
+     * Gets the pause, in milliseconds, between chunks of removals.
+     * 
+     * @return pause between chunks of removals, 0 if the sweeping thread merely yields
+     */
+    public long getChunkPause();
+
+    /**
+     * Sets the pause, in milliseconds, between chunks of removals.
+     * 
+     * @param pause pause between chunks of removals, 0 if the sweeping thread should merely yield
+     */
+    public void setChunkPause(long pause);
+
+    /**
+     * Gets the number of completed sweeps.
+     * 
+     * @return number of completed sweeps
+     */
+    public long getSweepCount();
+
+    /**
+     * Gets the total number of entries removed by all sweeps.
+     * 
+     * @return total number of entries removed
+     */
+    public long getTotalRemovedEntries();
+
+    /**
+     * Gets the number of entries removed by the last completed sweep.
+     * 
+     * @return number of entries removed by the last sweep
+     */
+    public long getLastRemovedEntries();
+
+    /**
+     * Gets the duration, in milliseconds, of the last completed sweep.
+     * 
+     * @return duration of the last sweep
+     */
+    public long getLastSweepDuration();
+}
\ No newline at end of file
@@ -0,0 +1,70 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+/**
+ * A {@link StorageService} that tracks the expiration time of each entry itself, so that values need not be
+ * {@link ExpiringObject}s for the store to know when they expire.
+ * 
+ * Entries whose expiration time has passed are treated as absent by every operation, and may be evicted by the store
+ * at any time after they expire. Entries written through the {@link StorageService} operations expire at the
+ * expiration time of their value if it is an {@link ExpiringObject}, and never otherwise.
+ * 
+ * @param <KeyType> object type of the keys
+ * @param <ValueType> object type of the values
+ */
+public interface ExpiringStorageService<KeyType, ValueType> extends StorageService<KeyType, ValueType> {
+
+    /** Expiration time of entries that never expire. */
+    public static final long NEVER_EXPIRES = Long.MAX_VALUE;
+
+    /**
+     * Adds a value, indexed by a key, in to storage until the given expiration time.
+     * 
+     * @param partition partition on which to operate
+     * @param key the key
+     * @param value the value
+     * @param expiration time the entry expires, in milliseconds since the epoch, or {@link #NEVER_EXPIRES}
+     * 
+     * @return the live value that was registered under that key previously, if there was one
+     */
+    public ValueType put(String partition, KeyType key, ValueType value, long expiration);
+
+    /**
+     * Adds a value, indexed by a key, in to storage until the given expiration time if, and only if, no live value is
+     * currently registered under that key.
+     * 
+     * @param partition partition on which to operate
+     * @param key the key
+     * @param value the value
+     * @param expiration time the entry expires, in milliseconds since the epoch, or {@link #NEVER_EXPIRES}
+     * 
+     * @return the live value currently registered under that key, or null if the given value was added
+     */
+    public ValueType putIfAbsent(String partition, KeyType key, ValueType value, long expiration);
+
+    /**
+     * Gets the expiration time of the entry registered under a key.
+     * 
+     * @param partition partition on which to operate
+     * @param key the key
+     * 
+     * @return time the entry expires, in milliseconds since the epoch, {@link #NEVER_EXPIRES} if it does not expire,
+     *         or 0 if there is no live entry registered under the key
+     */
+    public long getExpirationTime(String partition, KeyType key);
+}
\ No newline at end of file
@@ -0,0 +1,405 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link ConcurrentMapBasedStorageService} that additionally indexes every {@link ExpiringObject} value by its
+ * expiration time so that expired entries can be removed without scanning the whole store.
+ * 
+ * Each partition has its own timing wheel: a ring of buckets, each covering one tick of time, into which entries are
+ * placed according to their expiration time. {@link #removeExpiredEntries(String)} only visits the buckets for the
+ * ticks that have elapsed since the previous sweep, so its cost is proportional to the number of entries expiring
+ * rather than to the size of the store. Entries expiring further in the future than one revolution of the wheel are
+ * revisited once per revolution.
+ * 
+ * Entries that are removed or replaced before they expire stay in the index until their bucket is swept, at which
+ * point they are discarded without touching the store.
+ * 
+ * @param <KeyType> object type of the keys
+ * @param <ValueType> object type of the values
+ */
+public class ExpiryIndexedStorageService<KeyType, ValueType> extends
+        ConcurrentMapBasedStorageService<KeyType, ValueType> {
+
+    /** Default duration, in milliseconds, of each tick of the timing wheel, 1 second. */
+    public static final long DEFAULT_TICK_DURATION = 1000;
+
+    /** Default number of buckets in the timing wheel, 4096. */
+    public static final int DEFAULT_WHEEL_SIZE = 4096;
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(ExpiryIndexedStorageService.class);
+
+    /** Expiration indexes, keyed by partition. */
+    private ConcurrentMap<String, ExpirationWheel<KeyType, ValueType>> indexes;
+
+    /** Duration, in milliseconds, of each tick of the timing wheel. */
+    private long tickDuration;
+
+    /** Number of buckets in each timing wheel. */
+    private int wheelSize;
+
+    /** Constructor. */
+    public ExpiryIndexedStorageService() {
+        this(DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param tick duration, in milliseconds, of each tick of the timing wheel
+     * @param buckets number of buckets in the timing wheel, rounded up to the next power of two
+     */
+    public ExpiryIndexedStorageService(long tick, int buckets) {
+        super();
+
+        if (tick <= 0) {
+            throw new IllegalArgumentException("Tick duration must be greater than zero");
+        }
+
+        if (buckets <= 0) {
+            throw new IllegalArgumentException("Number of buckets must be greater than zero");
+        }
+
+        tickDuration = tick;
+        wheelSize = 1;
+        while (wheelSize < buckets) {
+            wheelSize <<= 1;
+        }
+        indexes = new ConcurrentHashMap<String, ExpirationWheel<KeyType, ValueType>>();
+    }
+
+    /** {@inheritDoc} */
+    public ValueType put(String partition, KeyType key, ValueType value) {
+        ValueType previousValue = super.put(partition, key, value);
+        index(partition, key, value);
+        return previousValue;
+    }
+
+    /** {@inheritDoc} */
+    public ValueType putIfAbsent(String partition, KeyType key, ValueType value) {
+        ValueType currentValue = super.putIfAbsent(partition, key, value);
+        if (currentValue == null) {
+            index(partition, key, value);
+        }
+        return currentValue;
+    }
+
+    /** {@inheritDoc} */
+    public ValueType putIfAbsentOrExpired(String partition, KeyType key, ValueType value) {
+        ValueType currentValue = super.putIfAbsentOrExpired(partition, key, value);
+        if (currentValue == null) {
+            index(partition, key, value);
+        }
+        return currentValue;
+    }
+
+    /** {@inheritDoc} */
+    public boolean replace(String partition, KeyType key, ValueType oldValue, ValueType newValue) {
+        if (super.replace(partition, key, oldValue, newValue)) {
+            index(partition, key, newValue);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes all entries within the given partition whose expiration time has passed, invoking
+     * {@link ExpiringObject#onExpire()} on each removed value. Only entries indexed for the time elapsed since the
+     * previous sweep of the partition are examined.
+     * 
+     * @param partition partition to sweep
+     * 
+     * @return number of entries removed
+     */
+    public int removeExpiredEntries(String partition) {
+        return removeExpiredEntries(partition, Integer.MAX_VALUE, 0);
+    }
+
+    /**
+     * Removes all entries within the given partition whose expiration time has passed, as
+     * {@link #removeExpiredEntries(String)} does, pausing after each chunk of removals so that the sweep does not
+     * monopolize the partition.
+     * 
+     * @param partition partition to sweep
+     * @param chunkSize number of entries removed between pauses
+     * @param chunkPause pause, in milliseconds, between chunks of removals; 0 to merely yield
+     * 
+     * @return number of entries removed
+     * 
+     * @throws IllegalArgumentException thrown if the chunk size is not positive or the chunk pause is negative
+     */
+    public int removeExpiredEntries(String partition, int chunkSize, long chunkPause) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be greater than zero");
+        }
+        if (chunkPause < 0) {
+            throw new IllegalArgumentException("Chunk pause may not be negative");
+        }
+
+        ExpirationWheel<KeyType, ValueType> wheel = indexes.get(partition);
+        if (wheel == null) {
+            return 0;
+        }
+
+        int removed = wheel.sweep(System.currentTimeMillis(), chunkSize, chunkPause);
+        log.debug("Removed {} expired entries from partition {}", removed, partition);
+        return removed;
+    }
+
+    /**
+     * Adds the given entry to the partition's expiration index if the value is an {@link ExpiringObject}.
+     * 
+     * @param partition partition the entry was written to
+     * @param key the entry key
+     * @param value the entry value
+     */
+    protected void index(String partition, KeyType key, ValueType value) {
+        if (key == null || !(value instanceof ExpiringObject)) {
+            return;
+        }
+
+        ExpirationWheel<KeyType, ValueType> wheel = indexes.get(partition);
+        if (wheel == null) {
+            ExpirationWheel<KeyType, ValueType> newWheel = new ExpirationWheel<KeyType, ValueType>(this, partition,
+                    tickDuration, wheelSize);
+            wheel = indexes.putIfAbsent(partition, newWheel);
+            if (wheel == null) {
+                wheel = newWheel;
+            }
+        }
+
+        wheel.add(key, value, ((ExpiringObject) value).getExpirationTime().getMillis());
+    }
+
+    /**
+     * A timing wheel indexing the entries of a single partition by expiration time.
+     * 
+     * @param <KeyType> object type of the keys
+     * @param <ValueType> object type of the values
+     */
+    private static class ExpirationWheel<KeyType, ValueType> {
+
+        /** Storage service whose entries are indexed. */
+        private final ExpiryIndexedStorageService<KeyType, ValueType> storage;
+
+        /** Partition whose entries are indexed. */
+        private final String partition;
+
+        /** Duration, in milliseconds, of each tick. */
+        private final long tickDuration;
+
+        /** Mask used to map a tick to its bucket. */
+        private final int mask;
+
+        /** Buckets of the wheel. */
+        private final ConcurrentLinkedQueue<IndexEntry<KeyType, ValueType>>[] buckets;
+
+        /** Last tick that has been swept. */
+        private volatile long lastSweptTick;
+
+        /**
+         * Constructor.
+         * 
+         * @param indexedStorage storage service whose entries are indexed
+         * @param indexedPartition partition whose entries are indexed
+         * @param tick duration, in milliseconds, of each tick
+         * @param size number of buckets, a power of two
+         */
+        public ExpirationWheel(ExpiryIndexedStorageService<KeyType, ValueType> indexedStorage,
+                String indexedPartition, long tick, int size) {
+            storage = indexedStorage;
+            partition = indexedPartition;
+            tickDuration = tick;
+            mask = size - 1;
+            @SuppressWarnings("unchecked")
+            ConcurrentLinkedQueue<IndexEntry<KeyType, ValueType>>[] newBuckets =
+                (ConcurrentLinkedQueue<IndexEntry<KeyType, ValueType>>[]) new ConcurrentLinkedQueue<?>[size];
+            buckets = newBuckets;
+            for (int i = 0; i < size; i++) {
+                buckets[i] = new ConcurrentLinkedQueue<IndexEntry<KeyType, ValueType>>();
+            }
+            lastSweptTick = System.currentTimeMillis() / tickDuration - 1;
+        }
+
+        /**
+         * Indexes an entry.
+         * 
+         * @param key the entry key
+         * @param value the entry value
+         * @param expiration expiration time of the entry, in milliseconds since the epoch
+         */
+        public void add(KeyType key, ValueType value, long expiration) {
+            IndexEntry<KeyType, ValueType> entry = new IndexEntry<KeyType, ValueType>(key, value);
+
+            // entries due at or before the last sweep go in the next bucket to be swept
+            long tick = Math.max(expiration / tickDuration, lastSweptTick + 1);
+            buckets[(int) (tick & mask)].add(entry);
+
+            // a sweep may have passed the bucket while the entry was added to it, index it again ahead of the sweep;
+            // a duplicate index entry is discarded when swept as its value is no longer stored
+            long sweptTick = lastSweptTick;
+            while (tick <= sweptTick) {
+                tick = sweptTick + 1;
+                buckets[(int) (tick & mask)].add(entry);
+                sweptTick = lastSweptTick;
+            }
+        }
+
+        /**
+         * Removes expired entries indexed in the buckets for the ticks elapsed since the previous sweep.
+         * 
+         * @param now current time, in milliseconds since the epoch
+         * @param chunkSize number of entries removed between pauses
+         * @param chunkPause pause, in milliseconds, between chunks of removals; 0 to merely yield
+         * 
+         * @return number of entries removed
+         */
+        public synchronized int sweep(long now, int chunkSize, long chunkPause) {
+            long currentTick = now / tickDuration;
+            long firstTick = Math.max(lastSweptTick + 1, currentTick - mask);
+
+            List<IndexEntry<KeyType, ValueType>> notYetDue = new ArrayList<IndexEntry<KeyType, ValueType>>();
+            int removed = drain(firstTick, currentTick, now, notYetDue, 0, chunkSize, chunkPause);
+            lastSweptTick = currentTick;
+
+            // entries added to the swept buckets before the sweep was published would otherwise wait a revolution
+            removed = drain(firstTick, currentTick, now, notYetDue, removed, chunkSize, chunkPause);
+
+            for (IndexEntry<KeyType, ValueType> entry : notYetDue) {
+                add(entry.key, entry.value, ((ExpiringObject) entry.value).getExpirationTime().getMillis());
+            }
+
+            return removed;
+        }
+
+        /**
+         * Processes every entry indexed in the buckets for the given ticks.
+         * 
+         * @param firstTick first tick whose bucket is drained
+         * @param lastTick last tick whose bucket is drained
+         * @param now current time, in milliseconds since the epoch
+         * @param notYetDue list to which entries that have not yet expired are added
+         * @param removedSoFar number of entries already removed by this sweep
+         * @param chunkSize number of entries removed between pauses
+         * @param chunkPause pause, in milliseconds, between chunks of removals; 0 to merely yield
+         * 
+         * @return number of entries removed from storage by this sweep, including those already removed
+         */
+        private int drain(long firstTick, long lastTick, long now, List<IndexEntry<KeyType, ValueType>> notYetDue,
+                int removedSoFar, int chunkSize, long chunkPause) {
+            int removed = removedSoFar;
+            for (long tick = firstTick; tick <= lastTick; tick++) {
+                ConcurrentLinkedQueue<IndexEntry<KeyType, ValueType>> bucket = buckets[(int) (tick & mask)];
+                IndexEntry<KeyType, ValueType> entry = bucket.poll();
+                while (entry != null) {
+                    if (process(entry, now, notYetDue)) {
+                        removed++;
+                        if (removed % chunkSize == 0) {
+                            pause(chunkPause);
+                        }
+                    }
+                    entry = bucket.poll();
+                }
+            }
+            return removed;
+        }
+
+        /**
+         * Pauses between chunks of removals.
+         * 
+         * @param chunkPause pause, in milliseconds; 0 to merely yield
+         */
+        private void pause(long chunkPause) {
+            if (chunkPause == 0) {
+                Thread.yield();
+                return;
+            }
+
+            try {
+                Thread.sleep(chunkPause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Processes an index entry whose bucket is being swept.
+         * 
+         * @param entry the index entry
+         * @param now current time, in milliseconds since the epoch
+         * @param notYetDue list to which entries that have not yet expired are added
+         * 
+         * @return true if the entry was removed from storage
+         */
+        private boolean process(IndexEntry<KeyType, ValueType> entry, long now,
+                List<IndexEntry<KeyType, ValueType>> notYetDue) {
+            ConcurrentMap<KeyType, ValueType> partitionMap = storage.getPartitionMap(partition, false);
+            if (partitionMap == null || partitionMap.get(entry.key) != entry.value) {
+                // entry was removed or replaced, the replacement has its own index entry
+                return false;
+            }
+
+            ExpiringObject expiringValue = (ExpiringObject) entry.value;
+            if (expiringValue.getExpirationTime().getMillis() > now) {
+                notYetDue.add(entry);
+                return false;
+            }
+
+            if (partitionMap.remove(entry.key, entry.value)) {
+                expiringValue.onExpire();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * An entry of the expiration index.
+     * 
+     * @param <KeyType> object type of the keys
+     * @param <ValueType> object type of the values
+     */
+    private static class IndexEntry<KeyType, ValueType> {
+
+        /** Key of the indexed entry. */
+        private final KeyType key;
+
+        /** Value of the indexed entry. */
+        private final ValueType value;
+
+        /**
+         * Constructor.
+         * 
+         * @param entryKey key of the indexed entry
+         * @param entryValue value of the indexed entry
+         */
+        public IndexEntry(KeyType entryKey, ValueType entryValue) {
+            key = entryKey;
+            value = entryValue;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,49 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+/**
+ * A store of replay cache entries that can be checked and updated without allocating, by identifying each entry by a
+ * 128-bit hash of its partition and key and representing its expiration as a primitive time.
+ * 
+ * {@link ReplayCache} uses this interface in preference to the {@link StorageService} interface when its storage
+ * service implements both. Hashes must be computed with {@link MurmurHash3}, seeded with {@link #getHashSeed()}, over
+ * the partition and the full key so that entries recorded through either interface are the same entries.
+ */
+public interface HashedReplayStore {
+
+    /**
+     * Gets the seed of the hashes identifying entries.
+     * 
+     * @return the seed of the hashes identifying entries
+     */
+    public long getHashSeed();
+
+    /**
+     * Records an entry unless a live entry for the same hash already exists. Entries expiring at or before the given
+     * current time are treated as absent and replaced. The check and update are performed atomically.
+     * 
+     * @param partition partition the entry belongs to
+     * @param keyHigh high 64 bits of the hash of the partition and key
+     * @param keyLow low 64 bits of the hash of the partition and key
+     * @param expiration expiration time of the new entry, in milliseconds since the epoch
+     * @param now current time, in milliseconds since the epoch
+     * 
+     * @return the expiration time of the existing live entry, or 0 if the entry was recorded
+     */
+    public long putIfAbsentOrExpired(String partition, long keyHigh, long keyLow, long expiration, long now);
+}
\ No newline at end of file
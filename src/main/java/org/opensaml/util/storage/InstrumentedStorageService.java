@@ -0,0 +1,363 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link StorageService} that records usage statistics of another storage service to which it delegates.
+ * 
+ * The count and latency distribution of each operation and the hit and miss counts of lookups are recorded, and the
+ * number of entries in each partition may be queried. Because every operation of a storage service is atomic, the
+ * latency of an operation includes any time spent waiting for the delegate's locks; the latency of
+ * {@link #putIfAbsentOrExpired(String, Object, Object)} is, for example, the time taken by each
+ * {@link ReplayCache#isReplay(String, String)} check.
+ * 
+ * Statistics are available through the {@link InstrumentedStorageServiceMBean} interface, so the service may be
+ * registered with an MBean server, e.g.
+ * <code>ManagementFactory.getPlatformMBeanServer().registerMBean(service, new
+ * ObjectName("org.opensaml:type=StorageService,name=replay"))</code>. Recording can be disabled, in which case each
+ * operation costs one volatile read over that of the delegate.
+ * 
+ * Note that wrapping a storage service hides any additional interfaces it implements, such as
+ * {@link HashedReplayStore}.
+ * 
+ * @param <KeyType> object type of the keys
+ * @param <ValueType> object type of the values
+ */
+public class InstrumentedStorageService<KeyType, ValueType> implements StorageService<KeyType, ValueType>,
+        InstrumentedStorageServiceMBean {
+
+    /** Nanoseconds per microsecond. */
+    private static final double NANOS_PER_MICRO = 1000.0;
+
+    /** Storage service to which operations are delegated. */
+    private StorageService<KeyType, ValueType> delegate;
+
+    /** Whether statistics are being recorded. */
+    private volatile boolean enabled;
+
+    /** Statistics, keyed by operation name. */
+    private Map<String, OperationStatistics> statistics;
+
+    /** Statistics of the contains operation. */
+    private OperationStatistics containsStatistics;
+
+    /** Statistics of the get operation. */
+    private OperationStatistics getStatistics;
+
+    /** Statistics of the put operation. */
+    private OperationStatistics putStatistics;
+
+    /** Statistics of the putIfAbsent operation. */
+    private OperationStatistics putIfAbsentStatistics;
+
+    /** Statistics of the putIfAbsentOrExpired operation. */
+    private OperationStatistics putIfAbsentOrExpiredStatistics;
+
+    /** Statistics of the replace operation. */
+    private OperationStatistics replaceStatistics;
+
+    /** Statistics of the remove operations. */
+    private OperationStatistics removeStatistics;
+
+    /** Number of lookups that found an entry. */
+    private AtomicLong hits;
+
+    /** Number of lookups that did not find an entry. */
+    private AtomicLong misses;
+
+    /**
+     * Constructor.
+     * 
+     * @param storageService storage service to which operations are delegated
+     */
+    public InstrumentedStorageService(StorageService<KeyType, ValueType> storageService) {
+        if (storageService == null) {
+            throw new IllegalArgumentException("Storage service may not be null");
+        }
+
+        delegate = storageService;
+        enabled = true;
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+
+        containsStatistics = new OperationStatistics();
+        getStatistics = new OperationStatistics();
+        putStatistics = new OperationStatistics();
+        putIfAbsentStatistics = new OperationStatistics();
+        putIfAbsentOrExpiredStatistics = new OperationStatistics();
+        replaceStatistics = new OperationStatistics();
+        removeStatistics = new OperationStatistics();
+
+        Map<String, OperationStatistics> operations = new LinkedHashMap<String, OperationStatistics>();
+        operations.put("contains", containsStatistics);
+        operations.put("get", getStatistics);
+        operations.put("put", putStatistics);
+        operations.put("putIfAbsent", putIfAbsentStatistics);
+        operations.put("putIfAbsentOrExpired", putIfAbsentOrExpiredStatistics);
+        operations.put("replace", replaceStatistics);
+        operations.put("remove", removeStatistics);
+        statistics = Collections.unmodifiableMap(operations);
+    }
+
+    /**
+     * Gets the storage service to which operations are delegated.
+     * 
+     * @return the storage service to which operations are delegated
+     */
+    public StorageService<KeyType, ValueType> getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Gets the statistics of an operation.
+     * 
+     * @param operation name of the operation, one of those returned by {@link #getOperationNames()}
+     * 
+     * @return the statistics of the operation
+     */
+    public OperationStatistics getStatistics(String operation) {
+        OperationStatistics operationStatistics = statistics.get(operation);
+        if (operationStatistics == null) {
+            throw new IllegalArgumentException("Unknown operation: " + operation);
+        }
+        return operationStatistics;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** {@inheritDoc} */
+    public void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    /** {@inheritDoc} */
+    public String[] getPartitionNames() {
+        List<String> names = new ArrayList<String>();
+        Iterator<String> partitions = delegate.getPartitions();
+        while (partitions.hasNext()) {
+            names.add(partitions.next());
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    /** {@inheritDoc} */
+    public long getPartitionSize(String partition) {
+        if (delegate instanceof BoundedStorageService) {
+            return ((BoundedStorageService<KeyType, ValueType>) delegate).getSize(partition);
+        }
+
+        Iterator<KeyType> keys = delegate.getKeys(partition);
+        if (keys == null) {
+            return -1;
+        }
+
+        long size = 0;
+        while (keys.hasNext()) {
+            keys.next();
+            size++;
+        }
+        return size;
+    }
+
+    /** {@inheritDoc} */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** {@inheritDoc} */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** {@inheritDoc} */
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long lookups = hitCount + misses.get();
+        if (lookups == 0) {
+            return 0;
+        }
+        return (double) hitCount / lookups;
+    }
+
+    /** {@inheritDoc} */
+    public String[] getOperationNames() {
+        return statistics.keySet().toArray(new String[statistics.size()]);
+    }
+
+    /** {@inheritDoc} */
+    public long getOperationCount(String operation) {
+        return getStatistics(operation).getCount();
+    }
+
+    /** {@inheritDoc} */
+    public double getMeanLatency(String operation) {
+        return getStatistics(operation).getMeanLatency() / NANOS_PER_MICRO;
+    }
+
+    /** {@inheritDoc} */
+    public double getMaxLatency(String operation) {
+        return getStatistics(operation).getMaxLatency() / NANOS_PER_MICRO;
+    }
+
+    /** {@inheritDoc} */
+    public double getLatencyPercentile(String operation, double percentile) {
+        return getStatistics(operation).getLatencyPercentile(percentile) / NANOS_PER_MICRO;
+    }
+
+    /** {@inheritDoc} */
+    public void resetStatistics() {
+        for (OperationStatistics operationStatistics : statistics.values()) {
+            operationStatistics.reset();
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /** {@inheritDoc} */
+    public Iterator<String> getPartitions() {
+        return delegate.getPartitions();
+    }
+
+    /** {@inheritDoc} */
+    public Iterator<KeyType> getKeys(String partition) {
+        return delegate.getKeys(partition);
+    }
+
+    /** {@inheritDoc} */
+    public boolean contains(String partition, KeyType key) {
+        if (!enabled) {
+            return delegate.contains(partition, key);
+        }
+
+        long start = System.nanoTime();
+        boolean found = delegate.contains(partition, key);
+        containsStatistics.record(System.nanoTime() - start);
+        recordLookup(found);
+        return found;
+    }
+
+    /** {@inheritDoc} */
+    public ValueType get(String partition, KeyType key) {
+        if (!enabled) {
+            return delegate.get(partition, key);
+        }
+
+        long start = System.nanoTime();
+        ValueType value = delegate.get(partition, key);
+        getStatistics.record(System.nanoTime() - start);
+        recordLookup(value != null);
+        return value;
+    }
+
+    /** {@inheritDoc} */
+    public ValueType put(String partition, KeyType key, ValueType value) {
+        if (!enabled) {
+            return delegate.put(partition, key, value);
+        }
+
+        long start = System.nanoTime();
+        ValueType previousValue = delegate.put(partition, key, value);
+        putStatistics.record(System.nanoTime() - start);
+        return previousValue;
+    }
+
+    /** {@inheritDoc} */
+    public ValueType putIfAbsent(String partition, KeyType key, ValueType value) {
+        if (!enabled) {
+            return delegate.putIfAbsent(partition, key, value);
+        }
+
+        long start = System.nanoTime();
+        ValueType currentValue = delegate.putIfAbsent(partition, key, value);
+        putIfAbsentStatistics.record(System.nanoTime() - start);
+        recordLookup(currentValue != null);
+        return currentValue;
+    }
+
+    /** {@inheritDoc} */
+    public ValueType putIfAbsentOrExpired(String partition, KeyType key, ValueType value) {
+        if (!enabled) {
+            return delegate.putIfAbsentOrExpired(partition, key, value);
+        }
+
+        long start = System.nanoTime();
+        ValueType currentValue = delegate.putIfAbsentOrExpired(partition, key, value);
+        putIfAbsentOrExpiredStatistics.record(System.nanoTime() - start);
+        recordLookup(currentValue != null);
+        return currentValue;
+    }
+
+    /** {@inheritDoc} */
+    public boolean replace(String partition, KeyType key, ValueType oldValue, ValueType newValue) {
+        if (!enabled) {
+            return delegate.replace(partition, key, oldValue, newValue);
+        }
+
+        long start = System.nanoTime();
+        boolean replaced = delegate.replace(partition, key, oldValue, newValue);
+        replaceStatistics.record(System.nanoTime() - start);
+        return replaced;
+    }
+
+    /** {@inheritDoc} */
+    public ValueType remove(String partition, KeyType key) {
+        if (!enabled) {
+            return delegate.remove(partition, key);
+        }
+
+        long start = System.nanoTime();
+        ValueType value = delegate.remove(partition, key);
+        removeStatistics.record(System.nanoTime() - start);
+        return value;
+    }
+
+    /** {@inheritDoc} */
+    public boolean remove(String partition, KeyType key, ValueType value) {
+        if (!enabled) {
+            return delegate.remove(partition, key, value);
+        }
+
+        long start = System.nanoTime();
+        boolean removed = delegate.remove(partition, key, value);
+        removeStatistics.record(System.nanoTime() - start);
+        return removed;
+    }
+
+    /**
+     * Records the outcome of a lookup.
+     * 
+     * @param hit whether the lookup found an entry
+     */
+    private void recordLookup(boolean hit) {
+        if (hit) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,121 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+/**
+ * Management interface of an {@link InstrumentedStorageService}. Latencies are reported in microseconds.
+ */
+public interface InstrumentedStorageServiceMBean {
+
+    /**
+     * Gets whether statistics are being recorded.
+     * 
+     * @return true if statistics are being recorded
+     */
+    public boolean isEnabled();
+
+    /**
+     * Sets whether statistics are recorded.
+     * 
+     * @param enabled whether statistics are recorded
+     */
+    public void setEnabled(boolean enabled);
+
+    /**
+     * Gets the names of the storage service's partitions.
+     * 
+     * @return names of the partitions
+     */
+    public String[] getPartitionNames();
+
+    /**
+     * Gets the number of entries in a partition.
+     * 
+     * @param partition the partition
+     * 
+     * @return number of entries in the partition, or -1 if the storage service can not enumerate its entries
+     */
+    public long getPartitionSize(String partition);
+
+    /**
+     * Gets the number of lookups that found an entry.
+     * 
+     * @return number of lookups that found an entry
+     */
+    public long getHitCount();
+
+    /**
+     * Gets the number of lookups that did not find an entry.
+     * 
+     * @return number of lookups that did not find an entry
+     */
+    public long getMissCount();
+
+    /**
+     * Gets the fraction of lookups that found an entry.
+     * 
+     * @return fraction of lookups that found an entry, or 0 if there have been none
+     */
+    public double getHitRatio();
+
+    /**
+     * Gets the names of the instrumented operations.
+     * 
+     * @return names of the instrumented operations
+     */
+    public String[] getOperationNames();
+
+    /**
+     * Gets the number of times an operation has been invoked.
+     * 
+     * @param operation name of the operation
+     * 
+     * @return number of invocations
+     */
+    public long getOperationCount(String operation);
+
+    /**
+     * Gets the mean latency of an operation.
+     * 
+     * @param operation name of the operation
+     * 
+     * @return mean latency, in microseconds
+     */
+    public double getMeanLatency(String operation);
+
+    /**
+     * Gets the greatest latency of an operation.
+     * 
+     * @param operation name of the operation
+     * 
+     * @return greatest latency, in microseconds
+     */
+    public double getMaxLatency(String operation);
+
+    /**
+     * Gets an estimate of the latency below which the given percentage of invocations of an operation fall.
+     * 
+     * @param operation name of the operation
+     * @param percentile the percentage, between 0 and 100
+     * 
+     * @return the latency, in microseconds
+     */
+    public double getLatencyPercentile(String operation, double percentile);
+
+    /** Discards the recorded statistics. */
+    public void resetStatistics();
+}
\ No newline at end of file
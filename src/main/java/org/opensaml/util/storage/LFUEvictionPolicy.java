@@ -0,0 +1,153 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * An {@link EvictionPolicy} that evicts the least frequently used entry, breaking ties by evicting the entry that
+ * reached that frequency first. Each write or read of an entry counts as one use.
+ * 
+ * Selection, as well as recording a use, is a constant time operation: keys are kept in buckets of equal use count and
+ * the lowest non-empty count is tracked.
+ * 
+ * @param <KeyType> object type of the keys
+ * @param <ValueType> object type of the values
+ */
+public class LFUEvictionPolicy<KeyType, ValueType> implements EvictionPolicy<KeyType, ValueType> {
+
+    /** Use count of each tracked key. */
+    private Map<KeyType, Integer> useCounts;
+
+    /** Keys grouped by use count, each group in the order the keys reached that count. */
+    private Map<Integer, LinkedHashSet<KeyType>> countBuckets;
+
+    /** Lowest use count of any tracked key. */
+    private int minimumCount;
+
+    /** Constructor. */
+    public LFUEvictionPolicy() {
+        useCounts = new HashMap<KeyType, Integer>();
+        countBuckets = new HashMap<Integer, LinkedHashSet<KeyType>>();
+    }
+
+    /** {@inheritDoc} */
+    public void onWrite(KeyType key, ValueType value) {
+        if (useCounts.containsKey(key)) {
+            recordUse(key);
+        } else {
+            useCounts.put(key, 1);
+            getBucket(1).add(key);
+            minimumCount = 1;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void onRead(KeyType key) {
+        if (useCounts.containsKey(key)) {
+            recordUse(key);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void onRemove(KeyType key) {
+        Integer count = useCounts.remove(key);
+        if (count != null) {
+            removeFromBucket(count, key);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public KeyType selectVictim() {
+        if (useCounts.isEmpty()) {
+            return null;
+        }
+
+        LinkedHashSet<KeyType> bucket = countBuckets.get(minimumCount);
+        if (bucket == null) {
+            // minimum was vacated by a removal, find the new one
+            minimumCount = Integer.MAX_VALUE;
+            for (Integer count : countBuckets.keySet()) {
+                minimumCount = Math.min(minimumCount, count);
+            }
+            bucket = countBuckets.get(minimumCount);
+        }
+
+        return bucket.iterator().next();
+    }
+
+    /**
+     * Records one use of a tracked key, moving it to the next bucket.
+     * 
+     * @param key the key
+     */
+    private void recordUse(KeyType key) {
+        int count = useCounts.get(key);
+        if (count == Integer.MAX_VALUE) {
+            return;
+        }
+
+        removeFromBucket(count, key);
+        if (count == minimumCount && !countBuckets.containsKey(count)) {
+            minimumCount = count + 1;
+        }
+
+        useCounts.put(key, count + 1);
+        getBucket(count + 1).add(key);
+    }
+
+    /**
+     * Removes a key from the bucket of the given count, discarding the bucket if it becomes empty.
+     * 
+     * @param count the use count
+     * @param key the key
+     */
+    private void removeFromBucket(int count, KeyType key) {
+        LinkedHashSet<KeyType> bucket = countBuckets.get(count);
+        bucket.remove(key);
+        if (bucket.isEmpty()) {
+            countBuckets.remove(count);
+        }
+    }
+
+    /**
+     * Gets the bucket for the given count, creating it if necessary.
+     * 
+     * @param count the use count
+     * 
+     * @return the bucket
+     */
+    private LinkedHashSet<KeyType> getBucket(int count) {
+        LinkedHashSet<KeyType> bucket = countBuckets.get(count);
+        if (bucket == null) {
+            bucket = new LinkedHashSet<KeyType>();
+            countBuckets.put(count, bucket);
+        }
+        return bucket;
+    }
+
+    /** Factory for {@link LFUEvictionPolicy} instances. */
+    public static class Factory implements EvictionPolicyFactory {
+
+        /** {@inheritDoc} */
+        public <KeyType, ValueType> EvictionPolicy<KeyType, ValueType> createPolicy() {
+            return new LFUEvictionPolicy<KeyType, ValueType>();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,70 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * An {@link EvictionPolicy} that evicts the least recently used entry.
+ * 
+ * @param <KeyType> object type of the keys
+ * @param <ValueType> object type of the values
+ */
+public class LRUEvictionPolicy<KeyType, ValueType> implements EvictionPolicy<KeyType, ValueType> {
+
+    /** Tracked keys, in access order. */
+    private LinkedHashMap<KeyType, Boolean> accessOrder;
+
+    /** Constructor. */
+    public LRUEvictionPolicy() {
+        accessOrder = new LinkedHashMap<KeyType, Boolean>(16, 0.75f, true);
+    }
+
+    /** {@inheritDoc} */
+    public void onWrite(KeyType key, ValueType value) {
+        accessOrder.put(key, Boolean.TRUE);
+    }
+
+    /** {@inheritDoc} */
+    public void onRead(KeyType key) {
+        accessOrder.get(key);
+    }
+
+    /** {@inheritDoc} */
+    public void onRemove(KeyType key) {
+        accessOrder.remove(key);
+    }
+
+    /** {@inheritDoc} */
+    public KeyType selectVictim() {
+        Iterator<KeyType> keys = accessOrder.keySet().iterator();
+        if (keys.hasNext()) {
+            return keys.next();
+        }
+        return null;
+    }
+
+    /** Factory for {@link LRUEvictionPolicy} instances. */
+    public static class Factory implements EvictionPolicyFactory {
+
+        /** {@inheritDoc} */
+        public <KeyType, ValueType> EvictionPolicy<KeyType, ValueType> createPolicy() {
+            return new LRUEvictionPolicy<KeyType, ValueType>();
+        }
+    }
+}
\ No newline at end of file
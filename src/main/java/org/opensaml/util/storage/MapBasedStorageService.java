@@ -24,6 +24,10 @@ import java.util.Set;
 /**
  * A simple {@link Map} based {@link StorageService} implementation.
  * 
+ * Each partition is backed by a {@link Hashtable}. Conditional operations are made atomic by synchronizing on the
+ * partition's table, the same monitor used by the table's own methods, so they are consistent with unconditional
+ * reads and writes without requiring a lock over the whole store.
+ * 
  * @param <KeyType> object type of the keys
  * @param <ValueType> object type of the values
  */
@@ -91,16 +95,66 @@ public class MapBasedStorageService<KeyType, ValueType> implements StorageServic
             return null;
         }
 
-        Map<KeyType, ValueType> partitionMap;
-        synchronized (store) {
-            partitionMap = store.get(partition);
-            if (partitionMap == null) {
-                partitionMap = new Hashtable<KeyType, ValueType>();
+        return getPartitionMap(partition).put(key, value);
+    }
+
+    /** {@inheritDoc} */
+    public ValueType putIfAbsent(String partition, KeyType key, ValueType value) {
+        if (key == null) {
+            return null;
+        }
+
+        Map<KeyType, ValueType> partitionMap = getPartitionMap(partition);
+        synchronized (partitionMap) {
+            ValueType currentValue = partitionMap.get(key);
+            if (currentValue == null) {
+                partitionMap.put(key, value);
             }
-            store.put(partition, partitionMap);
+            return currentValue;
         }
+    }
 
-        return partitionMap.put(key, value);
+    /** {@inheritDoc} */
+    public ValueType putIfAbsentOrExpired(String partition, KeyType key, ValueType value) {
+        if (key == null) {
+            return null;
+        }
+
+        Map<KeyType, ValueType> partitionMap = getPartitionMap(partition);
+        ValueType currentValue;
+        synchronized (partitionMap) {
+            currentValue = partitionMap.get(key);
+            if (currentValue != null && !isExpired(currentValue)) {
+                return currentValue;
+            }
+            partitionMap.put(key, value);
+        }
+
+        if (currentValue != null) {
+            ((ExpiringObject) currentValue).onExpire();
+        }
+        return null;
+    }
+
+    /** {@inheritDoc} */
+    public boolean replace(String partition, KeyType key, ValueType oldValue, ValueType newValue) {
+        if (key == null) {
+            return false;
+        }
+
+        Map<KeyType, ValueType> partitionMap = store.get(partition);
+        if (partitionMap == null) {
+            return false;
+        }
+
+        synchronized (partitionMap) {
+            ValueType currentValue = partitionMap.get(key);
+            if (currentValue != null && currentValue.equals(oldValue)) {
+                partitionMap.put(key, newValue);
+                return true;
+            }
+            return false;
+        }
     }
 
     /** {@inheritDoc} */
@@ -115,4 +169,54 @@ public class MapBasedStorageService<KeyType, ValueType> implements StorageServic
 
         return null;
     }
+
+    /** {@inheritDoc} */
+    public boolean remove(String partition, KeyType key, ValueType value) {
+        if (key == null) {
+            return false;
+        }
+
+        Map<KeyType, ValueType> partitionMap = store.get(partition);
+        if (partitionMap == null) {
+            return false;
+        }
+
+        synchronized (partitionMap) {
+            ValueType currentValue = partitionMap.get(key);
+            if (currentValue != null && currentValue.equals(value)) {
+                partitionMap.remove(key);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Gets the map backing the given partition, creating it if it does not yet exist.
+     * 
+     * @param partition the partition
+     * 
+     * @return the map backing the partition
+     */
+    protected Map<KeyType, ValueType> getPartitionMap(String partition) {
+        synchronized (store) {
+            Map<KeyType, ValueType> partitionMap = store.get(partition);
+            if (partitionMap == null) {
+                partitionMap = new Hashtable<KeyType, ValueType>();
+                store.put(partition, partitionMap);
+            }
+            return partitionMap;
+        }
+    }
+
+    /**
+     * Checks whether the given value is an {@link ExpiringObject} that has expired.
+     * 
+     * @param value the value to check
+     * 
+     * @return true if the value has expired, false if not
+     */
+    protected boolean isExpired(ValueType value) {
+        return value instanceof ExpiringObject && ((ExpiringObject) value).isExpired();
+    }
 }
\ No newline at end of file
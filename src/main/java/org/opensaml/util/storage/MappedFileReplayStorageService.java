@@ -0,0 +1,491 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link OffHeapReplayStorageService} whose contents survive restarts.
+ * 
+ * Every change to the table is appended, as a fixed width record of key hash and expiration time, to a memory-mapped
+ * log file in the service's directory. When the active log file fills, a new one is started; once a configured number
+ * of log files has accumulated the store is compacted in the background, writing the live records to a snapshot file
+ * and deleting the log files it supersedes. On construction the latest snapshot and the log files written after it are
+ * mapped and their records copied straight into the table, so no objects are created per entry and state is restored
+ * in time proportional only to the size of the files.
+ * 
+ * Records written to a mapped log are handed to the operating system immediately and so survive the process exiting
+ * or crashing; they are forced to the storage device when a log file fills, on compaction, and on {@link #close()}.
+ * 
+ * The seed of the key hashes is kept in a file of the directory, so that restored records are found again. A directory
+ * holding records but no seed file is rejected, as its records could not be found.
+ * 
+ * Partition names are not persisted, so {@link #getPartitions()} lists only the partitions written to since the
+ * service was constructed. The directory must not be shared between services.
+ */
+public class MappedFileReplayStorageService extends OffHeapReplayStorageService {
+
+    /** Default size, in bytes, of each log file, 64MB. */
+    public static final int DEFAULT_LOG_FILE_SIZE = 64 * 1024 * 1024;
+
+    /** Default number of log files that triggers compaction, 4. */
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 4;
+
+    /** File name suffix of log files. */
+    private static final String LOG_SUFFIX = ".log";
+
+    /** File name suffix of snapshot files. */
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    /** File name suffix of snapshot files being written. */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** Name of the file holding the seed of the key hashes. */
+    private static final String SEED_FILE = "hash.seed";
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(MappedFileReplayStorageService.class);
+
+    /** Directory holding the log and snapshot files. */
+    private File directory;
+
+    /** Size, in bytes, of each log file. */
+    private int logFileSize;
+
+    /** Number of log files that triggers compaction. */
+    private int compactionThreshold;
+
+    /** Lock guarding the active log. */
+    private final Object logLock = new Object();
+
+    /** Lock serializing compactions. */
+    private final Object compactionLock = new Object();
+
+    /** Log records are currently appended to, or null if it could not be created. */
+    private MappedByteBuffer activeLog;
+
+    /** Sequence number of the active log. */
+    private long activeSequence;
+
+    /** Number of log files not yet superseded by a snapshot, including the active one. */
+    private int logCount;
+
+    /** Whether a background compaction has been requested and not yet started. */
+    private boolean compactionPending;
+
+    /** Executor running background compactions. */
+    private ExecutorService compactor;
+
+    /**
+     * Constructor.
+     * 
+     * @param storageDirectory directory holding the service's files, created if it does not exist
+     * @param maxEntries number of entries the service should be able to hold
+     * 
+     * @throws IOException thrown if the existing files can not be read or a new log file can not be created
+     */
+    public MappedFileReplayStorageService(File storageDirectory, long maxEntries) throws IOException {
+        this(storageDirectory, maxEntries, 64, DEFAULT_LOG_FILE_SIZE, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param storageDirectory directory holding the service's files, created if it does not exist
+     * @param maxEntries number of entries the service should be able to hold
+     * @param concurrency number of independently locked segments, rounded up to the next power of two
+     * @param logSize size, in bytes, of each log file
+     * @param threshold number of log files that triggers compaction
+     * 
+     * @throws IOException thrown if the existing files can not be read or a new log file can not be created
+     */
+    public MappedFileReplayStorageService(File storageDirectory, long maxEntries, int concurrency, int logSize,
+            int threshold) throws IOException {
+        super(maxEntries, concurrency, loadHashSeed(storageDirectory));
+
+        if (logSize < RECORD_SIZE) {
+            throw new IllegalArgumentException("Log file size must be at least " + RECORD_SIZE + " bytes");
+        }
+
+        if (threshold < 2) {
+            throw new IllegalArgumentException("Compaction threshold must be at least 2");
+        }
+
+        if (!storageDirectory.isDirectory() && !storageDirectory.mkdirs()) {
+            throw new IOException("Unable to create storage directory " + storageDirectory.getAbsolutePath());
+        }
+
+        directory = storageDirectory;
+        logFileSize = logSize - logSize % RECORD_SIZE;
+        compactionThreshold = threshold;
+        compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "MappedFileReplayStorageService compactor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        restore();
+    }
+
+    /**
+     * Writes the live records to a snapshot and deletes the log files it supersedes. Writes made while the snapshot is
+     * being written go to a new log file and so are not lost.
+     * 
+     * @throws IOException thrown if the snapshot can not be written
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            long snapshotSequence;
+            synchronized (logLock) {
+                compactionPending = false;
+                snapshotSequence = activeSequence;
+                startLog(snapshotSequence + 1);
+            }
+
+            long start = System.currentTimeMillis();
+            File tempFile = getFile(snapshotSequence, SNAPSHOT_SUFFIX + TEMP_SUFFIX);
+            FileOutputStream fileOut = new FileOutputStream(tempFile);
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+            final long[] count = new long[1];
+            try {
+                forEachRecord(new RecordHandler() {
+                    public void handle(long keyHigh, long keyLow, long expiration) throws IOException {
+                        out.writeLong(keyHigh);
+                        out.writeLong(keyLow);
+                        out.writeLong(expiration);
+                        count[0]++;
+                    }
+                }, start);
+                out.flush();
+                fileOut.getFD().sync();
+            } finally {
+                out.close();
+            }
+
+            File snapshotFile = getFile(snapshotSequence, SNAPSHOT_SUFFIX);
+            if (!tempFile.renameTo(snapshotFile)) {
+                tempFile.delete();
+                throw new IOException("Unable to rename " + tempFile.getAbsolutePath() + " to "
+                        + snapshotFile.getName());
+            }
+
+            deleteFilesBefore(snapshotSequence);
+            log.debug("Compacted replay storage into snapshot {} in {}ms", snapshotFile.getName(),
+                    System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Forces the active log to the storage device and stops background compaction. The service must not be used once
+     * closed.
+     */
+    public void close() {
+        compactor.shutdown();
+        synchronized (logLock) {
+            if (activeLog != null) {
+                activeLog.force();
+                activeLog = null;
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    protected void recordWritten(long keyHigh, long keyLow, long expiration) {
+        append(keyHigh, keyLow, expiration);
+    }
+
+    /** {@inheritDoc} */
+    protected void recordRemoved(long keyHigh, long keyLow) {
+        append(keyHigh, keyLow, 0);
+    }
+
+    /**
+     * Appends a record to the active log, starting a new log if the active one is full.
+     * 
+     * @param keyHigh high 64 bits of the key hash
+     * @param keyLow low 64 bits of the key hash
+     * @param expiration expiration time of the record, or 0 if the key was removed
+     */
+    private void append(long keyHigh, long keyLow, long expiration) {
+        synchronized (logLock) {
+            if (activeLog == null || activeLog.remaining() < RECORD_SIZE) {
+                try {
+                    startLog(activeSequence + 1);
+                } catch (IOException e) {
+                    log.error("Unable to start new replay storage log, changes will not be persisted", e);
+                    return;
+                }
+                requestCompaction();
+            }
+
+            activeLog.putLong(keyHigh);
+            activeLog.putLong(keyLow);
+            activeLog.putLong(expiration);
+        }
+    }
+
+    /** Requests a background compaction if enough log files have accumulated. Must be called holding the log lock. */
+    private void requestCompaction() {
+        if (logCount < compactionThreshold || compactionPending || compactor.isShutdown()) {
+            return;
+        }
+
+        compactionPending = true;
+        compactor.execute(new Runnable() {
+            public void run() {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    log.error("Unable to compact replay storage", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Forces the active log, if any, to the storage device and starts a new one. Must be called holding the log lock.
+     * 
+     * @param sequence sequence number of the new log
+     * 
+     * @throws IOException thrown if the new log can not be created
+     */
+    private void startLog(long sequence) throws IOException {
+        if (activeLog != null) {
+            activeLog.force();
+            activeLog = null;
+        }
+
+        File logFile = getFile(sequence, LOG_SUFFIX);
+        RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+        try {
+            file.setLength(logFileSize);
+            activeLog = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, logFileSize);
+        } finally {
+            file.close();
+        }
+        activeSequence = sequence;
+        logCount++;
+    }
+
+    /**
+     * Reads the seed of the key hashes from the storage directory, creating the directory and a new random seed if
+     * there is none.
+     * 
+     * @param storageDirectory directory holding the service's files
+     * 
+     * @return the seed of the key hashes
+     * 
+     * @throws IOException thrown if the seed can not be read or written, or the directory holds records but no seed
+     */
+    private static long loadHashSeed(File storageDirectory) throws IOException {
+        if (!storageDirectory.isDirectory() && !storageDirectory.mkdirs()) {
+            throw new IOException("Unable to create storage directory " + storageDirectory.getAbsolutePath());
+        }
+
+        File seedFile = new File(storageDirectory, SEED_FILE);
+        if (seedFile.exists()) {
+            DataInputStream in = new DataInputStream(new FileInputStream(seedFile));
+            try {
+                return in.readLong();
+            } finally {
+                in.close();
+            }
+        }
+
+        for (File file : storageDirectory.listFiles()) {
+            if (file.getName().endsWith(LOG_SUFFIX) || file.getName().endsWith(SNAPSHOT_SUFFIX)) {
+                throw new IOException("Storage directory " + storageDirectory.getAbsolutePath()
+                        + " holds records but no hash seed file " + SEED_FILE);
+            }
+        }
+
+        long seed = MurmurHash3.newSeed();
+
+        File tempFile = new File(storageDirectory, SEED_FILE + TEMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            new DataOutputStream(out).writeLong(seed);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(seedFile)) {
+            throw new IOException("Unable to create hash seed file " + seedFile.getAbsolutePath());
+        }
+        return seed;
+    }
+
+    /**
+     * Loads the latest snapshot and the log files written after it, and starts a new log.
+     * 
+     * @throws IOException thrown if a file can not be read or the new log can not be created
+     */
+    private void restore() throws IOException {
+        long start = System.currentTimeMillis();
+        long snapshotSequence = -1;
+        long lastSequence = -1;
+        File[] files = directory.listFiles();
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.getName().endsWith(SNAPSHOT_SUFFIX)) {
+                snapshotSequence = Math.max(snapshotSequence, getSequence(file));
+            }
+        }
+
+        if (snapshotSequence >= 0) {
+            load(getFile(snapshotSequence, SNAPSHOT_SUFFIX));
+        }
+
+        int logs = 0;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(LOG_SUFFIX)) {
+                if (getSequence(file) > snapshotSequence) {
+                    load(file);
+                }
+                logs++;
+            }
+            if (name.endsWith(LOG_SUFFIX) || name.endsWith(SNAPSHOT_SUFFIX)) {
+                lastSequence = Math.max(lastSequence, getSequence(file));
+            }
+        }
+
+        synchronized (logLock) {
+            logCount = logs;
+        }
+        deleteFilesBefore(snapshotSequence);
+        synchronized (logLock) {
+            startLog(lastSequence + 1);
+            requestCompaction();
+        }
+
+        log.info("Restored replay storage from {} in {}ms", directory.getAbsolutePath(), System.currentTimeMillis()
+                - start);
+    }
+
+    /**
+     * Copies the records of a snapshot or log file into the table. A log file's records end at the first record that
+     * is entirely zero.
+     * 
+     * @param file the file to load
+     * 
+     * @throws IOException thrown if the file can not be read
+     */
+    private void load(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        MappedByteBuffer records;
+        try {
+            records = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+        } finally {
+            randomAccessFile.close();
+        }
+
+        while (records.remaining() >= RECORD_SIZE) {
+            long keyHigh = records.getLong();
+            long keyLow = records.getLong();
+            long expiration = records.getLong();
+            if (expiration != 0) {
+                putRecord(keyHigh, keyLow, expiration);
+            } else if (keyHigh == 0 && keyLow == 0) {
+                break;
+            } else {
+                removeRecord(keyHigh, keyLow);
+            }
+        }
+    }
+
+    /**
+     * Deletes the log files, and snapshots other than the given one, superseded by the snapshot with the given
+     * sequence number. Files that can not be deleted, for example because they are still mapped, are left for a later
+     * compaction.
+     * 
+     * @param snapshotSequence sequence number of the current snapshot
+     */
+    private void deleteFilesBefore(long snapshotSequence) {
+        int deleted = 0;
+        for (File file : directory.listFiles()) {
+            String name = file.getName();
+            boolean superseded = name.endsWith(LOG_SUFFIX) && getSequence(file) <= snapshotSequence
+                    || name.endsWith(SNAPSHOT_SUFFIX) && getSequence(file) < snapshotSequence
+                    || name.endsWith(TEMP_SUFFIX);
+            if (superseded) {
+                if (file.delete()) {
+                    if (name.endsWith(LOG_SUFFIX)) {
+                        deleted++;
+                    }
+                } else {
+                    log.warn("Unable to delete superseded replay storage file {}", file.getAbsolutePath());
+                }
+            }
+        }
+
+        synchronized (logLock) {
+            logCount -= deleted;
+        }
+    }
+
+    /**
+     * Gets the file with the given sequence number and suffix.
+     * 
+     * @param sequence the sequence number
+     * @param suffix the file name suffix
+     * 
+     * @return the file
+     */
+    private File getFile(long sequence, String suffix) {
+        return new File(directory, String.format("%020d", sequence) + suffix);
+    }
+
+    /**
+     * Gets the sequence number of a log or snapshot file.
+     * 
+     * @param file the file
+     * 
+     * @return the sequence number, or -1 if the file name does not start with one
+     */
+    private long getSequence(File file) {
+        String name = file.getName();
+        int end = name.indexOf('.');
+        if (end <= 0) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(name.substring(0, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,261 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.security.SecureRandom;
+
+/**
+ * An allocation free implementation of the 128-bit x64 variant of Austin Appleby's MurmurHash3, used to reduce storage
+ * keys to fixed width hashes.
+ * 
+ * Strings are hashed as a stream of UTF-16 code units. A storage key is hashed as its partition name, a separator,
+ * and then the concatenation of one or more key parts, so that hashing the parts separately yields the same result as
+ * hashing their concatenation without having to build it.
+ * 
+ * Callers supply a state array of at least {@link #STATE_LENGTH} elements, which may be reused between calls; on
+ * return the first two elements hold the high and low 64 bits of the hash.
+ * 
+ * Keys such as message IDs are chosen by whoever sends the message, so every hash is seeded. A store should draw its
+ * seed from {@link #newSeed()} and keep it secret, so that keys whose hashes collide can not be computed in advance to
+ * flood the store with colliding entries.
+ */
+public final class MurmurHash3 {
+
+    /** Required length of the state array. */
+    public static final int STATE_LENGTH = 5;
+
+    /** Separator hashed between the partition and the key. */
+    private static final char SEPARATOR = '\uFFFF';
+
+    /** Mixing constant. */
+    private static final long C1 = 0x87c37b91114253d5L;
+
+    /** Mixing constant. */
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    /** State index of the first half of the hash. */
+    private static final int H1 = 0;
+
+    /** State index of the second half of the hash. */
+    private static final int H2 = 1;
+
+    /** State index of the first half of the pending block. */
+    private static final int K1 = 2;
+
+    /** State index of the second half of the pending block. */
+    private static final int K2 = 3;
+
+    /** State index of the number of code units hashed so far. */
+    private static final int LENGTH = 4;
+
+    /** Source of hash seeds. */
+    private static final SecureRandom SEED_SOURCE = new SecureRandom();
+
+    /** Constructor. */
+    private MurmurHash3() {
+    }
+
+    /**
+     * Creates a new random hash seed.
+     * 
+     * @return the seed
+     */
+    public static long newSeed() {
+        synchronized (SEED_SOURCE) {
+            return SEED_SOURCE.nextLong();
+        }
+    }
+
+    /**
+     * Hashes a partitioned storage key.
+     * 
+     * @param seed the hash seed
+     * @param partition the storage partition
+     * @param key the key
+     * @param state hash state, on return holding the hash in its first two elements
+     */
+    public static void hash(long seed, String partition, String key, long[] state) {
+        begin(state, seed);
+        update(state, partition);
+        update(state, SEPARATOR);
+        update(state, key);
+        finish(state);
+    }
+
+    /**
+     * Hashes a partitioned storage key given as two parts, for example the issuer and ID of a message. The result is
+     * the same as that of hashing the concatenation of the two parts.
+     * 
+     * @param seed the hash seed
+     * @param partition the storage partition
+     * @param keyPrefix the first part of the key
+     * @param keySuffix the second part of the key
+     * @param state hash state, on return holding the hash in its first two elements
+     */
+    public static void hash(long seed, String partition, String keyPrefix, String keySuffix, long[] state) {
+        begin(state, seed);
+        update(state, partition);
+        update(state, SEPARATOR);
+        update(state, keyPrefix);
+        update(state, keySuffix);
+        finish(state);
+    }
+
+    /**
+     * Resets the hash state.
+     * 
+     * @param state the hash state
+     * @param seed the hash seed
+     */
+    private static void begin(long[] state, long seed) {
+        state[H1] = seed;
+        state[H2] = seed;
+        state[K1] = 0;
+        state[K2] = 0;
+        state[LENGTH] = 0;
+    }
+
+    /**
+     * Adds a string to the hash. Null strings are treated as empty.
+     * 
+     * @param state the hash state
+     * @param value the string
+     */
+    private static void update(long[] state, String value) {
+        if (value == null) {
+            return;
+        }
+
+        for (int i = 0; i < value.length(); i++) {
+            update(state, value.charAt(i));
+        }
+    }
+
+    /**
+     * Adds a single UTF-16 code unit to the hash, mixing in the pending block once it is full.
+     * 
+     * @param state the hash state
+     * @param value the code unit
+     */
+    private static void update(long[] state, char value) {
+        int position = (int) (state[LENGTH] & 7);
+        if (position < 4) {
+            state[K1] |= ((long) value) << (position * 16);
+        } else {
+            state[K2] |= ((long) value) << ((position - 4) * 16);
+        }
+        state[LENGTH]++;
+
+        if (position == 7) {
+            long h1 = state[H1];
+            long h2 = state[H2];
+
+            h1 ^= mixK1(state[K1]);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(state[K2]);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+
+            state[H1] = h1;
+            state[H2] = h2;
+            state[K1] = 0;
+            state[K2] = 0;
+        }
+    }
+
+    /**
+     * Mixes in any partial block and finalizes the hash.
+     * 
+     * @param state the hash state
+     */
+    private static void finish(long[] state) {
+        long h1 = state[H1];
+        long h2 = state[H2];
+
+        int tail = (int) (state[LENGTH] & 7);
+        if (tail > 4) {
+            h2 ^= mixK2(state[K2]);
+        }
+        if (tail > 0) {
+            h1 ^= mixK1(state[K1]);
+        }
+
+        long byteLength = state[LENGTH] * 2;
+        h1 ^= byteLength;
+        h2 ^= byteLength;
+
+        h1 += h2;
+        h2 += h1;
+
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+
+        h1 += h2;
+        h2 += h1;
+
+        state[H1] = h1;
+        state[H2] = h2;
+    }
+
+    /**
+     * Mixes the first half of a block.
+     * 
+     * @param k1 first half of the block
+     * 
+     * @return the mixed value
+     */
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        return k1;
+    }
+
+    /**
+     * Mixes the second half of a block.
+     * 
+     * @param k2 second half of the block
+     * 
+     * @return the mixed value
+     */
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        return k2;
+    }
+
+    /**
+     * Final avalanche mix.
+     * 
+     * @param k the value to mix
+     * 
+     * @return the mixed value
+     */
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,785 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTime;
+import org.opensaml.util.storage.ReplayCache.ReplayCacheEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link StorageService} for {@link ReplayCache} entries that keeps its data outside of the Java heap.
+ * 
+ * Each key, qualified by its partition, is reduced to a 128-bit {@link MurmurHash3} hash, seeded randomly per instance
+ * so that colliding keys can not be precomputed, and stored, along with the entry's expiration time in milliseconds, as
+ * a fixed width record in an open addressing hash table held in direct {@link ByteBuffer}s. Neither keys nor entries
+ * are retained on the heap; entries returned from the service are created on demand. The table is split into
+ * independently locked segments so that concurrent operations on different keys rarely contend.
+ * 
+ * Expired records are reused in place as new keys are written, so the table needs no sweeping. Should a segment fill
+ * with live records it is first purged of expired ones; if it is still full the record closest to expiring along the
+ * new key's probe sequence is overwritten and counted as an eviction. Batches of replay checks lock each segment they
+ * touch only once.
+ * 
+ * Because keys are stored only as hashes, {@link #getKeys(String)} returns null and partitions can not be removed
+ * through {@link #getPartitions()}. Two entries are considered equal, for the conditional operations, if they have the
+ * same expiration time. Distinct keys whose 128-bit hashes collide are indistinguishable, which is vanishingly
+ * unlikely.
+ */
+public class OffHeapReplayStorageService implements StorageService<String, ReplayCacheEntry>, BatchReplayStore {
+
+    /** Number of bytes in each record: two longs of key hash and one of expiration time. */
+    protected static final int RECORD_SIZE = 24;
+
+    /** Maximum fraction of records within a segment that may be occupied. */
+    private static final float MAX_LOAD = 0.75f;
+
+    /** Maximum number of records in a segment, bounded by the maximum size of a buffer. */
+    private static final int MAX_SEGMENT_RECORDS = 1 << 26;
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(OffHeapReplayStorageService.class);
+
+    /** Segments of the table. */
+    private Segment[] segments;
+
+    /** Shift applied to the high half of a key hash to select its segment. */
+    private int segmentShift;
+
+    /** Names of the partitions written to. */
+    private ConcurrentMap<String, Boolean> partitions;
+
+    /** Seed of the key hashes. */
+    private long hashSeed;
+
+    /** Per-thread hash state. */
+    private ThreadLocal<long[]> hashState;
+
+    /** Number of live records overwritten because their segment was full. */
+    private AtomicLong evictions;
+
+    /**
+     * Constructor.
+     * 
+     * @param maxEntries number of entries the service should be able to hold
+     */
+    public OffHeapReplayStorageService(long maxEntries) {
+        this(maxEntries, 64);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param maxEntries number of entries the service should be able to hold
+     * @param concurrency number of independently locked segments, rounded up to the next power of two
+     */
+    public OffHeapReplayStorageService(long maxEntries, int concurrency) {
+        this(maxEntries, concurrency, MurmurHash3.newSeed());
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param maxEntries number of entries the service should be able to hold
+     * @param concurrency number of independently locked segments, rounded up to the next power of two
+     * @param seed seed of the key hashes
+     */
+    protected OffHeapReplayStorageService(long maxEntries, int concurrency, long seed) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Maximum number of entries must be greater than zero");
+        }
+
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency level must be greater than zero");
+        }
+
+        int segmentCount = 1;
+        while (segmentCount < concurrency) {
+            segmentCount <<= 1;
+        }
+
+        long recordsPerSegment = (long) Math.ceil(maxEntries / MAX_LOAD / segmentCount);
+        int segmentRecords = 16;
+        while (segmentRecords < recordsPerSegment) {
+            if (segmentRecords == MAX_SEGMENT_RECORDS) {
+                throw new IllegalArgumentException("Maximum number of entries is too large for " + segmentCount
+                        + " segments, increase the concurrency level");
+            }
+            segmentRecords <<= 1;
+        }
+
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(segmentRecords);
+        }
+        segmentShift = 64 - Integer.numberOfTrailingZeros(segmentCount);
+
+        partitions = new ConcurrentHashMap<String, Boolean>();
+        hashSeed = seed;
+        hashState = new ThreadLocal<long[]>() {
+            protected long[] initialValue() {
+                return new long[MurmurHash3.STATE_LENGTH];
+            }
+        };
+        evictions = new AtomicLong();
+
+        log.debug("Allocated {} bytes of off-heap replay storage", (long) segmentCount * segmentRecords * RECORD_SIZE);
+    }
+
+    /** {@inheritDoc} */
+    public long getHashSeed() {
+        return hashSeed;
+    }
+
+    /**
+     * Gets the number of live entries overwritten because there was no room for a new entry.
+     * 
+     * @return number of entries evicted
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Gets the number of records currently occupied, including those that have expired but not yet been reused.
+     * 
+     * @return number of occupied records
+     */
+    public long getSize() {
+        long size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    /** {@inheritDoc} */
+    public Iterator<String> getPartitions() {
+        return Collections.unmodifiableSet(partitions.keySet()).iterator();
+    }
+
+    /** {@inheritDoc} */
+    public Iterator<String> getKeys(String partition) {
+        return null;
+    }
+
+    /** {@inheritDoc} */
+    public boolean contains(String partition, String key) {
+        if (key == null) {
+            return false;
+        }
+
+        long[] hash = hash(partition, key);
+        return getExpiration(hash[0], hash[1]) != 0;
+    }
+
+    /** {@inheritDoc} */
+    public ReplayCacheEntry get(String partition, String key) {
+        if (key == null) {
+            return null;
+        }
+
+        long[] hash = hash(partition, key);
+        return toEntry(getExpiration(hash[0], hash[1]));
+    }
+
+    /** {@inheritDoc} */
+    public ReplayCacheEntry put(String partition, String key, ReplayCacheEntry value) {
+        if (key == null || value == null) {
+            return null;
+        }
+
+        partitions.putIfAbsent(partition, Boolean.TRUE);
+        long[] hash = hash(partition, key);
+        Segment segment = segmentFor(hash[0]);
+        long expiration = toExpiration(value);
+        synchronized (segment) {
+            long previousExpiration = segment.put(hash[0], hash[1], expiration, false, false,
+                    System.currentTimeMillis());
+            recordWritten(hash[0], hash[1], expiration);
+            return toEntry(previousExpiration);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public ReplayCacheEntry putIfAbsent(String partition, String key, ReplayCacheEntry value) {
+        if (key == null || value == null) {
+            return null;
+        }
+
+        partitions.putIfAbsent(partition, Boolean.TRUE);
+        long[] hash = hash(partition, key);
+        Segment segment = segmentFor(hash[0]);
+        long expiration = toExpiration(value);
+        synchronized (segment) {
+            long currentExpiration = segment.put(hash[0], hash[1], expiration, true, false,
+                    System.currentTimeMillis());
+            if (currentExpiration == 0) {
+                recordWritten(hash[0], hash[1], expiration);
+            }
+            return toEntry(currentExpiration);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public ReplayCacheEntry putIfAbsentOrExpired(String partition, String key, ReplayCacheEntry value) {
+        if (key == null || value == null) {
+            return null;
+        }
+
+        long[] hash = hash(partition, key);
+        return toEntry(putIfAbsentOrExpired(partition, hash[0], hash[1], toExpiration(value),
+                System.currentTimeMillis()));
+    }
+
+    /** {@inheritDoc} */
+    public boolean replace(String partition, String key, ReplayCacheEntry oldValue, ReplayCacheEntry newValue) {
+        if (key == null || oldValue == null || newValue == null) {
+            return false;
+        }
+
+        long[] hash = hash(partition, key);
+        Segment segment = segmentFor(hash[0]);
+        synchronized (segment) {
+            int record = segment.find(hash[0], hash[1]);
+            if (record < 0 || segment.getExpiration(record) != toExpiration(oldValue)) {
+                return false;
+            }
+            segment.setExpiration(record, toExpiration(newValue));
+            recordWritten(hash[0], hash[1], toExpiration(newValue));
+            return true;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public ReplayCacheEntry remove(String partition, String key) {
+        if (key == null) {
+            return null;
+        }
+
+        long[] hash = hash(partition, key);
+        Segment segment = segmentFor(hash[0]);
+        synchronized (segment) {
+            int record = segment.find(hash[0], hash[1]);
+            if (record < 0) {
+                return null;
+            }
+            long expiration = segment.getExpiration(record);
+            segment.delete(record);
+            recordRemoved(hash[0], hash[1]);
+            return toEntry(expiration);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean remove(String partition, String key, ReplayCacheEntry value) {
+        if (key == null || value == null) {
+            return false;
+        }
+
+        long[] hash = hash(partition, key);
+        Segment segment = segmentFor(hash[0]);
+        synchronized (segment) {
+            int record = segment.find(hash[0], hash[1]);
+            if (record < 0 || segment.getExpiration(record) != toExpiration(value)) {
+                return false;
+            }
+            segment.delete(record);
+            recordRemoved(hash[0], hash[1]);
+            return true;
+        }
+    }
+
+    /**
+     * Gets the expiration time recorded for a hashed key.
+     * 
+     * @param keyHigh high 64 bits of the key hash
+     * @param keyLow low 64 bits of the key hash
+     * 
+     * @return the expiration time, in milliseconds since the epoch, or 0 if there is no record for the key
+     */
+    protected long getExpiration(long keyHigh, long keyLow) {
+        Segment segment = segmentFor(keyHigh);
+        synchronized (segment) {
+            int record = segment.find(keyHigh, keyLow);
+            if (record < 0) {
+                return 0;
+            }
+            return segment.getExpiration(record);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public long putIfAbsentOrExpired(String partition, long keyHigh, long keyLow, long expiration, long now) {
+        partitions.putIfAbsent(partition, Boolean.TRUE);
+        Segment segment = segmentFor(keyHigh);
+        // 0 marks an empty record
+        long recordExpiration = expiration == 0 ? -1 : expiration;
+        synchronized (segment) {
+            long currentExpiration = segment.put(keyHigh, keyLow, recordExpiration, true, true, now);
+            if (currentExpiration == 0) {
+                recordWritten(keyHigh, keyLow, recordExpiration);
+            }
+            return currentExpiration;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void putAllIfAbsentOrExpired(String partition, long[] keyHighs, long[] keyLows, int count,
+            long expiration, long now, long[] currentExpirations) {
+        partitions.putIfAbsent(partition, Boolean.TRUE);
+        long recordExpiration = expiration == 0 ? -1 : expiration;
+
+        // order the entries by segment, keeping their relative order within each, so each segment is locked once
+        int[] segmentStarts = new int[segments.length + 1];
+        for (int i = 0; i < count; i++) {
+            segmentStarts[segmentIndex(keyHighs[i]) + 1]++;
+        }
+        for (int i = 1; i < segmentStarts.length; i++) {
+            segmentStarts[i] += segmentStarts[i - 1];
+        }
+        int[] order = new int[count];
+        int[] next = new int[segments.length];
+        System.arraycopy(segmentStarts, 0, next, 0, segments.length);
+        for (int i = 0; i < count; i++) {
+            order[next[segmentIndex(keyHighs[i])]++] = i;
+        }
+
+        for (int s = 0; s < segments.length; s++) {
+            if (segmentStarts[s] == segmentStarts[s + 1]) {
+                continue;
+            }
+
+            Segment segment = segments[s];
+            synchronized (segment) {
+                for (int i = segmentStarts[s]; i < segmentStarts[s + 1]; i++) {
+                    int entry = order[i];
+                    long currentExpiration = segment.put(keyHighs[entry], keyLows[entry], recordExpiration, true,
+                            true, now);
+                    if (currentExpiration == 0) {
+                        recordWritten(keyHighs[entry], keyLows[entry], recordExpiration);
+                    }
+                    currentExpirations[entry] = currentExpiration;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the record for a hashed key, replacing any existing record, without invoking
+     * {@link #recordWritten(long, long, long)}.
+     * 
+     * @param keyHigh high 64 bits of the key hash
+     * @param keyLow low 64 bits of the key hash
+     * @param expiration expiration time of the record, in milliseconds since the epoch, never 0
+     */
+    protected void putRecord(long keyHigh, long keyLow, long expiration) {
+        Segment segment = segmentFor(keyHigh);
+        synchronized (segment) {
+            segment.put(keyHigh, keyLow, expiration, false, false, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Deletes the record for a hashed key, if there is one, without invoking {@link #recordRemoved(long, long)}.
+     * 
+     * @param keyHigh high 64 bits of the key hash
+     * @param keyLow low 64 bits of the key hash
+     */
+    protected void removeRecord(long keyHigh, long keyLow) {
+        Segment segment = segmentFor(keyHigh);
+        synchronized (segment) {
+            int record = segment.find(keyHigh, keyLow);
+            if (record >= 0) {
+                segment.delete(record);
+            }
+        }
+    }
+
+    /**
+     * Passes every record live as of the given time to the given handler. Each segment is copied while it is locked
+     * and its records handled once it has been unlocked, so the records handled reflect the state of each segment at
+     * some point during the call.
+     * 
+     * @param handler the record handler
+     * @param now the current time, in milliseconds since the epoch
+     * 
+     * @throws IOException thrown if the handler throws it
+     */
+    protected void forEachRecord(RecordHandler handler, long now) throws IOException {
+        ByteBuffer copy = null;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                ByteBuffer records = segment.records.duplicate();
+                records.clear();
+                if (copy == null) {
+                    copy = ByteBuffer.allocate(records.capacity()).order(segment.records.order());
+                }
+                copy.clear();
+                copy.put(records);
+            }
+
+            for (int offset = 0; offset < copy.capacity(); offset += RECORD_SIZE) {
+                long expiration = copy.getLong(offset + 16);
+                if (expiration != 0 && expiration > now) {
+                    handler.handle(copy.getLong(offset), copy.getLong(offset + 8), expiration);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called, while the key's segment is locked, after a record has been written through the {@link StorageService}
+     * or {@link HashedReplayStore} interface. Records overwritten to make room are not reported.
+     * 
+     * @param keyHigh high 64 bits of the key hash
+     * @param keyLow low 64 bits of the key hash
+     * @param expiration expiration time of the record, in milliseconds since the epoch
+     */
+    protected void recordWritten(long keyHigh, long keyLow, long expiration) {
+
+    }
+
+    /**
+     * Called, while the key's segment is locked, after a record has been removed through the {@link StorageService}
+     * interface. Expired records purged to make room are not reported.
+     * 
+     * @param keyHigh high 64 bits of the key hash
+     * @param keyLow low 64 bits of the key hash
+     */
+    protected void recordRemoved(long keyHigh, long keyLow) {
+
+    }
+
+    /**
+     * Hashes a partition qualified key using this thread's hash state.
+     * 
+     * @param partition the partition
+     * @param key the key
+     * 
+     * @return the hash state, holding the hash in its first two elements
+     */
+    protected long[] hash(String partition, String key) {
+        long[] state = hashState.get();
+        MurmurHash3.hash(hashSeed, partition, key, state);
+        return state;
+    }
+
+    /**
+     * Gets the segment holding the given key hash.
+     * 
+     * @param keyHigh high 64 bits of the key hash
+     * 
+     * @return the segment
+     */
+    private Segment segmentFor(long keyHigh) {
+        return segments[segmentIndex(keyHigh)];
+    }
+
+    /**
+     * Gets the index of the segment holding the given key hash.
+     * 
+     * @param keyHigh high 64 bits of the key hash
+     * 
+     * @return the segment index
+     */
+    private int segmentIndex(long keyHigh) {
+        if (segments.length == 1) {
+            return 0;
+        }
+        return (int) (keyHigh >>> segmentShift);
+    }
+
+    /**
+     * Converts an entry to the expiration time stored for it.
+     * 
+     * @param entry the entry
+     * 
+     * @return the expiration time, in milliseconds since the epoch, never 0
+     */
+    private long toExpiration(ReplayCacheEntry entry) {
+        long expiration = entry.getExpirationTime().getMillis();
+        if (expiration == 0) {
+            // 0 marks an empty record
+            return -1;
+        }
+        return expiration;
+    }
+
+    /**
+     * Converts a stored expiration time to an entry.
+     * 
+     * @param expiration the expiration time, in milliseconds since the epoch, or 0
+     * 
+     * @return the entry, or null if the expiration time is 0
+     */
+    private ReplayCacheEntry toEntry(long expiration) {
+        if (expiration == 0) {
+            return null;
+        }
+        return new ReplayCacheEntry(new DateTime(expiration));
+    }
+
+    /** Receives the records of the table. */
+    protected interface RecordHandler {
+
+        /**
+         * Handles a record.
+         * 
+         * @param keyHigh high 64 bits of the key hash
+         * @param keyLow low 64 bits of the key hash
+         * @param expiration expiration time of the record, in milliseconds since the epoch
+         * 
+         * @throws IOException thrown if the record can not be handled
+         */
+        public void handle(long keyHigh, long keyLow, long expiration) throws IOException;
+    }
+
+    /**
+     * A linearly probed hash table segment held in a direct buffer. All access must be synchronized on the segment.
+     */
+    private class Segment {
+
+        /** Record storage. */
+        private final ByteBuffer records;
+
+        /** Mask used to map a hash to a record index. */
+        private final int mask;
+
+        /** Maximum number of occupied records. */
+        private final int maxSize;
+
+        /** Number of occupied records. */
+        private int size;
+
+        /**
+         * Constructor.
+         * 
+         * @param capacity number of records, a power of two
+         */
+        public Segment(int capacity) {
+            records = ByteBuffer.allocateDirect(capacity * RECORD_SIZE).order(ByteOrder.nativeOrder());
+            mask = capacity - 1;
+            maxSize = (int) (capacity * MAX_LOAD);
+        }
+
+        /**
+         * Finds the record for a key.
+         * 
+         * @param keyHigh high 64 bits of the key hash
+         * @param keyLow low 64 bits of the key hash
+         * 
+         * @return the record index, or -1 if there is no record for the key
+         */
+        public int find(long keyHigh, long keyLow) {
+            int record = (int) keyLow & mask;
+            while (getExpiration(record) != 0) {
+                if (matches(record, keyHigh, keyLow)) {
+                    return record;
+                }
+                record = (record + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * Writes the record for a key.
+         * 
+         * @param keyHigh high 64 bits of the key hash
+         * @param keyLow low 64 bits of the key hash
+         * @param expiration expiration time to record
+         * @param onlyIfAbsent whether an existing record for the key should be left unchanged
+         * @param expiredIsAbsent whether an existing record that has expired should be treated as absent
+         * @param now current time; records of other keys expiring at or before this time may be reused
+         * 
+         * @return the expiration time of the existing record, or 0 if there was none or it was treated as absent
+         */
+        public long put(long keyHigh, long keyLow, long expiration, boolean onlyIfAbsent, boolean expiredIsAbsent,
+                long now) {
+            int home = (int) keyLow & mask;
+            int record = home;
+            int reusable = -1;
+            int victim = -1;
+            long existing = getExpiration(record);
+            while (existing != 0) {
+                if (matches(record, keyHigh, keyLow)) {
+                    boolean absent = expiredIsAbsent && existing <= now;
+                    if (!onlyIfAbsent || absent) {
+                        setExpiration(record, expiration);
+                    }
+                    if (absent) {
+                        return 0;
+                    }
+                    return existing;
+                }
+
+                if (existing <= now && reusable < 0) {
+                    reusable = record;
+                }
+                if (victim < 0 || existing < getExpiration(victim)) {
+                    victim = record;
+                }
+                record = (record + 1) & mask;
+                existing = getExpiration(record);
+            }
+
+            if (reusable >= 0) {
+                write(reusable, keyHigh, keyLow, expiration);
+                return 0;
+            }
+
+            if (size >= maxSize) {
+                if (purge(now) > 0) {
+                    return put(keyHigh, keyLow, expiration, onlyIfAbsent, expiredIsAbsent, now);
+                }
+
+                if (evictions.incrementAndGet() == 1) {
+                    log.warn("Off-heap replay storage segment is full, evicting an entry before it expires; "
+                            + "further evictions are logged at debug level");
+                } else {
+                    log.debug("Off-heap replay storage segment is full, evicting an entry before it expires");
+                }
+                if (victim >= 0) {
+                    write(victim, keyHigh, keyLow, expiration);
+                    return 0;
+                }
+
+                // the key's probe sequence is empty, make room by evicting the next record along
+                victim = (home + 1) & mask;
+                while (getExpiration(victim) == 0) {
+                    victim = (victim + 1) & mask;
+                }
+                delete(victim);
+            }
+
+            write(record, keyHigh, keyLow, expiration);
+            size++;
+            return 0;
+        }
+
+        /**
+         * Deletes a record, shifting later records of the same probe sequence back so that no gaps are left.
+         * 
+         * @param record index of the record to delete
+         */
+        public void delete(int record) {
+            int gap = record;
+            int next = (gap + 1) & mask;
+            while (getExpiration(next) != 0) {
+                int home = (int) records.getLong(next * RECORD_SIZE + 8) & mask;
+                boolean movable;
+                if (gap <= next) {
+                    movable = home <= gap || home > next;
+                } else {
+                    movable = home <= gap && home > next;
+                }
+
+                if (movable) {
+                    write(gap, records.getLong(next * RECORD_SIZE), records.getLong(next * RECORD_SIZE + 8),
+                            getExpiration(next));
+                    gap = next;
+                }
+                next = (next + 1) & mask;
+            }
+
+            write(gap, 0, 0, 0);
+            size--;
+        }
+
+        /**
+         * Deletes all records expired as of the given time.
+         * 
+         * @param now the current time
+         * 
+         * @return number of records deleted
+         */
+        public int purge(long now) {
+            int purged = 0;
+            for (int record = 0; record <= mask; record++) {
+                long expiration = getExpiration(record);
+                // a record shifted into this slot by the delete must be examined too
+                while (expiration != 0 && expiration <= now) {
+                    delete(record);
+                    purged++;
+                    expiration = getExpiration(record);
+                }
+            }
+            return purged;
+        }
+
+        /**
+         * Gets the expiration time of a record.
+         * 
+         * @param record the record index
+         * 
+         * @return the expiration time, or 0 if the record is empty
+         */
+        public long getExpiration(int record) {
+            return records.getLong(record * RECORD_SIZE + 16);
+        }
+
+        /**
+         * Sets the expiration time of a record.
+         * 
+         * @param record the record index
+         * @param expiration the expiration time
+         */
+        public void setExpiration(int record, long expiration) {
+            records.putLong(record * RECORD_SIZE + 16, expiration);
+        }
+
+        /**
+         * Checks whether a record holds the given key.
+         * 
+         * @param record the record index
+         * @param keyHigh high 64 bits of the key hash
+         * @param keyLow low 64 bits of the key hash
+         * 
+         * @return true if the record holds the key
+         */
+        private boolean matches(int record, long keyHigh, long keyLow) {
+            int offset = record * RECORD_SIZE;
+            return records.getLong(offset + 8) == keyLow && records.getLong(offset) == keyHigh;
+        }
+
+        /**
+         * Writes a record.
+         * 
+         * @param record the record index
+         * @param keyHigh high 64 bits of the key hash
+         * @param keyLow low 64 bits of the key hash
+         * @param expiration the expiration time
+         */
+        private void write(int record, long keyHigh, long keyLow, long expiration) {
+            int offset = record * RECORD_SIZE;
+            records.putLong(offset, keyHigh);
+            records.putLong(offset + 8, keyLow);
+            records.putLong(offset + 16, expiration);
+        }
+    }
+}
\ No newline at end of file
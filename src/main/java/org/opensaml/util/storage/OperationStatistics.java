@@ -0,0 +1,132 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe count and latency distribution of an operation.
+ * 
+ * Latencies are recorded, without locking or allocation, into buckets whose bounds are successive powers of two
+ * nanoseconds, so percentiles are estimates accurate to within a factor of two.
+ */
+public class OperationStatistics {
+
+    /** Number of latency buckets. */
+    private static final int BUCKETS = 64;
+
+    /** Number of operations recorded. */
+    private final AtomicLong count = new AtomicLong();
+
+    /** Sum of the recorded latencies, in nanoseconds. */
+    private final AtomicLong totalLatency = new AtomicLong();
+
+    /** Greatest recorded latency, in nanoseconds. */
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    /** Number of operations whose latency falls in each bucket; bucket i holds latencies below 2^i nanoseconds. */
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records an operation.
+     * 
+     * @param latency latency of the operation, in nanoseconds
+     */
+    public void record(long latency) {
+        long nanos = Math.max(0, latency);
+        count.incrementAndGet();
+        totalLatency.addAndGet(nanos);
+        histogram.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos)));
+
+        long max = maxLatency.get();
+        while (nanos > max && !maxLatency.compareAndSet(max, nanos)) {
+            max = maxLatency.get();
+        }
+    }
+
+    /**
+     * Gets the number of operations recorded.
+     * 
+     * @return number of operations recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Gets the mean latency of the recorded operations.
+     * 
+     * @return mean latency, in nanoseconds, or 0 if no operations have been recorded
+     */
+    public long getMeanLatency() {
+        long operations = count.get();
+        if (operations == 0) {
+            return 0;
+        }
+        return totalLatency.get() / operations;
+    }
+
+    /**
+     * Gets the greatest latency of the recorded operations.
+     * 
+     * @return greatest latency, in nanoseconds
+     */
+    public long getMaxLatency() {
+        return maxLatency.get();
+    }
+
+    /**
+     * Gets an estimate of the latency below which the given percentage of the recorded operations fall.
+     * 
+     * @param percentile the percentage, between 0 and 100
+     * 
+     * @return upper bound of the bucket holding the percentile, in nanoseconds, or 0 if no operations have been
+     *         recorded
+     */
+    public long getLatencyPercentile(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long operations = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = histogram.get(i);
+            operations += counts[i];
+        }
+        if (operations == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(operations * Math.min(100, Math.max(0, percentile)) / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min((1L << i) - 1, getMaxLatency());
+            }
+        }
+        return getMaxLatency();
+    }
+
+    /** Discards the recorded operations. */
+    public void reset() {
+        count.set(0);
+        totalLatency.set(0);
+        maxLatency.set(0);
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram.set(i, 0);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,475 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A minimal client connection to a server speaking the Redis serialization protocol (RESP).
+ * 
+ * Commands from any number of threads are pipelined over a single socket: each command is written as soon as it is
+ * sent, without waiting for the replies to earlier commands, and replies are matched to commands in order by a
+ * dedicated reader thread. The socket is only flushed by the last of the threads concurrently writing to it, so
+ * commands sent under contention are coalesced into fewer, larger writes.
+ * 
+ * The connection is established lazily and re-established on the next command after an I/O error; commands awaiting
+ * replies when an error occurs fail with that error.
+ */
+public class RedisConnection {
+
+    /** Default time, in milliseconds, to wait for a connection or a reply, 2 seconds. */
+    public static final int DEFAULT_TIMEOUT = 2000;
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(RedisConnection.class);
+
+    /** Address of the server. */
+    private InetSocketAddress address;
+
+    /** Time, in milliseconds, to wait for a connection or a reply. */
+    private int timeout;
+
+    /** Lock guarding the socket and its output stream. */
+    private final Object writeLock = new Object();
+
+    /** Number of threads waiting to write or writing. */
+    private final AtomicInteger writers = new AtomicInteger();
+
+    /** Current socket, or null if not connected. */
+    private Socket socket;
+
+    /** Output stream of the current socket. */
+    private OutputStream out;
+
+    /** Replies awaited on the current socket, in the order their commands were written. */
+    private Queue<Reply> awaitingReplies;
+
+    /**
+     * Constructor.
+     * 
+     * @param host host name of the server
+     * @param port port of the server
+     */
+    public RedisConnection(String host, int port) {
+        this(host, port, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param host host name of the server
+     * @param port port of the server
+     * @param connectionTimeout time, in milliseconds, to wait for a connection or a reply
+     */
+    public RedisConnection(String host, int port, int connectionTimeout) {
+        if (connectionTimeout <= 0) {
+            throw new IllegalArgumentException("Timeout must be greater than zero");
+        }
+
+        address = new InetSocketAddress(host, port);
+        timeout = connectionTimeout;
+    }
+
+    /**
+     * Sends a command. The command is written before this method returns but its reply is not awaited.
+     * 
+     * @param args the command name followed by its arguments
+     * 
+     * @return the pending reply to the command
+     * 
+     * @throws IOException thrown if the command can not be written
+     */
+    public Reply send(String... args) throws IOException {
+        Reply reply = new Reply(timeout);
+        write(new byte[][] {encode(args)}, new Reply[] {reply});
+        return reply;
+    }
+
+    /**
+     * Sends a batch of commands, written together and in order, without awaiting their replies.
+     * 
+     * @param commands the commands, each the command name followed by its arguments
+     * 
+     * @return the pending replies to the commands, in the same order
+     * 
+     * @throws IOException thrown if the commands can not be written
+     */
+    public List<Reply> sendAll(List<String[]> commands) throws IOException {
+        byte[][] encoded = new byte[commands.size()][];
+        Reply[] replies = new Reply[encoded.length];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = encode(commands.get(i));
+            replies[i] = new Reply(timeout);
+        }
+        write(encoded, replies);
+        return Arrays.asList(replies);
+    }
+
+    /**
+     * Sends a command and waits for its reply.
+     * 
+     * @param args the command name followed by its arguments
+     * 
+     * @return the reply
+     * 
+     * @throws IOException thrown if the command can not be sent, the reply is not received, or the reply is an error
+     */
+    public Object execute(String... args) throws IOException {
+        return send(args).get();
+    }
+
+    /** Closes the connection. Commands awaiting replies fail. */
+    public void close() {
+        synchronized (writeLock) {
+            if (socket != null) {
+                disconnect(socket, new IOException("Connection closed"));
+            }
+        }
+    }
+
+    /**
+     * Writes encoded commands, queueing their replies to be completed as they are received.
+     * 
+     * @param commands the encoded commands
+     * @param replies the pending replies to the commands
+     * 
+     * @throws IOException thrown if the commands can not be written
+     */
+    private void write(byte[][] commands, Reply[] replies) throws IOException {
+        writers.incrementAndGet();
+        synchronized (writeLock) {
+            // only the last of any threads queued to write flushes, the others leave their commands buffered
+            boolean flush = writers.decrementAndGet() == 0;
+            if (socket == null) {
+                connect();
+            }
+
+            try {
+                for (int i = 0; i < commands.length; i++) {
+                    awaitingReplies.add(replies[i]);
+                    out.write(commands[i]);
+                }
+                if (flush) {
+                    out.flush();
+                }
+            } catch (IOException e) {
+                disconnect(socket, e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Connects to the server and starts a thread reading replies. Must be called holding the write lock.
+     * 
+     * @throws IOException thrown if the connection can not be established
+     */
+    private void connect() throws IOException {
+        final Socket newSocket = new Socket();
+        try {
+            newSocket.setTcpNoDelay(true);
+            newSocket.connect(address, timeout);
+            out = new BufferedOutputStream(newSocket.getOutputStream(), 8192);
+        } catch (IOException e) {
+            newSocket.close();
+            throw e;
+        }
+
+        final InputStream in = new BufferedInputStream(newSocket.getInputStream(), 8192);
+        final Queue<Reply> replies = new ConcurrentLinkedQueue<Reply>();
+        socket = newSocket;
+        awaitingReplies = replies;
+
+        Thread reader = new Thread("RedisConnection reader " + address) {
+            public void run() {
+                try {
+                    while (true) {
+                        Object value = read(in);
+                        Reply reply = replies.poll();
+                        if (reply == null) {
+                            throw new IOException("Received unexpected reply");
+                        }
+                        reply.complete(value, null);
+                    }
+                } catch (IOException e) {
+                    synchronized (writeLock) {
+                        disconnect(newSocket, e);
+                    }
+                }
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+        log.debug("Connected to {}", address);
+    }
+
+    /**
+     * Closes the given socket, if it is still the current one, and fails the replies awaited on it. Must be called
+     * holding the write lock.
+     * 
+     * @param failedSocket the socket to close
+     * @param cause the reason the socket is being closed
+     */
+    private void disconnect(Socket failedSocket, IOException cause) {
+        if (failedSocket != socket) {
+            return;
+        }
+
+        log.debug("Disconnecting from {}: {}", address, cause.getMessage());
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing more can be done
+        }
+
+        Reply reply = awaitingReplies.poll();
+        while (reply != null) {
+            reply.complete(null, cause);
+            reply = awaitingReplies.poll();
+        }
+
+        socket = null;
+        out = null;
+        awaitingReplies = null;
+    }
+
+    /**
+     * Encodes a command as a RESP array of bulk strings.
+     * 
+     * @param args the command name followed by its arguments
+     * 
+     * @return the encoded command
+     * 
+     * @throws IOException thrown if the command can not be encoded
+     */
+    private byte[] encode(String[] args) throws IOException {
+        ByteArrayOutputStream command = new ByteArrayOutputStream(64);
+        writeLine(command, '*', args.length);
+        for (String arg : args) {
+            byte[] bytes = arg.getBytes("UTF-8");
+            writeLine(command, '$', bytes.length);
+            command.write(bytes);
+            command.write('\r');
+            command.write('\n');
+        }
+        return command.toByteArray();
+    }
+
+    /**
+     * Writes a RESP type marker, a number, and a line terminator.
+     * 
+     * @param out stream to write to
+     * @param type the type marker
+     * @param number the number
+     * 
+     * @throws IOException thrown if the line can not be written
+     */
+    private void writeLine(ByteArrayOutputStream out, char type, int number) throws IOException {
+        out.write(type);
+        out.write(Integer.toString(number).getBytes("US-ASCII"));
+        out.write('\r');
+        out.write('\n');
+    }
+
+    /**
+     * Reads a RESP value. Simple and bulk strings are read as {@link String}s, integers as {@link Long}s, arrays as
+     * {@link List}s, nil as null, and errors as {@link RedisErrorReply}s.
+     * 
+     * @param in stream to read from
+     * 
+     * @return the value read
+     * 
+     * @throws IOException thrown if a value can not be read
+     */
+    static Object read(InputStream in) throws IOException {
+        int type = in.read();
+        String line = readLine(in);
+        switch (type) {
+            case '+':
+                return line;
+            case '-':
+                return new RedisErrorReply(line);
+            case ':':
+                return Long.valueOf(line);
+            case '$':
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    return null;
+                }
+                byte[] bytes = new byte[length];
+                int read = 0;
+                while (read < length) {
+                    int count = in.read(bytes, read, length - read);
+                    if (count < 0) {
+                        throw new IOException("Connection closed");
+                    }
+                    read += count;
+                }
+                readLine(in);
+                return new String(bytes, "UTF-8");
+            case '*':
+                int size = Integer.parseInt(line);
+                if (size < 0) {
+                    return null;
+                }
+                List<Object> values = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++) {
+                    values.add(read(in));
+                }
+                return values;
+            case -1:
+                throw new IOException("Connection closed");
+            default:
+                throw new IOException("Unknown reply type " + (char) type);
+        }
+    }
+
+    /**
+     * Reads the remainder of a line, without its terminator.
+     * 
+     * @param in stream to read from
+     * 
+     * @return the line
+     * 
+     * @throws IOException thrown if the line can not be read
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c = in.read();
+        while (c != '\r') {
+            if (c < 0) {
+                throw new IOException("Connection closed");
+            }
+            line.append((char) c);
+            c = in.read();
+        }
+        in.read();
+        return line.toString();
+    }
+
+    /** An error reply. */
+    static class RedisErrorReply {
+
+        /** Error message. */
+        private final String message;
+
+        /**
+         * Constructor.
+         * 
+         * @param errorMessage the error message
+         */
+        RedisErrorReply(String errorMessage) {
+            message = errorMessage;
+        }
+
+        /**
+         * Gets the error message.
+         * 
+         * @return the error message
+         */
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    /** The pending reply to a command. */
+    public static class Reply {
+
+        /** Time, in milliseconds, to wait for the reply. */
+        private final long timeout;
+
+        /** Whether the reply has been received or has failed. */
+        private boolean done;
+
+        /** The reply value. */
+        private Object value;
+
+        /** The reason the reply failed. */
+        private IOException error;
+
+        /**
+         * Constructor.
+         * 
+         * @param replyTimeout time, in milliseconds, to wait for the reply
+         */
+        Reply(long replyTimeout) {
+            timeout = replyTimeout;
+        }
+
+        /**
+         * Waits for and gets the reply.
+         * 
+         * @return the reply value, a {@link String}, {@link Long}, {@link List} or null
+         * 
+         * @throws IOException thrown if the reply was an error, was not received within the timeout, or failed to be
+         *             received
+         */
+        public synchronized Object get() throws IOException {
+            long deadline = System.currentTimeMillis() + timeout;
+            long remaining = timeout;
+            while (!done && remaining > 0) {
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for reply");
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+
+            if (!done) {
+                throw new IOException("Timed out waiting for reply");
+            }
+            if (error != null) {
+                throw error;
+            }
+            if (value instanceof RedisErrorReply) {
+                throw new IOException(((RedisErrorReply) value).getMessage());
+            }
+            return value;
+        }
+
+        /**
+         * Completes the reply.
+         * 
+         * @param replyValue the reply value
+         * @param replyError the reason the reply failed, or null
+         */
+        synchronized void complete(Object replyValue, IOException replyError) {
+            value = replyValue;
+            error = replyError;
+            done = true;
+            notifyAll();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,468 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.joda.time.DateTime;
+import org.opensaml.util.storage.ReplayCache.ReplayCacheEntry;
+
+/**
+ * A {@link StorageService} for {@link ReplayCache} entries kept in a Redis server, or any server speaking the Redis
+ * protocol, so that replays are detected across every node sharing the server.
+ * 
+ * Each key, qualified by its partition, is stored under a fixed width name derived from its 128-bit
+ * {@link MurmurHash3} hash, with the entry's expiration time as its value and a matching time to live, so the server
+ * discards entries as they expire. Replay checks are a single atomic <code>SET ... NX PX ... GET</code> command and
+ * require Redis 7.0 or later. Commands from all threads are pipelined over one {@link RedisConnection}, and the
+ * commands for a batch of replay checks are written together so that the whole batch costs one round trip.
+ * 
+ * Entries known to be live are also held in a local, bounded, off-heap near cache, so that repeated checks of the same
+ * message are answered without a round trip. Because replay cache entries are not normally removed before they
+ * expire, the near cache is not invalidated by changes made by other nodes; entries removed or replaced through
+ * another node may still be seen by this one until they expire or are evicted from its near cache.
+ * 
+ * Because keys are stored only as hashes, {@link #getKeys(String)} returns null and {@link #getPartitions()} lists only
+ * the partitions written to through this instance. Failures communicating with the server are reported as
+ * {@link StorageServiceException}s.
+ */
+public class RedisReplayStorageService implements StorageService<String, ReplayCacheEntry>, BatchReplayStore {
+
+    /** Default prefix of the names of the keys stored in the server, "replay:". */
+    public static final String DEFAULT_KEY_PREFIX = "replay:";
+
+    /** Default number of entries held in the near cache, 100000. */
+    public static final int DEFAULT_NEAR_CACHE_SIZE = 100000;
+
+    /** Script replacing the value of KEYS[1] with ARGV[2], expiring in ARGV[3] milliseconds, if it is ARGV[1]. */
+    static final String COMPARE_AND_SET_SCRIPT = "if redis.call('GET', KEYS[1]) == ARGV[1] then "
+            + "redis.call('SET', KEYS[1], ARGV[2], 'PX', ARGV[3]) return 1 else return 0 end";
+
+    /** Script deleting KEYS[1] if its value is ARGV[1]. */
+    static final String COMPARE_AND_DELETE_SCRIPT = "if redis.call('GET', KEYS[1]) == ARGV[1] then "
+            + "return redis.call('DEL', KEYS[1]) else return 0 end";
+
+    /** Name, after the prefix, of the key holding the seed of the key hashes shared by all nodes. */
+    private static final String SEED_KEY = "hash-seed";
+
+    /** Hexadecimal digits. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Connection to the server. */
+    private RedisConnection connection;
+
+    /** Prefix of the names of the keys stored in the server. */
+    private String keyPrefix;
+
+    /** Local cache of live entries, or null if near caching is disabled. */
+    private OffHeapReplayStorageService nearCache;
+
+    /** Names of the partitions written to. */
+    private ConcurrentMap<String, Boolean> partitions;
+
+    /** Seed of the key hashes. */
+    private long hashSeed;
+
+    /** Per-thread hash state. */
+    private ThreadLocal<long[]> hashState;
+
+    /**
+     * Constructor.
+     * 
+     * @param redisConnection connection to the server
+     */
+    public RedisReplayStorageService(RedisConnection redisConnection) {
+        this(redisConnection, DEFAULT_KEY_PREFIX, DEFAULT_NEAR_CACHE_SIZE);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param redisConnection connection to the server
+     * @param prefix prefix of the names of the keys stored in the server
+     * @param nearCacheSize number of entries held in the near cache, 0 to disable near caching
+     * 
+     * @throws StorageServiceException thrown if the seed of the key hashes can not be read from the server
+     */
+    public RedisReplayStorageService(RedisConnection redisConnection, String prefix, int nearCacheSize) {
+        if (redisConnection == null) {
+            throw new IllegalArgumentException("Connection may not be null");
+        }
+
+        if (nearCacheSize < 0) {
+            throw new IllegalArgumentException("Near cache size may not be negative");
+        }
+
+        connection = redisConnection;
+        keyPrefix = prefix == null ? "" : prefix;
+        if (nearCacheSize > 0) {
+            nearCache = new OffHeapReplayStorageService(nearCacheSize);
+        }
+        partitions = new ConcurrentHashMap<String, Boolean>();
+        hashSeed = loadHashSeed();
+        hashState = new ThreadLocal<long[]>() {
+            protected long[] initialValue() {
+                return new long[MurmurHash3.STATE_LENGTH];
+            }
+        };
+    }
+
+    /** {@inheritDoc} */
+    public long getHashSeed() {
+        return hashSeed;
+    }
+
+    /** {@inheritDoc} */
+    public Iterator<String> getPartitions() {
+        return Collections.unmodifiableSet(partitions.keySet()).iterator();
+    }
+
+    /** {@inheritDoc} */
+    public Iterator<String> getKeys(String partition) {
+        return null;
+    }
+
+    /** {@inheritDoc} */
+    public boolean contains(String partition, String key) {
+        return get(partition, key) != null;
+    }
+
+    /** {@inheritDoc} */
+    public ReplayCacheEntry get(String partition, String key) {
+        if (key == null) {
+            return null;
+        }
+
+        long[] hash = hash(partition, key);
+        long keyHigh = hash[0];
+        long keyLow = hash[1];
+        long now = System.currentTimeMillis();
+        long cachedExpiration = getCachedExpiration(keyHigh, keyLow);
+        if (cachedExpiration > now) {
+            return toEntry(cachedExpiration);
+        }
+
+        long expiration = parseExpiration(execute("GET", toKeyName(keyHigh, keyLow)));
+        cache(keyHigh, keyLow, expiration);
+        return toEntry(expiration);
+    }
+
+    /** {@inheritDoc} */
+    public ReplayCacheEntry put(String partition, String key, ReplayCacheEntry value) {
+        if (key == null || value == null) {
+            return null;
+        }
+
+        partitions.putIfAbsent(partition, Boolean.TRUE);
+        long[] hash = hash(partition, key);
+        long keyHigh = hash[0];
+        long keyLow = hash[1];
+        String keyName = toKeyName(keyHigh, keyLow);
+        long expiration = value.getExpirationTime().getMillis();
+        long timeToLive = expiration - System.currentTimeMillis();
+
+        uncache(keyHigh, keyLow);
+        Object previousValue;
+        if (timeToLive > 0) {
+            previousValue = execute("SET", keyName, Long.toString(expiration), "PX", Long.toString(timeToLive), "GET");
+            cache(keyHigh, keyLow, expiration);
+        } else {
+            // the entry has already expired, so the server would discard it
+            previousValue = execute("GETDEL", keyName);
+        }
+        return toEntry(parseExpiration(previousValue));
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The server discards expired entries, so this is the same as
+     * {@link #putIfAbsentOrExpired(String, String, ReplayCacheEntry)}.
+     */
+    public ReplayCacheEntry putIfAbsent(String partition, String key, ReplayCacheEntry value) {
+        return putIfAbsentOrExpired(partition, key, value);
+    }
+
+    /** {@inheritDoc} */
+    public ReplayCacheEntry putIfAbsentOrExpired(String partition, String key, ReplayCacheEntry value) {
+        if (key == null || value == null) {
+            return null;
+        }
+
+        long[] hash = hash(partition, key);
+        return toEntry(putIfAbsentOrExpired(partition, hash[0], hash[1], value.getExpirationTime().getMillis(),
+                System.currentTimeMillis()));
+    }
+
+    /** {@inheritDoc} */
+    public long putIfAbsentOrExpired(String partition, long keyHigh, long keyLow, long expiration, long now) {
+        partitions.putIfAbsent(partition, Boolean.TRUE);
+        long cachedExpiration = getCachedExpiration(keyHigh, keyLow);
+        if (cachedExpiration > now) {
+            return cachedExpiration;
+        }
+
+        long timeToLive = expiration - now;
+        if (timeToLive <= 0) {
+            // the entry has already expired, so the server would discard it
+            return 0;
+        }
+
+        long currentExpiration = parseExpiration(execute("SET", toKeyName(keyHigh, keyLow), Long.toString(expiration),
+                "NX", "PX", Long.toString(timeToLive), "GET"));
+        if (currentExpiration == 0) {
+            cache(keyHigh, keyLow, expiration);
+        } else {
+            cache(keyHigh, keyLow, currentExpiration);
+        }
+        return currentExpiration;
+    }
+
+    /** {@inheritDoc} */
+    public void putAllIfAbsentOrExpired(String partition, long[] keyHighs, long[] keyLows, int count,
+            long expiration, long now, long[] currentExpirations) {
+        partitions.putIfAbsent(partition, Boolean.TRUE);
+        long timeToLive = expiration - now;
+        String value = Long.toString(expiration);
+        String timeToLiveValue = Long.toString(timeToLive);
+
+        int[] sent = new int[count];
+        List<String[]> commands = new ArrayList<String[]>(count);
+        for (int i = 0; i < count; i++) {
+            long cachedExpiration = getCachedExpiration(keyHighs[i], keyLows[i]);
+            if (cachedExpiration > now) {
+                currentExpirations[i] = cachedExpiration;
+            } else if (timeToLive <= 0) {
+                // the entry has already expired, so the server would discard it
+                currentExpirations[i] = 0;
+            } else {
+                sent[commands.size()] = i;
+                commands.add(new String[] {"SET", toKeyName(keyHighs[i], keyLows[i]), value, "NX", "PX",
+                        timeToLiveValue, "GET"});
+            }
+        }
+
+        if (commands.isEmpty()) {
+            return;
+        }
+
+        try {
+            List<RedisConnection.Reply> replies = connection.sendAll(commands);
+            for (int i = 0; i < replies.size(); i++) {
+                int entry = sent[i];
+                long currentExpiration = parseExpiration(replies.get(i).get());
+                if (currentExpiration == 0) {
+                    cache(keyHighs[entry], keyLows[entry], expiration);
+                } else {
+                    cache(keyHighs[entry], keyLows[entry], currentExpiration);
+                }
+                currentExpirations[entry] = currentExpiration;
+            }
+        } catch (IOException e) {
+            throw new StorageServiceException("Unable to execute SET command", e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean replace(String partition, String key, ReplayCacheEntry oldValue, ReplayCacheEntry newValue) {
+        if (key == null || oldValue == null || newValue == null) {
+            return false;
+        }
+
+        long[] hash = hash(partition, key);
+        long keyHigh = hash[0];
+        long keyLow = hash[1];
+        long expiration = newValue.getExpirationTime().getMillis();
+        // a time to live of at least one millisecond lets the server discard an already expired replacement
+        long timeToLive = Math.max(1, expiration - System.currentTimeMillis());
+
+        uncache(keyHigh, keyLow);
+        Object replaced = execute("EVAL", COMPARE_AND_SET_SCRIPT, "1", toKeyName(keyHigh, keyLow),
+                Long.toString(oldValue.getExpirationTime().getMillis()), Long.toString(expiration),
+                Long.toString(timeToLive));
+        return Long.valueOf(1).equals(replaced);
+    }
+
+    /** {@inheritDoc} */
+    public ReplayCacheEntry remove(String partition, String key) {
+        if (key == null) {
+            return null;
+        }
+
+        long[] hash = hash(partition, key);
+        uncache(hash[0], hash[1]);
+        return toEntry(parseExpiration(execute("GETDEL", toKeyName(hash[0], hash[1]))));
+    }
+
+    /** {@inheritDoc} */
+    public boolean remove(String partition, String key, ReplayCacheEntry value) {
+        if (key == null || value == null) {
+            return false;
+        }
+
+        long[] hash = hash(partition, key);
+        uncache(hash[0], hash[1]);
+        Object removed = execute("EVAL", COMPARE_AND_DELETE_SCRIPT, "1", toKeyName(hash[0], hash[1]),
+                Long.toString(value.getExpirationTime().getMillis()));
+        return Long.valueOf(1).equals(removed);
+    }
+
+    /**
+     * Gets the name under which the entry for a key hash is stored in the server.
+     * 
+     * @param keyHigh high 64 bits of the key hash
+     * @param keyLow low 64 bits of the key hash
+     * 
+     * @return the key name
+     */
+    protected String toKeyName(long keyHigh, long keyLow) {
+        char[] digits = new char[32];
+        for (int i = 0; i < 16; i++) {
+            digits[15 - i] = HEX_DIGITS[(int) (keyHigh >>> (i * 4)) & 0xF];
+            digits[31 - i] = HEX_DIGITS[(int) (keyLow >>> (i * 4)) & 0xF];
+        }
+        return keyPrefix + new String(digits);
+    }
+
+    /**
+     * Sends a command to the server and waits for its reply.
+     * 
+     * @param args the command name followed by its arguments
+     * 
+     * @return the reply
+     */
+    private Object execute(String... args) {
+        try {
+            return connection.execute(args);
+        } catch (IOException e) {
+            throw new StorageServiceException("Unable to execute " + args[0] + " command", e);
+        }
+    }
+
+    /**
+     * Gets the seed of the key hashes shared by all nodes, storing a new random seed in the server if there is none.
+     * 
+     * @return the seed of the key hashes
+     */
+    private long loadHashSeed() {
+        String seedKey = keyPrefix + SEED_KEY;
+        String newSeed = Long.toString(MurmurHash3.newSeed());
+        Object seed = execute("SET", seedKey, newSeed, "NX", "GET");
+        if (seed == null) {
+            seed = newSeed;
+        }
+
+        try {
+            return Long.parseLong(seed.toString());
+        } catch (NumberFormatException e) {
+            throw new StorageServiceException("Stored value is not a hash seed: " + seed);
+        }
+    }
+
+    /**
+     * Hashes a partition qualified key using this thread's hash state.
+     * 
+     * @param partition the partition
+     * @param key the key
+     * 
+     * @return the hash state, holding the hash in its first two elements
+     */
+    private long[] hash(String partition, String key) {
+        long[] state = hashState.get();
+        MurmurHash3.hash(hashSeed, partition, key, state);
+        return state;
+    }
+
+    /**
+     * Gets the expiration time of a key hash from the near cache.
+     * 
+     * @param keyHigh high 64 bits of the key hash
+     * @param keyLow low 64 bits of the key hash
+     * 
+     * @return the cached expiration time, or 0 if the key is not cached
+     */
+    private long getCachedExpiration(long keyHigh, long keyLow) {
+        if (nearCache == null) {
+            return 0;
+        }
+        return nearCache.getExpiration(keyHigh, keyLow);
+    }
+
+    /**
+     * Adds a live entry to the near cache.
+     * 
+     * @param keyHigh high 64 bits of the key hash
+     * @param keyLow low 64 bits of the key hash
+     * @param expiration expiration time of the entry, or 0 if there is no entry
+     */
+    private void cache(long keyHigh, long keyLow, long expiration) {
+        if (nearCache != null && expiration != 0) {
+            nearCache.putRecord(keyHigh, keyLow, expiration);
+        }
+    }
+
+    /**
+     * Removes an entry from the near cache.
+     * 
+     * @param keyHigh high 64 bits of the key hash
+     * @param keyLow low 64 bits of the key hash
+     */
+    private void uncache(long keyHigh, long keyLow) {
+        if (nearCache != null) {
+            nearCache.removeRecord(keyHigh, keyLow);
+        }
+    }
+
+    /**
+     * Parses a stored expiration time.
+     * 
+     * @param value the stored value, or null
+     * 
+     * @return the expiration time, or 0 if the value is null
+     */
+    private long parseExpiration(Object value) {
+        if (value == null) {
+            return 0;
+        }
+
+        try {
+            return Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            throw new StorageServiceException("Stored value is not an expiration time: " + value);
+        }
+    }
+
+    /**
+     * Converts an expiration time to an entry.
+     * 
+     * @param expiration the expiration time, or 0
+     * 
+     * @return the entry, or null if the expiration time is 0
+     */
+    private ReplayCacheEntry toEntry(long expiration) {
+        if (expiration == 0) {
+            return null;
+        }
+        return new ReplayCacheEntry(new DateTime(expiration));
+    }
+}
\ No newline at end of file
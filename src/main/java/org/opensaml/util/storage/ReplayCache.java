@@ -17,7 +17,7 @@
 package org.opensaml.util.storage;
 
 import java.io.Serializable;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.List;
 
 import org.joda.time.DateTime;
 import org.opensaml.xml.util.DatatypeHelper;
@@ -28,26 +28,61 @@ import org.slf4j.LoggerFactory;
  * Class that uses an underlying {@link StorageService} to track information associated with messages in order to detect
  * message replays.
  * 
- * This class is thread-safe and uses a basic reentrant lock to avoid corruption of the underlying store, as well as to
- * prevent race conditions with respect to replay checking.
+ * This class is thread-safe and does not perform any locking of its own. Each replay check is a single call to
+ * {@link StorageService#putIfAbsentOrExpired(String, Object, Object)}, which the storage service performs atomically,
+ * so concurrent checks for the same message cannot both be reported as new while checks for different messages never
+ * block one another.
+ * 
+ * If the storage service also implements {@link HashedReplayStore} replay checks are made through that interface
+ * instead, identifying each message by a seeded {@link MurmurHash3} hash of its issuer and ID and its expiration by a
+ * primitive time, so that checks allocate no objects.
+ * 
+ * If the storage service is an {@link ExpiringStorageService} it tracks the expiration of each message itself, and
+ * each message is recorded with a shared marker value rather than a {@link ReplayCacheEntry}.
+ * 
+ * Batches of messages may be checked with {@link #isReplay(List, List)}. If the storage service implements
+ * {@link BatchReplayStore} a batch is checked in a single storage operation, which for a remote store is a single
+ * round trip.
+ * 
+ * A {@link ReplayFilter} may be placed in front of the storage service. Messages the filter reports as new are still
+ * recorded with the storage service's atomic conditional write, so that a mistaken report cannot let a replay through.
+ * A filter must be sized for the cache's entry duration, and may only be used when this cache is the sole writer of
+ * its storage partition and the storage starts empty, so it is rejected for {@link RedisReplayStorageService} and
+ * {@link MappedFileReplayStorageService}.
  */
 public class ReplayCache {
 
+    /** Per-thread state used to hash message identifiers. */
+    private static final ThreadLocal<long[]> HASH_STATE = new ThreadLocal<long[]>() {
+        protected long[] initialValue() {
+            return new long[MurmurHash3.STATE_LENGTH];
+        }
+    };
+
     /** Logger. */
     private final Logger log = LoggerFactory.getLogger(ReplayCache.class);
 
     /** Backing storage for the replay cache. */
     private StorageService<String, ReplayCacheEntry> storage;
 
+    /** Backing storage, if it supports checks by hash, otherwise null. */
+    private HashedReplayStore hashedStorage;
+
+    /** Backing storage that tracks the expiration of entries itself, or null if there is none. */
+    private ExpiringStorageService<String, Boolean> expiringStorage;
+
+    /** Seed of the hashes identifying messages, that of the backing storage if it supports checks by hash. */
+    private long hashSeed;
+
+    /** Filter recognizing messages not seen before, or null if there is none. */
+    private ReplayFilter filter;
+
     /** Storage service partition used by this cache. default: replay */
     private String partition;
 
     /** Time, in milliseconds, that message state is valid. */
     private long entryDuration;
 
-    /** Replay cache lock. */
-    private ReentrantLock cacheLock;
-
     /**
      * Constructor.
      * 
@@ -55,10 +90,7 @@ public class ReplayCache {
      * @param duration default length of time that message state is valid
      */
     public ReplayCache(StorageService<String, ReplayCacheEntry> storageService, long duration) {
-        storage = storageService;
-        entryDuration = duration;
-        partition = "replay";
-        cacheLock = new ReentrantLock(true);
+        this(storageService, null, duration);
     }
 
     /**
@@ -69,14 +101,80 @@ public class ReplayCache {
      * @param duration default length of time that message state is valid
      */
     public ReplayCache(StorageService<String, ReplayCacheEntry> storageService, String storageParition, long duration) {
+        this(storageService, storageParition, duration, null);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param storageService the StorageService which serves as the backing store for the cache
+     * @param storageParition name of storage service partition to use
+     * @param duration default length of time that message state is valid
+     * @param replayFilter filter recognizing messages not seen before, sized for the given duration, or null
+     * 
+     * @throws IllegalArgumentException thrown if the filter is sized for another duration, or the storage service is
+     *             shared between nodes or persists across restarts
+     */
+    public ReplayCache(StorageService<String, ReplayCacheEntry> storageService, String storageParition, long duration,
+            ReplayFilter replayFilter) {
+        if (replayFilter != null) {
+            if (replayFilter.getEntryDuration() != duration) {
+                throw new IllegalArgumentException("Replay filter sized for entry duration "
+                        + replayFilter.getEntryDuration() + "ms may not be used for entry duration " + duration + "ms");
+            }
+            StorageService<?, ?> filteredStorage = storageService;
+            while (filteredStorage instanceof InstrumentedStorageService) {
+                filteredStorage = ((InstrumentedStorageService<?, ?>) filteredStorage).getDelegate();
+            }
+            if (filteredStorage instanceof RedisReplayStorageService
+                    || filteredStorage instanceof MappedFileReplayStorageService) {
+                throw new IllegalArgumentException("Replay filter may not be used with shared or persistent storage "
+                        + filteredStorage.getClass().getName());
+            }
+        }
+
         storage = storageService;
+        filter = replayFilter;
+        if (storageService instanceof HashedReplayStore) {
+            hashedStorage = (HashedReplayStore) storageService;
+            hashSeed = hashedStorage.getHashSeed();
+        } else {
+            hashSeed = MurmurHash3.newSeed();
+        }
         entryDuration = duration;
         if (!DatatypeHelper.isEmpty(storageParition)) {
             partition = DatatypeHelper.safeTrim(storageParition);
         } else {
             partition = "replay";
         }
-        cacheLock = new ReentrantLock(true);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param storageService the ExpiringStorageService which serves as the backing store for the cache
+     * @param storageParition name of storage service partition to use
+     * @param duration default length of time that message state is valid
+     */
+    public ReplayCache(ExpiringStorageService<String, Boolean> storageService, String storageParition,
+            long duration) {
+        this(storageService, storageParition, duration, null);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param storageService the ExpiringStorageService which serves as the backing store for the cache
+     * @param storageParition name of storage service partition to use
+     * @param duration default length of time that message state is valid
+     * @param replayFilter filter recognizing messages not seen before, sized for the given duration, or null
+     * 
+     * @throws IllegalArgumentException thrown if the filter is sized for another duration
+     */
+    public ReplayCache(ExpiringStorageService<String, Boolean> storageService, String storageParition,
+            long duration, ReplayFilter replayFilter) {
+        this((StorageService<String, ReplayCacheEntry>) null, storageParition, duration, replayFilter);
+        expiringStorage = storageService;
     }
 
     /**
@@ -89,52 +187,234 @@ public class ReplayCache {
      * @return true if the given message ID has been seen before
      */
     public boolean isReplay(String issuerId, String messageId) {
-        log.debug("Attempting to acquire lock for replay cache check");
-        cacheLock.lock();
-        log.debug("Lock acquired");
+        if (filter != null) {
+            return isReplayFiltered(issuerId, messageId);
+        }
 
-        try {
-            boolean replayed = true;
-            String entryHash = issuerId + messageId;
-
-            ReplayCacheEntry cacheEntry = storage.get(partition, entryHash);
-
-            if (cacheEntry == null || cacheEntry.isExpired()) {
-                if (log.isDebugEnabled()) {
-                    if (cacheEntry == null) {
-                        log.debug("Message ID {} was not a replay", messageId);
-                    } else if (cacheEntry.isExpired()) {
-                        log.debug("Message ID {} expired in replay cache at {}", messageId, cacheEntry
-                                .getExpirationTime().toString());
-                        storage.remove(partition, entryHash);
-                    }
+        return isReplayInStorage(issuerId, messageId);
+    }
+
+    /**
+     * Checks if each of a batch of messages has been replayed. Messages not seen before are added to the list of seen
+     * messages for the default duration. The outcome for each message is the same as if the messages were checked in
+     * turn with {@link #isReplay(String, String)}, so a message appearing twice in the batch is a replay the second
+     * time.
+     * 
+     * @param issuerIds unique IDs of the issuers of the messages
+     * @param messageIds unique IDs of the messages, in the same order as their issuers
+     * 
+     * @return whether each message has been seen before, in the same order as the messages
+     */
+    public boolean[] isReplay(List<String> issuerIds, List<String> messageIds) {
+        if (issuerIds.size() != messageIds.size()) {
+            throw new IllegalArgumentException("Number of issuer IDs and message IDs differ");
+        }
+
+        if (filter == null && hashedStorage instanceof BatchReplayStore) {
+            return isReplayBatched(issuerIds, messageIds);
+        }
+
+        boolean[] replays = new boolean[messageIds.size()];
+        for (int i = 0; i < replays.length; i++) {
+            replays[i] = isReplay(issuerIds.get(i), messageIds.get(i));
+        }
+        return replays;
+    }
+
+    /**
+     * Checks if each of a batch of messages has been replayed using the {@link BatchReplayStore} interface of the
+     * storage service.
+     * 
+     * @param issuerIds unique IDs of the issuers of the messages
+     * @param messageIds unique IDs of the messages, in the same order as their issuers
+     * 
+     * @return whether each message has been seen before, in the same order as the messages
+     */
+    private boolean[] isReplayBatched(List<String> issuerIds, List<String> messageIds) {
+        int count = messageIds.size();
+        long[] keyHighs = new long[count];
+        long[] keyLows = new long[count];
+        long[] hash = HASH_STATE.get();
+        for (int i = 0; i < count; i++) {
+            MurmurHash3.hash(hashSeed, partition, issuerIds.get(i), messageIds.get(i), hash);
+            keyHighs[i] = hash[0];
+            keyLows[i] = hash[1];
+        }
+
+        long now = System.currentTimeMillis();
+        long expiration = now + entryDuration;
+        long[] currentExpirations = new long[count];
+        ((BatchReplayStore) hashedStorage).putAllIfAbsentOrExpired(partition, keyHighs, keyLows, count, expiration,
+                now, currentExpirations);
+
+        boolean[] replays = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            replays[i] = currentExpirations[i] != 0;
+            if (log.isDebugEnabled()) {
+                if (replays[i]) {
+                    log.debug("Replay of message ID {} detected in replay cache, will expire at {}",
+                            messageIds.get(i), new DateTime(currentExpirations[i]).toString());
+                } else {
+                    log.debug("Message ID {} was not a replay, added to replay cache with expiration time {}",
+                            messageIds.get(i), new DateTime(expiration).toString());
                 }
-                replayed = false;
-                addMessageID(entryHash, new DateTime().plus(entryDuration));
-            } else {
-                log.debug("Replay of message ID {} detected in replay cache, will expire at {}", messageId, cacheEntry
-                        .getExpirationTime().toString());
             }
+        }
+        return replays;
+    }
+
+    /**
+     * Checks if the message has been replayed, waiting for any concurrent recording of a message the filter reported
+     * as new if the filter reports a possible replay.
+     * 
+     * @param issuerId unique ID of the message issuer
+     * @param messageId unique ID of the message
+     * 
+     * @return true if the given message ID has been seen before
+     */
+    private boolean isReplayFiltered(String issuerId, String messageId) {
+        long[] hash = HASH_STATE.get();
+        MurmurHash3.hash(hashSeed, partition, issuerId, messageId, hash);
+        long keyHigh = hash[0];
+        long keyLow = hash[1];
 
-            return replayed;
+        if (!filter.add(keyHigh, keyLow, System.currentTimeMillis())) {
+            filter.awaitRecorded(keyHigh, keyLow);
+            return isReplayInStorage(issuerId, messageId);
+        }
+
+        // the message is recorded conditionally all the same, so that a filter mistake can not let a replay through
+        try {
+            return isReplayInStorage(issuerId, messageId);
         } finally {
-            cacheLock.unlock();
+            filter.recorded(keyHigh, keyLow);
         }
     }
 
     /**
-     * Accquires a write lock and adds the message state to the underlying storage service.
+     * Checks if the message has been replayed, using whichever interface of the storage service is most efficient.
+     * 
+     * @param issuerId unique ID of the message issuer
+     * @param messageId unique ID of the message
+     * 
+     * @return true if the given message ID has been seen before
+     */
+    private boolean isReplayInStorage(String issuerId, String messageId) {
+        if (hashedStorage != null) {
+            return isReplayByHash(issuerId, messageId);
+        }
+
+        if (expiringStorage != null) {
+            return isReplayByExpiration(issuerId, messageId);
+        }
+
+        return isReplayByKey(issuerId, messageId);
+    }
+
+    /**
+     * Checks if the message has been replayed using the {@link StorageService} interface of the storage service.
+     * 
+     * @param issuerId unique ID of the message issuer
+     * @param messageId unique ID of the message
+     * 
+     * @return true if the given message ID has been seen before
+     */
+    private boolean isReplayByKey(String issuerId, String messageId) {
+        String entryHash = issuerId + messageId;
+        DateTime expiration = new DateTime(System.currentTimeMillis() + entryDuration);
+
+        ReplayCacheEntry cacheEntry = storage.putIfAbsentOrExpired(partition, entryHash,
+                new ReplayCacheEntry(expiration));
+        if (cacheEntry != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("Replay of message ID {} detected in replay cache, will expire at {}", messageId,
+                        cacheEntry.getExpirationTime().toString());
+            }
+            return true;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Message ID {} was not a replay, added to replay cache with expiration time {}", messageId,
+                    expiration.toString());
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the message has been replayed using the {@link ExpiringStorageService} interface of the storage
+     * service.
+     * 
+     * @param issuerId unique ID of the message issuer
+     * @param messageId unique ID of the message
+     * 
+     * @return true if the given message ID has been seen before
+     */
+    private boolean isReplayByExpiration(String issuerId, String messageId) {
+        String entryHash = issuerId + messageId;
+        long expiration = System.currentTimeMillis() + entryDuration;
+
+        if (expiringStorage.putIfAbsent(partition, entryHash, Boolean.TRUE, expiration) != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("Replay of message ID {} detected in replay cache, will expire at {}", messageId,
+                        new DateTime(expiringStorage.getExpirationTime(partition, entryHash)).toString());
+            }
+            return true;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Message ID {} was not a replay, added to replay cache with expiration time {}", messageId,
+                    new DateTime(expiration).toString());
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the message has been replayed using the {@link HashedReplayStore} interface of the storage service.
+     * 
+     * @param issuerId unique ID of the message issuer
+     * @param messageId unique ID of the message
+     * 
+     * @return true if the given message ID has been seen before
+     */
+    private boolean isReplayByHash(String issuerId, String messageId) {
+        long[] hash = HASH_STATE.get();
+        MurmurHash3.hash(hashSeed, partition, issuerId, messageId, hash);
+        long now = System.currentTimeMillis();
+        long expiration = now + entryDuration;
+
+        long currentExpiration = hashedStorage.putIfAbsentOrExpired(partition, hash[0], hash[1], expiration, now);
+        if (currentExpiration != 0) {
+            if (log.isDebugEnabled()) {
+                log.debug("Replay of message ID {} detected in replay cache, will expire at {}", messageId,
+                        new DateTime(currentExpiration).toString());
+            }
+            return true;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Message ID {} was not a replay, added to replay cache with expiration time {}", messageId,
+                    new DateTime(expiration).toString());
+        }
+        return false;
+    }
+
+    /**
+     * Adds the message state to the underlying storage service.
      * 
      * @param messageId unique ID of the message
      * @param expiration time the message state expires
      */
     protected void addMessageID(String messageId, DateTime expiration) {
         log.debug("Writing message ID {} to replay cache with expiration time {}", messageId, expiration.toString());
-        storage.put(partition, messageId, new ReplayCacheEntry(expiration));
+        if (expiringStorage != null) {
+            expiringStorage.put(partition, messageId, Boolean.TRUE, expiration.getMillis());
+        } else {
+            storage.put(partition, messageId, new ReplayCacheEntry(expiration));
+        }
     }
 
     /** Replay cache storage service entry. */
-    public class ReplayCacheEntry implements ExpiringObject, Serializable {
+    public static class ReplayCacheEntry implements ExpiringObject, Serializable {
 
         /** Serial version UID. */
         private static final long serialVersionUID = 2398693920546938083L;
@@ -158,7 +438,7 @@ public class ReplayCache {
 
         /** {@inheritDoc} */
         public boolean isExpired() {
-            return expirationTime.isBeforeNow();
+            return expirationTime.getMillis() < System.currentTimeMillis();
         }
 
         /** {@inheritDoc} */
@@ -0,0 +1,51 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.joda.time.DateTime;
+import org.opensaml.util.storage.ReplayCache.ReplayCacheEntry;
+
+/**
+ * A {@link StorageEntryCodec} for {@link ReplayCache} entries, writing each key as modified UTF-8 and each entry as its
+ * expiration time in milliseconds.
+ */
+public class ReplayCacheEntryCodec implements StorageEntryCodec<String, ReplayCacheEntry> {
+
+    /** {@inheritDoc} */
+    public void writeKey(DataOutput out, String key) throws IOException {
+        out.writeUTF(key);
+    }
+
+    /** {@inheritDoc} */
+    public String readKey(DataInput in) throws IOException {
+        return in.readUTF();
+    }
+
+    /** {@inheritDoc} */
+    public void writeValue(DataOutput out, ReplayCacheEntry value) throws IOException {
+        out.writeLong(value.getExpirationTime().getMillis());
+    }
+
+    /** {@inheritDoc} */
+    public ReplayCacheEntry readValue(DataInput in) throws IOException {
+        return new ReplayCacheEntry(new DateTime(in.readLong()));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,315 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A time partitioned Bloom filter recording the messages seen by a {@link ReplayCache}, so that messages never seen
+ * before can be recognized without consulting the cache's storage.
+ * 
+ * The filter is made up of a ring of generations, each a blocked Bloom filter recording the messages first seen during
+ * one slice of time; all of a message's bits lie in a single 512-bit block, so a check touches one cache line per
+ * generation.
+ * A generation is cleared and reused once every message it records has expired, so the filter never needs sweeping.
+ * 
+ * {@link #add(long, long, long)} sets a message's bits in the current generation and reports whether the message was
+ * definitely not seen before. Exactly one of any number of concurrent additions of the same new message is reported
+ * as new; that caller must then record the message in storage and call {@link #recorded(long, long)}, while the
+ * others, as with any possible hit, must call {@link #awaitRecorded(long, long)} before consulting storage so that
+ * they see the recorded message. New messages are added under one of a number of striped locks, held until the
+ * message is recorded.
+ * 
+ * A filter only knows of the messages added to it, so it may only be used by a cache that is the sole writer of its
+ * storage partition and whose storage starts empty; it must not be used with storage shared between nodes or that
+ * persists across restarts.
+ */
+public class ReplayFilter {
+
+    /** Default number of generations, 4. */
+    public static final int DEFAULT_GENERATIONS = 4;
+
+    /** Number of lock stripes guarding additions of new messages. */
+    private static final int STRIPES = 4096;
+
+    /** Number of bits in each block. */
+    private static final int BLOCK_BITS = 512;
+
+    /** Number of words in each block. */
+    private static final int BLOCK_WORDS = BLOCK_BITS / 64;
+
+    /** Words of each generation. */
+    private final AtomicLongArray[] generations;
+
+    /** Slice of time recorded by each generation. */
+    private final long[] generationSlices;
+
+    /** Mask used to map a hash to a block. */
+    private final int blockMask;
+
+    /** Number of bits set per message. */
+    private final int bitsPerMessage;
+
+    /** Time, in milliseconds, that the cache retains messages. */
+    private final long retention;
+
+    /** Duration, in milliseconds, of each slice of time. */
+    private final long sliceDuration;
+
+    /** Index of the current generation. */
+    private volatile int current;
+
+    /** Lock stripes, each 1 while a new message is being added and recorded, otherwise 0. */
+    private final AtomicIntegerArray stripes;
+
+    /**
+     * Constructor.
+     * 
+     * @param expectedMessages expected number of messages seen during one entry duration
+     * @param falsePositiveRate desired probability that a new message is reported as a possible hit
+     * @param entryDuration time, in milliseconds, that the cache retains messages
+     */
+    public ReplayFilter(long expectedMessages, double falsePositiveRate, long entryDuration) {
+        this(expectedMessages, falsePositiveRate, entryDuration, DEFAULT_GENERATIONS);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param expectedMessages expected number of messages seen during one entry duration
+     * @param falsePositiveRate desired probability that a new message is reported as a possible hit
+     * @param entryDuration time, in milliseconds, that the cache retains messages
+     * @param generationCount number of generations, at least 3; more generations clear smaller portions of the filter
+     *            more often at the cost of checking more words
+     */
+    public ReplayFilter(long expectedMessages, double falsePositiveRate, long entryDuration, int generationCount) {
+        if (expectedMessages <= 0) {
+            throw new IllegalArgumentException("Expected number of messages must be greater than zero");
+        }
+
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be between zero and one");
+        }
+
+        if (entryDuration <= 0) {
+            throw new IllegalArgumentException("Entry duration must be greater than zero");
+        }
+
+        if (generationCount < 3) {
+            throw new IllegalArgumentException("Number of generations must be at least 3");
+        }
+
+        retention = entryDuration;
+
+        // a message added during slice s expires by the end of slice s + generationCount - 2, and may be added to the
+        // generation of slice s - 1 by a thread that has not yet seen the rotation
+        int liveSlices = generationCount - 2;
+        sliceDuration = Math.max(1, (entryDuration + liveSlices - 1) / liveSlices);
+
+        // every generation is checked, so each must contribute a proportionate share of the false positive rate;
+        // blocking the bits costs roughly a fifth more space for the same rate
+        double messagesPerGeneration = Math.max(1.0, (double) expectedMessages / liveSlices);
+        double generationRate = falsePositiveRate / generationCount;
+        double bits = -messagesPerGeneration * Math.log(generationRate) / (Math.log(2) * Math.log(2)) * 1.2;
+        int blocks = 1;
+        while (blocks < bits / BLOCK_BITS && blocks < 1 << 24) {
+            blocks <<= 1;
+        }
+        blockMask = blocks - 1;
+        bitsPerMessage = (int) Math.max(1, Math.min(16, Math.round((double) blocks * BLOCK_BITS
+                / messagesPerGeneration * Math.log(2))));
+        int words = blocks * BLOCK_WORDS;
+
+        long slice = System.currentTimeMillis() / sliceDuration;
+        generations = new AtomicLongArray[generationCount];
+        generationSlices = new long[generationCount];
+        for (int i = 0; i < generationCount; i++) {
+            generations[i] = new AtomicLongArray(words);
+            generationSlices[i] = slice - generationCount + 1 + i;
+        }
+        current = generationCount - 1;
+        stripes = new AtomicIntegerArray(STRIPES);
+    }
+
+    /**
+     * Gets the time that the cache retains messages, which the filter is sized for.
+     * 
+     * @return time, in milliseconds, that the cache retains messages
+     */
+    public long getEntryDuration() {
+        return retention;
+    }
+
+    /**
+     * Gets the number of bits set per message.
+     * 
+     * @return number of bits set per message
+     */
+    public int getBitsPerMessage() {
+        return bitsPerMessage;
+    }
+
+    /**
+     * Gets the size, in bytes, of the filter.
+     * 
+     * @return size of the filter
+     */
+    public long getSize() {
+        return (long) generations.length * (blockMask + 1) * BLOCK_BITS / 8;
+    }
+
+    /**
+     * Records a message in the filter.
+     * 
+     * @param keyHigh high 64 bits of the message hash
+     * @param keyLow low 64 bits of the message hash
+     * @param now the current time, in milliseconds since the epoch
+     * 
+     * @return true if the message was definitely not seen before, in which case the caller must record it in storage
+     *         and then call {@link #recorded(long, long)}; false if it may have been seen before, in which case the
+     *         caller must call {@link #awaitRecorded(long, long)} and then consult storage
+     */
+    public boolean add(long keyHigh, long keyLow, long now) {
+        int generation = rotate(now);
+        int block = ((int) keyHigh & blockMask) * BLOCK_WORDS;
+        if (mightContain(block, keyLow)) {
+            return false;
+        }
+
+        int stripe = getStripe(keyHigh);
+        while (!stripes.compareAndSet(stripe, 0, 1)) {
+            Thread.yield();
+        }
+
+        // another thread may have added the message while this one waited for the stripe
+        if (mightContain(block, keyLow)) {
+            stripes.set(stripe, 0);
+            return false;
+        }
+
+        AtomicLongArray words = generations[generation];
+        int position = (int) keyLow;
+        int step = (int) (keyLow >>> 32) | 1;
+        for (int i = 0; i < bitsPerMessage; i++) {
+            int bit = position & (BLOCK_BITS - 1);
+            int word = block + (bit >>> 6);
+            long mask = 1L << bit;
+            long value = words.get(word);
+            while ((value & mask) == 0 && !words.compareAndSet(word, value, value | mask)) {
+                value = words.get(word);
+            }
+            position += step;
+        }
+        return true;
+    }
+
+    /**
+     * Signals that a message reported as new by {@link #add(long, long, long)} has been recorded in storage, or that
+     * recording it failed.
+     * 
+     * @param keyHigh high 64 bits of the message hash
+     * @param keyLow low 64 bits of the message hash
+     */
+    public void recorded(long keyHigh, long keyLow) {
+        stripes.set(getStripe(keyHigh), 0);
+    }
+
+    /**
+     * Waits until any message that may share this message's bits, and that has been reported as new, has been recorded
+     * in storage.
+     * 
+     * @param keyHigh high 64 bits of the message hash
+     * @param keyLow low 64 bits of the message hash
+     */
+    public void awaitRecorded(long keyHigh, long keyLow) {
+        int stripe = getStripe(keyHigh);
+        while (stripes.get(stripe) != 0) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Checks whether all of a message's bits are set in any generation.
+     * 
+     * @param block index of the first word of the message's block
+     * @param keyLow low 64 bits of the message hash
+     * 
+     * @return true if the message may have been added
+     */
+    private boolean mightContain(int block, long keyLow) {
+        for (AtomicLongArray words : generations) {
+            int position = (int) keyLow;
+            int step = (int) (keyLow >>> 32) | 1;
+            int i = 0;
+            while (i < bitsPerMessage) {
+                int bit = position & (BLOCK_BITS - 1);
+                if ((words.get(block + (bit >>> 6)) & 1L << bit) == 0) {
+                    break;
+                }
+                position += step;
+                i++;
+            }
+            if (i == bitsPerMessage) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the lock stripe of a message. The stripe is derived from bits of the hash not used to select its block.
+     * 
+     * @param keyHigh high 64 bits of the message hash
+     * 
+     * @return the lock stripe
+     */
+    private int getStripe(long keyHigh) {
+        return (int) (keyHigh >>> 40) & (STRIPES - 1);
+    }
+
+    /**
+     * Makes the generation for the given time current, clearing generations whose messages have all expired.
+     * 
+     * @param now the current time, in milliseconds since the epoch
+     * 
+     * @return index of the current generation
+     */
+    private int rotate(long now) {
+        int generation = current;
+        long slice = now / sliceDuration;
+        if (slice <= generationSlices[generation]) {
+            return generation;
+        }
+
+        synchronized (this) {
+            generation = current;
+            while (generationSlices[generation] < slice) {
+                int next = (generation + 1) % generations.length;
+                long nextSlice = Math.max(generationSlices[generation] + 1, slice - generations.length + 1);
+                AtomicLongArray words = generations[next];
+                for (int i = 0; i < words.length(); i++) {
+                    words.set(i, 0);
+                }
+                generationSlices[next] = nextSlice;
+                generation = next;
+                current = generation;
+            }
+            return generation;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,73 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes and reads the keys and values of a {@link StorageService} in a compact binary form, for use by
+ * {@link StorageServiceSnapshotter}.
+ * 
+ * @param <KeyType> object type of the keys
+ * @param <ValueType> object type of the values
+ */
+public interface StorageEntryCodec<KeyType, ValueType> {
+
+    /**
+     * Writes a key.
+     * 
+     * @param out output to write to
+     * @param key the key
+     * 
+     * @throws IOException thrown if the key can not be written
+     */
+    public void writeKey(DataOutput out, KeyType key) throws IOException;
+
+    /**
+     * Reads a key written by {@link #writeKey(DataOutput, Object)}.
+     * 
+     * @param in input to read from
+     * 
+     * @return the key
+     * 
+     * @throws IOException thrown if the key can not be read
+     */
+    public KeyType readKey(DataInput in) throws IOException;
+
+    /**
+     * Writes a value.
+     * 
+     * @param out output to write to
+     * @param value the value
+     * 
+     * @throws IOException thrown if the value can not be written
+     */
+    public void writeValue(DataOutput out, ValueType value) throws IOException;
+
+    /**
+     * Reads a value written by {@link #writeValue(DataOutput, Object)}.
+     * 
+     * @param in input to read from
+     * 
+     * @return the value
+     * 
+     * @throws IOException thrown if the value can not be read
+     */
+    public ValueType readValue(DataInput in) throws IOException;
+}
\ No newline at end of file
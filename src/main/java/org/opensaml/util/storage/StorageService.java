@@ -25,6 +25,11 @@ import java.util.Iterator;
  * The storage service is partitioned. This is to allow different objects to use the service, each with its own
  * partition, without the worry of conflicting keys.
  * 
+ * In addition to the basic operations the service provides a set of conditional operations, modeled after those of
+ * {@link java.util.concurrent.ConcurrentMap}. Implementations must perform each of these atomically with respect to
+ * all other operations on the same partition and key, allowing callers to build check-then-act logic, such as replay
+ * detection, without resorting to external locking.
+ * 
  * @param <KeyType> object type of the keys
  * @param <ValueType> object type of the values
  */
@@ -72,7 +77,8 @@ public interface StorageService<KeyType, ValueType> {
 
     /**
      * Adds a value, indexed by a key, in to storage. Note that implementations of this service may determine, on its
-     * own, when to evict items from storage, the expiration time given here is meant only as a system provided hint.
+     * own, when to evict items from storage. Stores implementing {@link ExpiringStorageService} also accept an explicit
+     * expiration time for each entry.
      * 
      * @param partition partition on which to operate
      * @param key the key
@@ -91,4 +97,53 @@ public interface StorageService<KeyType, ValueType> {
      * @return the value that was removed
      */
     public ValueType remove(String partition, KeyType key);
+
+    /**
+     * Adds a value, indexed by a key, in to storage if, and only if, no value is currently registered under that key.
+     * 
+     * @param partition partition on which to operate
+     * @param key the key
+     * @param value the value
+     * 
+     * @return the value currently registered under that key, or null if there was no value and the given value was
+     *         added
+     */
+    public ValueType putIfAbsent(String partition, KeyType key, ValueType value);
+
+    /**
+     * Adds a value, indexed by a key, in to storage if no value is currently registered under that key or if the
+     * registered value is an {@link ExpiringObject} that has expired. If an expired value is replaced its
+     * {@link ExpiringObject#onExpire()} callback is invoked.
+     * 
+     * @param partition partition on which to operate
+     * @param key the key
+     * @param value the value
+     * 
+     * @return the live value currently registered under that key, or null if the given value was added
+     */
+    public ValueType putIfAbsentOrExpired(String partition, KeyType key, ValueType value);
+
+    /**
+     * Replaces the value registered under a key if, and only if, the key is currently mapped to a value equal to the
+     * given old value.
+     * 
+     * @param partition partition on which to operate
+     * @param key the key
+     * @param oldValue value expected to be registered under the key
+     * @param newValue value to register under the key
+     * 
+     * @return true if the value was replaced, false if not
+     */
+    public boolean replace(String partition, KeyType key, ValueType oldValue, ValueType newValue);
+
+    /**
+     * Removes an item from storage if, and only if, the key is currently mapped to a value equal to the given value.
+     * 
+     * @param partition partition on which to operate
+     * @param key the key to the value to remove
+     * @param value value expected to be registered under the key
+     * 
+     * @return true if the value was removed, false if not
+     */
+    public boolean remove(String partition, KeyType key, ValueType value);
 }
\ No newline at end of file
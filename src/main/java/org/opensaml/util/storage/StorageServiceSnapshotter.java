@@ -0,0 +1,423 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves the entries of selected partitions of a {@link StorageService} to a file, and restores them, so that a
+ * restarted node starts with the state it had when it stopped.
+ * 
+ * Snapshots are written in a compact binary format, each key and value being encoded by a
+ * {@link StorageEntryCodec}, to a temporary file that then replaces the previous snapshot, so an interrupted snapshot
+ * never destroys the last complete one. The expiration times of the entries of an {@link ExpiringStorageService} are
+ * saved and restored with them. Expired entries are neither saved nor restored, and restored entries never replace
+ * entries written since the store was created.
+ * 
+ * Snapshots may be taken on demand, periodically on a {@link ScheduledExecutorService}, and when the virtual machine
+ * shuts down. The partitions of a {@link MapBasedStorageService} are copied under their lock before being written; the
+ * partitions of other stores are written while they are iterated.
+ * 
+ * @param <KeyType> object type of the keys
+ * @param <ValueType> object type of the values
+ */
+public class StorageServiceSnapshotter<KeyType, ValueType> implements Runnable {
+
+    /** Marker identifying snapshot files. */
+    private static final int MAGIC = 0x534E4150;
+
+    /** Version of the snapshot format. */
+    private static final int VERSION = 1;
+
+    /** File name suffix of snapshots being written. */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** Marker ending a partition or the snapshot. */
+    private static final int END = 0;
+
+    /** Marker preceding a partition. */
+    private static final int PARTITION = 1;
+
+    /** Marker preceding an entry. */
+    private static final int ENTRY = 1;
+
+    /** Marker preceding an entry followed by its expiration time. */
+    private static final int EXPIRING_ENTRY = 2;
+
+    /** Size of the buffers used to write and read snapshots. */
+    private static final int BUFFER_SIZE = 65536;
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(StorageServiceSnapshotter.class);
+
+    /** Lock held while a snapshot is written or restored. */
+    private final Object snapshotLock = new Object();
+
+    /** Store whose partitions are saved. */
+    private StorageService<KeyType, ValueType> store;
+
+    /** Codec used to encode keys and values. */
+    private StorageEntryCodec<KeyType, ValueType> codec;
+
+    /** Snapshot file. */
+    private File snapshotFile;
+
+    /** Partitions saved, or null to save all partitions. */
+    private Set<String> partitions;
+
+    /** Periodic snapshot task, or null if snapshots are not scheduled. */
+    private ScheduledFuture<?> scheduledSnapshots;
+
+    /** Shutdown hook taking a final snapshot, or null if none is registered. */
+    private Thread shutdownHook;
+
+    /**
+     * Constructor.
+     * 
+     * @param snapshotStore store whose partitions are saved
+     * @param entryCodec codec used to encode keys and values
+     * @param file snapshot file
+     * @param snapshotPartitions partitions saved and restored, or null for all partitions
+     */
+    public StorageServiceSnapshotter(StorageService<KeyType, ValueType> snapshotStore,
+            StorageEntryCodec<KeyType, ValueType> entryCodec, File file, Set<String> snapshotPartitions) {
+        if (snapshotStore == null || entryCodec == null || file == null) {
+            throw new IllegalArgumentException("Store, codec and snapshot file may not be null");
+        }
+
+        store = snapshotStore;
+        codec = entryCodec;
+        snapshotFile = file;
+        partitions = snapshotPartitions;
+    }
+
+    /**
+     * Takes snapshots repeatedly, with the given interval between the end of one snapshot and the start of the next.
+     * 
+     * @param executor executor on which snapshots are taken
+     * @param interval interval between snapshots, in milliseconds
+     */
+    public synchronized void schedule(ScheduledExecutorService executor, long interval) {
+        if (scheduledSnapshots != null) {
+            scheduledSnapshots.cancel(false);
+        }
+        scheduledSnapshots = executor.scheduleWithFixedDelay(this, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /** Registers a shutdown hook that takes a snapshot when the virtual machine shuts down. */
+    public synchronized void snapshotOnShutdown() {
+        if (shutdownHook != null) {
+            return;
+        }
+
+        shutdownHook = new Thread("StorageServiceSnapshotter shutdown " + snapshotFile.getName()) {
+            public void run() {
+                StorageServiceSnapshotter.this.run();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /** Stops taking periodic snapshots and removes the shutdown hook, if any. */
+    public synchronized void cancel() {
+        if (scheduledSnapshots != null) {
+            scheduledSnapshots.cancel(false);
+            scheduledSnapshots = null;
+        }
+
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // already shutting down, the hook will run
+            }
+            shutdownHook = null;
+        }
+    }
+
+    /** Takes a snapshot, logging rather than throwing any failure. */
+    public void run() {
+        try {
+            snapshot();
+        } catch (IOException e) {
+            log.error("Unable to write storage snapshot " + snapshotFile.getAbsolutePath(), e);
+        } catch (RuntimeException e) {
+            log.error("Unable to write storage snapshot " + snapshotFile.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Writes the live entries of the saved partitions to the snapshot file, replacing the previous snapshot.
+     * 
+     * @return number of entries written
+     * 
+     * @throws IOException thrown if the snapshot can not be written
+     */
+    public long snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            long start = System.currentTimeMillis();
+            File tempFile = new File(snapshotFile.getPath() + TEMP_SUFFIX);
+            long written = 0;
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile),
+                    BUFFER_SIZE));
+            boolean complete = false;
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                for (String partition : getSavedPartitions()) {
+                    out.writeByte(PARTITION);
+                    out.writeUTF(partition);
+                    written += writePartition(out, partition);
+                    out.writeByte(END);
+                }
+                out.writeByte(END);
+                out.close();
+                complete = true;
+            } finally {
+                // the codec or the store may also fail with a runtime exception
+                if (!complete) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        // already failing
+                    }
+                    tempFile.delete();
+                }
+            }
+
+            // renaming over an existing file is not possible on all platforms
+            if (!tempFile.renameTo(snapshotFile) && !(snapshotFile.delete() && tempFile.renameTo(snapshotFile))) {
+                tempFile.delete();
+                throw new IOException("Unable to rename " + tempFile.getAbsolutePath() + " to "
+                        + snapshotFile.getName());
+            }
+
+            log.debug("Wrote {} entries to storage snapshot {} in {}ms", new Object[] {written,
+                    snapshotFile.getAbsolutePath(), System.currentTimeMillis() - start});
+            return written;
+        }
+    }
+
+    /**
+     * Adds the live entries of the snapshot file to the store. Entries already in the store are kept. Nothing is
+     * restored if there is no snapshot file.
+     * 
+     * @return number of entries restored
+     * 
+     * @throws IOException thrown if the snapshot can not be read
+     */
+    public long restore() throws IOException {
+        synchronized (snapshotLock) {
+            if (!snapshotFile.exists()) {
+                return 0;
+            }
+
+            long start = System.currentTimeMillis();
+            long restored = 0;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile),
+                    BUFFER_SIZE));
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException(snapshotFile.getAbsolutePath() + " is not a storage snapshot");
+                }
+                int version = in.readInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported storage snapshot version " + version);
+                }
+
+                long now = System.currentTimeMillis();
+                while (in.readByte() != END) {
+                    String partition = in.readUTF();
+                    boolean restoring = partitions == null || partitions.contains(partition);
+                    int marker = in.readByte();
+                    while (marker != END) {
+                        KeyType key = codec.readKey(in);
+                        ValueType value = codec.readValue(in);
+                        long expiration = ExpiringStorageService.NEVER_EXPIRES;
+                        if (marker == EXPIRING_ENTRY) {
+                            expiration = in.readLong();
+                        }
+                        if (restoring && expiration >= now && !isExpired(value) && restore(partition, key, value,
+                                expiration)) {
+                            restored++;
+                        }
+                        marker = in.readByte();
+                    }
+                }
+            } finally {
+                in.close();
+            }
+
+            log.debug("Restored {} entries from storage snapshot {} in {}ms", new Object[] {restored,
+                    snapshotFile.getAbsolutePath(), System.currentTimeMillis() - start});
+            return restored;
+        }
+    }
+
+    /**
+     * Adds a restored entry to the store unless an entry is already registered under its key.
+     * 
+     * @param partition partition of the entry
+     * @param key the key
+     * @param value the value
+     * @param expiration expiration time of the entry, or {@link ExpiringStorageService#NEVER_EXPIRES}
+     * 
+     * @return true if the entry was added
+     */
+    @SuppressWarnings("unchecked")
+    private boolean restore(String partition, KeyType key, ValueType value, long expiration) {
+        if (store instanceof ExpiringStorageService) {
+            return ((ExpiringStorageService<KeyType, ValueType>) store).putIfAbsent(partition, key, value,
+                    expiration) == null;
+        }
+        return store.putIfAbsent(partition, key, value) == null;
+    }
+
+    /**
+     * Gets the partitions to save.
+     * 
+     * @return the partitions to save
+     */
+    private List<String> getSavedPartitions() {
+        List<String> saved = new ArrayList<String>();
+        if (partitions != null) {
+            saved.addAll(partitions);
+            return saved;
+        }
+
+        Iterator<String> storePartitions = store.getPartitions();
+        if (storePartitions != null) {
+            while (storePartitions.hasNext()) {
+                saved.add(storePartitions.next());
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * Writes the live entries of a partition.
+     * 
+     * @param out output to write to
+     * @param partition the partition
+     * 
+     * @return number of entries written
+     * 
+     * @throws IOException thrown if an entry can not be written
+     */
+    @SuppressWarnings("unchecked")
+    private long writePartition(DataOutputStream out, String partition) throws IOException {
+        Iterator<KeyType> keys = store.getKeys(partition);
+        if (keys == null) {
+            return 0;
+        }
+
+        long written = 0;
+        if (store instanceof MapBasedStorageService) {
+            // Hashtable iterators fail if the table is modified, so the partition is copied under its lock
+            Map<KeyType, ValueType> partitionMap = ((MapBasedStorageService<KeyType, ValueType>) store)
+                    .getPartitionMap(partition);
+            Map<KeyType, ValueType> copy;
+            synchronized (partitionMap) {
+                copy = new HashMap<KeyType, ValueType>(partitionMap);
+            }
+            for (Map.Entry<KeyType, ValueType> entry : copy.entrySet()) {
+                if (writeEntry(out, entry.getKey(), entry.getValue())) {
+                    written++;
+                }
+            }
+            return written;
+        }
+
+        if (store instanceof ExpiringStorageService) {
+            ExpiringStorageService<KeyType, ValueType> expiringStore =
+                    (ExpiringStorageService<KeyType, ValueType>) store;
+            while (keys.hasNext()) {
+                KeyType key = keys.next();
+                long expiration = expiringStore.getExpirationTime(partition, key);
+                ValueType value = store.get(partition, key);
+                if (expiration != 0 && value != null && !isExpired(value)) {
+                    out.writeByte(EXPIRING_ENTRY);
+                    codec.writeKey(out, key);
+                    codec.writeValue(out, value);
+                    out.writeLong(expiration);
+                    written++;
+                }
+            }
+            return written;
+        }
+
+        while (keys.hasNext()) {
+            KeyType key = keys.next();
+            if (writeEntry(out, key, store.get(partition, key))) {
+                written++;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Writes an entry unless it has been removed or has expired.
+     * 
+     * @param out output to write to
+     * @param key the key
+     * @param value the value, or null if the entry has been removed
+     * 
+     * @return true if the entry was written
+     * 
+     * @throws IOException thrown if the entry can not be written
+     */
+    private boolean writeEntry(DataOutputStream out, KeyType key, ValueType value) throws IOException {
+        if (value == null || isExpired(value)) {
+            return false;
+        }
+
+        out.writeByte(ENTRY);
+        codec.writeKey(out, key);
+        codec.writeValue(out, value);
+        return true;
+    }
+
+    /**
+     * Checks whether the given value is an {@link ExpiringObject} that has expired.
+     * 
+     * @param value the value to check
+     * 
+     * @return true if the value has expired, false if not
+     */
+    private boolean isExpired(ValueType value) {
+        return value instanceof ExpiringObject && ((ExpiringObject) value).isExpired();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,275 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opensaml.util.resource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.opensaml.util.resource.CachingResource.ContentParser;
+import org.opensaml.util.resource.CachingResource.ContentStorage;
+
+/**
+ * Tests {@link CachingResource}.
+ */
+public class CachingResourceTest extends TestCase {
+
+    private MemoryResource resource;
+
+    private CountingParser parser;
+
+    /** {@inheritDoc} */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        resource = new MemoryResource("resource");
+        resource.setContent("first".getBytes("UTF-8"), System.currentTimeMillis());
+        parser = new CountingParser();
+    }
+
+    /**
+     * Test that the content is read from the underlying resource once however many times it is read, for each kind of
+     * storage.
+     * 
+     * @throws Exception
+     */
+    public void testCachedContent() throws Exception {
+        for (ContentStorage storage : ContentStorage.values()) {
+            MemoryResource storedResource = new MemoryResource("resource");
+            storedResource.setContent("first".getBytes("UTF-8"), System.currentTimeMillis());
+            CachingResource cachingResource = new CachingResource(storedResource, storage);
+            for (int i = 0; i < 5; i++) {
+                assertEquals("first", read(cachingResource.getInputStream()));
+            }
+            assertEquals(1, storedResource.getReadCount());
+        }
+    }
+
+    /**
+     * Test that the content is parsed once per parser, including by concurrent requests.
+     * 
+     * @throws Exception
+     */
+    public void testParsedContent() throws Exception {
+        final CachingResource cachingResource = new CachingResource(resource);
+        parser.setParseTime(50);
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        if (!"first".equals(cachingResource.getParsedContent(parser))) {
+                            failures.incrementAndGet();
+                        }
+                    } catch (ResourceException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertEquals(1, parser.getParseCount());
+
+        CountingParser otherParser = new CountingParser();
+        assertEquals("first", cachingResource.getParsedContent(otherParser));
+        assertEquals("first", cachingResource.getParsedContent(parser));
+        assertEquals(1, otherParser.getParseCount());
+        assertEquals(1, parser.getParseCount());
+        assertEquals(1, resource.getReadCount());
+    }
+
+    /**
+     * Test that invalidation, directly or by a change signalled by a watcher of the underlying resource, causes the
+     * content to be read and parsed again.
+     * 
+     * @throws Exception
+     */
+    public void testInvalidation() throws Exception {
+        CachingResource cachingResource = new CachingResource(resource);
+        ResourceChangeWatcher watcher = new ResourceChangeWatcher(resource);
+        watcher.getResourceListeners().add(cachingResource);
+        assertEquals("first", cachingResource.getParsedContent(parser));
+
+        long modificationTime = System.currentTimeMillis() + 1000;
+        resource.setContent("second".getBytes("UTF-8"), modificationTime);
+        assertEquals("first", read(cachingResource.getInputStream()));
+        assertEquals("first", cachingResource.getParsedContent(parser));
+        watcher.run();
+        assertEquals("second", read(cachingResource.getInputStream()));
+        assertEquals("second", cachingResource.getParsedContent(parser));
+        assertEquals(2, resource.getReadCount());
+        assertEquals(2, parser.getParseCount());
+
+        resource.setContent("third".getBytes("UTF-8"), modificationTime);
+        cachingResource.invalidate();
+        assertEquals("third", cachingResource.getParsedContent(parser));
+        assertEquals(3, parser.getParseCount());
+    }
+
+    /**
+     * Test that a failed parse is not cached.
+     * 
+     * @throws Exception
+     */
+    public void testFailedParse() throws Exception {
+        CachingResource cachingResource = new CachingResource(resource);
+        parser.setFailing(true);
+        try {
+            cachingResource.getParsedContent(parser);
+            fail("Parse failure was not reported");
+        } catch (ResourceException e) {
+            // expected
+        }
+
+        parser.setFailing(false);
+        assertEquals("first", cachingResource.getParsedContent(parser));
+        assertEquals(2, parser.getParseCount());
+    }
+
+    /**
+     * Test that a mapped file keeps its content until invalidated, when a replacement is renamed over it.
+     * 
+     * @throws Exception
+     */
+    public void testMappedFile() throws Exception {
+        File file = File.createTempFile("caching", ".txt");
+        File replacement = new File(file.getPath() + ".new");
+        try {
+            write(file, "first");
+            CachingResource cachingResource = new CachingResource(new FilesystemResource(file.getPath()),
+                    ContentStorage.MAPPED);
+            assertEquals("first", read(cachingResource.getInputStream()));
+
+            write(replacement, "second");
+            assertTrue(file.delete());
+            assertTrue(replacement.renameTo(file));
+            assertEquals("first", read(cachingResource.getInputStream()));
+            cachingResource.invalidate();
+            assertEquals("second", read(cachingResource.getInputStream()));
+        } finally {
+            file.delete();
+            replacement.delete();
+        }
+    }
+
+    /**
+     * Reads a stream as UTF-8 text, and closes it.
+     * 
+     * @param in the stream
+     * 
+     * @return the text
+     * 
+     * @throws IOException
+     */
+    private static String read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[3];
+            int read = in.read(buffer);
+            while (read != -1) {
+                out.write(buffer, 0, read);
+                read = in.read(buffer);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes UTF-8 text to a file.
+     * 
+     * @param file the file
+     * @param text the text
+     * 
+     * @throws IOException
+     */
+    private static void write(File file, String text) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(text.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    /** A parser of UTF-8 text that counts its parses. */
+    private static class CountingParser implements ContentParser<String> {
+
+        private AtomicInteger parseCount = new AtomicInteger();
+
+        /** Time, in milliseconds, each parse takes. */
+        private volatile long parseTime;
+
+        /** Whether parses fail. */
+        private volatile boolean failing;
+
+        /**
+         * Sets the time each parse takes.
+         * 
+         * @param time time, in milliseconds, each parse takes
+         */
+        public void setParseTime(long time) {
+            parseTime = time;
+        }
+
+        /**
+         * Sets whether parses fail.
+         * 
+         * @param fail whether parses fail
+         */
+        public void setFailing(boolean fail) {
+            failing = fail;
+        }
+
+        /**
+         * Gets the number of parses.
+         * 
+         * @return the number of parses
+         */
+        public int getParseCount() {
+            return parseCount.get();
+        }
+
+        /** {@inheritDoc} */
+        public String parse(InputStream content) throws ResourceException {
+            parseCount.incrementAndGet();
+            try {
+                Thread.sleep(parseTime);
+                if (failing) {
+                    throw new ResourceException("Parse failure");
+                }
+                return read(content);
+            } catch (InterruptedException e) {
+                throw new ResourceException("Interrupted while parsing");
+            } catch (IOException e) {
+                throw new ResourceException("Unable to read content", e);
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,297 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opensaml.util.resource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+
+/**
+ * Tests {@link FileBackedHttpResource} against an {@link InProcessHttpServer}.
+ */
+public class FileBackedHttpResourceTest extends TestCase {
+
+    private InProcessHttpServer server;
+
+    private MultiThreadedHttpConnectionManager connectionManager;
+
+    private File directory;
+
+    /** {@inheritDoc} */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        server = new InProcessHttpServer();
+        connectionManager = new MultiThreadedHttpConnectionManager();
+        directory = File.createTempFile("resource", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    /** {@inheritDoc} */
+    protected void tearDown() throws Exception {
+        connectionManager.shutdown();
+        server.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+
+        super.tearDown();
+    }
+
+    /**
+     * Test that the content is written to the backing file, which is read when the server is unreachable.
+     * 
+     * @throws Exception
+     */
+    public void testBackingFile() throws Exception {
+        byte[] content = newContent(3 * 1024 * 1024);
+        server.setDocument(content, null, null, null);
+        FileBackedHttpResource resource = newResource("a");
+
+        assertContent(content, resource.getInputStream());
+        assertEquals(content.length, new File(directory, "a").length());
+        assertEquals(1, directory.listFiles().length);
+
+        server.close();
+        assertContent(content, resource.getInputStream());
+    }
+
+    /**
+     * Test that content failing part way through leaves the backing file as it was and no temporary file behind.
+     * 
+     * @throws Exception
+     */
+    public void testInterruptedTransfer() throws Exception {
+        byte[] content = newContent(1024);
+        server.setDocument(content, null, null, null);
+        FileBackedHttpResource resource = newResource("document");
+        assertContent(content, resource.getInputStream());
+
+        InputStream failingContent = new InputStream() {
+            private int remaining = 100000;
+
+            public int read() throws IOException {
+                if (remaining-- == 0) {
+                    throw new IOException("connection reset");
+                }
+                return 'x';
+            }
+        };
+        try {
+            resource.saveToResourceFile(failingContent);
+            fail("save of failing content should have failed");
+        } catch (ResourceException e) {
+            // expected
+        }
+
+        assertEquals(1, directory.listFiles().length);
+        server.close();
+        assertContent(content, resource.getInputStream());
+    }
+
+    /**
+     * Test that gzip encoded content is decoded, and stored decoded or as received.
+     * 
+     * @throws Exception
+     */
+    public void testGzipContent() throws Exception {
+        byte[] content = newContent(100000);
+        server.setDocument(gzip(content), "gzip", null, null);
+        FileBackedHttpResource resource = newResource("document");
+
+        assertContent(content, resource.getInputStream());
+        assertEquals(content.length, new File(directory, "document").length());
+
+        resource.setStoreCompressed(true);
+        assertContent(content, resource.getInputStream());
+        assertFalse(new File(directory, "document").exists());
+        assertTrue(Arrays.equals(gzip(content), readFile(new File(directory, "document.gz"))));
+
+        // stored content is read according to how it was stored, whatever the setting
+        server.close();
+        resource.setStoreCompressed(false);
+        assertContent(content, resource.getInputStream());
+    }
+
+    /**
+     * Test that deflate encoded content, in the zlib format or raw, is decoded and stored decoded or compressed.
+     * 
+     * @throws Exception
+     */
+    public void testDeflateContent() throws Exception {
+        byte[] content = newContent(100000);
+        FileBackedHttpResource resource = newResource("document");
+        for (boolean raw : new boolean[] {false, true}) {
+            server.setDocument(deflate(content, raw), "deflate", null, null);
+
+            resource.setStoreCompressed(false);
+            assertContent(content, resource.getInputStream());
+            assertEquals(content.length, new File(directory, "document").length());
+
+            resource.setStoreCompressed(true);
+            assertContent(content, resource.getInputStream());
+            assertFalse(new File(directory, "document").exists());
+            assertTrue(new File(directory, "document.gz").exists());
+        }
+    }
+
+    /**
+     * Test that a resource that is itself gzip data is not decompressed when stored uncompressed.
+     * 
+     * @throws Exception
+     */
+    public void testGzipResource() throws Exception {
+        byte[] content = gzip(newContent(1000));
+        server.setDocument(content, null, null, null);
+        FileBackedHttpResource resource = newResource("document.xml.gz");
+
+        assertContent(content, resource.getInputStream());
+        server.close();
+        assertContent(content, resource.getInputStream());
+    }
+
+    /**
+     * Creates a resource for the server's document.
+     * 
+     * @param backingFileName name of the backing file within the test directory
+     * 
+     * @return the resource
+     */
+    private FileBackedHttpResource newResource(String backingFileName) {
+        return new FileBackedHttpResource(server.getUrl(), new HttpClient(connectionManager), new File(directory,
+                backingFileName).getPath());
+    }
+
+    /**
+     * Creates content of the given size.
+     * 
+     * @param size size of the content
+     * 
+     * @return the content
+     */
+    private byte[] newContent(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i % 251);
+        }
+        return content;
+    }
+
+    /**
+     * Compresses content in the gzip format.
+     * 
+     * @param content the content
+     * 
+     * @return the compressed content
+     * 
+     * @throws IOException
+     */
+    private byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(compressed);
+        out.write(content);
+        out.close();
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Compresses content in the zlib or raw deflate format.
+     * 
+     * @param content the content
+     * @param raw whether the raw deflate format, without zlib header and checksum, is used
+     * 
+     * @return the compressed content
+     * 
+     * @throws IOException
+     */
+    private byte[] deflate(byte[] content, boolean raw) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        DeflaterOutputStream out = new DeflaterOutputStream(compressed, new Deflater(Deflater.DEFAULT_COMPRESSION,
+                raw));
+        out.write(content);
+        out.close();
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Reads the content of a file.
+     * 
+     * @param file the file
+     * 
+     * @return the content of the file
+     * 
+     * @throws IOException
+     */
+    private byte[] readFile(File file) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        copy(new FileInputStream(file), content);
+        return content.toByteArray();
+    }
+
+    /**
+     * Asserts that a stream, which is closed, has the expected content.
+     * 
+     * @param expected the expected content
+     * @param in the stream
+     * 
+     * @throws IOException
+     */
+    private void assertContent(byte[] expected, InputStream in) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        copy(in, content);
+        assertTrue(Arrays.equals(expected, content.toByteArray()));
+    }
+
+    /**
+     * Copies a stream, which is closed, to an output.
+     * 
+     * @param in the stream
+     * @param out the output
+     * 
+     * @throws IOException
+     */
+    private void copy(InputStream in, OutputStream out) throws IOException {
+        try {
+            byte[] buffer = new byte[8192];
+            int read = in.read(buffer);
+            while (read != -1) {
+                out.write(buffer, 0, read);
+                read = in.read(buffer);
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,246 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opensaml.util.resource;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.opensaml.util.resource.ResourceChangeListener.ResourceChange;
+
+/**
+ * Tests {@link FilesystemWatchService}.
+ */
+public class FilesystemWatchServiceTest extends TestCase {
+
+    /** Time, in milliseconds, to wait for a change to be signalled. */
+    private static final long TIMEOUT = 10000;
+
+    private File directory;
+
+    private FilesystemWatchService watchService;
+
+    /** {@inheritDoc} */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        directory = File.createTempFile("watched", "");
+        directory.delete();
+        directory.mkdir();
+        watchService = new FilesystemWatchService();
+    }
+
+    /** {@inheritDoc} */
+    protected void tearDown() throws Exception {
+        watchService.shutdown();
+        delete(directory);
+
+        super.tearDown();
+    }
+
+    /**
+     * Test that the creation, update and deletion of a resource are signalled when the filesystem reports them, long
+     * before the resource would next be polled.
+     * 
+     * @throws Exception
+     */
+    public void testNotification() throws Exception {
+        if (!watchService.isNotificationSupported()) {
+            return;
+        }
+
+        File file = new File(directory, "resource.xml");
+        RecordingResourceChangeListener listener = new RecordingResourceChangeListener();
+        assertTrue(watchService.watch(newWatcher(file, listener)));
+
+        write(file, "first", System.currentTimeMillis() - 60000);
+        assertEquals(ResourceChange.CREATION, listener.next(TIMEOUT));
+        // the watcher records the modification time of a created resource after signalling its creation
+        Thread.sleep(100);
+        write(file, "second", System.currentTimeMillis() + 60000);
+        assertEquals(ResourceChange.UPDATE, listener.next(TIMEOUT));
+        file.delete();
+        assertEquals(ResourceChange.DELETE, listener.next(TIMEOUT));
+
+        // changes to other entries of the directory are not signalled
+        write(new File(directory, "other.xml"), "other", System.currentTimeMillis());
+        assertNull(listener.next(500));
+    }
+
+    /**
+     * Test that a resource whose directory does not exist is polled.
+     * 
+     * @throws Exception
+     */
+    public void testPollingFallback() throws Exception {
+        File file = new File(new File(directory, "missing"), "resource.xml");
+        RecordingResourceChangeListener listener = new RecordingResourceChangeListener();
+        assertFalse(watchService.watch(newWatcher(file, listener, 20)));
+
+        file.getParentFile().mkdir();
+        write(file, "first", System.currentTimeMillis());
+        assertEquals(ResourceChange.CREATION, listener.next(TIMEOUT));
+    }
+
+    /**
+     * Test that the resources of a deleted directory are polled, that cancelled watchers are neither polled nor
+     * checked, and that the resources of other directories are still watched.
+     * 
+     * @throws Exception
+     */
+    public void testDeletedDirectory() throws Exception {
+        if (!watchService.isNotificationSupported()) {
+            return;
+        }
+
+        File deletedDirectory = new File(directory, "deleted");
+        deletedDirectory.mkdir();
+        File file = new File(deletedDirectory, "resource.xml");
+        write(file, "first", System.currentTimeMillis());
+        RecordingResourceChangeListener cancelledListener = new RecordingResourceChangeListener();
+        ResourceChangeWatcher cancelledWatcher = newWatcher(new File(deletedDirectory, "cancelled.xml"),
+                cancelledListener, 20);
+        assertTrue(watchService.watch(cancelledWatcher));
+        cancelledWatcher.cancel();
+        RecordingResourceChangeListener listener = new RecordingResourceChangeListener();
+        assertTrue(watchService.watch(newWatcher(file, listener, 20)));
+
+        File otherFile = new File(directory, "other.xml");
+        RecordingResourceChangeListener otherListener = new RecordingResourceChangeListener();
+        assertTrue(watchService.watch(newWatcher(otherFile, otherListener)));
+
+        delete(deletedDirectory);
+        assertEquals(ResourceChange.DELETE, listener.next(TIMEOUT));
+
+        deletedDirectory.mkdir();
+        write(file, "second", System.currentTimeMillis());
+        write(new File(deletedDirectory, "cancelled.xml"), "second", System.currentTimeMillis());
+        assertEquals(ResourceChange.CREATION, listener.next(TIMEOUT));
+
+        write(otherFile, "first", System.currentTimeMillis());
+        assertEquals(ResourceChange.CREATION, otherListener.next(TIMEOUT));
+        assertTrue(cancelledListener.takeChanges().isEmpty());
+    }
+
+    /**
+     * Test that shutting down a service polling on a caller's timer cancels only the watchers it scheduled.
+     * 
+     * @throws Exception
+     */
+    public void testSharedTimerShutdown() throws Exception {
+        Timer timer = new Timer(true);
+        try {
+            final AtomicInteger otherRuns = new AtomicInteger();
+            timer.schedule(new TimerTask() {
+                public void run() {
+                    otherRuns.incrementAndGet();
+                }
+            }, 10, 10);
+            FilesystemWatchService sharedWatchService = new FilesystemWatchService(timer);
+            MemoryResource resource = new MemoryResource("resource");
+            assertFalse(sharedWatchService.watch(new ResourceChangeWatcher(resource, 10)));
+            Thread.sleep(100);
+            assertTrue(resource.getCheckCount() > 1);
+
+            sharedWatchService.shutdown();
+            // a poll may be under way when the watcher is cancelled
+            Thread.sleep(20);
+            int checkCount = resource.getCheckCount();
+            int runs = otherRuns.get();
+            Thread.sleep(100);
+            assertEquals(checkCount, resource.getCheckCount());
+            assertTrue(otherRuns.get() > runs);
+        } finally {
+            timer.cancel();
+        }
+    }
+
+    /**
+     * Creates a watcher of a filesystem resource polled every hour.
+     * 
+     * @param file the file of the resource
+     * @param listener listener of the resource's changes
+     * 
+     * @return the watcher
+     * 
+     * @throws ResourceException
+     */
+    private ResourceChangeWatcher newWatcher(File file, ResourceChangeListener listener) throws ResourceException {
+        return newWatcher(file, listener, 60 * 60 * 1000);
+    }
+
+    /**
+     * Creates a watcher of a filesystem resource.
+     * 
+     * @param file the file of the resource
+     * @param listener listener of the resource's changes
+     * @param pollingFrequency frequency, in milliseconds, at which the resource is polled if it is polled
+     * 
+     * @return the watcher
+     * 
+     * @throws ResourceException
+     */
+    private ResourceChangeWatcher newWatcher(File file, ResourceChangeListener listener, long pollingFrequency)
+            throws ResourceException {
+        ResourceChangeWatcher watcher = new ResourceChangeWatcher(new FilesystemResource(file.getAbsolutePath()),
+                pollingFrequency);
+        watcher.getResourceListeners().add(listener);
+        return watcher;
+    }
+
+    /**
+     * Writes a file with the given modification time, replacing it in one step so that a single change is seen.
+     * 
+     * @param file the file
+     * @param content content of the file
+     * @param lastModified modification time of the file
+     * 
+     * @throws IOException
+     */
+    private void write(File file, String content, long lastModified) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        tempFile.setLastModified(lastModified);
+        assertTrue(tempFile.renameTo(file));
+    }
+
+    /**
+     * Deletes a file or directory and its content.
+     * 
+     * @param file the file or directory
+     */
+    private void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
\ No newline at end of file
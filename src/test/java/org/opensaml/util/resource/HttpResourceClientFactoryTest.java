@@ -0,0 +1,120 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opensaml.util.resource;
+
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+
+/**
+ * Tests {@link HttpResourceClientFactory} and the release of pooled connections by {@link HttpResource}.
+ */
+public class HttpResourceClientFactoryTest extends TestCase {
+
+    private InProcessHttpServer server;
+
+    private HttpClient httpClient;
+
+    private HttpResource resource;
+
+    /** {@inheritDoc} */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        server = new InProcessHttpServer();
+        server.setDocument(new byte[100000], null, null, null);
+        HttpResourceClientFactory factory = new HttpResourceClientFactory();
+        factory.setMaxConnectionsPerHost(2);
+        factory.setConnectionManagerTimeout(200);
+        httpClient = factory.createHttpClient();
+        resource = new HttpResource(server.getUrl(), httpClient);
+    }
+
+    /** {@inheritDoc} */
+    protected void tearDown() throws Exception {
+        ((MultiThreadedHttpConnectionManager) httpClient.getHttpConnectionManager()).shutdown();
+        server.close();
+
+        super.tearDown();
+    }
+
+    /**
+     * Test that the number of connections to a host is bounded, and that a request waiting for a connection fails
+     * after the connection manager timeout.
+     * 
+     * @throws Exception
+     */
+    public void testConnectionLimit() throws Exception {
+        InputStream first = resource.getInputStream();
+        InputStream second = resource.getInputStream();
+        try {
+            resource.getInputStream();
+            fail("request should have timed out waiting for a connection");
+        } catch (ResourceException e) {
+            // expected
+        }
+        assertEquals(2, server.getConnectionCount());
+
+        first.close();
+        resource.getInputStream().close();
+        second.close();
+    }
+
+    /**
+     * Test that a stream releases its connection once read to its end, without being closed, and that a stream closed
+     * early closes its connection.
+     * 
+     * @throws Exception
+     */
+    public void testConnectionRelease() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            InputStream in = resource.getInputStream();
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) != -1) {
+                // read to the end
+            }
+        }
+        assertEquals(5, server.getRequestCount());
+        assertEquals(1, server.getConnectionCount());
+
+        for (int i = 0; i < 5; i++) {
+            InputStream in = resource.getInputStream();
+            in.read();
+            in.close();
+            in.close();
+        }
+        // the first stream closed early closes the connection reused until then, each later one a new connection
+        assertEquals(5, server.getConnectionCount());
+        assertEquals(10, server.getRequestCount());
+    }
+
+    /**
+     * Test that the shared client is created once and replaced after being shut down.
+     */
+    public void testSharedClientShutdown() {
+        HttpClient sharedHttpClient = HttpResourceClientFactory.getSharedHttpClient();
+        assertSame(sharedHttpClient, HttpResourceClientFactory.getSharedHttpClient());
+
+        HttpResourceClientFactory.shutdownSharedHttpClient();
+        assertNotSame(sharedHttpClient, HttpResourceClientFactory.getSharedHttpClient());
+        HttpResourceClientFactory.shutdownSharedHttpClient();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,171 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opensaml.util.resource;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.joda.time.DateTime;
+
+/**
+ * Tests {@link HttpResource} against an {@link InProcessHttpServer}.
+ */
+public class HttpResourceTest extends TestCase {
+
+    private InProcessHttpServer server;
+
+    private MultiThreadedHttpConnectionManager connectionManager;
+
+    private HttpResource resource;
+
+    /** {@inheritDoc} */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        server = new InProcessHttpServer();
+        connectionManager = new MultiThreadedHttpConnectionManager();
+        resource = new HttpResource(server.getUrl(), new HttpClient(connectionManager));
+        resource.setValidationInterval(0);
+    }
+
+    /** {@inheritDoc} */
+    protected void tearDown() throws Exception {
+        connectionManager.shutdown();
+        server.close();
+
+        super.tearDown();
+    }
+
+    /**
+     * Test that the entity tag of the last response is sent with each check and an unchanged resource is reported
+     * unmodified.
+     * 
+     * @throws Exception
+     */
+    public void testEntityTagValidation() throws Exception {
+        server.setDocument("first".getBytes("UTF-8"), null, "\"1\"", null);
+        assertTrue(resource.exists());
+        DateTime lastModified = resource.getLastModifiedTime();
+        assertEquals("\"1\"", resource.getEntityTag());
+        assertEquals("\"1\"", server.getLastRequestHeader("If-None-Match"));
+        assertEquals(1, server.getNotModifiedCount());
+
+        assertTrue(resource.exists());
+        assertEquals(lastModified, resource.getLastModifiedTime());
+        assertEquals(3, server.getNotModifiedCount());
+
+        Thread.sleep(10);
+        server.setDocument("second".getBytes("UTF-8"), null, "\"2\"", null);
+        assertTrue(resource.getLastModifiedTime().isAfter(lastModified));
+        assertEquals("\"2\"", resource.getEntityTag());
+    }
+
+    /**
+     * Test that the Last-Modified date of the last response is sent with each check and used as the modification
+     * time.
+     * 
+     * @throws Exception
+     */
+    public void testLastModifiedValidation() throws Exception {
+        server.setDocument("first".getBytes("UTF-8"), null, null, "Sat, 01 Jan 2000 00:00:00 GMT");
+        assertTrue(resource.exists());
+        assertNull(server.getLastRequestHeader("If-Modified-Since"));
+        assertEquals(new DateTime("2000-01-01T00:00:00Z").getMillis(), resource.getLastModifiedTime().getMillis());
+        assertEquals("Sat, 01 Jan 2000 00:00:00 GMT", server.getLastRequestHeader("If-Modified-Since"));
+        assertEquals(1, server.getNotModifiedCount());
+    }
+
+    /**
+     * Test that the outcome of a check is reused within the validation interval.
+     * 
+     * @throws Exception
+     */
+    public void testValidationInterval() throws Exception {
+        server.setDocument("first".getBytes("UTF-8"), null, "\"1\"", null);
+        resource.setValidationInterval(60000);
+        assertTrue(resource.exists());
+        resource.getLastModifiedTime();
+        assertTrue(resource.exists());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    /**
+     * Test that small unwanted content is drained so that the connection is reused, while large content closes it.
+     * 
+     * @throws Exception
+     */
+    public void testUnwantedContent() throws Exception {
+        server.setDocument(new byte[1024], null, null, null);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(resource.exists());
+        }
+        assertEquals(3, server.getRequestCount());
+        assertEquals(1, server.getConnectionCount());
+
+        server.setDocument(new byte[1024 * 1024], null, null, null);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(resource.exists());
+        }
+        assertEquals(3, server.getConnectionCount());
+    }
+
+    /**
+     * Test that compressed content codings are advertised unless disabled, and gzip encoded content is decoded.
+     * 
+     * @throws Exception
+     */
+    public void testContentDecoding() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(compressed);
+        out.write("content".getBytes("UTF-8"));
+        out.close();
+        server.setDocument(compressed.toByteArray(), "gzip", null, null);
+
+        InputStream in = resource.getInputStream();
+        try {
+            assertEquals("content", new BufferedReader(new InputStreamReader(in, "UTF-8")).readLine());
+        } finally {
+            in.close();
+        }
+        assertEquals("gzip, deflate", server.getLastRequestHeader("Accept-Encoding"));
+
+        resource.setCompressionEnabled(false);
+        assertTrue(resource.exists());
+        assertNull(server.getLastRequestHeader("Accept-Encoding"));
+    }
+
+    /**
+     * Test that an unreachable resource is reported with a {@link ResourceException}.
+     */
+    public void testUnreachableResource() {
+        server.close();
+        try {
+            resource.exists();
+            fail("check of an unreachable resource should have failed");
+        } catch (ResourceException e) {
+            // expected
+        }
+    }
+}
\ No newline at end of file
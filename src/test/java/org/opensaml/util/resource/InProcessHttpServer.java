@@ -0,0 +1,296 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opensaml.util.resource;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process stand-in for an HTTP/1.1 server serving a single document, with support for persistent connections
+ * and conditional GETs.
+ */
+public class InProcessHttpServer {
+
+    private ServerSocket serverSocket;
+
+    /** Accepted client connections. */
+    private List<Socket> connections = new ArrayList<Socket>();
+
+    /** Content of the document. */
+    private byte[] content = new byte[0];
+
+    /** Content coding of the document, or null. */
+    private String contentEncoding;
+
+    /** Entity tag of the document, or null. */
+    private String entityTag;
+
+    /** Value of the Last-Modified header of the document, or null. */
+    private String lastModified;
+
+    /** Headers of the last request, keyed by lower case name. */
+    private Map<String, String> lastRequestHeaders = new HashMap<String, String>();
+
+    private AtomicInteger requestCount = new AtomicInteger();
+
+    private AtomicInteger notModifiedCount = new AtomicInteger();
+
+    private AtomicInteger connectionCount = new AtomicInteger();
+
+    /**
+     * Starts the server on an ephemeral port of the loopback interface.
+     * 
+     * @throws IOException
+     */
+    public InProcessHttpServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread("InProcessHttpServer") {
+            public void run() {
+                try {
+                    while (true) {
+                        serve(serverSocket.accept());
+                    }
+                } catch (IOException e) {
+                    // server closed
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Gets the URL of the document.
+     * 
+     * @return the URL of the document
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/document";
+    }
+
+    /**
+     * Sets the document served.
+     * 
+     * @param newContent content of the document, already encoded with the given content coding
+     * @param newContentEncoding content coding of the document, or null
+     * @param newEntityTag entity tag of the document, or null
+     * @param newLastModified value of the Last-Modified header of the document, or null
+     */
+    public synchronized void setDocument(byte[] newContent, String newContentEncoding, String newEntityTag,
+            String newLastModified) {
+        content = newContent;
+        contentEncoding = newContentEncoding;
+        entityTag = newEntityTag;
+        lastModified = newLastModified;
+    }
+
+    /**
+     * Gets a header of the last request.
+     * 
+     * @param name name of the header
+     * 
+     * @return the value of the header, or null if the last request had no such header
+     */
+    public synchronized String getLastRequestHeader(String name) {
+        return lastRequestHeaders.get(name.toLowerCase());
+    }
+
+    /**
+     * Gets the number of requests served.
+     * 
+     * @return the number of requests served
+     */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Gets the number of requests answered with <code>304 Not Modified</code>.
+     * 
+     * @return the number of requests answered with <code>304 Not Modified</code>
+     */
+    public int getNotModifiedCount() {
+        return notModifiedCount.get();
+    }
+
+    /**
+     * Gets the number of connections accepted.
+     * 
+     * @return the number of connections accepted
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /** Stops the server, closing any open client connections. */
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // ignored
+        }
+
+        synchronized (connections) {
+            for (Socket socket : connections) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // ignored
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves a client connection on a new thread.
+     * 
+     * @param socket the client connection
+     */
+    private void serve(final Socket socket) {
+        connectionCount.incrementAndGet();
+        synchronized (connections) {
+            connections.add(socket);
+        }
+        Thread handler = new Thread("InProcessHttpServer connection") {
+            public void run() {
+                try {
+                    InputStream in = new BufferedInputStream(socket.getInputStream());
+                    OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                    while (readRequest(in)) {
+                        requestCount.incrementAndGet();
+                        writeResponse(out);
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    // client disconnected
+                } finally {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        // ignored
+                    }
+                }
+            }
+        };
+        handler.setDaemon(true);
+        handler.start();
+    }
+
+    /**
+     * Reads the request line and headers of a request, which is assumed to have no content.
+     * 
+     * @param in the connection's input
+     * 
+     * @return false if the client closed the connection
+     * 
+     * @throws IOException thrown if the request can not be read
+     */
+    private boolean readRequest(InputStream in) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null) {
+            return false;
+        }
+
+        Map<String, String> headers = new HashMap<String, String>();
+        String line = readLine(in);
+        while (line != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+            line = readLine(in);
+        }
+
+        synchronized (this) {
+            lastRequestHeaders = headers;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the response to the last request.
+     * 
+     * @param out the connection's output
+     * 
+     * @throws IOException thrown if the response can not be written
+     */
+    private synchronized void writeResponse(OutputStream out) throws IOException {
+        StringBuilder head = new StringBuilder();
+        boolean notModified = entityTag != null && entityTag.equals(lastRequestHeaders.get("if-none-match"));
+        if (entityTag == null && lastModified != null) {
+            notModified = lastModified.equals(lastRequestHeaders.get("if-modified-since"));
+        }
+
+        if (notModified) {
+            notModifiedCount.incrementAndGet();
+            head.append("HTTP/1.1 304 Not Modified\r\n");
+        } else {
+            head.append("HTTP/1.1 200 OK\r\n");
+            head.append("Content-Length: ").append(content.length).append("\r\n");
+            if (contentEncoding != null) {
+                head.append("Content-Encoding: ").append(contentEncoding).append("\r\n");
+            }
+        }
+        if (entityTag != null) {
+            head.append("ETag: ").append(entityTag).append("\r\n");
+        }
+        if (lastModified != null) {
+            head.append("Last-Modified: ").append(lastModified).append("\r\n");
+        }
+        head.append("\r\n");
+
+        out.write(head.toString().getBytes("US-ASCII"));
+        if (!notModified) {
+            out.write(content);
+        }
+    }
+
+    /**
+     * Reads a CRLF terminated line.
+     * 
+     * @param in the connection's input
+     * 
+     * @return the line, or null if the input ended before the line began
+     * 
+     * @throws IOException thrown if the line can not be read
+     */
+    private String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b = in.read();
+        if (b == -1) {
+            return null;
+        }
+        while (b != -1 && b != '\n') {
+            if (b != '\r') {
+                line.write(b);
+            }
+            b = in.read();
+        }
+        return line.toString("US-ASCII");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,185 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opensaml.util.resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+
+/**
+ * A {@link Resource} held in memory, whose content, existence and failures are set by the test, and which counts how
+ * it is accessed.
+ */
+public class MemoryResource implements Resource {
+
+    private String location;
+
+    /** Content of the resource. */
+    private volatile byte[] content;
+
+    /** Time the resource was last modified, in milliseconds since the epoch. */
+    private volatile long lastModified;
+
+    /** Whether the resource exists. */
+    private volatile boolean exists;
+
+    /** Whether accesses to the resource fail. */
+    private volatile boolean failing;
+
+    /** Time, in milliseconds, each check of the resource's existence takes. */
+    private volatile long checkTime;
+
+    private AtomicInteger checkCount = new AtomicInteger();
+
+    private AtomicInteger readCount = new AtomicInteger();
+
+    private AtomicInteger activeChecks = new AtomicInteger();
+
+    private AtomicInteger maxActiveChecks = new AtomicInteger();
+
+    /**
+     * Constructor. The resource exists, with empty content.
+     * 
+     * @param resourceLocation location of the resource
+     */
+    public MemoryResource(String resourceLocation) {
+        location = resourceLocation;
+        content = new byte[0];
+        lastModified = System.currentTimeMillis();
+        exists = true;
+    }
+
+    /**
+     * Sets the content of the resource.
+     * 
+     * @param newContent the content
+     * @param modificationTime time the resource was last modified, in milliseconds since the epoch
+     */
+    public void setContent(byte[] newContent, long modificationTime) {
+        content = newContent;
+        lastModified = modificationTime;
+    }
+
+    /**
+     * Sets whether the resource exists.
+     * 
+     * @param resourceExists whether the resource exists
+     */
+    public void setExists(boolean resourceExists) {
+        exists = resourceExists;
+    }
+
+    /**
+     * Sets whether accesses to the resource fail.
+     * 
+     * @param fail whether accesses to the resource fail
+     */
+    public void setFailing(boolean fail) {
+        failing = fail;
+    }
+
+    /**
+     * Sets the time each check of the resource's existence takes.
+     * 
+     * @param time time, in milliseconds, each check takes
+     */
+    public void setCheckTime(long time) {
+        checkTime = time;
+    }
+
+    /**
+     * Gets the number of checks of the resource's existence.
+     * 
+     * @return the number of checks
+     */
+    public int getCheckCount() {
+        return checkCount.get();
+    }
+
+    /**
+     * Gets the number of times the content of the resource was read.
+     * 
+     * @return the number of times the content was read
+     */
+    public int getReadCount() {
+        return readCount.get();
+    }
+
+    /**
+     * Gets the largest number of checks of the resource's existence that were in progress at once.
+     * 
+     * @return the largest number of concurrent checks
+     */
+    public int getMaxConcurrentChecks() {
+        return maxActiveChecks.get();
+    }
+
+    /** {@inheritDoc} */
+    public String getLocation() {
+        return location;
+    }
+
+    /** {@inheritDoc} */
+    public boolean exists() throws ResourceException {
+        int active = activeChecks.incrementAndGet();
+        try {
+            checkCount.incrementAndGet();
+            int max = maxActiveChecks.get();
+            while (active > max && !maxActiveChecks.compareAndSet(max, active)) {
+                max = maxActiveChecks.get();
+            }
+            if (checkTime > 0) {
+                try {
+                    Thread.sleep(checkTime);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            checkFailure();
+            return exists;
+        } finally {
+            activeChecks.decrementAndGet();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public InputStream getInputStream() throws ResourceException {
+        checkFailure();
+        readCount.incrementAndGet();
+        return new ByteArrayInputStream(content);
+    }
+
+    /** {@inheritDoc} */
+    public DateTime getLastModifiedTime() throws ResourceException {
+        checkFailure();
+        return new DateTime(lastModified);
+    }
+
+    /**
+     * Fails if accesses to the resource are set to fail.
+     * 
+     * @throws ResourceException thrown if accesses to the resource are set to fail
+     */
+    private void checkFailure() throws ResourceException {
+        if (failing) {
+            throw new ResourceException("Resource " + location + " is unavailable");
+        }
+    }
+}
\ No newline at end of file
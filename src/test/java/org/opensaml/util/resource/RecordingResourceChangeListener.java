@@ -0,0 +1,105 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opensaml.util.resource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ResourceChangeListener} recording the changes it is notified of.
+ */
+public class RecordingResourceChangeListener implements ResourceChangeListener {
+
+    /** Changes not yet taken. */
+    private BlockingQueue<ResourceChange> changes = new LinkedBlockingQueue<ResourceChange>();
+
+    /** Time, in milliseconds, each notification takes to handle. */
+    private long handlingTime;
+
+    /** Constructor. */
+    public RecordingResourceChangeListener() {
+        this(0);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param time time, in milliseconds, each notification takes to handle
+     */
+    public RecordingResourceChangeListener(long time) {
+        handlingTime = time;
+    }
+
+    /**
+     * Waits for the next change.
+     * 
+     * @param timeout time, in milliseconds, to wait
+     * 
+     * @return the change, or null if there was none within the timeout
+     * 
+     * @throws InterruptedException
+     */
+    public ResourceChange next(long timeout) throws InterruptedException {
+        return changes.poll(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes the changes recorded so far.
+     * 
+     * @return the changes recorded since they were last taken
+     */
+    public List<ResourceChange> takeChanges() {
+        List<ResourceChange> recorded = new ArrayList<ResourceChange>();
+        changes.drainTo(recorded);
+        return recorded;
+    }
+
+    /** {@inheritDoc} */
+    public void onResourceCreate(Resource resource) {
+        record(ResourceChange.CREATION);
+    }
+
+    /** {@inheritDoc} */
+    public void onResourceUpdate(Resource resource) {
+        record(ResourceChange.UPDATE);
+    }
+
+    /** {@inheritDoc} */
+    public void onResourceDelete(Resource resource) {
+        record(ResourceChange.DELETE);
+    }
+
+    /**
+     * Records a change once it has been handled.
+     * 
+     * @param change the change
+     */
+    private void record(ResourceChange change) {
+        if (handlingTime > 0) {
+            try {
+                Thread.sleep(handlingTime);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        changes.add(change);
+    }
+}
\ No newline at end of file
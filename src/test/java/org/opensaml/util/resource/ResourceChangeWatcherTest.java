@@ -0,0 +1,214 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opensaml.util.resource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.opensaml.util.resource.ResourceChangeListener.ResourceChange;
+
+/**
+ * Tests {@link ResourceChangeWatcher}.
+ */
+public class ResourceChangeWatcherTest extends TestCase {
+
+    private MemoryResource resource;
+
+    private ExecutorService executor;
+
+    /** {@inheritDoc} */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        resource = new MemoryResource("resource");
+        resource.setExists(false);
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    /** {@inheritDoc} */
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+
+        super.tearDown();
+    }
+
+    /**
+     * Test that changes are signalled on the watching thread when no listener executor is set.
+     * 
+     * @throws Exception
+     */
+    public void testChanges() throws Exception {
+        ResourceChangeWatcher watcher = new ResourceChangeWatcher(resource);
+        RecordingResourceChangeListener listener = new RecordingResourceChangeListener();
+        watcher.getResourceListeners().add(listener);
+
+        watcher.run();
+        resource.setExists(true);
+        watcher.run();
+        watcher.run();
+        resource.setContent("updated".getBytes("UTF-8"), System.currentTimeMillis() + 1000);
+        watcher.run();
+        resource.setExists(false);
+        watcher.run();
+
+        assertEquals(Arrays.asList(ResourceChange.CREATION, ResourceChange.UPDATE, ResourceChange.DELETE), listener
+                .takeChanges());
+    }
+
+    /**
+     * Test that updates detected while a previous update is waiting to be delivered are merged into it, without
+     * merging them across other changes.
+     * 
+     * @throws Exception
+     */
+    public void testCoalescedUpdates() throws Exception {
+        ResourceChangeWatcher watcher = new ResourceChangeWatcher(resource);
+        watcher.setListenerExecutor(executor);
+        RecordingResourceChangeListener listener = new RecordingResourceChangeListener(20);
+        watcher.getResourceListeners().add(listener);
+
+        resource.setExists(true);
+        watcher.run();
+        long modificationTime = System.currentTimeMillis();
+        for (int i = 1; i <= 50; i++) {
+            resource.setContent(new byte[i], modificationTime + i * 1000);
+            watcher.run();
+        }
+        resource.setExists(false);
+        watcher.run();
+        resource.setExists(true);
+        watcher.run();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        List<ResourceChange> changes = listener.takeChanges();
+        assertEquals(ResourceChange.CREATION, changes.get(0));
+        assertEquals(ResourceChange.DELETE, changes.get(changes.size() - 2));
+        assertEquals(ResourceChange.CREATION, changes.get(changes.size() - 1));
+        List<ResourceChange> updates = changes.subList(1, changes.size() - 2);
+        assertFalse(updates.isEmpty());
+        assertTrue(updates.size() < 10);
+        for (ResourceChange change : updates) {
+            assertEquals(ResourceChange.UPDATE, change);
+        }
+    }
+
+    /**
+     * Test that each listener receives every change in order, one at a time, however slow or failing the other
+     * listeners are.
+     * 
+     * @throws Exception
+     */
+    public void testListenerOrdering() throws Exception {
+        ResourceChangeWatcher watcher = new ResourceChangeWatcher(resource);
+        watcher.setListenerExecutor(executor);
+        RecordingResourceChangeListener slowListener = new RecordingResourceChangeListener(5);
+        RecordingResourceChangeListener fastListener = new RecordingResourceChangeListener();
+        watcher.getResourceListeners().add(slowListener);
+        watcher.getResourceListeners().add(new RecordingResourceChangeListener() {
+            public void onResourceCreate(Resource resource) {
+                throw new IllegalStateException("listener failure");
+            }
+        });
+        watcher.getResourceListeners().add(fastListener);
+
+        List<ResourceChange> expected = new ArrayList<ResourceChange>();
+        for (int i = 0; i < 20; i++) {
+            resource.setExists(true);
+            watcher.run();
+            expected.add(ResourceChange.CREATION);
+            resource.setExists(false);
+            watcher.run();
+            expected.add(ResourceChange.DELETE);
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(expected, slowListener.takeChanges());
+        assertEquals(expected, fastListener.takeChanges());
+    }
+
+    /**
+     * Test that a newer modification time is only signalled as an update if the digest of the content changed.
+     * 
+     * @throws Exception
+     */
+    public void testContentDigest() throws Exception {
+        long modificationTime = System.currentTimeMillis();
+        resource.setContent("content".getBytes("UTF-8"), modificationTime);
+        resource.setExists(true);
+        ResourceChangeWatcher watcher = new ResourceChangeWatcher(resource);
+        watcher.setContentDigestAlgorithm(ResourceChangeWatcher.DEFAULT_CONTENT_DIGEST_ALGORITHM);
+        RecordingResourceChangeListener listener = new RecordingResourceChangeListener();
+        watcher.getResourceListeners().add(listener);
+
+        watcher.run();
+        resource.setContent("content".getBytes("UTF-8"), modificationTime + 1000);
+        watcher.run();
+        assertTrue(listener.takeChanges().isEmpty());
+
+        resource.setContent("updated".getBytes("UTF-8"), modificationTime + 2000);
+        watcher.run();
+        assertEquals(Arrays.asList(ResourceChange.UPDATE), listener.takeChanges());
+    }
+
+    /**
+     * Test that an unchanged entity tag is taken as unchanged content, and that the content digest is compared when
+     * the server starts or stops sending an entity tag, or changes it.
+     * 
+     * @throws Exception
+     */
+    public void testEntityTag() throws Exception {
+        InProcessHttpServer server = new InProcessHttpServer();
+        MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+        try {
+            server.setDocument("content".getBytes("UTF-8"), null, "\"1\"", null);
+            HttpResource httpResource = new HttpResource(server.getUrl(), new HttpClient(connectionManager));
+            httpResource.setValidationInterval(0);
+            ResourceChangeWatcher watcher = new ResourceChangeWatcher(httpResource);
+            watcher.setContentDigestAlgorithm(ResourceChangeWatcher.DEFAULT_CONTENT_DIGEST_ALGORITHM);
+            RecordingResourceChangeListener listener = new RecordingResourceChangeListener();
+            watcher.getResourceListeners().add(listener);
+            watcher.run();
+
+            String[] entityTags = {null, null, "\"2\"", "\"2\""};
+            for (String entityTag : entityTags) {
+                Thread.sleep(10);
+                server.setDocument("content".getBytes("UTF-8"), null, entityTag, null);
+                watcher.run();
+            }
+            assertTrue(listener.takeChanges().isEmpty());
+
+            Thread.sleep(10);
+            server.setDocument("updated".getBytes("UTF-8"), null, "\"3\"", null);
+            watcher.run();
+            assertEquals(Arrays.asList(ResourceChange.UPDATE), listener.takeChanges());
+        } finally {
+            connectionManager.shutdown();
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opensaml.util.resource;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link ResourceWatchScheduler}.
+ */
+public class ResourceWatchSchedulerTest extends TestCase {
+
+    private ResourceWatchScheduler scheduler;
+
+    /** {@inheritDoc} */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        scheduler = new ResourceWatchScheduler(4);
+    }
+
+    /** {@inheritDoc} */
+    protected void tearDown() throws Exception {
+        scheduler.shutdown();
+
+        super.tearDown();
+    }
+
+    /**
+     * Test that the delay between polls of a failing resource doubles with each failure, up to the maximum backoff.
+     * 
+     * @throws Exception
+     */
+    public void testBackoff() throws Exception {
+        MemoryResource resource = new MemoryResource("failing");
+        ResourceChangeWatcher watcher = new ResourceChangeWatcher(resource, 100, 10);
+        scheduler.setJitter(0);
+        scheduler.setMaxBackoff(800);
+
+        assertEquals(100, scheduler.nextDelay(watcher));
+        resource.setFailing(true);
+        long[] expectedDelays = {200, 400, 800, 800};
+        for (long expectedDelay : expectedDelays) {
+            watcher.run();
+            assertEquals(expectedDelay, scheduler.nextDelay(watcher));
+        }
+
+        resource.setFailing(false);
+        watcher.run();
+        assertEquals(100, scheduler.nextDelay(watcher));
+    }
+
+    /**
+     * Test that each delay is varied by up to the jitter fraction of the polling frequency.
+     * 
+     * @throws Exception
+     */
+    public void testJitter() throws Exception {
+        ResourceChangeWatcher watcher = new ResourceChangeWatcher(new MemoryResource("resource"), 1000);
+        scheduler.setJitter(0.5);
+
+        Set<Long> delays = new HashSet<Long>();
+        for (int i = 0; i < 100; i++) {
+            long delay = scheduler.nextDelay(watcher);
+            assertTrue(delay >= 500 && delay <= 1500);
+            delays.add(delay);
+        }
+        assertTrue(delays.size() > 10);
+    }
+
+    /**
+     * Test that a watcher is never polled concurrently with itself, and that a slow resource does not delay the
+     * polling of others.
+     * 
+     * @throws Exception
+     */
+    public void testSlowResource() throws Exception {
+        MemoryResource slowResource = new MemoryResource("slow");
+        slowResource.setCheckTime(50);
+        scheduler.schedule(new ResourceChangeWatcher(slowResource, 1));
+        MemoryResource fastResource = new MemoryResource("fast");
+        scheduler.schedule(new ResourceChangeWatcher(fastResource, 1));
+
+        Thread.sleep(500);
+        scheduler.shutdown();
+
+        assertEquals(1, slowResource.getMaxConcurrentChecks());
+        assertTrue(slowResource.getCheckCount() >= 3);
+        assertTrue(fastResource.getCheckCount() > 5 * slowResource.getCheckCount());
+    }
+
+    /**
+     * Test that a watcher is dropped once its resource was inaccessible for its maximum number of retry attempts, and
+     * that a cancelled watcher is no longer polled.
+     * 
+     * @throws Exception
+     */
+    public void testDroppedWatchers() throws Exception {
+        MemoryResource failingResource = new MemoryResource("failing");
+        ResourceChangeWatcher failingWatcher = new ResourceChangeWatcher(failingResource, 10, 2);
+        failingResource.setFailing(true);
+        scheduler.setMaxBackoff(10);
+        scheduler.schedule(failingWatcher);
+        MemoryResource cancelledResource = new MemoryResource("cancelled");
+        ResourceChangeWatcher cancelledWatcher = new ResourceChangeWatcher(cancelledResource, 10);
+        scheduler.schedule(cancelledWatcher);
+        assertEquals(2, scheduler.getScheduledCount());
+
+        scheduler.cancel(cancelledWatcher);
+        int checkCount = cancelledResource.getCheckCount();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (scheduler.getScheduledCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(0, scheduler.getScheduledCount());
+        assertFalse(failingWatcher.isWatching());
+        // the watcher checked the resource once when created, then twice more before giving up
+        assertEquals(3, failingResource.getCheckCount());
+        assertTrue(cancelledResource.getCheckCount() <= checkCount + 1);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,133 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTime;
+import org.opensaml.util.storage.ReplayCache.ReplayCacheEntry;
+
+/**
+ * Tests {@link BoundedStorageService} and its eviction policies.
+ */
+public class BoundedStorageServiceTest extends TestCase {
+
+    private String partition;
+
+    /** {@inheritDoc} */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        partition = "test";
+    }
+
+    /**
+     * Test least recently used eviction.
+     */
+    public void testLRUEviction() {
+        BoundedStorageService<String, String> storageService = new BoundedStorageService<String, String>(3);
+        storageService.put(partition, "a", "a");
+        storageService.put(partition, "b", "b");
+        storageService.put(partition, "c", "c");
+        storageService.get(partition, "a");
+        storageService.put(partition, "d", "d");
+
+        assertEquals(3, storageService.getSize(partition));
+        assertFalse(storageService.contains(partition, "b"));
+        assertTrue(storageService.contains(partition, "a"));
+        assertEquals(1, storageService.getEvictionCount(partition));
+        assertEquals(1, storageService.getEvictionCount());
+    }
+
+    /**
+     * Test least frequently used eviction.
+     */
+    public void testLFUEviction() {
+        BoundedStorageService<String, String> storageService = new BoundedStorageService<String, String>(3,
+                new LFUEvictionPolicy.Factory());
+        storageService.put(partition, "a", "a");
+        storageService.put(partition, "b", "b");
+        storageService.put(partition, "c", "c");
+        storageService.get(partition, "a");
+        storageService.get(partition, "a");
+        storageService.get(partition, "b");
+        storageService.put(partition, "d", "d");
+        storageService.put(partition, "e", "e");
+
+        assertTrue(storageService.contains(partition, "a"));
+        assertTrue(storageService.contains(partition, "b"));
+        assertFalse(storageService.contains(partition, "c"));
+        assertFalse(storageService.contains(partition, "d"));
+        assertTrue(storageService.contains(partition, "e"));
+        assertEquals(2, storageService.getEvictionCount(partition));
+    }
+
+    /**
+     * Test earliest expiration eviction.
+     */
+    public void testExpirationOrderedEviction() {
+        BoundedStorageService<String, ReplayCacheEntry> storageService =
+            new BoundedStorageService<String, ReplayCacheEntry>(2, new ExpirationOrderedEvictionPolicy.Factory());
+        storageService.put(partition, "late", new ReplayCacheEntry(new DateTime().plus(60000)));
+        storageService.put(partition, "early", new ReplayCacheEntry(new DateTime().plus(1000)));
+        storageService.put(partition, "middle", new ReplayCacheEntry(new DateTime().plus(30000)));
+
+        assertFalse(storageService.contains(partition, "early"));
+        assertTrue(storageService.contains(partition, "middle"));
+        assertTrue(storageService.contains(partition, "late"));
+    }
+
+    /**
+     * Test per-partition maximum entries.
+     */
+    public void testPartitionMaxEntries() {
+        BoundedStorageService<String, String> storageService = new BoundedStorageService<String, String>(10);
+        storageService.setMaxEntries("small", 1);
+        storageService.put("small", "a", "a");
+        storageService.put("small", "b", "b");
+        storageService.put(partition, "a", "a");
+        storageService.put(partition, "b", "b");
+
+        assertEquals(1, storageService.getSize("small"));
+        assertEquals(2, storageService.getSize(partition));
+        assertEquals(1, storageService.getEvictionCount("small"));
+        assertEquals(0, storageService.getEvictionCount(partition));
+    }
+
+    /**
+     * Test that a victim already absent from the partition is not counted as an eviction.
+     */
+    public void testStaleVictimNotCounted() {
+        BoundedStorageService<String, String> storageService = new BoundedStorageService<String, String>(2,
+                new EvictionPolicyFactory() {
+                    @SuppressWarnings("unchecked")
+                    public <KeyType, ValueType> EvictionPolicy<KeyType, ValueType> createPolicy() {
+                        LRUEvictionPolicy<KeyType, ValueType> lru = new LRUEvictionPolicy<KeyType, ValueType>();
+                        lru.onWrite((KeyType) "stale", null);
+                        return lru;
+                    }
+                });
+        storageService.put(partition, "a", "a");
+        storageService.put(partition, "b", "b");
+        storageService.put(partition, "c", "c");
+
+        assertEquals(2, storageService.getSize(partition));
+        assertFalse(storageService.contains(partition, "a"));
+        assertEquals(1, storageService.getEvictionCount(partition));
+        assertEquals(1, storageService.getEvictionCount());
+    }
+}
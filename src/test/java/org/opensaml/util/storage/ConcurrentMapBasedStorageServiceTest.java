@@ -0,0 +1,149 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opensaml.util.storage;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTime;
+import org.opensaml.util.storage.ReplayCache.ReplayCacheEntry;
+
+/**
+ * Tests {@link ConcurrentMapBasedStorageService}.
+ */
+public class ConcurrentMapBasedStorageServiceTest extends TestCase {
+
+    private String partition;
+
+    private ConcurrentMapBasedStorageService<String, String> storageService;
+
+    /** {@inheritDoc} */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        partition = "test";
+        storageService = new ConcurrentMapBasedStorageService<String, String>();
+    }
+
+    /**
+     * Test put if absent.
+     */
+    public void testPutIfAbsent() {
+        assertNull(storageService.putIfAbsent(partition, "key", "value1"));
+        assertEquals("value1", storageService.putIfAbsent(partition, "key", "value2"));
+        assertEquals("value1", storageService.get(partition, "key"));
+        assertNull(storageService.putIfAbsent(partition, null, "value1"));
+    }
+
+    /**
+     * Test replace if equal.
+     */
+    public void testReplace() {
+        assertFalse(storageService.replace(partition, "key", "value1", "value2"));
+        storageService.put(partition, "key", "value1");
+        assertFalse(storageService.replace(partition, "key", "value2", "value3"));
+        assertTrue(storageService.replace(partition, "key", "value1", "value2"));
+        assertEquals("value2", storageService.get(partition, "key"));
+        assertFalse(storageService.replace("other", "key", "value2", "value3"));
+    }
+
+    /**
+     * Test remove if equal.
+     */
+    public void testConditionalRemove() {
+        storageService.put(partition, "key", "value1");
+        assertFalse(storageService.remove(partition, "key", "value2"));
+        assertTrue(storageService.contains(partition, "key"));
+        assertTrue(storageService.remove(partition, "key", "value1"));
+        assertFalse(storageService.contains(partition, "key"));
+        assertFalse(storageService.remove(partition, "key", "value1"));
+    }
+
+    /**
+     * Test put if absent or expired.
+     */
+    public void testPutIfAbsentOrExpired() {
+        ConcurrentMapBasedStorageService<String, ReplayCacheEntry> expiringStorage =
+            new ConcurrentMapBasedStorageService<String, ReplayCacheEntry>();
+        ReplayCacheEntry expired = new ReplayCacheEntry(new DateTime().minus(1000));
+        ReplayCacheEntry live = new ReplayCacheEntry(new DateTime().plus(60000));
+        ReplayCacheEntry other = new ReplayCacheEntry(new DateTime().plus(60000));
+
+        assertNull(expiringStorage.putIfAbsentOrExpired(partition, "key", expired));
+        assertNull(expiringStorage.putIfAbsentOrExpired(partition, "key", live));
+        assertSame(live, expiringStorage.putIfAbsentOrExpired(partition, "key", other));
+        assertSame(live, expiringStorage.get(partition, "key"));
+    }
+
+    /**
+     * Test that of concurrent writers replacing the same expired entry exactly one succeeds.
+     * 
+     * @throws InterruptedException
+     */
+    public void testConcurrentPutIfAbsentOrExpired() throws InterruptedException {
+        final ConcurrentMapBasedStorageService<String, ReplayCacheEntry> expiringStorage =
+            new ConcurrentMapBasedStorageService<String, ReplayCacheEntry>();
+        final AtomicInteger successes = new AtomicInteger();
+        for (int i = 0; i < 100; i++) {
+            final String key = Integer.toString(i);
+            expiringStorage.put(partition, key, new ReplayCacheEntry(new DateTime().minus(1000)));
+            Thread[] threads = new Thread[4];
+            for (int j = 0; j < threads.length; j++) {
+                threads[j] = new Thread() {
+                    public void run() {
+                        ReplayCacheEntry entry = new ReplayCacheEntry(new DateTime().plus(60000));
+                        if (expiringStorage.putIfAbsentOrExpired(partition, key, entry) == null) {
+                            successes.incrementAndGet();
+                        }
+                    }
+                };
+                threads[j].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertFalse(expiringStorage.get(partition, key).isExpired());
+        }
+        assertEquals(100, successes.get());
+    }
+
+    /**
+     * Test that removing a partition through the partition iterator removes its entries.
+     */
+    public void testPartitionRemoval() {
+        storageService.put(partition, "key", "value1");
+        storageService.put("other", "key", "value1");
+
+        Iterator<String> partitions = storageService.getPartitions();
+        while (partitions.hasNext()) {
+            if (partition.equals(partitions.next())) {
+                partitions.remove();
+            }
+        }
+
+        assertNull(storageService.getKeys(partition));
+        assertFalse(storageService.contains(partition, "key"));
+        assertNull(storageService.remove(partition, "key"));
+        assertEquals("value1", storageService.get("other", "key"));
+
+        assertNull(storageService.putIfAbsent(partition, "key", "value2"));
+        assertEquals("value2", storageService.get(partition, "key"));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,124 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.util.Timer;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link ExpiringConcurrentMapStorageService}.
+ */
+public class ExpiringConcurrentMapStorageServiceTest extends TestCase {
+
+    private String partition;
+
+    private ExpiringConcurrentMapStorageService<String, String> storageService;
+
+    /** {@inheritDoc} */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        partition = "test";
+        storageService = new ExpiringConcurrentMapStorageService<String, String>(10, 64);
+    }
+
+    /**
+     * Test that entries written with an expiration time are absent once it has passed.
+     * 
+     * @throws InterruptedException
+     */
+    public void testExpiration() throws InterruptedException {
+        long expiration = System.currentTimeMillis() + 500;
+        assertNull(storageService.put(partition, "a", "value", expiration));
+        assertNull(storageService.put(partition, "b", "value"));
+        assertEquals("value", storageService.get(partition, "a"));
+        assertEquals(expiration, storageService.getExpirationTime(partition, "a"));
+        assertEquals(ExpiringStorageService.NEVER_EXPIRES, storageService.getExpirationTime(partition, "b"));
+
+        Thread.sleep(expiration - System.currentTimeMillis() + 50);
+
+        assertNull(storageService.get(partition, "a"));
+        assertFalse(storageService.contains(partition, "a"));
+        assertEquals(0, storageService.getExpirationTime(partition, "a"));
+        assertFalse(storageService.remove(partition, "a", "value"));
+        assertTrue(storageService.contains(partition, "b"));
+    }
+
+    /**
+     * Test that expired entries are treated as absent by conditional writes.
+     * 
+     * @throws InterruptedException
+     */
+    public void testPutIfAbsent() throws InterruptedException {
+        long expiration = System.currentTimeMillis() + 500;
+        assertNull(storageService.putIfAbsent(partition, "a", "first", expiration));
+        assertEquals("first", storageService.putIfAbsent(partition, "a", "second", expiration));
+
+        Thread.sleep(expiration - System.currentTimeMillis() + 50);
+
+        long secondExpiration = System.currentTimeMillis() + 60000;
+        assertNull(storageService.putIfAbsent(partition, "a", "second", secondExpiration));
+        assertEquals("second", storageService.get(partition, "a"));
+        assertFalse(storageService.replace(partition, "a", "first", "third"));
+        assertTrue(storageService.replace(partition, "a", "second", "third"));
+        assertEquals(secondExpiration, storageService.getExpirationTime(partition, "a"));
+        assertEquals("third", storageService.remove(partition, "a"));
+    }
+
+    /**
+     * Test that an entry written with an expiration time still expires once its value is replaced.
+     * 
+     * @throws InterruptedException
+     */
+    public void testReplaceKeepsExpiration() throws InterruptedException {
+        long expiration = System.currentTimeMillis() + 500;
+        assertNull(storageService.put(partition, "a", "first", expiration));
+        assertTrue(storageService.replace(partition, "a", "first", "second"));
+        assertEquals("second", storageService.get(partition, "a"));
+        assertEquals(expiration, storageService.getExpirationTime(partition, "a"));
+
+        Thread.sleep(expiration - System.currentTimeMillis() + 50);
+
+        assertNull(storageService.get(partition, "a"));
+        assertEquals(1, storageService.removeExpiredEntries(partition));
+    }
+
+    /**
+     * Test that expired entries are evicted through the expiration index, and that the sweeper uses it.
+     * 
+     * @throws InterruptedException
+     */
+    public void testRemoveExpiredEntries() throws InterruptedException {
+        storageService.put(partition, "expired", "value", System.currentTimeMillis() + 20);
+        storageService.put(partition, "live", "value", System.currentTimeMillis() + 60000);
+        storageService.put(partition, "forever", "value");
+
+        Thread.sleep(100);
+
+        assertEquals(1, storageService.removeExpiredEntries(partition));
+        assertEquals(0, storageService.removeExpiredEntries(partition));
+
+        storageService.put(partition, "expired", "value", System.currentTimeMillis() + 20);
+        Thread.sleep(100);
+        ExpiringObjectStorageServiceSweeper sweeper = new ExpiringObjectStorageServiceSweeper(new Timer(true),
+                60000, storageService);
+        sweeper.run();
+        sweeper.cancel();
+        assertEquals(1, sweeper.getLastRemovedEntries());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,233 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Timer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTime;
+import org.opensaml.util.storage.ReplayCache.ReplayCacheEntry;
+
+/**
+ * Tests {@link ExpiringObjectStorageServiceSweeper}.
+ */
+public class ExpiringObjectStorageServiceSweeperTest extends TestCase {
+
+    private MapBasedStorageService<String, ReplayCacheEntry> storageService;
+
+    private int nextKey;
+
+    /** {@inheritDoc} */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        storageService = new MapBasedStorageService<String, ReplayCacheEntry>();
+    }
+
+    /**
+     * Test that a timer scheduled sweeper sweeps repeatedly and only the given partitions.
+     * 
+     * @throws InterruptedException
+     */
+    public void testRecurringTimerSweep() throws InterruptedException {
+        Timer timer = new Timer(true);
+        ExpiringObjectStorageServiceSweeper sweeper = new ExpiringObjectStorageServiceSweeper(timer, 10,
+                storageService, Collections.singleton("swept"));
+        try {
+            addEntries("swept", 10, true);
+            addEntries("unswept", 10, true);
+            waitForSweeps(sweeper, 1);
+
+            addEntries("swept", 5, true);
+            addEntries("swept", 5, false);
+            waitForSweeps(sweeper, sweeper.getSweepCount() + 2);
+
+            assertEquals(15, sweeper.getTotalRemovedEntries());
+            assertEquals(5, getSize("swept"));
+            assertEquals(10, getSize("unswept"));
+        } finally {
+            sweeper.cancel();
+            timer.cancel();
+        }
+    }
+
+    /**
+     * Test that an executor scheduled sweeper sweeps all partitions in parallel, in chunks.
+     * 
+     * @throws InterruptedException
+     */
+    public void testParallelExecutorSweep() throws InterruptedException {
+        for (int i = 0; i < 8; i++) {
+            addEntries("partition" + i, 1000, true);
+            addEntries("partition" + i, 10, false);
+        }
+
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+        ExpiringObjectStorageServiceSweeper sweeper = new ExpiringObjectStorageServiceSweeper(executor, 10,
+                storageService);
+        sweeper.setChunkSize(100);
+        try {
+            waitForSweeps(sweeper, 1);
+
+            assertEquals(8000, sweeper.getTotalRemovedEntries());
+            for (int i = 0; i < 8; i++) {
+                assertEquals(10, getSize("partition" + i));
+            }
+        } finally {
+            sweeper.cancel();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Test that a store wrapped for instrumentation is swept in chunks through its delegate's expiration index rather
+     * than by examining every entry.
+     * 
+     * @throws InterruptedException
+     */
+    public void testInstrumentedIndexedSweep() throws InterruptedException {
+        InstrumentedStorageService<String, ReplayCacheEntry> instrumentedStorageService =
+                new InstrumentedStorageService<String, ReplayCacheEntry>(
+                        new ExpiryIndexedStorageService<String, ReplayCacheEntry>(10, 64));
+        DateTime expiration = new DateTime().plus(20);
+        for (int i = 0; i < 10; i++) {
+            instrumentedStorageService.put("partition", "expired" + i, new ReplayCacheEntry(expiration));
+            instrumentedStorageService.put("partition", "live" + i, new ReplayCacheEntry(expiration.plus(60000)));
+        }
+        Thread.sleep(100);
+
+        Timer timer = new Timer(true);
+        ExpiringObjectStorageServiceSweeper sweeper = new ExpiringObjectStorageServiceSweeper(timer, 60000,
+                instrumentedStorageService);
+        sweeper.setChunkSize(3);
+        sweeper.setChunkPause(1);
+        try {
+            instrumentedStorageService.resetStatistics();
+            sweeper.run();
+
+            assertEquals(10, sweeper.getLastRemovedEntries());
+            assertEquals(0, instrumentedStorageService.getOperationCount("get"));
+            assertEquals(10, instrumentedStorageService.getPartitionSize("partition"));
+        } finally {
+            sweeper.cancel();
+            timer.cancel();
+        }
+    }
+
+    /**
+     * Test that a failing sweep neither throws from the task, which would end all later sweeps, nor prevents the next
+     * sweep.
+     */
+    public void testFailedSweep() {
+        final boolean[] failing = {true};
+        storageService = new MapBasedStorageService<String, ReplayCacheEntry>() {
+            public Iterator<String> getPartitions() {
+                if (failing[0]) {
+                    throw new IllegalStateException("Store unavailable");
+                }
+                return super.getPartitions();
+            }
+        };
+        addEntries("partition", 10, true);
+
+        Timer timer = new Timer(true);
+        ExpiringObjectStorageServiceSweeper sweeper = new ExpiringObjectStorageServiceSweeper(timer, 60000,
+                storageService);
+        try {
+            sweeper.run();
+            assertEquals(0, sweeper.getSweepCount());
+
+            failing[0] = false;
+            sweeper.run();
+            assertEquals(1, sweeper.getSweepCount());
+            assertEquals(10, sweeper.getLastRemovedEntries());
+        } finally {
+            sweeper.cancel();
+            timer.cancel();
+        }
+    }
+
+    /**
+     * Test that partitions are swept on the sweeping thread if the executor rejects helpers.
+     */
+    public void testRejectedHelpers() {
+        for (int i = 0; i < 4; i++) {
+            addEntries("partition" + i, 10, true);
+        }
+
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+        ExpiringObjectStorageServiceSweeper sweeper = new ExpiringObjectStorageServiceSweeper(executor, 60000,
+                storageService);
+        executor.shutdown();
+        sweeper.run();
+
+        assertEquals(1, sweeper.getSweepCount());
+        assertEquals(40, sweeper.getLastRemovedEntries());
+    }
+
+    /**
+     * Adds entries to a partition.
+     * 
+     * @param partition the partition
+     * @param count number of entries to add
+     * @param expired whether the entries have expired
+     */
+    private void addEntries(String partition, int count, boolean expired) {
+        DateTime expiration = expired ? new DateTime().minus(1000) : new DateTime().plus(60000);
+        for (int i = 0; i < count; i++) {
+            storageService.put(partition, Integer.toString(nextKey++), new ReplayCacheEntry(expiration));
+        }
+    }
+
+    /**
+     * Gets the number of entries in a partition.
+     * 
+     * @param partition the partition
+     * 
+     * @return number of entries in the partition
+     */
+    private int getSize(String partition) {
+        int size = 0;
+        Iterator<String> keys = storageService.getKeys(partition);
+        while (keys != null && keys.hasNext()) {
+            keys.next();
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Waits until the sweeper has completed the given number of sweeps.
+     * 
+     * @param sweeper the sweeper
+     * @param sweeps number of sweeps to wait for
+     * 
+     * @throws InterruptedException
+     */
+    private void waitForSweeps(ExpiringObjectStorageServiceSweeper sweeper, long sweeps) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sweeper.getSweepCount() < sweeps && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(sweeper.getSweepCount() >= sweeps);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,151 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTime;
+import org.opensaml.util.storage.ReplayCache.ReplayCacheEntry;
+
+/**
+ * Tests {@link ExpiryIndexedStorageService}.
+ */
+public class ExpiryIndexedStorageServiceTest extends TestCase {
+
+    private String partition;
+
+    private ExpiryIndexedStorageService<String, ReplayCacheEntry> storageService;
+
+    /** {@inheritDoc} */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        partition = "test";
+        storageService = new ExpiryIndexedStorageService<String, ReplayCacheEntry>(10, 64);
+    }
+
+    /**
+     * Test that expired entries are removed and live entries are retained.
+     * 
+     * @throws InterruptedException
+     */
+    public void testRemoveExpiredEntries() throws InterruptedException {
+        storageService.put(partition, "expired1", new ReplayCacheEntry(new DateTime().plus(20)));
+        storageService.put(partition, "expired2", new ReplayCacheEntry(new DateTime().minus(1000)));
+        storageService.put(partition, "live", new ReplayCacheEntry(new DateTime().plus(60000)));
+
+        Thread.sleep(100);
+
+        assertEquals(2, storageService.removeExpiredEntries(partition));
+        assertFalse(storageService.contains(partition, "expired1"));
+        assertFalse(storageService.contains(partition, "expired2"));
+        assertTrue(storageService.contains(partition, "live"));
+        assertEquals(0, storageService.removeExpiredEntries(partition));
+    }
+
+    /**
+     * Test that entries replaced before they expire are governed by the replacement's expiration.
+     * 
+     * @throws InterruptedException
+     */
+    public void testReplacedEntries() throws InterruptedException {
+        ReplayCacheEntry original = new ReplayCacheEntry(new DateTime().plus(20));
+        storageService.put(partition, "key", original);
+        assertTrue(storageService.replace(partition, "key", original, new ReplayCacheEntry(new DateTime()
+                .plus(60000))));
+
+        Thread.sleep(100);
+
+        assertEquals(0, storageService.removeExpiredEntries(partition));
+        assertTrue(storageService.contains(partition, "key"));
+    }
+
+    /**
+     * Test that entries expiring beyond one revolution of the wheel are retained until they expire.
+     * 
+     * @throws InterruptedException
+     */
+    public void testEntriesBeyondWheelSpan() throws InterruptedException {
+        storageService.put(partition, "key", new ReplayCacheEntry(new DateTime().plus(900)));
+
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(150);
+            assertEquals(0, storageService.removeExpiredEntries(partition));
+            assertTrue(storageService.contains(partition, "key"));
+        }
+
+        Thread.sleep(400);
+        assertEquals(1, storageService.removeExpiredEntries(partition));
+        assertFalse(storageService.contains(partition, "key"));
+    }
+
+    /**
+     * Test that entries indexed while their bucket is being swept are removed by the next sweep rather than after a
+     * revolution of the wheel.
+     * 
+     * @throws InterruptedException
+     */
+    public void testEntriesAddedDuringSweep() throws InterruptedException {
+        storageService = new ExpiryIndexedStorageService<String, ReplayCacheEntry>(10, 4096);
+        final ExpiryIndexedStorageService<String, ReplayCacheEntry> store = storageService;
+
+        Thread[] writers = new Thread[4];
+        for (int i = 0; i < writers.length; i++) {
+            final int writer = i;
+            writers[i] = new Thread() {
+                public void run() {
+                    long end = System.currentTimeMillis() + 300;
+                    for (int j = 0; System.currentTimeMillis() < end; j++) {
+                        store.put(partition, writer + "-" + j, new ReplayCacheEntry(new DateTime()));
+                    }
+                }
+            };
+            writers[i].start();
+        }
+
+        boolean writing = true;
+        while (writing) {
+            storageService.removeExpiredEntries(partition);
+            writing = false;
+            for (Thread writer : writers) {
+                writing |= writer.isAlive();
+            }
+        }
+
+        Thread.sleep(30);
+        storageService.removeExpiredEntries(partition);
+        assertFalse(storageService.getKeys(partition).hasNext());
+    }
+
+    /**
+     * Test that a sweep in chunks rejects chunk sizes that are not positive.
+     */
+    public void testInvalidChunkSize() {
+        try {
+            storageService.removeExpiredEntries("partition", 0, 0);
+            fail("Chunk size of zero was accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new ExpiringConcurrentMapStorageService<String, String>().removeExpiredEntries("partition", 0, 0);
+            fail("Chunk size of zero was accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process stand-in for a Redis server implementing just the commands used by {@link RedisReplayStorageService}.
+ */
+public class InProcessRedisServer {
+
+    private ServerSocket serverSocket;
+
+    /** Values, keyed by name. */
+    private Map<String, String> values = new HashMap<String, String>();
+
+    /** Expiration times, in milliseconds since the epoch, keyed by name. */
+    private Map<String, Long> expirations = new HashMap<String, Long>();
+
+    private AtomicInteger commandCount = new AtomicInteger();
+
+    /**
+     * Starts the server on an ephemeral port of the loopback interface.
+     * 
+     * @throws IOException
+     */
+    public InProcessRedisServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread("InProcessRedisServer") {
+            public void run() {
+                try {
+                    while (true) {
+                        serve(serverSocket.accept());
+                    }
+                } catch (IOException e) {
+                    // server closed
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Gets the port the server listens on.
+     * 
+     * @return the port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Gets the number of commands processed.
+     * 
+     * @return the number of commands processed
+     */
+    public int getCommandCount() {
+        return commandCount.get();
+    }
+
+    /** Stops the server. */
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // ignored
+        }
+    }
+
+    /**
+     * Serves a client connection on a new thread.
+     * 
+     * @param socket the client connection
+     */
+    private void serve(final Socket socket) {
+        Thread handler = new Thread("InProcessRedisServer connection") {
+            public void run() {
+                try {
+                    InputStream in = new BufferedInputStream(socket.getInputStream());
+                    OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                    while (true) {
+                        List<?> command = (List<?>) RedisConnection.read(in);
+                        commandCount.incrementAndGet();
+                        out.write(execute(command).getBytes("UTF-8"));
+                        if (in.available() == 0) {
+                            out.flush();
+                        }
+                    }
+                } catch (IOException e) {
+                    // client disconnected
+                } finally {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        // ignored
+                    }
+                }
+            }
+        };
+        handler.setDaemon(true);
+        handler.start();
+    }
+
+    /**
+     * Executes a command.
+     * 
+     * @param command the command name and arguments
+     * 
+     * @return the encoded reply
+     */
+    private synchronized String execute(List<?> command) {
+        String name = ((String) command.get(0)).toUpperCase();
+        if ("GET".equals(name)) {
+            return bulk(get((String) command.get(1)));
+        } else if ("GETDEL".equals(name)) {
+            String key = (String) command.get(1);
+            String value = get(key);
+            values.remove(key);
+            return bulk(value);
+        } else if ("SET".equals(name)) {
+            return set(command);
+        } else if ("EVAL".equals(name)) {
+            String key = (String) command.get(3);
+            if (!command.get(4).equals(get(key))) {
+                return ":0\r\n";
+            }
+            if (RedisReplayStorageService.COMPARE_AND_SET_SCRIPT.equals(command.get(1))) {
+                values.put(key, (String) command.get(5));
+                expirations.put(key, System.currentTimeMillis() + Long.parseLong((String) command.get(6)));
+            } else if (RedisReplayStorageService.COMPARE_AND_DELETE_SCRIPT.equals(command.get(1))) {
+                values.remove(key);
+            } else {
+                return "-ERR unknown script\r\n";
+            }
+            return ":1\r\n";
+        }
+        return "-ERR unknown command '" + name + "'\r\n";
+    }
+
+    /**
+     * Executes a SET command, supporting the NX, PX and GET options.
+     * 
+     * @param command the command name and arguments
+     * 
+     * @return the encoded reply
+     */
+    private String set(List<?> command) {
+        String key = (String) command.get(1);
+        boolean onlyIfAbsent = false;
+        boolean get = false;
+        long expiration = Long.MAX_VALUE;
+        for (int i = 3; i < command.size(); i++) {
+            String option = ((String) command.get(i)).toUpperCase();
+            if ("NX".equals(option)) {
+                onlyIfAbsent = true;
+            } else if ("GET".equals(option)) {
+                get = true;
+            } else if ("PX".equals(option)) {
+                expiration = System.currentTimeMillis() + Long.parseLong((String) command.get(++i));
+            }
+        }
+
+        String previousValue = get(key);
+        if (!onlyIfAbsent || previousValue == null) {
+            values.put(key, (String) command.get(2));
+            expirations.put(key, expiration);
+        }
+
+        if (get) {
+            return bulk(previousValue);
+        }
+        if (onlyIfAbsent && previousValue != null) {
+            return "$-1\r\n";
+        }
+        return "+OK\r\n";
+    }
+
+    /**
+     * Gets the live value of a key.
+     * 
+     * @param key the key
+     * 
+     * @return the value, or null if there is no live value
+     */
+    private String get(String key) {
+        Long expiration = expirations.get(key);
+        if (expiration != null && expiration.longValue() <= System.currentTimeMillis()) {
+            values.remove(key);
+            expirations.remove(key);
+        }
+        return values.get(key);
+    }
+
+    /**
+     * Encodes a bulk string reply.
+     * 
+     * @param value the value, or null
+     * 
+     * @return the encoded reply
+     */
+    private String bulk(String value) {
+        if (value == null) {
+            return "$-1\r\n";
+        }
+        return "$" + value.length() + "\r\n" + value + "\r\n";
+    }
+}
\ No newline at end of file
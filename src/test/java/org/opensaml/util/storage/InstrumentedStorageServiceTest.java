@@ -0,0 +1,90 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link InstrumentedStorageService}.
+ */
+public class InstrumentedStorageServiceTest extends TestCase {
+
+    private String partition;
+
+    private InstrumentedStorageService<String, String> storageService;
+
+    /** {@inheritDoc} */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        partition = "test";
+        storageService = new InstrumentedStorageService<String, String>(
+                new ConcurrentMapBasedStorageService<String, String>());
+    }
+
+    /**
+     * Test that operations, hits and misses are recorded only while enabled.
+     */
+    public void testStatistics() {
+        storageService.put(partition, "a", "a");
+        storageService.put(partition, "b", "b");
+        storageService.get(partition, "a");
+        storageService.get(partition, "c");
+        storageService.contains(partition, "b");
+        storageService.remove(partition, "b");
+
+        assertEquals(2, storageService.getOperationCount("put"));
+        assertEquals(2, storageService.getOperationCount("get"));
+        assertEquals(1, storageService.getOperationCount("remove"));
+        assertEquals(2, storageService.getHitCount());
+        assertEquals(1, storageService.getMissCount());
+        assertTrue(storageService.getLatencyPercentile("put", 99) <= storageService.getMaxLatency("put"));
+        assertEquals(1, storageService.getPartitionSize(partition));
+
+        storageService.setEnabled(false);
+        storageService.get(partition, "a");
+        assertEquals(2, storageService.getOperationCount("get"));
+
+        storageService.resetStatistics();
+        assertEquals(0, storageService.getOperationCount("put"));
+        assertEquals(0.0, storageService.getHitRatio());
+    }
+
+    /**
+     * Test that the statistics are exposed as MBean attributes.
+     * 
+     * @throws Exception
+     */
+    public void testMBean() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.opensaml:type=StorageService,name=test");
+        server.registerMBean(storageService, name);
+        try {
+            storageService.get(partition, "a");
+            assertEquals(Long.valueOf(1), server.getAttribute(name, "MissCount"));
+            assertEquals(Long.valueOf(1), server.invoke(name, "getOperationCount", new Object[] {"get"},
+                    new String[] {String.class.getName()}));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,87 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTime;
+import org.opensaml.util.storage.ReplayCache.ReplayCacheEntry;
+
+/**
+ * Tests the conditional operations of {@link MapBasedStorageService}.
+ */
+public class MapBasedStorageServiceTest extends TestCase {
+
+    private String partition;
+
+    private MapBasedStorageService<String, String> storageService;
+
+    /** {@inheritDoc} */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        partition = "test";
+        storageService = new MapBasedStorageService<String, String>();
+    }
+
+    /**
+     * Test put if absent.
+     */
+    public void testPutIfAbsent() {
+        assertNull(storageService.putIfAbsent(partition, "key", "value1"));
+        assertEquals("value1", storageService.putIfAbsent(partition, "key", "value2"));
+        assertEquals("value1", storageService.get(partition, "key"));
+    }
+
+    /**
+     * Test replace if equal.
+     */
+    public void testReplace() {
+        assertFalse(storageService.replace(partition, "key", "value1", "value2"));
+        storageService.put(partition, "key", "value1");
+        assertFalse(storageService.replace(partition, "key", "value2", "value3"));
+        assertTrue(storageService.replace(partition, "key", "value1", "value2"));
+        assertEquals("value2", storageService.get(partition, "key"));
+    }
+
+    /**
+     * Test remove if equal.
+     */
+    public void testConditionalRemove() {
+        storageService.put(partition, "key", "value1");
+        assertFalse(storageService.remove(partition, "key", "value2"));
+        assertTrue(storageService.contains(partition, "key"));
+        assertTrue(storageService.remove(partition, "key", "value1"));
+        assertFalse(storageService.contains(partition, "key"));
+    }
+
+    /**
+     * Test put if absent or expired.
+     */
+    public void testPutIfAbsentOrExpired() {
+        MapBasedStorageService<String, ReplayCacheEntry> expiringStorage =
+            new MapBasedStorageService<String, ReplayCacheEntry>();
+        ReplayCacheEntry expired = new ReplayCacheEntry(new DateTime().minus(1000));
+        ReplayCacheEntry live = new ReplayCacheEntry(new DateTime().plus(60000));
+        ReplayCacheEntry other = new ReplayCacheEntry(new DateTime().plus(60000));
+
+        assertNull(expiringStorage.putIfAbsentOrExpired(partition, "key", expired));
+        assertNull(expiringStorage.putIfAbsentOrExpired(partition, "key", live));
+        assertSame(live, expiringStorage.putIfAbsentOrExpired(partition, "key", other));
+        assertSame(live, expiringStorage.get(partition, "key"));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,148 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTime;
+import org.opensaml.util.storage.ReplayCache.ReplayCacheEntry;
+
+/**
+ * Tests {@link MappedFileReplayStorageService}.
+ */
+public class MappedFileReplayStorageServiceTest extends TestCase {
+
+    private String partition;
+
+    private File directory;
+
+    /** {@inheritDoc} */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        partition = "test";
+        directory = File.createTempFile("replay", "");
+        directory.delete();
+    }
+
+    /** {@inheritDoc} */
+    protected void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+
+        super.tearDown();
+    }
+
+    /**
+     * Test that writes and removals are restored by a new instance.
+     * 
+     * @throws Exception
+     */
+    public void testRestore() throws Exception {
+        MappedFileReplayStorageService storageService = newStorageService();
+        ReplayCache replayCache = new ReplayCache(storageService, partition, 60000);
+        DateTime expiration = new DateTime().plus(60000);
+        storageService.put(partition, "a", new ReplayCacheEntry(expiration));
+        storageService.put(partition, "b", new ReplayCacheEntry(expiration));
+        storageService.remove(partition, "b");
+        assertFalse(replayCache.isReplay("issuer", "message"));
+        storageService.close();
+
+        storageService = newStorageService();
+        replayCache = new ReplayCache(storageService, partition, 60000);
+        assertEquals(expiration.getMillis(), storageService.get(partition, "a").getExpirationTime().getMillis());
+        assertFalse(storageService.contains(partition, "b"));
+        assertTrue(replayCache.isReplay("issuer", "message"));
+        storageService.close();
+    }
+
+    /**
+     * Test that compaction preserves live entries and deletes superseded log files.
+     * 
+     * @throws Exception
+     */
+    public void testCompaction() throws Exception {
+        MappedFileReplayStorageService storageService = newStorageService();
+        ReplayCacheEntry live = new ReplayCacheEntry(new DateTime().plus(60000));
+        for (int i = 0; i < 500; i++) {
+            storageService.put(partition, Integer.toString(i), live);
+        }
+        for (int i = 0; i < 500; i += 2) {
+            storageService.remove(partition, Integer.toString(i));
+        }
+        storageService.compact();
+        // snapshot, active log, hash seed and at most one log not yet deleted
+        assertTrue(directory.listFiles().length <= 4);
+        storageService.put(partition, "after", live);
+        storageService.close();
+
+        storageService = newStorageService();
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i % 2 == 1, storageService.contains(partition, Integer.toString(i)));
+        }
+        assertTrue(storageService.contains(partition, "after"));
+        assertEquals(251, storageService.getSize());
+        storageService.close();
+    }
+
+    /**
+     * Test that the hash seed is kept across restarts, and that a directory holding records without a seed is rejected.
+     * 
+     * @throws Exception
+     */
+    public void testHashSeed() throws Exception {
+        MappedFileReplayStorageService storageService = newStorageService();
+        long seed = storageService.getHashSeed();
+        storageService.close();
+
+        storageService = newStorageService();
+        assertEquals(seed, storageService.getHashSeed());
+        storageService.close();
+
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        new RandomAccessFile(new File(directory, "00000000000000000000.log"), "rw").close();
+        try {
+            newStorageService();
+            fail("Directory holding records without a hash seed was accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Creates a storage service with small log files.
+     * 
+     * @return the storage service
+     * 
+     * @throws Exception
+     */
+    private MappedFileReplayStorageService newStorageService() throws Exception {
+        return new MappedFileReplayStorageService(directory, 1000, 4, 100 * OffHeapReplayStorageService.RECORD_SIZE,
+                100);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,132 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTime;
+import org.opensaml.util.storage.ReplayCache.ReplayCacheEntry;
+
+/**
+ * Tests {@link OffHeapReplayStorageService}.
+ */
+public class OffHeapReplayStorageServiceTest extends TestCase {
+
+    private String partition;
+
+    private OffHeapReplayStorageService storageService;
+
+    /** {@inheritDoc} */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        partition = "test";
+        storageService = new OffHeapReplayStorageService(1000, 4);
+    }
+
+    /**
+     * Test basic storage operations.
+     */
+    public void testPutGetRemove() {
+        DateTime expiration = new DateTime().plus(60000);
+        assertNull(storageService.put(partition, "a", new ReplayCacheEntry(expiration)));
+        assertTrue(storageService.contains(partition, "a"));
+        assertFalse(storageService.contains("other", "a"));
+        assertEquals(expiration.getMillis(), storageService.get(partition, "a").getExpirationTime().getMillis());
+
+        assertFalse(storageService.remove(partition, "a", new ReplayCacheEntry(expiration.plus(1))));
+        assertTrue(storageService.remove(partition, "a", new ReplayCacheEntry(expiration)));
+        assertNull(storageService.get(partition, "a"));
+        assertEquals(0, storageService.getSize());
+        assertNull(storageService.getKeys(partition));
+        assertEquals(partition, storageService.getPartitions().next());
+    }
+
+    /**
+     * Test that expired entries are treated as absent by putIfAbsentOrExpired but not by putIfAbsent.
+     */
+    public void testPutIfAbsentOrExpired() {
+        ReplayCacheEntry expired = new ReplayCacheEntry(new DateTime().minus(1000));
+        ReplayCacheEntry live = new ReplayCacheEntry(new DateTime().plus(60000));
+
+        storageService.put(partition, "a", expired);
+        assertNotNull(storageService.putIfAbsent(partition, "a", live));
+        assertNull(storageService.putIfAbsentOrExpired(partition, "a", live));
+        assertNotNull(storageService.putIfAbsentOrExpired(partition, "a", live));
+        assertEquals(1, storageService.getSize());
+    }
+
+    /**
+     * Test that replay checks made by hash record the same entries as those made through the storage interface.
+     */
+    public void testReplayCacheByHash() {
+        ReplayCache replayCache = new ReplayCache(storageService, partition, 60000);
+        assertFalse(replayCache.isReplay("issuer", "message"));
+        assertTrue(storageService.contains(partition, "issuermessage"));
+        assertTrue(replayCache.isReplay("issuer", "message"));
+
+        storageService.put(partition, "issuerother", new ReplayCacheEntry(new DateTime().plus(60000)));
+        assertTrue(replayCache.isReplay("issuer", "other"));
+
+        storageService.put(partition, "issuerexpired", new ReplayCacheEntry(new DateTime().minus(1000)));
+        assertFalse(replayCache.isReplay("issuer", "expired"));
+    }
+
+    /**
+     * Test that removal keeps entries sharing a probe sequence reachable.
+     */
+    public void testRemoveWithCollisions() {
+        DateTime expiration = new DateTime().plus(60000);
+        for (int i = 0; i < 700; i++) {
+            storageService.put(partition, Integer.toString(i), new ReplayCacheEntry(expiration));
+        }
+        for (int i = 0; i < 700; i += 2) {
+            assertNotNull(storageService.remove(partition, Integer.toString(i)));
+        }
+        for (int i = 0; i < 700; i++) {
+            assertEquals(i % 2 == 1, storageService.contains(partition, Integer.toString(i)));
+        }
+        assertEquals(350, storageService.getSize());
+    }
+
+    /**
+     * Test that each store hashes keys with its own seed.
+     */
+    public void testHashSeed() {
+        assertTrue(storageService.getHashSeed() != new OffHeapReplayStorageService(16).getHashSeed());
+    }
+
+    /**
+     * Test that expired entries make room for new ones and that live entries are evicted only when the store is full.
+     */
+    public void testFullStore() {
+        ReplayCacheEntry expired = new ReplayCacheEntry(new DateTime().minus(1000));
+        for (int i = 0; i < 1000; i++) {
+            storageService.put(partition, "expired" + i, expired);
+        }
+        ReplayCacheEntry live = new ReplayCacheEntry(new DateTime().plus(60000));
+        for (int i = 0; i < 1000; i++) {
+            assertNull(storageService.putIfAbsentOrExpired(partition, "live" + i, live));
+        }
+        assertEquals(0, storageService.getEvictionCount());
+
+        for (int i = 0; i < 1000; i++) {
+            storageService.put(partition, "more" + i, live);
+        }
+        assertTrue(storageService.getEvictionCount() > 0);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,146 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTime;
+import org.opensaml.util.storage.ReplayCache.ReplayCacheEntry;
+
+/**
+ * Tests {@link RedisReplayStorageService} against an {@link InProcessRedisServer}.
+ */
+public class RedisReplayStorageServiceTest extends TestCase {
+
+    private String partition;
+
+    private InProcessRedisServer server;
+
+    private RedisConnection connection;
+
+    private RedisReplayStorageService storageService;
+
+    /** {@inheritDoc} */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        partition = "test";
+        server = new InProcessRedisServer();
+        connection = new RedisConnection("127.0.0.1", server.getPort());
+        storageService = new RedisReplayStorageService(connection);
+    }
+
+    /** {@inheritDoc} */
+    protected void tearDown() throws Exception {
+        connection.close();
+        server.close();
+
+        super.tearDown();
+    }
+
+    /**
+     * Test basic storage operations.
+     */
+    public void testStorageOperations() {
+        DateTime expiration = new DateTime().plus(60000);
+        ReplayCacheEntry entry = new ReplayCacheEntry(expiration);
+        assertNull(storageService.putIfAbsentOrExpired(partition, "a", entry));
+        assertEquals(expiration.getMillis(), storageService.putIfAbsentOrExpired(partition, "a", entry)
+                .getExpirationTime().getMillis());
+        assertTrue(storageService.contains(partition, "a"));
+
+        assertFalse(storageService.replace(partition, "a", new ReplayCacheEntry(expiration.plus(1)), entry));
+        assertTrue(storageService.replace(partition, "a", entry, new ReplayCacheEntry(expiration.plus(1))));
+        assertFalse(storageService.remove(partition, "a", entry));
+        assertNotNull(storageService.remove(partition, "a"));
+        assertFalse(storageService.contains(partition, "a"));
+
+        assertNull(storageService.put(partition, "b", entry));
+        assertNotNull(storageService.put(partition, "b", new ReplayCacheEntry(new DateTime().minus(1000))));
+        assertNull(storageService.get(partition, "b"));
+    }
+
+    /**
+     * Test that a replay is detected by a node other than the one that first saw the message, and that the near cache
+     * answers repeated checks locally.
+     */
+    public void testReplayAcrossNodes() {
+        ReplayCache firstNode = new ReplayCache(storageService, 60000);
+        RedisReplayStorageService secondStorageService = new RedisReplayStorageService(connection);
+        assertEquals(storageService.getHashSeed(), secondStorageService.getHashSeed());
+        ReplayCache secondNode = new ReplayCache(secondStorageService, 60000);
+
+        assertFalse(firstNode.isReplay("issuer", "message"));
+        assertTrue(secondNode.isReplay("issuer", "message"));
+
+        int commandCount = server.getCommandCount();
+        assertTrue(firstNode.isReplay("issuer", "message"));
+        assertTrue(secondNode.isReplay("issuer", "message"));
+        assertEquals(commandCount, server.getCommandCount());
+    }
+
+    /**
+     * Test that a batch of checks is answered in order, with entries already in the near cache answered locally.
+     */
+    public void testBatchReplayDetection() {
+        ReplayCache replayCache = new ReplayCache(storageService, 60000);
+        assertFalse(replayCache.isReplay("issuer", "cached"));
+
+        int commandCount = server.getCommandCount();
+        boolean[] replays = replayCache.isReplay(Arrays.asList("issuer", "issuer", "issuer", "issuer"), Arrays.asList(
+                "first", "cached", "second", "first"));
+        assertTrue(Arrays.equals(new boolean[] {false, true, false, true}, replays));
+        assertEquals(commandCount + 3, server.getCommandCount());
+        assertTrue(new ReplayCache(new RedisReplayStorageService(connection), 60000).isReplay("issuer", "second"));
+    }
+
+    /**
+     * Test that concurrent checks pipelined over one connection are each reported as new exactly once.
+     * 
+     * @throws InterruptedException
+     */
+    public void testConcurrentReplayDetection() throws InterruptedException {
+        final ReplayCache replayCache = new ReplayCache(new RedisReplayStorageService(connection,
+                RedisReplayStorageService.DEFAULT_KEY_PREFIX, 0), 60000);
+        final int messages = 500;
+        final int[] newCounts = new int[messages];
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < messages; j++) {
+                        if (!replayCache.isReplay("issuer", "message" + j)) {
+                            synchronized (newCounts) {
+                                newCounts[j]++;
+                            }
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int count : newCounts) {
+            assertEquals(1, count);
+        }
+    }
+}
\ No newline at end of file
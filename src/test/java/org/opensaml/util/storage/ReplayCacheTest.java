@@ -16,6 +16,12 @@
 
 package org.opensaml.util.storage;
 
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
 import junit.framework.TestCase;
 
 import org.opensaml.util.storage.ReplayCache.ReplayCacheEntry;
@@ -80,4 +86,189 @@ public class ReplayCacheTest extends TestCase {
         assertFalse("Message was not replay, previous cache entry should have expired", replayCache.isReplay("test",
                 messageID));
     }
+
+    /**
+     * Test that concurrent checks of the same message IDs from many threads report each message as new exactly once.
+     * 
+     * @throws InterruptedException
+     */
+    public void testConcurrentReplayDetection() throws InterruptedException {
+        assertConcurrentReplayDetection(new ReplayCache(storageEngine, 60000));
+    }
+
+    /**
+     * Test concurrent replay detection backed by a {@link ConcurrentMapBasedStorageService}.
+     * 
+     * @throws InterruptedException
+     */
+    public void testConcurrentReplayDetectionConcurrentStorage() throws InterruptedException {
+        assertConcurrentReplayDetection(new ReplayCache(
+                new ConcurrentMapBasedStorageService<String, ReplayCacheEntry>(), 60000));
+    }
+
+    /**
+     * Test concurrent replay detection backed by an {@link OffHeapReplayStorageService}.
+     * 
+     * @throws InterruptedException
+     */
+    public void testConcurrentReplayDetectionOffHeapStorage() throws InterruptedException {
+        assertConcurrentReplayDetection(new ReplayCache(new OffHeapReplayStorageService(100000), 60000));
+    }
+
+    /**
+     * Test concurrent replay detection with a {@link ReplayFilter} in front of the storage service.
+     * 
+     * @throws InterruptedException
+     */
+    public void testConcurrentReplayDetectionFiltered() throws InterruptedException {
+        assertConcurrentReplayDetection(new ReplayCache(
+                new ConcurrentMapBasedStorageService<String, ReplayCacheEntry>(), null, 60000, new ReplayFilter(
+                        100000, 0.01, 60000)));
+        assertConcurrentReplayDetection(new ReplayCache(new OffHeapReplayStorageService(100000), null, 60000,
+                new ReplayFilter(100000, 0.01, 60000)));
+    }
+
+    /**
+     * Test that a message the filter reports as new is still detected as a replay if storage holds it, for each kind of
+     * storage.
+     */
+    public void testFilterMistake() {
+        OffHeapReplayStorageService hashedStorage = new OffHeapReplayStorageService(1000);
+        ExpiringConcurrentMapStorageService<String, Boolean> expiringStorage =
+                new ExpiringConcurrentMapStorageService<String, Boolean>();
+        ReplayCache[] unfiltered = {new ReplayCache(storageEngine, 10000), new ReplayCache(hashedStorage, 10000),
+                new ReplayCache(expiringStorage, null, 10000)};
+        ReplayCache[] filtered = {new ReplayCache(storageEngine, null, 10000, new ReplayFilter(1000, 0.01, 10000)),
+                new ReplayCache(hashedStorage, null, 10000, new ReplayFilter(1000, 0.01, 10000)),
+                new ReplayCache(expiringStorage, null, 10000, new ReplayFilter(1000, 0.01, 10000))};
+
+        for (int i = 0; i < filtered.length; i++) {
+            assertFalse(unfiltered[i].isReplay("test", messageID));
+            assertTrue("Replay missed by filter was accepted", filtered[i].isReplay("test", messageID));
+            assertFalse(filtered[i].isReplay("test", "other"));
+            assertTrue(unfiltered[i].isReplay("test", "other"));
+        }
+    }
+
+    /**
+     * Test that a filter is rejected if sized for another duration, or used with shared or persistent storage.
+     * 
+     * @throws Exception
+     */
+    public void testInvalidFilter() throws Exception {
+        try {
+            new ReplayCache(storageEngine, null, 10000, new ReplayFilter(1000, 0.01, 5000));
+            fail("Filter sized for a shorter duration was accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        File directory = File.createTempFile("replay", "");
+        directory.delete();
+        MappedFileReplayStorageService persistentStorage = new MappedFileReplayStorageService(directory, 1000);
+        try {
+            new ReplayCache(new InstrumentedStorageService<String, ReplayCacheEntry>(persistentStorage), null, 10000,
+                    new ReplayFilter(1000, 0.01, 10000));
+            fail("Filter in front of persistent storage was accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        } finally {
+            persistentStorage.close();
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    /**
+     * Test replay detection against storage that tracks expiration itself.
+     * 
+     * @throws InterruptedException
+     */
+    public void testReplayExpiringStorage() throws InterruptedException {
+        ExpiringConcurrentMapStorageService<String, Boolean> expiringStorage =
+                new ExpiringConcurrentMapStorageService<String, Boolean>();
+        ReplayCache replayCache = new ReplayCache(expiringStorage, null, 20);
+        assertFalse("Message was not replay, insert into empty cache", replayCache.isReplay("test", messageID));
+        assertTrue("Message was replay", replayCache.isReplay("test", messageID));
+        assertEquals(Boolean.TRUE, expiringStorage.get("replay", "test" + messageID));
+
+        Thread.sleep(50);
+        assertFalse("Message expired from cache, not a replay", replayCache.isReplay("test", messageID));
+
+        assertConcurrentReplayDetection(new ReplayCache(new ExpiringConcurrentMapStorageService<String, Boolean>(),
+                null, 60000));
+    }
+
+    /**
+     * Test batch replay detection, both through the storage service interface and in a single storage operation.
+     */
+    public void testBatchReplay() {
+        assertBatchReplayDetection(new ReplayCache(storageEngine, 10000));
+        assertBatchReplayDetection(new ReplayCache(new OffHeapReplayStorageService(1000), 10000));
+    }
+
+    /**
+     * Checks batches of messages, including a message repeated within a batch and a message checked on its own.
+     * 
+     * @param replayCache the replay cache to check against
+     */
+    private void assertBatchReplayDetection(ReplayCache replayCache) {
+        assertFalse(replayCache.isReplay("test", "single"));
+
+        boolean[] replays = replayCache.isReplay(Arrays.asList("test", "test", "other", "test", "test"), Arrays.asList(
+                "first", "second", "first", "first", "single"));
+        assertTrue(Arrays.equals(new boolean[] {false, false, false, true, true}, replays));
+
+        replays = replayCache.isReplay(Arrays.asList("other", "test"), Arrays.asList("first", "third"));
+        assertTrue(Arrays.equals(new boolean[] {true, false}, replays));
+        assertTrue(replayCache.isReplay("test", "third"));
+    }
+
+    /**
+     * Checks the same message IDs from many threads and asserts that each message is reported as new exactly once.
+     * 
+     * @param replayCache the replay cache to check against
+     * 
+     * @throws InterruptedException
+     */
+    private void assertConcurrentReplayDetection(final ReplayCache replayCache) throws InterruptedException {
+        final int threadCount = 16;
+        final int messageCount = 5000;
+        final AtomicIntegerArray nonReplays = new AtomicIntegerArray(messageCount);
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch startGate = new CountDownLatch(1);
+        final CountDownLatch endGate = new CountDownLatch(threadCount);
+
+        for (int i = 0; i < threadCount; i++) {
+            final int offset = i * (messageCount / threadCount);
+            Thread checker = new Thread() {
+                public void run() {
+                    try {
+                        startGate.await();
+                        for (int j = 0; j < messageCount; j++) {
+                            int message = (offset + j) % messageCount;
+                            if (!replayCache.isReplay("test", messageID + message)) {
+                                nonReplays.incrementAndGet(message);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failures.incrementAndGet();
+                    } finally {
+                        endGate.countDown();
+                    }
+                }
+            };
+            checker.start();
+        }
+
+        startGate.countDown();
+        endGate.await();
+
+        assertEquals("Replay checking threads failed", 0, failures.get());
+        for (int i = 0; i < messageCount; i++) {
+            assertEquals("Message " + i + " should have been reported as new exactly once", 1, nonReplays.get(i));
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,86 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link ReplayFilter}.
+ */
+public class ReplayFilterTest extends TestCase {
+
+    private long[] hash;
+
+    /** {@inheritDoc} */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        hash = new long[MurmurHash3.STATE_LENGTH];
+    }
+
+    /**
+     * Test that added messages are reported as possible hits and that new messages are rarely reported as such.
+     */
+    public void testFalsePositiveRate() {
+        ReplayFilter filter = new ReplayFilter(20000, 0.01, 60000);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 10000; i++) {
+            add(filter, "message" + i, now);
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertFalse(add(filter, "message" + i, now));
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (!add(filter, "other" + i, now)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("False positives: " + falsePositives, falsePositives < 200);
+    }
+
+    /**
+     * Test that messages are retained for the entry duration and forgotten once their generation is reused.
+     */
+    public void testRotation() {
+        ReplayFilter filter = new ReplayFilter(1000, 0.01, 1000);
+        long now = System.currentTimeMillis();
+        assertTrue(add(filter, "message", now));
+        assertFalse(add(filter, "message", now + 1000));
+        assertTrue(add(filter, "other", now + 1000));
+        assertTrue(add(filter, "message", now + 3000));
+    }
+
+    /**
+     * Adds a message to a filter, signalling that it has been recorded if it is new.
+     * 
+     * @param filter the filter
+     * @param message the message
+     * @param now the current time
+     * 
+     * @return whether the message was new
+     */
+    private boolean add(ReplayFilter filter, String message, long now) {
+        MurmurHash3.hash(0, "replay", "issuer", message, hash);
+        if (filter.add(hash[0], hash[1], now)) {
+            filter.recorded(hash[0], hash[1]);
+            return true;
+        }
+        return false;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,132 @@
+/*
+ * Copyright [2007] [University Corporation for Advanced Internet Development, Inc.]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensaml.util.storage;
+
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTime;
+import org.opensaml.util.storage.ReplayCache.ReplayCacheEntry;
+
+/**
+ * Tests {@link StorageServiceSnapshotter}.
+ */
+public class StorageServiceSnapshotterTest extends TestCase {
+
+    private File snapshotFile;
+
+    /** {@inheritDoc} */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        snapshotFile = File.createTempFile("storage", ".snapshot");
+        snapshotFile.delete();
+    }
+
+    /** {@inheritDoc} */
+    protected void tearDown() throws Exception {
+        snapshotFile.delete();
+
+        super.tearDown();
+    }
+
+    /**
+     * Test that the live entries of the selected partitions are restored, without replacing existing entries.
+     * 
+     * @throws Exception
+     */
+    public void testSnapshotAndRestore() throws Exception {
+        MapBasedStorageService<String, ReplayCacheEntry> store = new MapBasedStorageService<String, ReplayCacheEntry>();
+        DateTime expiration = new DateTime().plus(60000);
+        store.put("replay", "a", new ReplayCacheEntry(expiration));
+        store.put("replay", "b", new ReplayCacheEntry(expiration));
+        store.put("replay", "expired", new ReplayCacheEntry(new DateTime().minus(1000)));
+        store.put("other", "a", new ReplayCacheEntry(expiration));
+
+        StorageServiceSnapshotter<String, ReplayCacheEntry> snapshotter = new StorageServiceSnapshotter<String,
+                ReplayCacheEntry>(store, new ReplayCacheEntryCodec(), snapshotFile, Collections.singleton("replay"));
+        assertEquals(0, snapshotter.restore());
+        assertEquals(2, snapshotter.snapshot());
+        assertTrue(snapshotFile.exists());
+
+        MapBasedStorageService<String, ReplayCacheEntry> restoredStore =
+                new MapBasedStorageService<String, ReplayCacheEntry>();
+        DateTime laterExpiration = expiration.plus(1000);
+        restoredStore.put("replay", "b", new ReplayCacheEntry(laterExpiration));
+        StorageServiceSnapshotter<String, ReplayCacheEntry> restorer = new StorageServiceSnapshotter<String,
+                ReplayCacheEntry>(restoredStore, new ReplayCacheEntryCodec(), snapshotFile, null);
+        assertEquals(1, restorer.restore());
+        assertEquals(expiration, restoredStore.get("replay", "a").getExpirationTime());
+        assertEquals(laterExpiration, restoredStore.get("replay", "b").getExpirationTime());
+        assertFalse(restoredStore.contains("replay", "expired"));
+        assertFalse(restoredStore.contains("other", "a"));
+
+        // a replay cache over the restored store recognizes messages seen before the restart
+        assertTrue(new ReplayCache(restoredStore, 60000).isReplay("", "a"));
+    }
+
+    /**
+     * Test that the expiration times of entries in an expiring store are saved and restored.
+     * 
+     * @throws Exception
+     */
+    public void testExpiringStore() throws Exception {
+        ExpiringConcurrentMapStorageService<String, ReplayCacheEntry> store =
+                new ExpiringConcurrentMapStorageService<String, ReplayCacheEntry>();
+        long expiration = System.currentTimeMillis() + 60000;
+        ReplayCacheEntry entry = new ReplayCacheEntry(new DateTime(expiration + 60000));
+        store.put("replay", "a", entry, expiration);
+        store.put("replay", "b", entry, System.currentTimeMillis() - 1000);
+        new StorageServiceSnapshotter<String, ReplayCacheEntry>(store, new ReplayCacheEntryCodec(), snapshotFile,
+                null).snapshot();
+
+        ExpiringConcurrentMapStorageService<String, ReplayCacheEntry> restoredStore =
+                new ExpiringConcurrentMapStorageService<String, ReplayCacheEntry>();
+        assertEquals(1, new StorageServiceSnapshotter<String, ReplayCacheEntry>(restoredStore,
+                new ReplayCacheEntryCodec(), snapshotFile, null).restore());
+        assertEquals(expiration, restoredStore.getExpirationTime("replay", "a"));
+        assertFalse(restoredStore.contains("replay", "b"));
+    }
+
+    /**
+     * Test that a snapshot failing with a runtime exception leaves neither a partial snapshot nor a temporary file.
+     * 
+     * @throws Exception
+     */
+    public void testFailedSnapshot() throws Exception {
+        MapBasedStorageService<String, ReplayCacheEntry> store = new MapBasedStorageService<String, ReplayCacheEntry>();
+        store.put("replay", "a", new ReplayCacheEntry(new DateTime().plus(60000)));
+        ReplayCacheEntryCodec failingCodec = new ReplayCacheEntryCodec() {
+            public void writeKey(DataOutput out, String key) throws IOException {
+                throw new IllegalStateException("codec failure");
+            }
+        };
+
+        try {
+            new StorageServiceSnapshotter<String, ReplayCacheEntry>(store, failingCodec, snapshotFile, null).snapshot();
+            fail("snapshot should have failed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertFalse(snapshotFile.exists());
+        assertFalse(new File(snapshotFile.getPath() + ".tmp").exists());
+    }
+}